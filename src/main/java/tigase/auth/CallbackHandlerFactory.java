@@ -23,6 +23,7 @@ import tigase.auth.impl.ScramCallbackHandler;
 import tigase.auth.mechanisms.*;
 import tigase.db.NonAuthUserRepository;
 import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.config.ConfigField;
 import tigase.xmpp.XMPPResourceConnection;
 
 import javax.security.auth.callback.CallbackHandler;
@@ -38,6 +39,9 @@ public class CallbackHandlerFactory
 
 	private static final String CALLBACK_HANDLER_KEY = "callbackhandler";
 
+	@ConfigField(desc = "Store SCRAM credentials derived from plain password after successful login", alias = "scram-persist-derived-credentials")
+	private boolean persistDerivedScramCredentials = false;
+
 	@Override
 	public CallbackHandler create(String mechanismName, XMPPResourceConnection session, NonAuthUserRepository repo)
 			throws ClassNotFoundException, InstantiationException, IllegalAccessException {
@@ -70,6 +74,10 @@ public class CallbackHandlerFactory
 			((MechanismNameAware) handler).setMechanismName(mechanismName);
 		}
 
+		if (handler instanceof ScramCallbackHandler) {
+			((ScramCallbackHandler) handler).setPersistDerivedCredentials(persistDerivedScramCredentials);
+		}
+
 		return handler;
 	}
 
@@ -28,6 +28,7 @@ import tigase.auth.credentials.entries.ScramCredentialsEntry;
 import tigase.auth.mechanisms.AbstractSasl;
 import tigase.auth.mechanisms.AbstractSaslSCRAM;
 import tigase.db.AuthRepository;
+import tigase.db.TigaseDBException;
 import tigase.util.Base64;
 import tigase.xmpp.XMPPResourceConnection;
 import tigase.xmpp.jid.BareJID;
@@ -59,6 +60,8 @@ public class ScramCallbackHandler
 	private String domain;
 	private BareJID jid = null;
 	private String mechanismName;
+	private boolean persistDerivedCredentials = false;
+	private PlainCredentialsEntry plainCredentialsEntry;
 	private AuthRepository repo;
 	private XMPPResourceConnection session;
 	private String credentialId = null;
@@ -76,6 +79,14 @@ public class ScramCallbackHandler
 		}
 	}
 
+	/**
+	 * Enables storing SCRAM credentials in the repository after successful authentication of a user for which only a
+	 * plain password is stored, so the costly derivation of the salted password is not repeated on every login.
+	 */
+	public void setPersistDerivedCredentials(boolean persistDerivedCredentials) {
+		this.persistDerivedCredentials = persistDerivedCredentials;
+	}
+
 	@Override
 	public void setMechanismName(String mechanismName) {
 		this.mechanismName = mechanismName;
@@ -119,6 +130,10 @@ public class ScramCallbackHandler
 		}
 		authCallback.setAuthorized(true);
 		session.removeSessionData(AUTH_JID);
+
+		if (persistDerivedCredentials && plainCredentialsEntry != null) {
+			persistDerivedCredentials();
+		}
 	}
 
 	protected void handleCallback(Callback callback) throws UnsupportedCallbackException, IOException {
@@ -257,8 +272,8 @@ public class ScramCallbackHandler
 				if (entry instanceof ScramCredentialsEntry) {
 					credentialsEntry = (ScramCredentialsEntry) entry;
 				} else if (entry instanceof PlainCredentialsEntry) {
-					credentialsEntry = new ScramCredentialsEntry(mech.replace("SCRAM-", ""),
-																 (PlainCredentialsEntry) entry);
+					plainCredentialsEntry = (PlainCredentialsEntry) entry;
+					credentialsEntry = new ScramCredentialsEntry(mech.replace("SCRAM-", ""), plainCredentialsEntry);
 				}
 
 				loggingInForbidden = !credentials.canLogin();
@@ -269,6 +284,27 @@ public class ScramCallbackHandler
 		credentialsFetched = true;
 	}
 
+	private void persistDerivedCredentials() {
+		String mech = mechanismName.endsWith("-PLUS") ? mechanismName.substring(0, mechanismName.length() -
+				"-PLUS".length()) : mechanismName;
+		if (!repo.isMechanismEncoded(domain, mech)) {
+			return;
+		}
+		try {
+			// credentials are encoded again by all configured encoders, so
+			// SCRAM entries will be used on next login
+			repo.updateCredential(jid, credentialId, plainCredentialsEntry.getPassword());
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Stored {0} credentials for user {1} with credentialId {2}",
+						new Object[]{mech, jid, credentialId});
+			}
+		} catch (TigaseDBException ex) {
+			log.log(Level.FINE, "Could not store credentials for user " + jid + " with credentialId " + credentialId,
+					ex);
+		}
+		plainCredentialsEntry = null;
+	}
+
 	private void setJid(BareJID jid) {
 		this.jid = jid;
 		if (jid != null) {
@@ -25,6 +25,7 @@ import tigase.util.Base64;
 
 import javax.crypto.Mac;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.NameCallback;
@@ -37,6 +38,7 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 import java.util.logging.Level;
@@ -57,6 +59,9 @@ public abstract class AbstractSaslSCRAM
 			"^(?<gs2Header>(?:y|n|p=(?<cbName>[a-zA-z0-9.-]+))," +
 					"(?:a=(?<authzid>(?:[^,\\x00-\\x20\\x2C]|=2C|=3D)+))?,)(?<clientFirstBare>(?<mext>m=[^\\000=]+,)" +
 					"?n=(?<username>(?:[^,\\x00-\\x20\\x2C]|=2C|=3D)+),r=(?<nonce>[^,\\x00-\\x20\\x2C]+)(?:,.*)?)$");
+	private final static byte[] INT_1 = {0, 0, 0, 1};
+	private final static ThreadLocal<Map<String, MessageDigest>> DIGESTS = ThreadLocal.withInitial(HashMap::new);
+	private final static ThreadLocal<Map<String, Mac>> MACS = ThreadLocal.withInitial(HashMap::new);
 	private final static Pattern CLIENT_LAST_MESSAGE = Pattern.compile("^(?<withoutProof>c=(?<cb>[a-zA-Z0-9/+=]+)," +
 																			   "(?:r=(?<nonce>[^,\\x00-\\x20\\x2C]+))(?:,.*)?),p=(?<proof>[a-zA-Z0-9/+=]+)$");
 
@@ -107,21 +112,29 @@ public abstract class AbstractSaslSCRAM
 		}
 		final SecretKeySpec k = new SecretKeySpec(password, "Hmac" + algorithm);
 
-		byte[] z = new byte[salt.length + 4];
-		System.arraycopy(salt, 0, z, 0, salt.length);
-		System.arraycopy(new byte[]{0, 0, 0, 1}, 0, z, salt.length, 4);
+		// single Mac instance is used for all iterations and its output buffer
+		// is reused to avoid allocations in the loop
+		final Mac mac = getMac(k.getAlgorithm());
+		mac.init(k);
+		mac.update(salt);
+		mac.update(INT_1);
 
-		byte[] u = hmac(k, z);
-		byte[] result = new byte[u.length];
-		System.arraycopy(u, 0, result, 0, result.length);
+		byte[] u = mac.doFinal();
+		byte[] result = u.clone();
 
-		int i = 1;
-		while (i < iterations) {
-			u = hmac(k, u);
-			for (int j = 0; j < u.length; j++) {
-				result[j] ^= u[j];
+		try {
+			int i = 1;
+			while (i < iterations) {
+				mac.update(u);
+				mac.doFinal(u, 0);
+				for (int j = 0; j < u.length; j++) {
+					result[j] ^= u[j];
+				}
+				++i;
 			}
-			++i;
+		} catch (ShortBufferException ex) {
+			// should not happen, as buffer has the size of MAC output
+			throw new IllegalStateException(ex);
 		}
 
 		return result;
@@ -129,11 +142,35 @@ public abstract class AbstractSaslSCRAM
 
 	protected static byte[] hmac(final SecretKey key, byte[] data)
 			throws NoSuchAlgorithmException, InvalidKeyException {
-		Mac mac = Mac.getInstance(key.getAlgorithm());
+		Mac mac = getMac(key.getAlgorithm());
 		mac.init(key);
 		return mac.doFinal(data);
 	}
 
+	/**
+	 * Returns instance of <code>Mac</code> cached for current thread, as obtaining new instance from security providers
+	 * is expensive.
+	 */
+	protected static Mac getMac(String algorithm) throws NoSuchAlgorithmException {
+		Map<String, Mac> macs = MACS.get();
+		Mac mac = macs.get(algorithm);
+		if (mac == null) {
+			mac = Mac.getInstance(algorithm);
+			macs.put(algorithm, mac);
+		}
+		return mac;
+	}
+
+	protected static MessageDigest getMessageDigest(String algorithm) throws NoSuchAlgorithmException {
+		Map<String, MessageDigest> digests = DIGESTS.get();
+		MessageDigest digest = digests.get(algorithm);
+		if (digest == null) {
+			digest = MessageDigest.getInstance(algorithm);
+			digests.put(algorithm, digest);
+		}
+		return digest;
+	}
+
 	public static byte[] normalize(String str) {
 		return str.getBytes(CHARSET);
 	}
@@ -224,7 +261,7 @@ public abstract class AbstractSaslSCRAM
 	}
 
 	protected byte[] h(byte[] data) throws NoSuchAlgorithmException {
-		MessageDigest digest = MessageDigest.getInstance(algorithm);
+		MessageDigest digest = getMessageDigest(algorithm);
 		return digest.digest(data);
 	}
 
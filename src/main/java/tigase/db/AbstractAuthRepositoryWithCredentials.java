@@ -50,6 +50,17 @@ public abstract class AbstractAuthRepositoryWithCredentials
 		return null;
 	}
 
+	@Override
+	public boolean isMechanismEncoded(String domain, String mechanism) {
+		if (credentialsEncoder == null) {
+			return false;
+		}
+		if (mechanism.endsWith("-PLUS")) {
+			mechanism = mechanism.substring(0, mechanism.length() - "-PLUS".length());
+		}
+		return credentialsEncoder.getSupportedMechanisms().contains(mechanism);
+	}
+
 	@Override
 	public boolean isMechanismSupported(String domain, String mechanism) {
 		if ("PLAIN".equals(mechanism)) {
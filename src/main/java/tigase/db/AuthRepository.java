@@ -201,6 +201,19 @@ public interface AuthRepository
 	 */
 	long getUsersCount(String domain);
 
+	/**
+	 * Checks if credentials for the mechanism are stored by {@link #updateCredential(BareJID, String, String)}, ie.
+	 * an encoder for this mechanism is configured.
+	 *
+	 * @param domain for which check is done
+	 * @param mechanism name of the mechanism
+	 *
+	 * @return <code>true</code> if credentials for the mechanism are stored
+	 */
+	default boolean isMechanismEncoded(String domain, String mechanism) {
+		return false;
+	}
+
 	default boolean isMechanismSupported(String domain, String mechanism) {
 		return "PLAIN".equals(mechanism);
 	}
@@ -138,6 +138,17 @@ public abstract class AuthRepositoryMDImpl
 		log.info("Multi-domain repository pool initialized: " + resource_uri + ", params: " + params);
 	}
 
+	@Override
+	public boolean isMechanismEncoded(String domain, String mechanism) {
+		AuthRepository repo = getRepo(domain);
+		if (repo != null) {
+			return repo.isMechanismEncoded(domain, mechanism);
+		} else {
+			log.log(Level.WARNING, "Couldn't obtain user repository for domain: " + domain + ", not even default one!");
+			return false;
+		}
+	}
+
 	@Override
 	public boolean isMechanismSupported(String domain, String mechanism) {
 		AuthRepository repo = getRepo(domain);
@@ -182,6 +182,22 @@ public class AuthRepositoryPool
 	public void initRepository(String resource_uri, Map<String, String> params) throws DBInitException {
 	}
 
+	@Override
+	public boolean isMechanismEncoded(String domain, String mechanism) {
+		AuthRepository repo = takeRepo();
+
+		if (repo != null) {
+			try {
+				return repo.isMechanismEncoded(domain, mechanism);
+			} finally {
+				addRepo(repo);
+			}
+		} else {
+			log.warning("repo is NULL, pool empty? - " + repoPool.size());
+			return false;
+		}
+	}
+
 	@Override
 	public boolean isMechanismSupported(String domain, String mechanism) {
 		AuthRepository repo = takeRepo();
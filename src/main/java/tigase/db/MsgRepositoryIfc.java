@@ -22,6 +22,7 @@ import tigase.xml.Element;
 import tigase.xmpp.XMPPResourceConnection;
 import tigase.xmpp.jid.JID;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
@@ -40,6 +41,30 @@ public interface MsgRepositoryIfc<T extends DataSource>
 
 	void setCondition(ReentrantLock lock, Condition condition);
 
+	/**
+	 * Loads up to <code>limit</code> already expired messages with an option to delete them from repository in a
+	 * single batch. As {@link #getMessageExpired(long, boolean)} this is blocking method and returns empty list only if
+	 * there was no expired message.
+	 *
+	 * @param limit maximal number of messages to return
+	 * @param delete boolean parameter controlling whether messages should be removed from repository after they
+	 * retrieved.
+	 *
+	 * @return list of expired messages
+	 */
+	default List<Element> getMessagesExpired(int limit, boolean delete) {
+		Element elem = getMessageExpired(0, delete);
+		return elem == null ? Collections.emptyList() : Collections.singletonList(elem);
+	}
+
+	/**
+	 * Returns number of messages loaded from repository which are waiting for expiration or for processing of
+	 * expiration.
+	 */
+	default int getExpiredQueueSize() {
+		return 0;
+	}
+
 	Queue<Element> loadMessagesToJID(List<String> db_ids, XMPPResourceConnection session,
 													 boolean delete, MsgRepository.OfflineMessagesProcessor proc)
 			throws UserNotFoundException;
@@ -512,6 +512,11 @@ public class JDBCRepository
 		}
 	}
 
+	@Override
+	public boolean isMechanismEncoded(String domain, String mechanism) {
+		return auth.isMechanismEncoded(domain, mechanism);
+	}
+
 	@Override
 	public boolean isMechanismSupported(String domain, String mechanism) {
 		return auth.isMechanismSupported(domain, mechanism);
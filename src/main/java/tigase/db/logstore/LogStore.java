@@ -0,0 +1,1031 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.logstore;
+
+import tigase.db.TigaseDBException;
+import tigase.db.UserExistsException;
+import tigase.db.UserNotFoundException;
+import tigase.stats.StatisticsList;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded, log-structured storage of users data. Every modification is appended as a single record to the active
+ * segment file in the store directory and the store keeps in memory only an index of users, nodes and keys pointing
+ * to values in segment files. Small values are kept directly in the index, so frequently used short entries (ie.
+ * password or account status) are read without touching the disk.
+ * <br>
+ * Operations on different users do not block each other: users are assigned to one of the striped read-write locks
+ * and the only shared section is appending of an already serialized record to the active segment. Reads of values
+ * are done with positional reads and are executed concurrently.
+ * <br>
+ * Overwritten and removed entries are left in segment files as garbage. When the amount of garbage exceeds the
+ * configured ratio of the store size, the store is compacted in background: current state of every user is written
+ * again to new segments and old segment files are removed. Records of a rewritten user are enclosed within begin and
+ * commit records and the rewritten state replaces the previous one only if the commit record is found, so a crash
+ * during compaction does not lose data of the user which was being rewritten.
+ * <br>
+ * Each record is protected with CRC32 checksum and a record torn by a crash (ie. partially written at the end of the
+ * last segment) is discarded when the store is opened. Broken records in any other segment mean that the store is
+ * corrupted and it is not opened.
+ */
+public class LogStore {
+
+	public static final int COMPACTION_MIN_SIZE_VAL = 64 * 1024 * 1024;
+
+	public static final float COMPACTION_RATIO_VAL = 0.5f;
+
+	public static final int INLINE_SIZE_VAL = 128;
+
+	public static final int SEGMENT_SIZE_VAL = 64 * 1024 * 1024;
+
+	public static final int STRIPES_VAL = 256;
+
+	private static final Logger log = Logger.getLogger(LogStore.class.getName());
+
+	private static final String LOCK_FILE = "store.lock";
+	private static final byte OP_ADD_USER = 1;
+	private static final byte OP_REMOVE_DATA = 4;
+	private static final byte OP_REMOVE_NODE = 5;
+	private static final byte OP_REMOVE_USER = 2;
+	private static final byte OP_REWRITE_BEGIN = 6;
+	private static final byte OP_REWRITE_COMMIT = 8;
+	private static final byte OP_REWRITE_DATA = 7;
+	private static final byte OP_SET_DATA = 3;
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private final Object appendLock = new Object();
+	private final AtomicBoolean compacting = new AtomicBoolean(false);
+	private final ExecutorService compactionExecutor;
+	private final AtomicLong compactions = new AtomicLong();
+	private final long compactionMinSize;
+	private final float compactionRatio;
+	private final Path directory;
+	private final AtomicLong garbageSize = new AtomicLong();
+	private final ConcurrentHashMap<String, UserEntry> index = new ConcurrentHashMap<>();
+	/**
+	 * Rewrites of users started but not yet committed in the already replayed records, used only while loading.
+	 */
+	private final Map<String, UserEntry> pendingRewrites = new HashMap<>();
+	private final int inlineSize;
+	private final FileChannel lockChannel;
+	private final FileLock lockFile;
+	private final ReentrantReadWriteLock[] locks;
+	private final long segmentSize;
+	private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+	private final boolean sync;
+	private final AtomicLong totalSize = new AtomicLong();
+	private volatile Segment active;
+	private volatile boolean closed = false;
+
+	/**
+	 * Opens store with default settings.
+	 */
+	public LogStore(Path directory) throws IOException {
+		this(directory, STRIPES_VAL, SEGMENT_SIZE_VAL, INLINE_SIZE_VAL, false, COMPACTION_RATIO_VAL,
+			 COMPACTION_MIN_SIZE_VAL);
+	}
+
+	/**
+	 * Opens store located in the directory, creating it if needed, and rebuilds index from its segment files.
+	 *
+	 * @param stripes number of locks shared by users
+	 * @param segmentSize size in bytes after which new segment file is started
+	 * @param inlineSize maximal size in bytes of values kept in memory
+	 * @param sync if <code>true</code> every modification is forced to the storage device before it is
+	 * acknowledged, otherwise it is only passed to the operating system
+	 * @param compactionRatio ratio of garbage in the store which triggers compaction
+	 * @param compactionMinSize size in bytes of garbage below which compaction is not started
+	 */
+	public LogStore(Path directory, int stripes, long segmentSize, int inlineSize, boolean sync, float compactionRatio,
+					long compactionMinSize) throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.inlineSize = inlineSize;
+		this.sync = sync;
+		this.compactionRatio = compactionRatio;
+		this.compactionMinSize = compactionMinSize;
+		this.locks = new ReentrantReadWriteLock[Math.max(1, stripes)];
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new ReentrantReadWriteLock();
+		}
+
+		Files.createDirectories(directory);
+		lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+									   StandardOpenOption.WRITE);
+		lockFile = lockChannel.tryLock();
+		if (lockFile == null) {
+			lockChannel.close();
+			throw new IOException("Store " + directory + " is already opened by other process");
+		}
+
+		try {
+			load();
+		} catch (IOException ex) {
+			closeFiles();
+			throw ex;
+		}
+		compactionExecutor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "logstore-compaction");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public void addUser(String user) throws UserExistsException, TigaseDBException {
+		Lock lock = writeLock(user);
+		lock.lock();
+		try {
+			if (index.containsKey(user)) {
+				throw new UserExistsException("User: " + user + " already exists.");
+			}
+			createUser(user);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void removeUser(String user) throws UserNotFoundException, TigaseDBException {
+		Lock lock = writeLock(user);
+		lock.lock();
+		try {
+			UserEntry entry = getUserEntry(user, false);
+			int size = append(encode(OP_REMOVE_USER, user, null, null, null)).size;
+			index.remove(user);
+			garbageSize.addAndGet(entry.size + size);
+		} finally {
+			lock.unlock();
+		}
+		compactIfNeeded();
+	}
+
+	public boolean userExists(String user) {
+		return index.containsKey(user);
+	}
+
+	public List<String> getUsers() {
+		return new ArrayList<>(index.keySet());
+	}
+
+	public long getUsersCount() {
+		return index.size();
+	}
+
+	/**
+	 * Sets values of the key, replacing the current ones or appending passed values to them.
+	 */
+	public void setData(String user, String node, String key, String[] values, boolean append, boolean autoCreate)
+			throws UserNotFoundException, TigaseDBException {
+		String path = normalize(node);
+		Lock lock = writeLock(user);
+		lock.lock();
+		try {
+			UserEntry entry = getUserEntry(user, autoCreate);
+			Map<String, Value> keys = entry.nodes.get(path);
+			Value old = keys == null ? null : keys.get(key);
+			if (append && old != null) {
+				String[] current = read(old);
+				String[] all = new String[current.length + values.length];
+				System.arraycopy(current, 0, all, 0, current.length);
+				System.arraycopy(values, 0, all, current.length, values.length);
+				values = all;
+			}
+			Record record = encode(OP_SET_DATA, user, path, key, values);
+			Value value = createValue(append(record), record, values);
+			if (keys == null) {
+				keys = new HashMap<>();
+				entry.nodes.put(path, keys);
+			}
+			keys.put(key, value);
+			entry.size += value.size;
+			if (old != null) {
+				entry.size -= old.size;
+				garbageSize.addAndGet(old.size);
+			}
+		} finally {
+			lock.unlock();
+		}
+		compactIfNeeded();
+	}
+
+	/**
+	 * Returns values of the key or <code>null</code> if the key is not set.
+	 */
+	public String[] getData(String user, String node, String key, boolean autoCreate)
+			throws UserNotFoundException, TigaseDBException {
+		if (autoCreate && !index.containsKey(user)) {
+			createUserIfMissing(user);
+		}
+		Lock lock = readLock(user);
+		lock.lock();
+		try {
+			Map<String, Value> keys = getUserEntry(user, false).nodes.get(normalize(node));
+			Value value = keys == null ? null : keys.get(key);
+			return value == null ? null : read(value);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns keys set in the node or <code>null</code> if there is no such node.
+	 */
+	public String[] getKeys(String user, String node, boolean autoCreate)
+			throws UserNotFoundException, TigaseDBException {
+		if (autoCreate && !index.containsKey(user)) {
+			createUserIfMissing(user);
+		}
+		Lock lock = readLock(user);
+		lock.lock();
+		try {
+			Map<String, Value> keys = getUserEntry(user, false).nodes.get(normalize(node));
+			return keys == null ? null : keys.keySet().toArray(new String[keys.size()]);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns names of direct subnodes of the node or <code>null</code> if there are no subnodes.
+	 */
+	public String[] getSubnodes(String user, String node, boolean autoCreate)
+			throws UserNotFoundException, TigaseDBException {
+		if (autoCreate && !index.containsKey(user)) {
+			createUserIfMissing(user);
+		}
+		String path = normalize(node);
+		String prefix = path.isEmpty() ? "" : path + "/";
+		Lock lock = readLock(user);
+		lock.lock();
+		try {
+			Set<String> subnodes = new LinkedHashSet<>();
+			for (String nodePath : getUserEntry(user, false).nodes.keySet()) {
+				if (nodePath.length() > prefix.length() && nodePath.startsWith(prefix)) {
+					int idx = nodePath.indexOf('/', prefix.length());
+					subnodes.add(idx < 0 ? nodePath.substring(prefix.length()) : nodePath.substring(prefix.length(), idx));
+				}
+			}
+			return subnodes.isEmpty() ? null : subnodes.toArray(new String[subnodes.size()]);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void removeData(String user, String node, String key) throws UserNotFoundException, TigaseDBException {
+		String path = normalize(node);
+		Lock lock = writeLock(user);
+		lock.lock();
+		try {
+			UserEntry entry = getUserEntry(user, false);
+			Map<String, Value> keys = entry.nodes.get(path);
+			if (keys == null || !keys.containsKey(key)) {
+				return;
+			}
+			int size = append(encode(OP_REMOVE_DATA, user, path, key, null)).size;
+			long removed = entry.removeKey(path, key);
+			garbageSize.addAndGet(removed + size);
+		} finally {
+			lock.unlock();
+		}
+		compactIfNeeded();
+	}
+
+	/**
+	 * Removes the node with all its keys and subnodes.
+	 */
+	public void removeSubnode(String user, String node) throws UserNotFoundException, TigaseDBException {
+		String path = normalize(node);
+		Lock lock = writeLock(user);
+		lock.lock();
+		try {
+			UserEntry entry = getUserEntry(user, false);
+			if (!entry.hasNode(path)) {
+				return;
+			}
+			int size = append(encode(OP_REMOVE_NODE, user, path, null, null)).size;
+			long removed = entry.removeNode(path);
+			garbageSize.addAndGet(removed + size);
+		} finally {
+			lock.unlock();
+		}
+		compactIfNeeded();
+	}
+
+	/**
+	 * Writes current state of all users to new segments and removes old segment files. Modifications are not blocked
+	 * during compaction, only users which are being rewritten at the moment.
+	 */
+	public void compact() throws TigaseDBException {
+		if (!compacting.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			long start = System.currentTimeMillis();
+			long sizeBefore = totalSize.get();
+			List<Segment> oldSegments;
+			synchronized (appendLock) {
+				ensureOpen();
+				oldSegments = new ArrayList<>(segments.values());
+				roll();
+			}
+			for (String user : index.keySet()) {
+				rewrite(user);
+			}
+			synchronized (appendLock) {
+				// rewritten data has to be on the storage device before the only other copy of it is removed
+				for (Segment segment : segments.values()) {
+					if (!oldSegments.contains(segment)) {
+						segment.channel.force(false);
+					}
+				}
+				syncDirectory();
+				for (Segment segment : oldSegments) {
+					segments.remove(segment.id);
+					totalSize.addAndGet(-segment.size);
+					segment.delete();
+				}
+			}
+			garbageSize.set(totalSize.get() - getLiveSize());
+			compactions.incrementAndGet();
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Compacted store {0} in {1}ms, size before: {2}, after: {3}",
+						new Object[]{directory, System.currentTimeMillis() - start, sizeBefore, totalSize.get()});
+			}
+		} catch (IOException ex) {
+			throw new TigaseDBException("Could not compact store " + directory, ex);
+		} finally {
+			compacting.set(false);
+		}
+	}
+
+	/**
+	 * Forces all modifications to the storage device.
+	 */
+	public void flush() throws IOException {
+		synchronized (appendLock) {
+			if (!closed) {
+				active.channel.force(false);
+			}
+		}
+	}
+
+	public void close() throws IOException {
+		compactionExecutor.shutdown();
+		synchronized (appendLock) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			active.channel.force(false);
+			closeFiles();
+		}
+	}
+
+	public long getGarbageSize() {
+		return Math.max(0, garbageSize.get());
+	}
+
+	public int getSegmentsCount() {
+		synchronized (appendLock) {
+			return segments.size();
+		}
+	}
+
+	public long getSize() {
+		return totalSize.get();
+	}
+
+	public void getStatistics(String compName, StatisticsList list) {
+		list.add(compName, "Users", getUsersCount(), Level.FINE);
+		list.add(compName, "Segments", getSegmentsCount(), Level.FINE);
+		list.add(compName, "Size", getSize(), Level.FINE);
+		list.add(compName, "Garbage size", getGarbageSize(), Level.FINE);
+		list.add(compName, "Compactions", compactions.get(), Level.FINER);
+	}
+
+	private void compactIfNeeded() {
+		long garbage = garbageSize.get();
+		if (garbage < compactionMinSize || garbage < totalSize.get() * compactionRatio || compacting.get() || closed) {
+			return;
+		}
+		compactionExecutor.execute(() -> {
+			try {
+				compact();
+			} catch (TigaseDBException ex) {
+				log.log(Level.WARNING, "Compaction of store " + directory + " failed", ex);
+			}
+		});
+	}
+
+	/**
+	 * Returns size of records which are needed to restore current state of all users.
+	 */
+	private long getLiveSize() {
+		long size = 0;
+		for (Map.Entry<String, UserEntry> e : index.entrySet()) {
+			Lock lock = readLock(e.getKey());
+			lock.lock();
+			try {
+				size += e.getValue().size;
+			} finally {
+				lock.unlock();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Forces entries of the store directory to the storage device, so newly created segment files are not lost.
+	 */
+	private void syncDirectory() {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException ex) {
+			// not every platform allows to open and force a directory
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Could not sync directory " + directory, ex);
+			}
+		}
+	}
+
+	/**
+	 * Writes current state of the user as a rewrite which is applied during replay only if its commit record was
+	 * written, as until then the previous records are the only complete copy of the user data.
+	 */
+	private void rewrite(String user) throws TigaseDBException {
+		Lock lock = writeLock(user);
+		lock.lock();
+		try {
+			UserEntry entry = index.get(user);
+			if (entry == null) {
+				return;
+			}
+			UserEntry rewritten = new UserEntry();
+			rewritten.size = append(encode(OP_REWRITE_BEGIN, user, null, null, null)).size;
+			for (Map.Entry<String, Map<String, Value>> node : entry.nodes.entrySet()) {
+				Map<String, Value> keys = new HashMap<>();
+				for (Map.Entry<String, Value> key : node.getValue().entrySet()) {
+					String[] values = read(key.getValue());
+					Record record = encode(OP_REWRITE_DATA, user, node.getKey(), key.getKey(), values);
+					Value value = createValue(append(record), record, values);
+					keys.put(key.getKey(), value);
+					rewritten.size += value.size;
+				}
+				rewritten.nodes.put(node.getKey(), keys);
+			}
+			rewritten.size += append(encode(OP_REWRITE_COMMIT, user, null, null, null)).size;
+			index.put(user, rewritten);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void createUser(String user) throws TigaseDBException {
+		UserEntry entry = new UserEntry();
+		entry.size = append(encode(OP_ADD_USER, user, null, null, null)).size;
+		index.put(user, entry);
+	}
+
+	private void createUserIfMissing(String user) throws TigaseDBException {
+		Lock lock = writeLock(user);
+		lock.lock();
+		try {
+			if (!index.containsKey(user)) {
+				createUser(user);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private UserEntry getUserEntry(String user, boolean autoCreate) throws UserNotFoundException, TigaseDBException {
+		UserEntry entry = index.get(user);
+		if (entry == null) {
+			if (!autoCreate) {
+				throw new UserNotFoundException("User: " + user + " has not been found in repository.");
+			}
+			createUser(user);
+			entry = index.get(user);
+		}
+		return entry;
+	}
+
+	private Value createValue(Position position, Record record, String[] values) {
+		if (record.valuesLength <= inlineSize) {
+			return new Value(values, record.size);
+		}
+		return new Value(position.segment, position.offset + RECORD_HEADER_SIZE + record.valuesOffset,
+						 record.valuesLength, record.size);
+	}
+
+	private String[] read(Value value) throws TigaseDBException {
+		if (value.inline != null) {
+			return value.inline.clone();
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(value.length);
+		try {
+			long position = value.offset;
+			while (buffer.hasRemaining()) {
+				int read = value.segment.channel.read(buffer, position);
+				if (read < 0) {
+					throw new EOFException("Unexpected end of segment " + value.segment.path);
+				}
+				position += read;
+			}
+			return decodeValues(new DataInputStream(new ByteArrayInputStream(buffer.array())));
+		} catch (IOException ex) {
+			throw new TigaseDBException("Could not read value from store " + directory, ex);
+		}
+	}
+
+	private Position append(Record record) throws TigaseDBException {
+		synchronized (appendLock) {
+			try {
+				ensureOpen();
+				if (active.size > 0 && active.size + record.size > segmentSize) {
+					roll();
+				}
+				Segment segment = active;
+				long offset = segment.size;
+				ByteBuffer buffer = ByteBuffer.wrap(record.data);
+				long position = offset;
+				while (buffer.hasRemaining()) {
+					position += segment.channel.write(buffer, position);
+				}
+				if (sync) {
+					segment.channel.force(false);
+				}
+				segment.size = position;
+				totalSize.addAndGet(record.size);
+				return new Position(segment, offset, record.size);
+			} catch (IOException ex) {
+				throw new TigaseDBException("Could not write to store " + directory, ex);
+			}
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Store " + directory + " is closed");
+		}
+	}
+
+	private void roll() throws IOException {
+		int id = active == null ? 1 : active.id + 1;
+		if (active != null) {
+			active.channel.force(false);
+		}
+		active = openSegment(id);
+		segments.put(id, active);
+	}
+
+	private Segment openSegment(int id) throws IOException {
+		Path path = directory.resolve(String.format("%08d", id) + SEGMENT_SUFFIX);
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+											   StandardOpenOption.WRITE);
+		return new Segment(id, path, channel);
+	}
+
+	private void load() throws IOException {
+		List<Integer> ids = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+			for (Path path : stream) {
+				String name = path.getFileName().toString();
+				try {
+					ids.add(Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+				} catch (NumberFormatException ex) {
+					log.log(Level.WARNING, "Skipping unknown file {0} in store {1}", new Object[]{name, directory});
+				}
+			}
+		}
+		Collections.sort(ids);
+
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < ids.size(); i++) {
+			int id = ids.get(i);
+			Segment segment = openSegment(id);
+			segments.put(id, segment);
+			replay(segment, i == ids.size() - 1);
+			totalSize.addAndGet(segment.size);
+			active = segment;
+		}
+		for (UserEntry rewritten : pendingRewrites.values()) {
+			// compaction was interrupted before the user was rewritten completely
+			garbageSize.addAndGet(rewritten.size);
+		}
+		pendingRewrites.clear();
+		if (active == null) {
+			roll();
+		}
+		if (log.isLoggable(Level.CONFIG)) {
+			log.log(Level.CONFIG, "Opened store {0} with {1} users in {2} segments in {3}ms",
+					new Object[]{directory, index.size(), segments.size(), System.currentTimeMillis() - start});
+		}
+	}
+
+	/**
+	 * Rebuilds index from records of the segment. Only the last segment may end with a torn record, as earlier ones
+	 * are forced to the storage device before a new segment is started, so broken data in them means that the store is
+	 * corrupted.
+	 */
+	private void replay(Segment segment, boolean last) throws IOException {
+		long fileSize = segment.channel.size();
+		long position = 0;
+		CRC32 crc = new CRC32();
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(segment.path), 64 * 1024)) {
+			DataInputStream data = new DataInputStream(in);
+			while (position + RECORD_HEADER_SIZE <= fileSize) {
+				int length = data.readInt();
+				int checksum = data.readInt();
+				if (length <= 0 || position + RECORD_HEADER_SIZE + length > fileSize) {
+					break;
+				}
+				byte[] payload = new byte[length];
+				data.readFully(payload);
+				crc.reset();
+				crc.update(payload, 0, length);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+				apply(segment, position, payload);
+				position += RECORD_HEADER_SIZE + length;
+			}
+		}
+		if (position < fileSize && !last) {
+			throw new IOException(
+					"Segment " + segment.path + " is corrupted at position " + position + " of " + fileSize +
+							", store " + directory + " can not be opened");
+		}
+		if (position < fileSize) {
+			log.log(Level.WARNING, "Discarding {0} bytes of incomplete or corrupted data at the end of segment {1}",
+					new Object[]{fileSize - position, segment.path});
+			segment.channel.truncate(position);
+		}
+		segment.size = position;
+	}
+
+	private void apply(Segment segment, long position, byte[] payload) throws IOException {
+		ByteArrayInputStream bytes = new ByteArrayInputStream(payload);
+		DataInputStream data = new DataInputStream(bytes);
+		int size = RECORD_HEADER_SIZE + payload.length;
+		byte op = data.readByte();
+		String user = readString(data);
+		UserEntry entry = index.get(user);
+		if (op != OP_REWRITE_DATA && op != OP_REWRITE_COMMIT) {
+			// records of the user written after begin of its rewrite mean that the rewrite was not finished
+			UserEntry aborted = pendingRewrites.remove(user);
+			if (aborted != null) {
+				garbageSize.addAndGet(aborted.size);
+			}
+		}
+		switch (op) {
+			case OP_ADD_USER:
+				if (entry != null) {
+					garbageSize.addAndGet(entry.size);
+				}
+				entry = new UserEntry();
+				entry.size = size;
+				index.put(user, entry);
+				break;
+			case OP_REMOVE_USER:
+				if (entry != null) {
+					index.remove(user);
+					garbageSize.addAndGet(entry.size);
+				}
+				garbageSize.addAndGet(size);
+				break;
+			case OP_REWRITE_BEGIN:
+				UserEntry rewritten = new UserEntry();
+				rewritten.size = size;
+				pendingRewrites.put(user, rewritten);
+				break;
+			case OP_REWRITE_COMMIT:
+				UserEntry committed = pendingRewrites.remove(user);
+				if (committed == null) {
+					garbageSize.addAndGet(size);
+					break;
+				}
+				if (entry != null) {
+					garbageSize.addAndGet(entry.size);
+				}
+				committed.size += size;
+				index.put(user, committed);
+				break;
+			case OP_REWRITE_DATA:
+			case OP_SET_DATA:
+				if (op == OP_REWRITE_DATA) {
+					entry = pendingRewrites.get(user);
+				}
+				String path = readString(data);
+				String key = readString(data);
+				int valuesOffset = payload.length - bytes.available();
+				int valuesLength = bytes.available();
+				Value value;
+				if (valuesLength <= inlineSize) {
+					value = new Value(decodeValues(data), size);
+				} else {
+					value = new Value(segment, position + RECORD_HEADER_SIZE + valuesOffset, valuesLength, size);
+				}
+				if (entry == null) {
+					garbageSize.addAndGet(size);
+					break;
+				}
+				Map<String, Value> keys = entry.nodes.computeIfAbsent(path, k -> new HashMap<>());
+				Value old = keys.put(key, value);
+				entry.size += size;
+				if (old != null) {
+					entry.size -= old.size;
+					garbageSize.addAndGet(old.size);
+				}
+				break;
+			case OP_REMOVE_DATA:
+				long removedData = entry == null ? 0 : entry.removeKey(readString(data), readString(data));
+				garbageSize.addAndGet(removedData + size);
+				break;
+			case OP_REMOVE_NODE:
+				long removedNode = entry == null ? 0 : entry.removeNode(readString(data));
+				garbageSize.addAndGet(removedNode + size);
+				break;
+			default:
+				throw new IOException("Unknown record type " + op + " at " + position + " of " + segment.path);
+		}
+	}
+
+	private void closeFiles() throws IOException {
+		for (Segment segment : segments.values()) {
+			segment.channel.close();
+		}
+		lockFile.release();
+		lockChannel.close();
+	}
+
+	private Lock readLock(String user) {
+		return locks[(user.hashCode() & 0x7fffffff) % locks.length].readLock();
+	}
+
+	private Lock writeLock(String user) {
+		return locks[(user.hashCode() & 0x7fffffff) % locks.length].writeLock();
+	}
+
+	private static String normalize(String node) {
+		if (node == null) {
+			return "";
+		}
+		int start = 0;
+		int end = node.length();
+		while (start < end && node.charAt(start) == '/') {
+			start++;
+		}
+		while (end > start && node.charAt(end - 1) == '/') {
+			end--;
+		}
+		return node.substring(start, end);
+	}
+
+	private static Record encode(byte op, String user, String path, String key, String[] values)
+			throws TigaseDBException {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+			DataOutputStream data = new DataOutputStream(bytes);
+			data.writeInt(0);
+			data.writeInt(0);
+			data.writeByte(op);
+			writeString(data, user);
+			if (path != null) {
+				writeString(data, path);
+			}
+			if (key != null) {
+				writeString(data, key);
+			}
+			int valuesOffset = data.size() - RECORD_HEADER_SIZE;
+			if (values != null) {
+				data.writeInt(values.length);
+				for (String value : values) {
+					writeString(data, value);
+				}
+			}
+			data.flush();
+			byte[] record = bytes.toByteArray();
+			int length = record.length - RECORD_HEADER_SIZE;
+			CRC32 crc = new CRC32();
+			crc.update(record, RECORD_HEADER_SIZE, length);
+			ByteBuffer header = ByteBuffer.wrap(record, 0, RECORD_HEADER_SIZE);
+			header.putInt(length);
+			header.putInt((int) crc.getValue());
+			return new Record(record, valuesOffset, length - valuesOffset);
+		} catch (IOException ex) {
+			throw new TigaseDBException("Could not serialize record", ex);
+		}
+	}
+
+	private static String[] decodeValues(DataInputStream data) throws IOException {
+		String[] values = new String[data.readInt()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = readString(data);
+		}
+		return values;
+	}
+
+	private static void writeString(DataOutputStream data, String value) throws IOException {
+		if (value == null) {
+			data.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		data.writeInt(bytes.length);
+		data.write(bytes);
+	}
+
+	private static String readString(DataInputStream data) throws IOException {
+		int length = data.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		data.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static class Position {
+
+		private final long offset;
+		private final Segment segment;
+		private final int size;
+
+		private Position(Segment segment, long offset, int size) {
+			this.segment = segment;
+			this.offset = offset;
+			this.size = size;
+		}
+	}
+
+	private static class Record {
+
+		private final byte[] data;
+		private final int size;
+		private final int valuesLength;
+		private final int valuesOffset;
+
+		private Record(byte[] data, int valuesOffset, int valuesLength) {
+			this.data = data;
+			this.size = data.length;
+			this.valuesOffset = valuesOffset;
+			this.valuesLength = valuesLength;
+		}
+	}
+
+	private static class Segment {
+
+		private final FileChannel channel;
+		private final int id;
+		private final Path path;
+		private volatile long size = 0;
+
+		private Segment(int id, Path path, FileChannel channel) {
+			this.id = id;
+			this.path = path;
+			this.channel = channel;
+		}
+
+		private void delete() throws IOException {
+			channel.close();
+			Files.deleteIfExists(path);
+		}
+	}
+
+	/**
+	 * Index entry of a single user, guarded by the lock of the user stripe.
+	 */
+	private static class UserEntry {
+
+		private final Map<String, Map<String, Value>> nodes = new HashMap<>();
+		/**
+		 * Size of records which are needed to restore current state of the user.
+		 */
+		private long size;
+
+		private boolean hasNode(String path) {
+			if (path.isEmpty()) {
+				return !nodes.isEmpty();
+			}
+			String prefix = path + "/";
+			for (String nodePath : nodes.keySet()) {
+				if (nodePath.equals(path) || nodePath.startsWith(prefix)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private long removeKey(String path, String key) {
+			Map<String, Value> keys = nodes.get(path);
+			Value value = keys == null ? null : keys.remove(key);
+			if (value == null) {
+				return 0;
+			}
+			if (keys.isEmpty()) {
+				nodes.remove(path);
+			}
+			size -= value.size;
+			return value.size;
+		}
+
+		private long removeNode(String path) {
+			String prefix = path + "/";
+			long removed = 0;
+			for (Iterator<Map.Entry<String, Map<String, Value>>> it = nodes.entrySet().iterator(); it.hasNext(); ) {
+				Map.Entry<String, Map<String, Value>> node = it.next();
+				if (path.isEmpty() || node.getKey().equals(path) || node.getKey().startsWith(prefix)) {
+					for (Value value : node.getValue().values()) {
+						removed += value.size;
+					}
+					it.remove();
+				}
+			}
+			size -= removed;
+			return removed;
+		}
+	}
+
+	/**
+	 * Location of a value in a segment file or the value itself if it is small enough to be kept in memory.
+	 */
+	private static class Value {
+
+		private final String[] inline;
+		private final int length;
+		private final long offset;
+		private final Segment segment;
+		private final int size;
+
+		private Value(String[] inline, int size) {
+			this.inline = inline;
+			this.segment = null;
+			this.offset = 0;
+			this.length = 0;
+			this.size = size;
+		}
+
+		private Value(Segment segment, long offset, int length, int size) {
+			this.inline = null;
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.size = size;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.logstore;
+
+import tigase.component.exceptions.RepositoryException;
+import tigase.db.DBInitException;
+import tigase.db.DataSource;
+import tigase.db.Repository;
+import tigase.stats.StatisticsList;
+import tigase.stats.StatisticsProviderIfc;
+import tigase.util.Version;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Data source of the embedded {@link LogStore}. Store directory and its settings are passed in the URI, ie.
+ * <code>logstore:///var/lib/tigase/users?autoCreateUser=true&amp;sync=true</code>. Supported parameters:
+ * <ul>
+ * <li><code>autoCreateUser</code> - create users on first access (default: <code>false</code>),</li>
+ * <li><code>sync</code> - force every modification to the storage device (default: <code>false</code>),</li>
+ * <li><code>stripes</code> - number of locks shared by users (default: 256),</li>
+ * <li><code>segmentSize</code> - size of a single segment file in MB (default: 64),</li>
+ * <li><code>inlineSize</code> - maximal size in bytes of values kept in memory (default: 128),</li>
+ * <li><code>compactionRatio</code> - ratio of garbage in the store which triggers compaction (default: 0.5).</li>
+ * </ul>
+ */
+@Repository.Meta(supportedUris = {"logstore://.*"})
+public class LogStoreDataSource
+		implements DataSource, StatisticsProviderIfc {
+
+	private static final Logger log = Logger.getLogger(LogStoreDataSource.class.getCanonicalName());
+
+	private static final int MB = 1024 * 1024;
+	private static final String SCHEME = "logstore://";
+	/**
+	 * Stores are opened once per directory and shared by all data sources pointing to it.
+	 */
+	private static final Map<Path, LogStore> stores = new HashMap<>();
+
+	private boolean autoCreateUser = false;
+	private String resource_uri;
+	private LogStore store;
+
+	@Override
+	public Optional<Version> getSchemaVersion(String component) {
+		return Optional.empty();
+	}
+
+	@Override
+	public String getResourceUri() {
+		return resource_uri;
+	}
+
+	@Override
+	public void initialize(String uri) throws RepositoryException {
+		initRepository(uri, new HashMap<>());
+	}
+
+	@Override
+	@Deprecated
+	public void initRepository(String uri, Map<String, String> params) throws DBInitException {
+		log.log(Level.FINEST, "Initializing repository, uri: {0}, params: {1}", new Object[]{uri, params});
+		if (!uri.startsWith(SCHEME)) {
+			throw new DBInitException("Unsupported URI: " + uri);
+		}
+
+		String path = uri.substring(SCHEME.length());
+		Map<String, String> uriParams = new HashMap<>();
+		int idx = path.indexOf('?');
+		if (idx >= 0) {
+			for (String param : path.substring(idx + 1).split("&")) {
+				int eq = param.indexOf('=');
+				if (eq > 0) {
+					uriParams.put(param.substring(0, eq), param.substring(eq + 1));
+				}
+			}
+			path = path.substring(0, idx);
+		}
+
+		Path directory = Paths.get(path).toAbsolutePath().normalize();
+		try {
+			synchronized (stores) {
+				store = stores.get(directory);
+				if (store == null) {
+					store = new LogStore(directory, getInt(uriParams, "stripes", LogStore.STRIPES_VAL),
+										 getInt(uriParams, "segmentSize", LogStore.SEGMENT_SIZE_VAL / MB) * (long) MB,
+										 getInt(uriParams, "inlineSize", LogStore.INLINE_SIZE_VAL),
+										 Boolean.parseBoolean(uriParams.get("sync")),
+										 Float.parseFloat(uriParams.getOrDefault("compactionRatio", String.valueOf(
+												 LogStore.COMPACTION_RATIO_VAL))), LogStore.COMPACTION_MIN_SIZE_VAL);
+					stores.put(directory, store);
+				}
+			}
+		} catch (IOException | NumberFormatException ex) {
+			throw new DBInitException("Could not open store " + uri, ex);
+		}
+		autoCreateUser = Boolean.parseBoolean(uriParams.get("autoCreateUser"));
+		resource_uri = uri;
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		if (store != null) {
+			store.getStatistics(compName, list);
+		}
+	}
+
+	public LogStore getStore() {
+		return store;
+	}
+
+	public boolean isAutoCreateUser() {
+		return autoCreateUser;
+	}
+
+	private static int getInt(Map<String, String> params, String key, int def) {
+		String value = params.get(key);
+		return value == null ? def : Integer.parseInt(value);
+	}
+}
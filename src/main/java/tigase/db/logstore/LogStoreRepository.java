@@ -0,0 +1,284 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.logstore;
+
+import tigase.db.*;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implementation of <code>UserRepository</code> and <code>AuthRepository</code> storing data in the embedded {@link
+ * LogStore}. It is a replacement of <code>XMLRepository</code> for installations which do not use an external
+ * database: it does not require any dependencies, persists every modification immediately and does not serialize
+ * access to the repository, so it may be used with a large number of users and concurrent logins.
+ */
+@Repository.Meta(supportedUris = {"logstore://.*"})
+public class LogStoreRepository
+		implements Repository, DataSourceAware<LogStoreDataSource>, AuthRepository, UserRepository {
+
+	private static final Logger log = Logger.getLogger(LogStoreRepository.class.getName());
+
+	private AuthRepository auth = null;
+	private boolean autoCreateUser = false;
+	private LogStoreDataSource dataSource = null;
+	private LogStore store = null;
+
+	@Override
+	public void addDataList(BareJID user, final String subnode, final String key, final String[] list)
+			throws UserNotFoundException, TigaseDBException {
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Adding data list, user: {0}, subnode: {1}, key: {2}, list: {3}",
+					new Object[]{user, subnode, key, Arrays.asList(list)});
+		}
+		store.setData(user.toString(), subnode, key, list, true, autoCreateUser);
+	}
+
+	@Override
+	public void addUser(BareJID user) throws UserExistsException, TigaseDBException {
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Adding new user, user: {0}", user);
+		}
+		try {
+			store.addUser(user.toString());
+		} catch (UserExistsException ex) {
+			throw new UserExistsException(user, ex.getMessage(), ex);
+		}
+	}
+
+	@Override
+	public void addUser(BareJID user, final String password) throws UserExistsException, TigaseDBException {
+		auth.addUser(user, password);
+	}
+
+	@Override
+	public String getData(BareJID user, final String subnode, final String key, final String def)
+			throws UserNotFoundException, TigaseDBException {
+		String[] values = store.getData(user.toString(), subnode, key, autoCreateUser);
+		return (values == null || values.length == 0 || values[0] == null) ? def : values[0];
+	}
+
+	@Override
+	public String getData(BareJID user, final String subnode, final String key)
+			throws UserNotFoundException, TigaseDBException {
+		return getData(user, subnode, key, null);
+	}
+
+	@Override
+	public String getData(BareJID user, final String key) throws UserNotFoundException, TigaseDBException {
+		return getData(user, null, key, null);
+	}
+
+	@Override
+	public String[] getDataList(BareJID user, final String subnode, final String key)
+			throws UserNotFoundException, TigaseDBException {
+		return store.getData(user.toString(), subnode, key, autoCreateUser);
+	}
+
+	@Override
+	public String[] getKeys(BareJID user, final String subnode) throws UserNotFoundException, TigaseDBException {
+		return store.getKeys(user.toString(), subnode, autoCreateUser);
+	}
+
+	@Override
+	public String[] getKeys(BareJID user) throws UserNotFoundException, TigaseDBException {
+		return getKeys(user, null);
+	}
+
+	@Override
+	public String getResourceUri() {
+		return dataSource.getResourceUri();
+	}
+
+	@Override
+	public String[] getSubnodes(BareJID user, final String subnode) throws UserNotFoundException, TigaseDBException {
+		return store.getSubnodes(user.toString(), subnode, autoCreateUser);
+	}
+
+	@Override
+	public String[] getSubnodes(BareJID user) throws UserNotFoundException, TigaseDBException {
+		return getSubnodes(user, null);
+	}
+
+	@Override
+	public long getUserUID(BareJID user) throws TigaseDBException {
+		return Math.abs(user.hashCode());
+	}
+
+	@Override
+	public List<BareJID> getUsers() {
+		List<String> users = store.getUsers();
+		List<BareJID> result = new ArrayList<>(users.size());
+		for (String usr : users) {
+			result.add(BareJID.bareJIDInstanceNS(usr));
+		}
+		return result;
+	}
+
+	@Override
+	public long getUsersCount(String domain) {
+		String suffix = "@" + domain;
+		long res = 0;
+		for (String usr : store.getUsers()) {
+			if (usr.endsWith(suffix) || usr.equals(domain)) {
+				++res;
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public long getUsersCount() {
+		return store.getUsersCount();
+	}
+
+	@Override
+	@Deprecated
+	public void initRepository(String uri, Map<String, String> params) throws DBInitException {
+		if (store == null) {
+			LogStoreDataSource dataSource = new LogStoreDataSource();
+			dataSource.initRepository(uri, params);
+			setDataSource(dataSource);
+		}
+	}
+
+	@Override
+	public void logout(BareJID user) throws UserNotFoundException, TigaseDBException {
+		auth.logout(user);
+	}
+
+	@Override
+	public void loggedIn(BareJID user) throws TigaseDBException {
+		auth.loggedIn(user);
+	}
+
+	@Override
+	public boolean otherAuth(final Map<String, Object> props)
+			throws UserNotFoundException, TigaseDBException, AuthorizationException {
+		return auth.otherAuth(props);
+	}
+
+	@Override
+	public void queryAuth(Map<String, Object> authProps) {
+		auth.queryAuth(authProps);
+	}
+
+	@Override
+	public void removeData(BareJID user, final String subnode, final String key)
+			throws UserNotFoundException, TigaseDBException {
+		try {
+			store.removeData(user.toString(), subnode, key);
+		} catch (UserNotFoundException ex) {
+			if (!autoCreateUser) {
+				throw ex;
+			}
+		}
+	}
+
+	@Override
+	public void removeData(BareJID user, final String key) throws UserNotFoundException, TigaseDBException {
+		removeData(user, null, key);
+	}
+
+	@Override
+	public void removeSubnode(BareJID user, final String subnode) throws UserNotFoundException, TigaseDBException {
+		try {
+			store.removeSubnode(user.toString(), subnode);
+		} catch (UserNotFoundException ex) {
+			if (!autoCreateUser) {
+				throw ex;
+			}
+		}
+	}
+
+	@Override
+	public void removeUser(BareJID user) throws UserNotFoundException, TigaseDBException {
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Removing user: {0}", user);
+		}
+		store.removeUser(user.toString());
+	}
+
+	@Override
+	public void setData(BareJID user, final String subnode, final String key, final String value)
+			throws UserNotFoundException, TigaseDBException {
+		store.setData(user.toString(), subnode, key, new String[]{value}, false, autoCreateUser);
+	}
+
+	@Override
+	public void setData(BareJID user, final String key, final String value)
+			throws UserNotFoundException, TigaseDBException {
+		setData(user, null, key, value);
+	}
+
+	@Override
+	public void setDataList(BareJID user, final String subnode, final String key, final String[] list)
+			throws UserNotFoundException, TigaseDBException {
+		store.setData(user.toString(), subnode, key, list, false, autoCreateUser);
+	}
+
+	@Override
+	public void updatePassword(BareJID user, final String password) throws UserExistsException, TigaseDBException {
+		auth.updatePassword(user, password);
+	}
+
+	@Override
+	public boolean userExists(BareJID user) {
+		return store.userExists(user.toString());
+	}
+
+	@Override
+	public String getPassword(BareJID user) throws UserNotFoundException, TigaseDBException {
+		return auth.getPassword(user);
+	}
+
+	@Override
+	public boolean isUserDisabled(BareJID user) throws UserNotFoundException, TigaseDBException {
+		final String disabled = getData(user, "disabled");
+		return disabled != null && Boolean.parseBoolean(disabled);
+	}
+
+	@Override
+	public void setUserDisabled(BareJID user, Boolean value) throws UserNotFoundException, TigaseDBException {
+		setData(user, "disabled", value.toString());
+	}
+
+	@Override
+	public void setAccountStatus(BareJID user, AccountStatus status) throws TigaseDBException {
+		setData(user, "accountStatus", status.toString());
+	}
+
+	@Override
+	public AccountStatus getAccountStatus(BareJID user) throws TigaseDBException {
+		final String accountStatus = getData(user, "accountStatus");
+		return accountStatus != null ? AccountStatus.valueOf(accountStatus) : AccountStatus.active;
+	}
+
+	@Override
+	public void setDataSource(LogStoreDataSource dataSource) {
+		this.dataSource = dataSource;
+		autoCreateUser = dataSource.isAutoCreateUser();
+		store = dataSource.getStore();
+		auth = new AuthRepositoryImpl(this);
+	}
+}
@@ -35,6 +35,9 @@ import java.util.logging.Logger;
  * <code>tigase.xml.db</code> package as repository backend and uses <em>Bridge</em> design pattern to translate
  * <code>XMLDB</code> calls to <code>UserRepository</code> functions.
  * <br>
+ * Access to the repository is serialized, so for installations with a larger number of users {@link
+ * tigase.db.logstore.LogStoreRepository} should be used instead.
+ * <br>
  * <p> Created: Tue Oct 26 15:27:33 2004 </p>
  *
  * @author <a href="mailto:artur.hefczyc@tigase.org">Artur Hefczyc</a>
@@ -31,6 +31,7 @@ import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.selector.ConfigType;
 import tigase.kernel.beans.selector.ConfigTypeEnum;
 import tigase.kernel.core.Kernel;
+import tigase.map.ClusterMapFactory;
 import tigase.stats.StatisticsList;
 import tigase.xmpp.jid.JID;
 
@@ -86,6 +87,7 @@ public class EventBusComponent
 			((SubscribeModule) module).clusterNodeDisconnected(jid);
 		}
 		kernel.getInstance(AffiliationStore.class).removeAffiliation(jid);
+		ClusterMapFactory.get().nodeDisconnected(jid.getDomain());
 	}
 
 	@Override
@@ -110,7 +112,7 @@ public class EventBusComponent
 		if (module != null && module instanceof SubscribeModule) {
 			((SubscribeModule) module).clusterNodeConnected(jid);
 		}
-
+		ClusterMapFactory.get().nodeConnected(jid.getDomain());
 	}
 
 	@Override
@@ -24,6 +24,7 @@ import tigase.eventbus.EventBusFactory;
 import tigase.eventbus.HandleEvent;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.ParallelInitialization;
 import tigase.kernel.beans.UnregisterAware;
 import tigase.kernel.beans.config.ConfigField;
 import tigase.kernel.core.Kernel;
@@ -52,6 +53,7 @@ import static tigase.io.SSLContextContainerIfc.*;
  * Created by andrzej on 29.02.2016.
  */
 @Bean(name = "certificate-container", parent = Kernel.class, active = true, exportable = true)
+@ParallelInitialization
 public class CertificateContainer
 		implements CertificateContainerIfc, Initializable, UnregisterAware {
 
@@ -25,7 +25,9 @@ import javax.net.ssl.SSLEngineResult.HandshakeStatus;
 import javax.net.ssl.SSLEngineResult.Status;
 import java.nio.ByteBuffer;
 import java.security.cert.Certificate;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.StringJoiner;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -43,11 +45,22 @@ public class JcaTLSWrapper
 	private static final Logger log = Logger.getLogger(JcaTLSWrapper.class.getName());
 
 	private int appBuffSize = 0;
+	/**
+	 * Application data passed to <code>wrap()</code> while handshake tasks were executed, encrypted before any other
+	 * data when processing of the connection is resumed.
+	 */
+	private ByteBuffer bufferedAppData = null;
 	private String debugId = null;
 
 	// private String protocol = null;
 	private TLSEventHandler eventHandler = null;
+	private boolean handshakeFinished = false;
+	private final long handshakeStarted = System.nanoTime();
+	private final long handshakeStartedTime = System.currentTimeMillis();
 	private int netBuffSize = 0;
+	private TLSSessionStatistics sessionStatistics = null;
+	private TLSHandshakeExecutor tasksExecutor = null;
+	private volatile boolean tasksPending = false;
 	private SSLEngine tlsEngine = null;
 	private SSLEngineResult tlsEngineResult = null;
 
@@ -180,6 +193,9 @@ public class JcaTLSWrapper
 	public TLSStatus getStatus() {
 		TLSStatus status = null;
 
+		if (tasksPending) {
+			return TLSStatus.NEED_TASK;
+		}
 		if ((tlsEngineResult != null) && (tlsEngineResult.getStatus() == Status.BUFFER_UNDERFLOW)) {
 			status = TLSStatus.UNDERFLOW;
 
@@ -228,11 +244,35 @@ public class JcaTLSWrapper
 		return tlsEngine.getNeedClientAuth();
 	}
 
+	@Override
+	public boolean isSessionResumed() {
+		// JSSE does not report resumption directly, but resumed session was
+		// created before this handshake was started
+		SSLSession session = tlsEngine.getSession();
+		return session != null && session.isValid() && session.getCreationTime() < handshakeStartedTime;
+	}
+
 	@Override
 	public void setDebugId(String id) {
 		debugId = id;
 	}
 
+	public void setSessionStatistics(TLSSessionStatistics sessionStatistics) {
+		this.sessionStatistics = sessionStatistics;
+	}
+
+	/**
+	 * Sets pool executing delegated tasks of the handshake, if not set tasks are executed by the calling thread.
+	 */
+	public void setTasksExecutor(TLSHandshakeExecutor tasksExecutor) {
+		this.tasksExecutor = tasksExecutor;
+	}
+
+	@Override
+	public boolean hasBufferedAppData() {
+		return bufferedAppData != null;
+	}
+
 	@Override
 	public ByteBuffer unwrap(ByteBuffer net, ByteBuffer app) throws SSLException {
 		ByteBuffer out = app;
@@ -247,9 +287,7 @@ public class JcaTLSWrapper
 		}
 
 		if (tlsEngineResult.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
-			if (eventHandler != null) {
-				eventHandler.handshakeCompleted(this);
-			}
+			handshakeFinished();
 		}
 
 		if (tlsEngineResult.getStatus() == Status.BUFFER_OVERFLOW) {
@@ -276,16 +314,28 @@ public class JcaTLSWrapper
 
 	@Override
 	public void wrap(ByteBuffer app, ByteBuffer net) throws SSLException {
+		if (tasksPending) {
+			if (app.hasRemaining()) {
+				// application data cannot be encrypted before handshake tasks are completed, it is kept until
+				// processing of the connection is resumed and NEED_TASK status is reported meanwhile
+				bufferAppData(app);
+				return;
+			}
+		} else if (bufferedAppData != null) {
+			// buffered data has to be encrypted first, passed data will be encrypted in the following calls
+			app = bufferedAppData;
+		}
 		tlsEngineResult = tlsEngine.wrap(app, net);
+		if (app == bufferedAppData && !app.hasRemaining()) {
+			bufferedAppData = null;
+		}
 		if (log.isLoggable(Level.FINEST)) {
 			log.log(Level.FINEST, "tlsEngineRsult.getStatus() = {1}, tlsEngineRsult.getHandshakeStatus() = {2} [{0}]",
 					new Object[]{debugId, tlsEngineResult.getStatus(), tlsEngineResult.getHandshakeStatus()});
 		}
 
 		if (tlsEngineResult.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
-			if (eventHandler != null) {
-				eventHandler.handshakeCompleted(this);
-			}
+			handshakeFinished();
 		}
 
 		if (tlsEngineResult.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
@@ -297,12 +347,80 @@ public class JcaTLSWrapper
 		}
 	}
 
-	private void doTasks() {
+	private void doTasks() throws SSLException {
+		List<Runnable> tasks = new ArrayList<>(2);
 		Runnable runnable = null;
 
 		while ((runnable = tlsEngine.getDelegatedTask()) != null) {
-			runnable.run();
+			tasks.add(runnable);
 		} // end of while ((runnable = engine.getDelegatedTask()) != 0)
+
+		if (tasks.isEmpty()) {
+			return;
+		}
+
+		if (tasksExecutor == null || !tasksExecutor.isEnabled() || eventHandler == null) {
+			if (tasksExecutor != null) {
+				tasksExecutor.executeInline(tasks);
+			} else {
+				for (Runnable task : tasks) {
+					task.run();
+				}
+			}
+			return;
+		}
+
+		// Tasks are executed in the background, TLSIO will not process any data
+		// until we report NEED_TASK status and event handler will be notified
+		// to resume processing of the connection.
+		tasksPending = true;
+		if (!tasksExecutor.execute(tasks, this::tasksCompleted)) {
+			tasksPending = false;
+			throw new SSLException("TLS handshake rejected, too many handshakes in progress");
+		}
+	}
+
+	private void tasksCompleted() {
+		tasksPending = false;
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "delegated tasks completed, handshake: {1} [{0}]",
+					new Object[]{debugId, tlsEngine.getHandshakeStatus()});
+		}
+		try {
+			eventHandler.handshakeTasksCompleted(this);
+		} catch (Exception ex) {
+			log.log(Level.WARNING, "Problem resuming connection after TLS handshake tasks [" + debugId + "]", ex);
+		}
+	}
+
+	private void bufferAppData(ByteBuffer app) {
+		int buffered = bufferedAppData == null ? 0 : bufferedAppData.remaining();
+		ByteBuffer bb = ByteBuffer.allocate(buffered + app.remaining());
+		if (bufferedAppData != null) {
+			bb.put(bufferedAppData);
+		}
+		bb.put(app);
+		bb.flip();
+		bufferedAppData = bb;
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "buffered {1} bytes of application data until handshake tasks are completed [{0}]",
+					new Object[]{debugId, bufferedAppData.remaining()});
+		}
+	}
+
+	private void handshakeFinished() {
+		if (!handshakeFinished) {
+			handshakeFinished = true;
+			if (tasksExecutor != null) {
+				tasksExecutor.handshakeCompleted(System.nanoTime() - handshakeStarted);
+			}
+			if (sessionStatistics != null) {
+				sessionStatistics.handshakeCompleted(isSessionResumed());
+			}
+		}
+		if (eventHandler != null) {
+			eventHandler.handshakeCompleted(this);
+		}
 	}
 
 	/**
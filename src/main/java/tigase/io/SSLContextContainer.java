@@ -31,11 +31,13 @@ import tigase.server.Command;
 import tigase.server.ConnectionManager;
 import tigase.server.DataForm;
 import tigase.server.Packet;
+import tigase.stats.StatisticsList;
 import tigase.vhosts.*;
 import tigase.xml.Element;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManager;
 import java.io.IOException;
 import java.nio.ByteOrder;
@@ -110,6 +112,7 @@ public class SSLContextContainer
 
 	@Inject
 	protected EventBus eventBus = EventBusFactory.getInstance();
+	protected Map<String, SSLHolder> clientSslContexts = new ConcurrentSkipListMap<>();
 	protected Map<String, SSLHolder> sslContexts = new ConcurrentSkipListMap<>();
 	@Inject(nullAllowed = true)
 	protected VHostManagerIfc vHostManager = null;
@@ -135,8 +138,15 @@ public class SSLContextContainer
 	private int ephemeralDHKeySize = EPHEMERAL_DH_KEYSIZE_VALUE;
 	@ConfigField(desc = "TLS/SSL hardened mode", alias = "hardened-mode")
 	private HARDENED_MODE hardenedMode = HARDENED_MODE.secure;
+	@Inject(nullAllowed = true)
+	private TLSHandshakeExecutor handshakeExecutor;
 	@Inject(bean = "rootSslContextContainer", type = Root.class, nullAllowed = true)
 	private SSLContextContainerIfc parent;
+	@ConfigField(desc = "Maximal number of cached TLS sessions per SSLContext", alias = "tls-session-cache-size")
+	private int sessionCacheSize = 20480;
+	private final TLSSessionStatistics sessionStatistics = new TLSSessionStatistics();
+	@ConfigField(desc = "Time for which TLS session may be resumed (in seconds)", alias = "tls-session-timeout")
+	private int sessionTimeout = 3600;
 	@ConfigField(desc = "TLS/SSL", alias = "tls-jdk-nss-bug-workaround-active")
 	private boolean tlsJdkNssBugWorkaround = false;
 
@@ -203,9 +213,11 @@ public class SSLContextContainer
 										 TLSEventHandler eventHandler, IOInterface socketIO,
 										 CertificateContainerIfc certificateContainer) throws IOException {
 		SSLContext sslContext = getSSLContext(protocol, local_hostname, clientMode, x509TrustManagers);
-		TLSWrapper wrapper = new JcaTLSWrapper(sslContext, eventHandler, remote_hostname, port, clientMode,
-											   wantClientAuth, needClientAuth, getEnabledCiphers(local_hostname),
-											   getEnabledProtocols(local_hostname, clientMode));
+		JcaTLSWrapper wrapper = new JcaTLSWrapper(sslContext, eventHandler, remote_hostname, port, clientMode,
+												  wantClientAuth, needClientAuth, getEnabledCiphers(local_hostname),
+												  getEnabledProtocols(local_hostname, clientMode));
+		wrapper.setSessionStatistics(sessionStatistics);
+		wrapper.setTasksExecutor(handshakeExecutor);
 		return new TLSIO(socketIO, wrapper, byteOrder);
 	}
 
@@ -278,14 +290,22 @@ public class SSLContextContainer
 			}
 
 			if (holder == null || !holder.isValid(tms)) {
-				holder = createContextHolder(protocol, hostname, alias, clientMode, tms);
 				if (clientMode) {
+					// client contexts are cached separately, so outgoing connections
+					// may resume TLS sessions
+					holder = clientSslContexts.get(alias);
+					if (holder == null || !holder.isValid(tms)) {
+						holder = createContextHolder(protocol, hostname, alias, clientMode, tms);
+						clientSslContexts.put(alias, holder);
+					}
 					if (log.isLoggable(Level.FINEST)) {
 						log.log(Level.FINEST, "Using SSLHolder: " + holder);
 					}
 					return holder.getSSLContext();
 				}
 
+				holder = createContextHolder(protocol, hostname, alias, clientMode, tms);
+
 				if (!validateDomainCertificate(holder, alias)) {
 					holder = createContextHolder(protocol, hostname, alias, clientMode, tms);
 				}
@@ -313,6 +333,11 @@ public class SSLContextContainer
 		return trustStore;
 	}
 
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		sessionStatistics.getStatistics(compName, list);
+	}
+
 	public void setHardenedMode(HARDENED_MODE hardenedMode) {
 		this.hardenedMode = hardenedMode;
 		if (HARDENED_MODE.relaxed.equals(hardenedMode)) {
@@ -420,8 +445,20 @@ public class SSLContextContainer
 		return mode;
 	}
 
+	@Override
+	protected void configureSessionContext(SSLContext sslContext) {
+		for (SSLSessionContext sessionContext : new SSLSessionContext[]{sslContext.getServerSessionContext(),
+																		 sslContext.getClientSessionContext()}) {
+			if (sessionContext != null) {
+				sessionContext.setSessionCacheSize(sessionCacheSize);
+				sessionContext.setSessionTimeout(sessionTimeout);
+			}
+		}
+	}
+
 	private void invalidateContextHolder(SSLHolder holder, String alias) throws Exception {
 		sslContexts.remove(alias);
+		clientSslContexts.remove(alias);
 		createCertificate(alias);
 	}
 
@@ -433,6 +470,8 @@ public class SSLContextContainer
 	private void onCertificateChange(CertificateContainer.CertificateChanged event) {
 		sslContexts.remove(event.getAlias());
 		removeMatchedDomains(sslContexts, event.getDomains());
+		clientSslContexts.remove(event.getAlias());
+		removeMatchedDomains(clientSslContexts, event.getDomains());
 	}
 
 	private boolean validateDomainCertificate(final SSLHolder holder, final String alias) throws Exception {
@@ -129,6 +129,7 @@ public abstract class SSLContextContainerAbstract
 			if (clientMode) {
 				sslContext = SSLContext.getInstance(protocol);
 				sslContext.init(null, tms, secureRandom);
+				configureSessionContext(sslContext);
 				final SSLHolder sslHolder = new SSLHolder(tms, sslContext, null);
 				if (log.isLoggable(Level.FINEST)) {
 					log.log(Level.FINEST, "Created new SSLHolder: {0} for domain: {1} (with alias: {2})",
@@ -161,6 +162,7 @@ public abstract class SSLContextContainerAbstract
 
 		sslContext = SSLContext.getInstance(protocol);
 		sslContext.init(kms, tms, secureRandom);
+		configureSessionContext(sslContext);
 
 		final SSLHolder sslHolder = new SSLHolder(tms, sslContext, crt);
 		if (log.isLoggable(Level.FINEST)) {
@@ -170,6 +172,12 @@ public abstract class SSLContextContainerAbstract
 		return sslHolder;
 	}
 
+	/**
+	 * Method called for every newly created <code>SSLContext</code> to configure caching of TLS sessions.
+	 */
+	protected void configureSessionContext(SSLContext sslContext) {
+	}
+
 	protected String getDefCertAlias() {
 		return certificateContainer.getDefCertAlias();
 	}
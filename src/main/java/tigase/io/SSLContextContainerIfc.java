@@ -19,6 +19,7 @@ package tigase.io;
 
 import tigase.annotations.TigaseDeprecated;
 import tigase.server.Lifecycle;
+import tigase.stats.StatisticsList;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
@@ -233,6 +234,12 @@ public interface SSLContextContainerIfc
 
 	String[] getEnabledProtocols(String domain, boolean client);
 
+	/**
+	 * Adds statistics of TLS connections established with use of this container.
+	 */
+	default void getStatistics(String compName, StatisticsList list) {
+	}
+
 	@Deprecated
 	@TigaseDeprecated(since = "8.1.0")
 	default String[] getEnabledCiphers() {
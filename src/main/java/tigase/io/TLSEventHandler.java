@@ -28,6 +28,13 @@ public interface TLSEventHandler {
 
 	void handshakeCompleted(TLSWrapper wrapper);
 
+	/**
+	 * Called from a thread of {@link TLSHandshakeExecutor} when delegated tasks of the handshake are completed and
+	 * processing of the connection may be resumed.
+	 */
+	default void handshakeTasksCompleted(TLSWrapper wrapper) {
+	}
+
 	int getSocketInputSize();
 }
 
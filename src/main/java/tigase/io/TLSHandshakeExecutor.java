@@ -0,0 +1,189 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.io;
+
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.kernel.core.Kernel;
+import tigase.stats.LatencyHistogram;
+import tigase.stats.StatisticsList;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool executing delegated tasks of TLS handshakes (key exchange, signatures, certificate validation) outside
+ * of socket threads. Without it a burst of new TLS connections, ie. after a failover of other cluster node, keeps all
+ * socket threads busy with CPU heavy cryptography and stalls processing of already established connections.
+ * <br>
+ * Pool is shared by all connection managers. It is disabled by default, so tasks are executed in socket threads, and
+ * has to be enabled in the configuration:
+ * <pre>
+ * 'tls-handshake-executor' () {
+ *     threads = 4
+ *     'queue-size' = 8192
+ * }
+ * </pre>
+ * Handshakes exceeding the queue size are rejected and their connections are closed.
+ */
+@Bean(name = TLSHandshakeExecutor.ID, parent = Kernel.class, active = false, exportable = true)
+public class TLSHandshakeExecutor
+		implements Initializable, UnregisterAware {
+
+	public static final String ID = "tls-handshake-executor";
+
+	private static final Logger log = Logger.getLogger(TLSHandshakeExecutor.class.getName());
+
+	private final AtomicLong completedHandshakes = new AtomicLong();
+	private volatile ThreadPoolExecutor executor = null;
+	private final LatencyHistogram handshakeTime = new LatencyHistogram();
+	@ConfigField(desc = "Maximal number of TLS handshake tasks waiting for execution", alias = "queue-size")
+	private int queueSize = 8192;
+	private final AtomicLong rejectedHandshakes = new AtomicLong();
+	private final LatencyHistogram taskTime = new LatencyHistogram();
+	private final LatencyHistogram taskWaitTime = new LatencyHistogram();
+	@ConfigField(desc = "Number of threads executing TLS handshake tasks", alias = "threads")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	public TLSHandshakeExecutor() {
+	}
+
+	TLSHandshakeExecutor(int threads, int queueSize) {
+		this.threads = threads;
+		this.queueSize = queueSize;
+		initialize();
+	}
+
+	@Override
+	public void initialize() {
+		if (threads > 0) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+																 new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+																 new HandshakeThreadFactory());
+			executor.allowCoreThreadTimeOut(true);
+			this.executor = executor;
+			log.log(Level.CONFIG, "TLS handshake tasks will be executed by {0} threads, queue size: {1}",
+					new Object[]{threads, queueSize});
+		} else {
+			executor = null;
+			log.log(Level.CONFIG, "TLS handshake tasks will be executed by socket threads");
+		}
+	}
+
+	@Override
+	public void beforeUnregister() {
+		ThreadPoolExecutor executor = this.executor;
+		this.executor = null;
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Checks if delegated tasks should be passed to the pool or executed by the calling thread.
+	 */
+	public boolean isEnabled() {
+		return executor != null;
+	}
+
+	/**
+	 * Executes delegated tasks of a single handshake step in the pool. Tasks are executed in order by a single pool
+	 * thread and then <code>completionHandler</code> is called.
+	 *
+	 * @return <code>false</code> if the pool is overloaded and the handshake should be rejected.
+	 */
+	public boolean execute(List<Runnable> tasks, Runnable completionHandler) {
+		final long queuedAt = System.nanoTime();
+		ThreadPoolExecutor executor = this.executor;
+		if (executor == null) {
+			rejectedHandshakes.incrementAndGet();
+			return false;
+		}
+		try {
+			executor.execute(() -> {
+				long startedAt = System.nanoTime();
+				taskWaitTime.record(startedAt - queuedAt);
+				try {
+					for (Runnable task : tasks) {
+						task.run();
+					}
+				} finally {
+					taskTime.record(System.nanoTime() - startedAt);
+					completionHandler.run();
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException ex) {
+			rejectedHandshakes.incrementAndGet();
+			return false;
+		}
+	}
+
+	/**
+	 * Executes delegated tasks by the calling thread, used when offloading is disabled.
+	 */
+	public void executeInline(List<Runnable> tasks) {
+		long startedAt = System.nanoTime();
+		for (Runnable task : tasks) {
+			task.run();
+		}
+		taskTime.record(System.nanoTime() - startedAt);
+	}
+
+	public void handshakeCompleted(long durationNanos) {
+		completedHandshakes.incrementAndGet();
+		handshakeTime.record(durationNanos);
+	}
+
+	public void getStatistics(String compName, StatisticsList list) {
+		list.add(compName, "TLS handshakes/Completed", completedHandshakes.get(), Level.FINE);
+		list.add(compName, "TLS handshakes/Rejected", rejectedHandshakes.get(), Level.FINE);
+		ThreadPoolExecutor executor = this.executor;
+		if (executor != null) {
+			list.add(compName, "TLS handshakes/Queued tasks", executor.getQueue().size(), Level.FINE);
+			list.add(compName, "TLS handshakes/Active threads", executor.getActiveCount(), Level.FINER);
+			list.add(compName, "TLS handshakes/Executed tasks", executor.getCompletedTaskCount(), Level.FINER);
+			taskWaitTime.getStatistics(compName, "TLS handshakes/Task wait time", list);
+		}
+		taskTime.getStatistics(compName, "TLS handshakes/Task time", list);
+		handshakeTime.getStatistics(compName, "TLS handshakes/Handshake time", list);
+	}
+
+	private static class HandshakeThreadFactory
+			implements ThreadFactory {
+
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "tls-handshake-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -48,6 +48,14 @@ public class TLSIO
 
 	private IOInterface io = null;
 
+	private int resumedBytes = 0;
+
+	/**
+	 * <code>resumePending</code> is set when processing was stopped as handshake delegated tasks are executed in the
+	 * background.
+	 */
+	private volatile boolean resumePending = false;
+
 	/**
 	 * <code>tlsInput</code> buffer keeps data decoded from tlsWrapper.
 	 */
@@ -58,6 +66,12 @@ public class TLSIO
 	 */
 	private TLSWrapper tlsWrapper = null;
 
+	/**
+	 * <code>undecodedInput</code> is set when network data was left in the input buffer as it could not be decoded
+	 * before handshake delegated tasks are completed.
+	 */
+	private volatile boolean undecodedInput = false;
+
 	int max_loop_runs = 1000;
 
 	// /**
@@ -92,7 +106,7 @@ public class TLSIO
 
 	@Override
 	public int bytesRead() {
-		return io.bytesRead();
+		return resumedBytes > 0 ? resumedBytes : io.bytesRead();
 	}
 
 	@Override
@@ -166,6 +180,7 @@ public class TLSIO
 		// log.finer("input.limit()=" + buff.limit());
 		// log.finer("input.position()=" + buff.position());
 		// }
+		resumedBytes = 0;
 		ByteBuffer tmpBuffer = io.read(buff);
 
 		if (io.bytesRead() > 0) {
@@ -173,7 +188,19 @@ public class TLSIO
 				log.log(Level.FINER, "Read bytes: {0}, {1}", new Object[]{io.bytesRead(), toString()});
 			}
 
+			undecodedInput = false;
 			return decodeData(tmpBuffer);
+		} else if (undecodedInput && buff.position() > 0 && tlsWrapper.getStatus() != TLSStatus.NEED_TASK) {
+			// Nothing new from the network but there are data left from before
+			// handshake tasks were offloaded, they need to be decoded now.
+			undecodedInput = false;
+			buff.flip();
+			resumedBytes = buff.remaining();
+			if (log.isLoggable(Level.FINER)) {
+				log.log(Level.FINER, "Resuming decoding of bytes: {0}, {1}", new Object[]{resumedBytes, toString()});
+			}
+
+			return decodeData(buff);
 		} else {
 			if (tlsInput.capacity() > tlsWrapper.getAppBuffSize() && tlsInput.capacity() == tlsInput.remaining()) {
 				if (log.isLoggable(Level.FINE)) {
@@ -209,7 +236,8 @@ public class TLSIO
 
 	@Override
 	public boolean waitingToSend() {
-		return io.waitingToSend();
+		return io.waitingToSend() || ((resumePending || undecodedInput) && tlsWrapper.getStatus() != TLSStatus.NEED_TASK) ||
+				(tlsWrapper.hasBufferedAppData() && tlsWrapper.getStatus() == TLSStatus.OK);
 	}
 
 	@Override
@@ -254,7 +282,10 @@ public class TLSIO
 					// I wonder if some real data can be read from the socket here (and we
 					// would
 					// loose the data) or this is just TLS stuff here.....
-					ByteBuffer rbuff = read(ByteBuffer.allocate(tlsWrapper.getNetBuffSize()));
+					// Data left in the input buffer must be decoded first.
+					if (!undecodedInput) {
+						ByteBuffer rbuff = read(ByteBuffer.allocate(tlsWrapper.getNetBuffSize()));
+					}
 
 					break;
 
@@ -296,17 +327,29 @@ public class TLSIO
 			throw new EOFException("Socket has been closed.");
 		} // end of if (tlsWrapper.getStatus() == TLSStatus.CLOSED)
 
-		int result = -1;
+		if (resumePending) {
+			stat = tlsWrapper.getStatus();
+			if (stat != TLSStatus.NEED_TASK && stat != TLSStatus.NEED_WRITE) {
+				resumePending = false;
+			}
+		}
+
+		int result = 0;
+
+		if (tlsWrapper.hasBufferedAppData()) {
+			// application data passed while handshake tasks were executed needs to be sent first
+			result += writeBufferedAppData(loop_cnt);
+		}
 
 		if (buff == null) {
-			result = io.write(null);
+			result += io.write(null);
 		} else {
 			if (log.isLoggable(Level.FINER)) {
 				log.log(Level.FINER, "TLS - Writing data, remaining: {0}, loop_cnt: {1}, TLSIO: {2}, tlsWrapper: {3}",
 						new Object[]{buff.remaining(), loop_cnt, toString(), String.valueOf(tlsWrapper)});
 			}
 
-			result = writeBuff(buff, loop_cnt);
+			result += writeBuff(buff, loop_cnt);
 		}
 
 		// if (isRemoteAddress("81.142.228.219")) {
@@ -401,6 +444,16 @@ public class TLSIO
 
 					break;
 
+				case NEED_TASK:
+					// Handshake tasks are executed in the background, remaining data
+					// is kept in the buffer and decoded when processing is resumed.
+					resumePending = true;
+					undecodedInput = input.hasRemaining();
+					input.compact();
+					continueLoop = false;
+
+					break;
+
 				case CLOSED:
 
 					// if (tlsWrapper.getStatus() == TLSStatus.CLOSED) {
@@ -420,6 +473,14 @@ public class TLSIO
 			stat = tlsWrapper.getStatus();
 		} while (continueLoop && ((stat == TLSStatus.NEED_READ) || (stat == TLSStatus.OK)) && input.hasRemaining());
 
+		if (continueLoop && stat == TLSStatus.NEED_TASK) {
+			// handshake tasks were started while writing handshake data
+			resumePending = true;
+			undecodedInput = input.hasRemaining();
+			input.compact();
+			continueLoop = false;
+		}
+
 		if (continueLoop) {
 			if (input.hasRemaining()) {
 				input.rewind();
@@ -433,6 +494,15 @@ public class TLSIO
 		return tlsInput;
 	}
 
+	private int writeBufferedAppData(int loop_cnt) throws IOException {
+		int result = 0;
+		while (tlsWrapper.hasBufferedAppData() && tlsWrapper.getStatus() == TLSStatus.OK &&
+				(++loop_cnt < max_loop_runs)) {
+			result += writeBuff(ByteBuffer.allocate(0), loop_cnt);
+		}
+		return result;
+	}
+
 	private int writeBuff(ByteBuffer buff, int loop_cnt) throws IOException {
 		int result = 0;
 		int wr = 0;
@@ -450,7 +520,7 @@ public class TLSIO
 		// It happens extremely rarely and is hard to diagnose. Let's leave it
 		// as it is now which just causes such connections to be closed.
 		do {
-			if (tlsWrapper.getStatus() == TLSStatus.NEED_READ) {
+			if (tlsWrapper.getStatus() == TLSStatus.NEED_READ && !undecodedInput) {
 
 				// I wonder if some real data can be read from the socket here (and we
 				// would
@@ -471,6 +541,9 @@ public class TLSIO
 			if (tlsWrapper.getStatus() == TLSStatus.CLOSED) {
 				throw new EOFException("Socket has been closed.");
 			} // end of if (tlsWrapper.getStatus() == TLSStatus.CLOSED)
+			if (tlsWrapper.getStatus() == TLSStatus.NEED_TASK) {
+				resumePending = true;
+			}
 
 			tlsOutput.flip();
 			wr = io.write(tlsOutput);
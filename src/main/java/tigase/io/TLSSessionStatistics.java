@@ -0,0 +1,64 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.io;
+
+import tigase.stats.StatisticsList;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Counters of completed TLS handshakes of a single listener (connection manager) used to report efficiency of TLS
+ * sessions resumption.
+ */
+public class TLSSessionStatistics {
+
+	private final AtomicLong fullHandshakes = new AtomicLong();
+	private final AtomicLong resumedHandshakes = new AtomicLong();
+
+	public void handshakeCompleted(boolean resumed) {
+		if (resumed) {
+			resumedHandshakes.incrementAndGet();
+		} else {
+			fullHandshakes.incrementAndGet();
+		}
+	}
+
+	public long getFullHandshakes() {
+		return fullHandshakes.get();
+	}
+
+	public long getResumedHandshakes() {
+		return resumedHandshakes.get();
+	}
+
+	/**
+	 * Returns percentage of handshakes which resumed previously established session.
+	 */
+	public float getResumptionRate() {
+		long resumed = resumedHandshakes.get();
+		long total = resumed + fullHandshakes.get();
+		return total == 0 ? 0 : (resumed * 100f) / total;
+	}
+
+	public void getStatistics(String compName, StatisticsList list) {
+		list.add(compName, "TLS sessions/Full handshakes", getFullHandshakes(), Level.FINE);
+		list.add(compName, "TLS sessions/Resumed handshakes", getResumedHandshakes(), Level.FINE);
+		list.add(compName, "TLS sessions/Resumption rate [%]", getResumptionRate(), Level.FINE);
+	}
+}
@@ -28,6 +28,11 @@ public enum TLSStatus {
 
 	NEED_WRITE,
 	NEED_READ,
+	/**
+	 * Handshake delegated tasks are being executed in a background, no data can be processed until they are
+	 * completed.
+	 */
+	NEED_TASK,
 	UNDERFLOW,
 	CLOSED,
 	OK;
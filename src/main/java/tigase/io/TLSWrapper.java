@@ -47,12 +47,27 @@ public interface TLSWrapper {
 
 	TLSStatus getStatus();
 
+	/**
+	 * Checks if application data passed to {@link #wrap(ByteBuffer, ByteBuffer)} while delegated tasks of the
+	 * handshake were executed is still waiting to be encrypted.
+	 */
+	default boolean hasBufferedAppData() {
+		return false;
+	}
+
 	byte[] getTlsUniqueBindingData();
 
 	boolean isClientMode();
 
 	boolean isNeedClientAuth();
 
+	/**
+	 * Checks if completed handshake resumed previously established TLS session.
+	 */
+	default boolean isSessionResumed() {
+		return false;
+	}
+
 	void setDebugId(String id);
 
 	ByteBuffer unwrap(ByteBuffer net, ByteBuffer app) throws SSLException;
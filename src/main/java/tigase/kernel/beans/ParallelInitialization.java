@@ -0,0 +1,37 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.kernel.beans;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks bean which {@link Initializable#initialize()} method may be executed by Kernel on a separate thread, when
+ * parallel initialization of beans is enabled (see {@link tigase.kernel.core.Kernel#setParallelInitializationThreads(int)}).
+ * <br>
+ * Kernel calls <code>initialize()</code> of such bean only after all beans it depends on are initialized and beans
+ * depending on it are initialized only after its <code>initialize()</code> is finished. However, as this method is
+ * executed outside of the thread which initializes the Kernel, it must not request instances of other beans from the
+ * Kernel nor register or unregister beans.
+ */
+@Target({ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+@Inherited
+@Documented
+public @interface ParallelInitialization {
+
+}
@@ -58,8 +58,10 @@ public class BeanConfig {
 	private final Class<?> clazz;
 	private final Map<Field, Dependency> fieldDependencies = new HashMap<Field, Dependency>();
 	private String beanInstanceName = null;
+	private volatile long creationTime = -1;
 	private boolean exportable;
 	private BeanConfig factory;
+	private volatile long initializationTime = -1;
 	private Kernel kernel;
 	private boolean pinned = true;
 	private Set<BeanConfig> registeredBeans = new HashSet<>();
@@ -136,6 +138,35 @@ public class BeanConfig {
 		return fieldDependencies;
 	}
 
+	/**
+	 * Returns time spent on creation and configuration of the last instance of bean (excluding initialization of its
+	 * dependencies).
+	 *
+	 * @return time in milliseconds or <code>-1</code> if bean was not created yet.
+	 */
+	public long getCreationTime() {
+		return creationTime;
+	}
+
+	void setCreationTime(long creationTime) {
+		this.creationTime = creationTime;
+	}
+
+	/**
+	 * Returns time spent in {@link tigase.kernel.beans.Initializable#initialize()} method of the last instance of
+	 * bean.
+	 *
+	 * @return time in milliseconds or <code>-1</code> if bean was not initialized yet or is not
+	 * {@link tigase.kernel.beans.Initializable}.
+	 */
+	public long getInitializationTime() {
+		return initializationTime;
+	}
+
+	void setInitializationTime(long initializationTime) {
+		this.initializationTime = initializationTime;
+	}
+
 	/**
 	 * Returns {@link Kernel} managing this bean.
 	 *
@@ -29,6 +29,9 @@ import tigase.util.reflection.ReflectionHelper;
 
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.logging.Level;
@@ -45,6 +48,8 @@ public class Kernel {
 
 	private static final ThreadLocal<DelayedDependencyInjectionQueue> DELAYED_DEPENDENCY_INJECTION = new ThreadLocal<>();
 
+	private static final ThreadLocal<ParallelBeanInitializer> PARALLEL_INITIALIZATION = new ThreadLocal<>();
+
 	private final Map<String, Object> beanInstances = new HashMap<>();
 
 	private final DependencyManager dependencyManager = new DependencyManager();
@@ -53,6 +58,8 @@ public class Kernel {
 
 	private boolean forceAllowNull;
 
+	private ForkJoinPool initializationPool;
+
 	private String name;
 
 	private Kernel parent;
@@ -74,15 +81,26 @@ public class Kernel {
 			return;
 		}
 
+		ParallelBeanInitializer initializer = PARALLEL_INITIALIZATION.get();
+		if (initializer != null && initializer.getInitialization(beanConfig) != null) {
+			// bean is already created and its initialization is scheduled, state will be updated when it is finished
+			return;
+		}
+
 		DelayedDependencyInjectionQueue queue = beanConfig.getKernel().beginDependencyDelayedInjection();
 
+		boolean initializationScheduled = false;
 		try {
 			Object bean;
+			long creationTime = 0;
 			if (beanConfig.getState() == State.registered) {
 				beanConfig.setState(State.instanceCreated);
 				if (beanConfig.getFactory() != null && beanConfig.getFactory().getState() != State.initialized) {
 					initBean(beanConfig.getFactory(), new HashSet<BeanConfig>(), 0);
 				}
+				if (beanConfig.getFactory() != null) {
+					awaitInitialization(beanConfig.getFactory());
+				}
 				if (RegistrarBean.class.isAssignableFrom(beanConfig.getClazz())) {
 					RegistrarKernel k = new RegistrarKernel();
 					k.setName(beanConfig.getBeanName());
@@ -90,7 +108,9 @@ public class Kernel {
 					beanConfig.setKernel(k);
 					beanConfig.setBeanInstanceName("service");
 				}
+				long start = System.nanoTime();
 				bean = beanConfig.getKernel().createNewInstance(beanConfig);
+				creationTime = System.nanoTime() - start;
 				beanConfig.getKernel().putBeanInstance(beanConfig.getBeanInstanceName(), bean);
 				createdBeansConfig.add(beanConfig);
 				if (RegistrarBean.class.isAssignableFrom(beanConfig.getClazz())) {
@@ -119,11 +139,13 @@ public class Kernel {
 				beanConfigurator = null;
 			}
 
+			long start = System.nanoTime();
 			if (beanConfigurator != null) {
 				beanConfigurator.configure(beanConfig, bean);
 			} else {
 				AbstractBeanConfigurator.registerBeansForBeanOfClass(beanConfig.getKernel(), bean.getClass());
 			}
+			beanConfig.setCreationTime((creationTime + System.nanoTime() - start) / 1000_000);
 
 			beanConfig.getKernel().finishDependecyDelayedInjection(queue);
 
@@ -133,28 +155,15 @@ public class Kernel {
 
 			// there is no need to wait to initialize parent beans, it there any?
 			if (bean instanceof Initializable && beanConfig.getState() != State.initialized) {
-				((Initializable) bean).initialize();
+				initializationScheduled = beanConfig.getKernel().initializeBean(beanConfig, (Initializable) bean);
 			}
 		} catch (Throwable ex) {
-			if (beanConfig.getState() == State.instanceCreated) {
-				// initialization of a bean failed!!
-				Object i = beanConfig.getKernel().beanInstances.remove(beanConfig.getBeanInstanceName());
-				if (i != null) {
-					fireUnregisterAware(i);
-					if (i instanceof RegistrarBean) {
-						beanConfig.getKernel().shutdown = true;
-						((RegistrarBean) i).unregister(beanConfig.getKernel());
-						Kernel parent = beanConfig.getKernel().getParent();
-						parent.unregister(beanConfig.getBeanName() + "#KERNEL");
-						beanConfig.setKernel(parent);
-						beanConfig.setBeanInstanceName(null);
-					}
-				}
-				beanConfig.setState(State.registered);
-			}
+			beanInitializationFailed(beanConfig);
 			throw ex;
 		}
-		tmpBC.setState(State.initialized);
+		if (!initializationScheduled) {
+			tmpBC.setState(State.initialized);
+		}
 //		if (deep == 0) {
 //			for (BeanConfig bc : createdBeansConfig) {
 //				Object bi = bc.getKernel().getInstance(bc);
@@ -299,13 +308,18 @@ public class Kernel {
 		}
 
 		if (bc.getState() != State.initialized) {
+			ParallelBeanInitializer initializer = beginParallelInitialization();
 			try {
-				bc.getKernel().initBean(bc, new HashSet<BeanConfig>(), 0);
-			} catch (Exception e) {
-				log.log(Level.SEVERE, "Exception getting instance", e);
-				throw new KernelException(e);
+				try {
+					bc.getKernel().initBean(bc, new HashSet<BeanConfig>(), 0);
+				} catch (Exception e) {
+					log.log(Level.SEVERE, "Exception getting instance", e);
+					throw new KernelException(e);
+				}
+				injectIfRequired(bc);
+			} finally {
+				finishParallelInitialization(initializer);
 			}
-			injectIfRequired(bc);
 		}
 
 		Object result = bc.getKernel().getInstance(bc);
@@ -413,6 +427,7 @@ public class Kernel {
 	 * Forces initiate all registered beans.
 	 */
 	public void initAll() {
+		ParallelBeanInitializer initializer = beginParallelInitialization();
 		try {
 			for (BeanConfig bc : dependencyManager.getBeanConfigs()) {
 				if (bc.getState() != State.initialized) {
@@ -421,6 +436,8 @@ public class Kernel {
 			}
 		} catch (Exception e) {
 			throw new KernelException("Can''t initialize all beans", e);
+		} finally {
+			finishParallelInitialization(initializer);
 		}
 	}
 
@@ -640,6 +657,31 @@ public class Kernel {
 		this.forceAllowNull = forceAllowNull;
 	}
 
+	/**
+	 * Enables parallel initialization of beans annotated with {@link ParallelInitialization}. Their
+	 * <code>initialize()</code> methods will be executed by a pool of threads of the passed size, while beans depending
+	 * on them will be initialized only after they are initialized. Setting is inherited by child Kernels.
+	 * <br>
+	 * Number of threads of the server kernel is set from <code>kernel-parallel-init-threads</code> configuration
+	 * property.
+	 *
+	 * @param threads number of threads used for initialization of beans or <code>0</code> to initialize all beans
+	 * sequentially
+	 */
+	public void setParallelInitializationThreads(int threads) {
+		if (initializationPool != null) {
+			initializationPool.shutdown();
+			initializationPool = null;
+		}
+		if (threads > 0) {
+			initializationPool = new ForkJoinPool(threads, pool -> {
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setName(getName() + "-bean-initialization-" + thread.getPoolIndex());
+				return thread;
+			}, null, false);
+		}
+	}
+
 	/**
 	 * Shutdown kernel.
 	 */
@@ -692,6 +734,9 @@ public class Kernel {
 				}
 			}
 		}
+		if (initializationPool != null) {
+			initializationPool.shutdown();
+		}
 	}
 
 	private void initiateShutdown() {
@@ -979,12 +1024,15 @@ public class Kernel {
 		BeanConfig bc = bcs.get(0);
 
 		if (bc.getState() != State.initialized) {
+			ParallelBeanInitializer initializer = beginParallelInitialization();
 			try {
 				initBean(bc, new HashSet<BeanConfig>(), 0);
 			} catch (Exception e) {
 //				e.printStackTrace();
 				log.log(Level.SEVERE, "Exception getting instance", e);
 				throw new KernelException(e);
+			} finally {
+				finishParallelInitialization(initializer);
 			}
 		}
 
@@ -1136,6 +1184,129 @@ public class Kernel {
 		}
 	}
 
+	private ForkJoinPool getInitializationPool() {
+		if (initializationPool != null) {
+			return initializationPool;
+		}
+		return (parent != null && parent != this) ? parent.getInitializationPool() : null;
+	}
+
+	private ParallelBeanInitializer beginParallelInitialization() {
+		if (PARALLEL_INITIALIZATION.get() != null) {
+			return null;
+		}
+		ForkJoinPool pool = getInitializationPool();
+		if (pool == null || pool.isShutdown()) {
+			return null;
+		}
+		ParallelBeanInitializer initializer = new ParallelBeanInitializer(pool);
+		PARALLEL_INITIALIZATION.set(initializer);
+		return initializer;
+	}
+
+	private void finishParallelInitialization(ParallelBeanInitializer initializer) {
+		if (initializer == null) {
+			return;
+		}
+		PARALLEL_INITIALIZATION.remove();
+		initializer.awaitAll();
+	}
+
+	private void awaitInitialization(BeanConfig beanConfig) {
+		ParallelBeanInitializer initializer = PARALLEL_INITIALIZATION.get();
+		if (initializer == null) {
+			return;
+		}
+		CompletableFuture<Void> future = initializer.getInitialization(beanConfig);
+		if (future != null) {
+			initializer.await(Collections.singletonList(future));
+		}
+	}
+
+	/**
+	 * Executes <code>initialize()</code> method of the bean or schedules its execution on the initialization pool.
+	 *
+	 * @return <code>true</code> if initialization was scheduled, then state of the bean is changed when it is finished
+	 */
+	private boolean initializeBean(BeanConfig beanConfig, Initializable bean) {
+		ParallelBeanInitializer initializer = PARALLEL_INITIALIZATION.get();
+		if (initializer == null) {
+			ParallelBeanInitializer.initialize(beanConfig, bean);
+			return false;
+		}
+
+		List<CompletableFuture<Void>> dependencies = new ArrayList<>();
+		collectInitializationsOfDependencies(initializer, beanConfig,
+											 Collections.newSetFromMap(new IdentityHashMap<>()), dependencies);
+		if (ParallelBeanInitializer.isParallel(beanConfig)) {
+			initializer.schedule(beanConfig, bean, dependencies);
+			return true;
+		} else {
+			initializer.await(dependencies);
+			ParallelBeanInitializer.initialize(beanConfig, bean);
+			return false;
+		}
+	}
+
+	/**
+	 * Called by the thread which started initialization of beans, when scheduled initialization of the bean is
+	 * finished.
+	 *
+	 * @param beanConfig configuration of the bean
+	 * @param error exception thrown by the bean or <code>null</code> if it was initialized
+	 */
+	void scheduledInitializationFinished(BeanConfig beanConfig, Throwable error) {
+		if (error == null) {
+			beanConfig.setState(State.initialized);
+		} else {
+			beanInitializationFailed(beanConfig);
+		}
+	}
+
+	/**
+	 * Removes instance of the bean which could not be initialized, so it will be created again when it is needed.
+	 */
+	private void beanInitializationFailed(BeanConfig beanConfig) {
+		if (beanConfig.getState() != State.instanceCreated) {
+			return;
+		}
+		Object i = beanConfig.getKernel().beanInstances.remove(beanConfig.getBeanInstanceName());
+		if (i != null) {
+			fireUnregisterAware(i);
+			if (i instanceof RegistrarBean) {
+				beanConfig.getKernel().shutdown = true;
+				((RegistrarBean) i).unregister(beanConfig.getKernel());
+				Kernel parent = beanConfig.getKernel().getParent();
+				parent.unregister(beanConfig.getBeanName() + "#KERNEL");
+				beanConfig.setKernel(parent);
+				beanConfig.setBeanInstanceName(null);
+			}
+		}
+		beanConfig.setState(State.registered);
+	}
+
+	private void collectInitializationsOfDependencies(ParallelBeanInitializer initializer, BeanConfig beanConfig,
+													  Set<BeanConfig> visited,
+													  List<CompletableFuture<Void>> result) {
+		for (Dependency dep : beanConfig.getFieldDependencies().values()) {
+			for (BeanConfig bc : dependencyManager.getBeanConfig(dep)) {
+				while (bc instanceof DelegatedBeanConfig) {
+					bc = ((DelegatedBeanConfig) bc).getOriginal();
+				}
+				if (bc == null || !visited.add(bc)) {
+					continue;
+				}
+				CompletableFuture<Void> future = initializer.getInitialization(bc);
+				if (future != null) {
+					result.add(future);
+				} else if (!Initializable.class.isAssignableFrom(bc.getClazz())) {
+					// bean without initialize() is ready when beans it depends on are ready
+					bc.getKernel().collectInitializationsOfDependencies(initializer, bc, visited, result);
+				}
+			}
+		}
+	}
+
 	private void fireUnregisterAware(Object i) {
 		if (i != null && i instanceof UnregisterAware) {
 			try {
@@ -1490,11 +1661,21 @@ public class Kernel {
 			return original.getFactory();
 		}
 
+		@Override
+		public long getCreationTime() {
+			return original.getCreationTime();
+		}
+
 		@Override
 		public Map<Field, Dependency> getFieldDependencies() {
 			return original.getFieldDependencies();
 		}
 
+		@Override
+		public long getInitializationTime() {
+			return original.getInitializationTime();
+		}
+
 		@Override
 		public Kernel getKernel() {
 			return original.getKernel();
@@ -0,0 +1,138 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.kernel.core;
+
+import tigase.kernel.KernelException;
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.ParallelInitialization;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class keeps track of beans which <code>initialize()</code> method was scheduled for execution on the initialization
+ * pool during single (top level) initialization of beans started by {@link Kernel}.
+ * <br>
+ * Instance of this class is used only by a thread which started initialization of beans, while scheduled tasks only
+ * complete futures stored within.
+ */
+class ParallelBeanInitializer {
+
+	private static final Logger log = Logger.getLogger(ParallelBeanInitializer.class.getCanonicalName());
+
+	private final Map<BeanConfig, CompletableFuture<Void>> initializations = new IdentityHashMap<>();
+	private final ForkJoinPool pool;
+
+	static boolean isParallel(BeanConfig beanConfig) {
+		return beanConfig.getClazz().isAnnotationPresent(ParallelInitialization.class);
+	}
+
+	ParallelBeanInitializer(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Method returns future of initialization of a bean if it was scheduled for parallel initialization.
+	 *
+	 * @param beanConfig bean configuration
+	 *
+	 * @return future or <code>null</code> if bean was not scheduled
+	 */
+	CompletableFuture<Void> getInitialization(BeanConfig beanConfig) {
+		return initializations.get(beanConfig);
+	}
+
+	/**
+	 * Schedules execution of <code>initialize()</code> method of a bean after all passed initializations are
+	 * finished.
+	 *
+	 * @param beanConfig configuration of the bean
+	 * @param bean instance of the bean
+	 * @param dependencies initializations which needs to be completed before bean is initialized
+	 */
+	void schedule(BeanConfig beanConfig, Initializable bean, Collection<CompletableFuture<Void>> dependencies) {
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "[{0}] Scheduling initialization of bean {1} after {2} initializations",
+					new Object[]{beanConfig.getKernel().getName(), beanConfig.getBeanName(), dependencies.size()});
+		}
+		CompletableFuture<Void> future = CompletableFuture.allOf(
+				dependencies.toArray(new CompletableFuture[dependencies.size()]))
+				.thenRunAsync(() -> initialize(beanConfig, bean), pool);
+		initializations.put(beanConfig, future);
+	}
+
+	/**
+	 * Waits until all passed initializations are completed.
+	 *
+	 * @param dependencies initializations to wait for
+	 *
+	 * @throws KernelException if any of initializations failed
+	 */
+	void await(Collection<CompletableFuture<Void>> dependencies) throws KernelException {
+		for (CompletableFuture<Void> future : dependencies) {
+			try {
+				future.join();
+			} catch (CompletionException ex) {
+				throw new KernelException("Initialization of dependency failed", ex.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Waits until all scheduled initializations are completed. Beans which were initialized are marked as initialized
+	 * and instances of beans which failed are removed from their kernels.
+	 *
+	 * @throws KernelException if any of initializations failed
+	 */
+	void awaitAll() throws KernelException {
+		KernelException exception = null;
+		for (Map.Entry<BeanConfig, CompletableFuture<Void>> e : initializations.entrySet()) {
+			try {
+				e.getValue().join();
+				e.getKey().getKernel().scheduledInitializationFinished(e.getKey(), null);
+			} catch (CompletionException ex) {
+				log.log(Level.SEVERE, "Initialization of bean " + e.getKey().getBeanName() + " failed", ex.getCause());
+				e.getKey().getKernel().scheduledInitializationFinished(e.getKey(), ex.getCause());
+				if (exception == null) {
+					exception = new KernelException(
+							"Can''t initialize bean '" + e.getKey().getBeanName() + "' (class: " +
+									e.getKey().getClazz() + ")", ex.getCause());
+				}
+			}
+		}
+		if (exception != null) {
+			throw exception;
+		}
+	}
+
+	static void initialize(BeanConfig beanConfig, Initializable bean) {
+		long start = System.nanoTime();
+		bean.initialize();
+		beanConfig.setInitializationTime((System.nanoTime() - start) / 1000_000);
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "[{0}] Bean {1} created in {2}ms and initialized in {3}ms on thread {4}",
+					new Object[]{beanConfig.getKernel().getName(), beanConfig.getBeanName(),
+								 beanConfig.getCreationTime(), beanConfig.getInitializationTime(),
+								 Thread.currentThread().getName()});
+		}
+	}
+}
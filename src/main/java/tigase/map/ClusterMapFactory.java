@@ -20,58 +20,98 @@ package tigase.map;
 import tigase.eventbus.EventBus;
 import tigase.eventbus.EventBusFactory;
 import tigase.eventbus.HandleEvent;
+import tigase.eventbus.RouteEvent;
+import tigase.eventbus.component.stores.Subscription;
 import tigase.eventbus.impl.EventName;
 import tigase.kernel.DefaultTypesConverter;
 import tigase.kernel.TypesConverter;
+import tigase.util.dns.DNSResolverFactory;
+import tigase.xml.Element;
+import tigase.xml.XMLUtils;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Factory of maps replicated between cluster nodes with use of the event bus.
+ * <br>
+ * Local changes of a map are collected and sent to other nodes in batches of versioned entries ({@link
+ * ElementsChangedEvent}), only the latest change of a key is sent if it was modified many times within a batch. When a
+ * node creates a map or connects to the cluster, other nodes send it snapshots of their maps ({@link
+ * MapSnapshotEvent}) in chunks. Both are merged with {@link DMap#merge(Object, Object, DMap.Version)}, so the result
+ * does not depend on the order of delivery and nodes converge to the same state after a restart or a network
+ * partition. Snapshots are delivered only to the node which requested them.
+ * <br>
+ * Nodes running previous versions understand only {@link ElementAddEvent}, {@link ElementRemoveEvent} and {@link
+ * MapClearEvent}, so a rolling upgrade is supported: every node announces support of versioned replication with {@link
+ * MapReplicationVersionEvent} when it connects to the cluster and, as long as any connected node has not announced it,
+ * every local change is additionally sent as a legacy event. Legacy events sent by upgraded nodes carry the id of the
+ * sender and are ignored by other upgraded nodes, which receive the same change as a versioned entry.
+ * <br>
+ * Replication is configured with system properties:
+ * <ul>
+ * <li><code>dmap-batch-delay</code> - time in milliseconds for which changes are collected before sending,
+ * <code>0</code> sends every change immediately (default: 10),</li>
+ * <li><code>dmap-batch-size</code> - maximal number of entries in a single event (default: 256),</li>
+ * <li><code>dmap-tombstone-ttl</code> - time in milliseconds after which versions of removed keys are forgotten, it
+ * should be longer than the expected duration of a network partition (default: 600000).</li>
+ * </ul>
+ */
 public class ClusterMapFactory {
 
+	public static final String DMAP_BATCH_DELAY_KEY = "dmap-batch-delay";
+
+	public static final String DMAP_BATCH_SIZE_KEY = "dmap-batch-size";
+
+	public static final String DMAP_TOMBSTONE_TTL_KEY = "dmap-tombstone-ttl";
+
 	private final static EventName NEWMAP_EVENT_NAME = new EventName(NewMapCreatedEvent.class);
+	// gives other nodes time to subscribe to our events after the cluster connection is established
+	private static final long SYNC_REQUEST_DELAY = 5000;
 	private static ClusterMapFactory instance;
 	private final Logger log = Logger.getLogger(this.getClass().getName());
 	private final ConcurrentHashMap<String, DMap> maps = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, PendingChanges> pendingChanges = new ConcurrentHashMap<>();
+	private final Set<String> connectedNodes = ConcurrentHashMap.newKeySet();
+	private final Set<String> versionedNodes = ConcurrentHashMap.newKeySet();
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "dmap-sync");
+		thread.setDaemon(true);
+		return thread;
+	});
 	private final TypesConverter typesConverter = new DefaultTypesConverter();
+	private long batchDelay = Long.getLong(DMAP_BATCH_DELAY_KEY, 10);
+	private int batchSize = Integer.getInteger(DMAP_BATCH_SIZE_KEY, 256);
 	private EventBus eventBus;
+	private String nodeId = DNSResolverFactory.getInstance().getDefaultHost();
+	private long tombstoneTTL = Long.getLong(DMAP_TOMBSTONE_TTL_KEY, 600_000);
 	private final DMap.DMapListener mapListener = new DMap.DMapListener() {
 		@Override
-		public void onClear(DMap map) {
-			MapClearEvent event = new MapClearEvent();
-			event.setUid(map.getUid());
-			eventBus.fire(event);
-		}
-
-		@Override
-		public void onPut(DMap map, Object key, Object value) {
-			ElementAddEvent event = new ElementAddEvent();
-			event.setUid(map.getUid());
-			event.setKey(typesConverter.toString(key));
-			event.setValue(typesConverter.toString(value));
-			eventBus.fire(event);
-		}
-
-		@Override
-		public void onPutAll(DMap map, Map<?, ?> m) {
-			for (Map.Entry<?, ?> en : m.entrySet()) {
-				ElementAddEvent event = new ElementAddEvent();
-				event.setUid(map.getUid());
-				event.setKey(typesConverter.toString(en.getKey()));
-				event.setValue(typesConverter.toString(en.getValue()));
-				eventBus.fire(event);
+		public void onPut(DMap map, Object key, Object value, DMap.Version version) {
+			addPendingChange(map, key, value, version);
+			if (isLegacyNodeConnected()) {
+				fireLegacyElementAdd(map, key, value);
 			}
 		}
 
 		@Override
-		public void onRemove(DMap map, Object key) {
-			ElementRemoveEvent event = new ElementRemoveEvent();
-			event.setUid(map.getUid());
-			event.setKey(typesConverter.toString(key));
-			eventBus.fire(event);
+		public void onRemove(DMap map, Object key, DMap.Version version) {
+			addPendingChange(map, key, null, version);
+			if (isLegacyNodeConnected()) {
+				fireLegacyElementRemove(map, key);
+			}
 		}
 	};
 
@@ -85,20 +125,24 @@ public class ClusterMapFactory {
 	ClusterMapFactory() {
 		this.eventBus = EventBusFactory.getInstance();
 		this.eventBus.registerAll(this);
+		this.executor.scheduleAtFixedRate(this::purgeTombstones, 1, 1, TimeUnit.MINUTES);
 	}
 
 	public <K, V> Map<K, V> createMap(final String uid, final Class<K> keyClass, final Class<V> valueClass,
 									  final String... params) {
 
+		// map has to exist before other nodes respond with snapshots
+		DMap<K, V> map = maps.computeIfAbsent(uid, (u) -> new DMap<K, V>(uid, nodeId, this.mapListener, keyClass,
+																		  valueClass));
+
 		NewMapCreatedEvent event = new NewMapCreatedEvent();
 		event.setUid(uid);
 		event.setKeyClass(keyClass);
 		event.setValueClass(valueClass);
 		event.setParams(params);
+		event.setNode(nodeId);
 		eventBus.fire(event);
 
-		DMap<K, V> map = maps.computeIfAbsent(uid, (u) -> new DMap<K, V>(uid, this.mapListener, keyClass, valueClass));
-
 		return map;
 	}
 
@@ -109,7 +153,48 @@ public class ClusterMapFactory {
 
 			eventBus.fire(event);
 			this.maps.remove(((DMap) map).getUid(), map);
+			this.pendingChanges.remove(((DMap) map).getUid());
+		}
+	}
+
+	/**
+	 * Announces support of versioned replication and requests snapshots of all maps from other nodes. Should be called
+	 * when connection to other cluster node is established, as this node could miss changes while it was starting or
+	 * separated from the cluster.
+	 */
+	public void nodeConnected(String node) {
+		connectedNodes.add(node);
+		executor.schedule(() -> {
+			fireReplicationVersion();
+			for (String uid : maps.keySet()) {
+				MapSyncRequestEvent event = new MapSyncRequestEvent();
+				event.setUid(uid);
+				event.setNode(nodeId);
+				eventBus.fire(event);
+			}
+		}, SYNC_REQUEST_DELAY, TimeUnit.MILLISECONDS);
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Node {0} connected, requesting snapshots of {1} maps",
+					new Object[]{node, maps.size()});
+		}
+	}
+
+	/**
+	 * Should be called when connection to other cluster node is lost, so legacy events are not sent for a node which
+	 * left the cluster. Version of the node will be announced again when it reconnects.
+	 */
+	public void nodeDisconnected(String node) {
+		connectedNodes.remove(node);
+		versionedNodes.remove(node);
+	}
+
+	boolean isLegacyNodeConnected() {
+		for (String node : connectedNodes) {
+			if (!versionedNodes.contains(node)) {
+				return true;
+			}
 		}
+		return false;
 	}
 
 	private void fireOnMapCreated(Map map, String uid, String... parameters) {
@@ -134,6 +219,90 @@ public class ClusterMapFactory {
 		return this.maps.get(uid);
 	}
 
+	void setBatchDelay(long batchDelay) {
+		this.batchDelay = batchDelay;
+	}
+
+	void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	void setNodeId(String nodeId) {
+		this.nodeId = nodeId;
+	}
+
+	@HandleEvent(filter = HandleEvent.Type.remote)
+	void onElementsChanged(ElementsChangedEvent event) {
+		final DMap map = this.maps.get(event.getUid());
+		if (map == null) {
+			log.log(Level.FINE, "No map '" + event.getUid() + "' created on this node! Ignoring ElementsChanged event.");
+			return;
+		}
+		mergeItems(map, event.getItems());
+	}
+
+	@HandleEvent(filter = HandleEvent.Type.remote)
+	void onMapSnapshot(MapSnapshotEvent event) {
+		if (event.getTargetNode() != null && !nodeId.equals(event.getTargetNode())) {
+			return;
+		}
+		final DMap map = this.maps.get(event.getUid());
+		if (map == null) {
+			log.log(Level.FINE, "No map '" + event.getUid() + "' created on this node! Ignoring MapSnapshot event.");
+			return;
+		}
+		int applied = mergeItems(map, event.getItems());
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Merged chunk {0} of snapshot of map {1}, {2} entries were updated",
+					new Object[]{event.getChunk(), event.getUid(), applied});
+		}
+	}
+
+	@HandleEvent(filter = HandleEvent.Type.remote)
+	void onMapSyncRequest(MapSyncRequestEvent event) {
+		final DMap map = this.maps.get(event.getUid());
+		if (map != null) {
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Sending snapshot of map {0} requested by {1}",
+						new Object[]{event.getUid(), event.getNode()});
+			}
+			executor.execute(() -> sendSnapshot(map, event.getNode()));
+		}
+	}
+
+	@HandleEvent(filter = HandleEvent.Type.remote)
+	void onReplicationVersion(MapReplicationVersionEvent event) {
+		final String node = event.getNode();
+		if (node == null || nodeId.equals(node)) {
+			return;
+		}
+		if (versionedNodes.add(node)) {
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Node {0} supports versioned replication", node);
+			}
+			// node may have connected before we subscribed to its events, so it may not know our version yet
+			executor.execute(this::fireReplicationVersion);
+		}
+	}
+
+	@RouteEvent
+	protected Collection<Subscription> routeMapSnapshot(MapSnapshotEvent event, Collection<Subscription> subscriptions) {
+		final String targetNode = event.getTargetNode();
+		if (targetNode == null) {
+			return subscriptions;
+		}
+		Iterator<Subscription> it = subscriptions.iterator();
+		while (it.hasNext()) {
+			Subscription s = it.next();
+			if (s.isInClusterSubscription() && !targetNode.equals(s.getJid().getDomain())) {
+				it.remove();
+			}
+		}
+		return subscriptions;
+	}
+
+	// MapClearEvent, and ElementAddEvent and ElementRemoveEvent without node, are sent only by nodes running previous
+	// versions, changes are applied with local versions so they are propagated further by snapshots
 	@HandleEvent(filter = HandleEvent.Type.remote)
 	void onMapClear(MapClearEvent event) {
 		final String uid = event.getUid();
@@ -156,6 +325,9 @@ public class ClusterMapFactory {
 
 	@HandleEvent(filter = HandleEvent.Type.remote)
 	void onMapElementAdd(ElementAddEvent event) {
+		if (event.getNode() != null) {
+			return;
+		}
 		final String uid = event.getUid();
 		final DMap map = this.maps.get(uid);
 
@@ -175,6 +347,9 @@ public class ClusterMapFactory {
 
 	@HandleEvent(filter = HandleEvent.Type.remote)
 	void onMapElementRemove(ElementRemoveEvent event) {
+		if (event.getNode() != null) {
+			return;
+		}
 		final String uid = event.getUid();
 		DMap map = this.maps.get(uid);
 
@@ -197,19 +372,303 @@ public class ClusterMapFactory {
 
 			String[] parameters = event.getParams();
 
-			DMap map = new DMap(uid, mapListener, keyClass, valueClass);
+			DMap map = new DMap(uid, nodeId, mapListener, keyClass, valueClass);
 			maps.put(uid, map);
 			fireOnMapCreated(map, uid, parameters);
 		} else {
 			DMap map = this.maps.get(uid);
-			mapListener.onPutAll(map, map);
+			executor.execute(() -> sendSnapshot(map, event.getNode()));
+		}
+	}
+
+	/**
+	 * Sends snapshot of a map to a single node or, if <code>targetNode</code> is <code>null</code>, to all nodes.
+	 */
+	void sendSnapshot(DMap<?, ?> map, String targetNode) {
+		final List<Element> items = new ArrayList<>();
+		final int[] chunk = new int[]{0};
+		map.forEachVersioned((key, value, version) -> {
+			items.add(createItem(typesConverter.toString(key), typesConverter.toString(value), version));
+			if (items.size() >= batchSize) {
+				fireSnapshotChunk(map, targetNode, ++chunk[0], items, false);
+				items.clear();
+			}
+		});
+		fireSnapshotChunk(map, targetNode, ++chunk[0], items, true);
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Sent snapshot of map {0} to {1} in {2} chunks",
+					new Object[]{map.getUid(), targetNode, chunk[0]});
+		}
+	}
+
+	private void fireReplicationVersion() {
+		MapReplicationVersionEvent event = new MapReplicationVersionEvent();
+		event.setNode(nodeId);
+		eventBus.fire(event);
+	}
+
+	private void fireLegacyElementAdd(DMap map, Object key, Object value) {
+		ElementAddEvent event = new ElementAddEvent();
+		event.setUid(map.getUid());
+		event.setKey(typesConverter.toString(key));
+		event.setValue(typesConverter.toString(value));
+		event.setNode(nodeId);
+		eventBus.fire(event);
+	}
+
+	private void fireLegacyElementRemove(DMap map, Object key) {
+		ElementRemoveEvent event = new ElementRemoveEvent();
+		event.setUid(map.getUid());
+		event.setKey(typesConverter.toString(key));
+		event.setNode(nodeId);
+		eventBus.fire(event);
+	}
+
+	private void addPendingChange(DMap map, Object key, Object value, DMap.Version version) {
+		// converted immediately, as values may be modified by the caller after they were put to the map
+		Element item = createItem(typesConverter.toString(key), typesConverter.toString(value), version);
+		PendingChanges pending = pendingChanges.computeIfAbsent(map.getUid(), uid -> new PendingChanges(uid));
+		pending.add(item);
+	}
+
+	private Element createItem(String key, String value, DMap.Version version) {
+		Element item = new Element("item");
+		item.setAttribute("key", XMLUtils.escape(key));
+		if (value != null) {
+			item.setAttribute("value", XMLUtils.escape(value));
+		}
+		item.setAttribute("clock", String.valueOf(version.clock));
+		item.setAttribute("node", XMLUtils.escape(version.node));
+		return item;
+	}
+
+	private void fireSnapshotChunk(DMap<?, ?> map, String targetNode, int chunk, List<Element> items, boolean last) {
+		MapSnapshotEvent event = new MapSnapshotEvent();
+		event.setUid(map.getUid());
+		event.setTargetNode(targetNode);
+		event.setChunk(chunk);
+		event.setLast(last);
+		event.setItems(createItems(items));
+		eventBus.fire(event);
+	}
+
+	private Element createItems(List<Element> items) {
+		Element result = new Element("items");
+		result.addChildren(items);
+		return result;
+	}
+
+	private int mergeItems(DMap map, Element items) {
+		if (items == null || items.getChildren() == null) {
+			return 0;
+		}
+		int applied = 0;
+		for (Element item : items.getChildren()) {
+			try {
+				Object key = typesConverter.convert(XMLUtils.unescape(item.getAttributeStaticStr("key")),
+													map.keyClass);
+				String v = item.getAttributeStaticStr("value");
+				Object value = v == null ? null : typesConverter.convert(XMLUtils.unescape(v), map.valueClass);
+				DMap.Version version = new DMap.Version(Long.parseLong(item.getAttributeStaticStr("clock")),
+														XMLUtils.unescape(item.getAttributeStaticStr("node")));
+				if (map.merge(key, value, version)) {
+					applied++;
+				}
+			} catch (RuntimeException ex) {
+				log.log(Level.WARNING, "Cannot merge item " + item + " of map " + map.getUid(), ex);
+			}
+		}
+		return applied;
+	}
+
+	private void purgeTombstones() {
+		final long removedBefore = System.currentTimeMillis() - tombstoneTTL;
+		for (DMap map : maps.values()) {
+			int purged = map.purgeTombstones(removedBefore);
+			if (purged > 0 && log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Purged {0} tombstones of map {1}", new Object[]{purged, map.getUid()});
+			}
+		}
+	}
+
+	/**
+	 * Changes of a single map waiting to be sent. Only the latest change of a key is kept.
+	 */
+	private class PendingChanges {
+
+		private final String uid;
+		private LinkedHashMap<String, Element> items = new LinkedHashMap<>();
+		private boolean scheduled = false;
+
+		private PendingChanges(String uid) {
+			this.uid = uid;
+		}
+
+		private void add(Element item) {
+			final boolean flushNow;
+			synchronized (this) {
+				String key = item.getAttributeStaticStr("key");
+				Element prev = items.get(key);
+				// concurrent local changes of the same key may arrive out of order
+				if (prev == null || Long.parseLong(prev.getAttributeStaticStr("clock")) <
+						Long.parseLong(item.getAttributeStaticStr("clock"))) {
+					items.put(key, item);
+				}
+				flushNow = batchDelay <= 0 || items.size() >= batchSize;
+				if (!flushNow && !scheduled) {
+					scheduled = true;
+					executor.schedule(this::flush, batchDelay, TimeUnit.MILLISECONDS);
+				}
+			}
+			if (flushNow) {
+				flush();
+			}
+		}
+
+		private void flush() {
+			final LinkedHashMap<String, Element> toSend;
+			synchronized (this) {
+				scheduled = false;
+				if (items.isEmpty()) {
+					return;
+				}
+				toSend = items;
+				items = new LinkedHashMap<>();
+			}
+			ElementsChangedEvent event = new ElementsChangedEvent();
+			event.setUid(uid);
+			event.setItems(createItems(new ArrayList<>(toSend.values())));
+			eventBus.fire(event);
+		}
+	}
+
+	/**
+	 * Batch of changes of a map. Every item contains key, version and value, removed keys have no value.
+	 */
+	public static class ElementsChangedEvent
+			implements Serializable {
+
+		private Element items;
+		private String uid;
+
+		public Element getItems() {
+			return items;
+		}
+
+		public void setItems(Element items) {
+			this.items = items;
+		}
+
+		public String getUid() {
+			return uid;
+		}
+
+		public void setUid(String uid) {
+			this.uid = uid;
 		}
 	}
 
+	/**
+	 * Single chunk of a snapshot of a map, including removed keys which tombstones were not purged yet.
+	 */
+	public static class MapSnapshotEvent
+			implements Serializable {
+
+		private int chunk;
+		private Element items;
+		private boolean last;
+		private String targetNode;
+		private String uid;
+
+		public int getChunk() {
+			return chunk;
+		}
+
+		public void setChunk(int chunk) {
+			this.chunk = chunk;
+		}
+
+		public Element getItems() {
+			return items;
+		}
+
+		public void setItems(Element items) {
+			this.items = items;
+		}
+
+		public boolean isLast() {
+			return last;
+		}
+
+		public void setLast(boolean last) {
+			this.last = last;
+		}
+
+		public String getTargetNode() {
+			return targetNode;
+		}
+
+		public void setTargetNode(String targetNode) {
+			this.targetNode = targetNode;
+		}
+
+		public String getUid() {
+			return uid;
+		}
+
+		public void setUid(String uid) {
+			this.uid = uid;
+		}
+	}
+
+	/**
+	 * Announcement of a node supporting versioned replication, nodes running previous versions do not subscribe to it.
+	 */
+	public static class MapReplicationVersionEvent
+			implements Serializable {
+
+		private String node;
+
+		public String getNode() {
+			return node;
+		}
+
+		public void setNode(String node) {
+			this.node = node;
+		}
+	}
+
+	public static class MapSyncRequestEvent
+			implements Serializable {
+
+		private String node;
+		private String uid;
+
+		public String getNode() {
+			return node;
+		}
+
+		public void setNode(String node) {
+			this.node = node;
+		}
+
+		public String getUid() {
+			return uid;
+		}
+
+		public void setUid(String uid) {
+			this.uid = uid;
+		}
+	}
+
+	/**
+	 * Change of a map in format of previous versions. Events sent by upgraded nodes contain id of the sender.
+	 */
 	public static class ElementAddEvent
 			implements Serializable {
 
 		private String key;
+		private String node;
 		private String uid;
 		private String value;
 
@@ -221,6 +680,14 @@ public class ClusterMapFactory {
 			this.key = key;
 		}
 
+		public String getNode() {
+			return node;
+		}
+
+		public void setNode(String node) {
+			this.node = node;
+		}
+
 		public String getUid() {
 			return uid;
 		}
@@ -238,10 +705,14 @@ public class ClusterMapFactory {
 		}
 	}
 
+	/**
+	 * Removal of a key in format of previous versions. Events sent by upgraded nodes contain id of the sender.
+	 */
 	public static class ElementRemoveEvent
 			implements Serializable {
 
 		private String key;
+		private String node;
 		private String uid;
 
 		public String getKey() {
@@ -252,6 +723,14 @@ public class ClusterMapFactory {
 			this.key = key;
 		}
 
+		public String getNode() {
+			return node;
+		}
+
+		public void setNode(String node) {
+			this.node = node;
+		}
+
 		public String getUid() {
 			return uid;
 		}
@@ -293,6 +772,7 @@ public class ClusterMapFactory {
 			implements Serializable {
 
 		private Class keyClass;
+		private String node;
 		private String[] params;
 		private String uid;
 		private Class valueClass;
@@ -305,6 +785,14 @@ public class ClusterMapFactory {
 			this.keyClass = keyClass;
 		}
 
+		public String getNode() {
+			return node;
+		}
+
+		public void setNode(String node) {
+			this.node = node;
+		}
+
 		public String[] getParams() {
 			return params;
 		}
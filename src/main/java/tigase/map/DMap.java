@@ -21,36 +21,55 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Map replicated between cluster nodes. Every key has a version made of a logical (Lamport) clock and identifier of
+ * the node which made the change. Local changes get version greater than any version seen by this map, while
+ * changes received from other nodes are applied only if their version is greater than the version of the key, so
+ * all nodes end up with the same value no matter in which order changes were delivered. Equal clocks are resolved
+ * by comparing node identifiers.
+ * <br>
+ * Removed keys are kept as tombstones (versions without a value) to prevent resurrection of a value by a delayed
+ * older change and are purged after a while with {@link #purgeTombstones(long)}.
+ */
 class DMap<K, V>
 		implements Map<K, V> {
 
 	final Class<K> keyClass;
 	final DMapListener listener;
 	final ConcurrentHashMap<K, V> map = new ConcurrentHashMap<K, V>();
+	final String nodeId;
 	final String uid;
 	final Class<V> valueClass;
+	private final AtomicLong clock = new AtomicLong();
+	private final ConcurrentHashMap<K, Stamp> stamps = new ConcurrentHashMap<>();
 
-	public DMap(String uid, DMapListener listener, final Class<K> keyClass, final Class<V> valueClass) {
+	public DMap(String uid, String nodeId, DMapListener listener, final Class<K> keyClass,
+				final Class<V> valueClass) {
 		this.listener = listener;
 		this.uid = uid;
+		this.nodeId = nodeId;
 		this.keyClass = keyClass;
 		this.valueClass = valueClass;
 	}
 
 	@Override
 	public void clear() {
-		this.listener.onClear(this);
-		map.clear();
+		for (K key : map.keySet()) {
+			remove(key);
+		}
 	}
 
 	public void clearNoEvent() {
-		map.clear();
+		for (K key : map.keySet()) {
+			removeNoEvent(key);
+		}
 	}
 
 	@Override
 	public boolean containsKey(Object key) {
-		return map.contains(key);
+		return map.containsKey(key);
 	}
 
 	@Override
@@ -72,6 +91,24 @@ class DMap<K, V>
 		return uid;
 	}
 
+	/**
+	 * Returns current version of the key or <code>null</code> if the key was never set (or its tombstone was
+	 * already purged).
+	 */
+	public Version getVersion(Object key) {
+		Stamp stamp = stamps.get(key);
+		return stamp == null ? null : stamp.version;
+	}
+
+	/**
+	 * Passes every key known to this map with its value and version to the consumer. For removed keys value is
+	 * <code>null</code>.
+	 */
+	public void forEachVersioned(VersionedEntryConsumer<K, V> consumer) {
+		stamps.forEach((key, stamp) -> consumer.accept(key, stamp.removedAt == 0 ? map.get(key) : null,
+														stamp.version));
+	}
+
 	@Override
 	public boolean isEmpty() {
 		return map.isEmpty();
@@ -82,30 +119,75 @@ class DMap<K, V>
 		return new SetWrapper<>(map.keySet());
 	}
 
+	/**
+	 * Applies change received from other node.
+	 *
+	 * @param value new value or <code>null</code> if the key was removed
+	 *
+	 * @return <code>true</code> if the change was newer than the local state and was applied.
+	 */
+	public boolean merge(K key, V value, Version version) {
+		clock.accumulateAndGet(version.clock, Math::max);
+		return update(key, value, version, null);
+	}
+
+	/**
+	 * Removes tombstones of keys removed before passed time.
+	 *
+	 * @return number of purged tombstones.
+	 */
+	public int purgeTombstones(long removedBefore) {
+		int purged = 0;
+		for (Map.Entry<K, Stamp> e : stamps.entrySet()) {
+			Stamp stamp = e.getValue();
+			if (stamp.removedAt != 0 && stamp.removedAt < removedBefore && stamps.remove(e.getKey(), stamp)) {
+				purged++;
+			}
+		}
+		return purged;
+	}
+
 	@Override
 	public V put(K key, V value) {
-		this.listener.onPut(this, key, value);
-		return map.put(key, value);
+		if (value == null) {
+			throw new NullPointerException("Null values are not supported");
+		}
+		final Object[] old = new Object[1];
+		final Version version = nextVersion();
+		update(key, value, version, old);
+		this.listener.onPut(this, key, value, version);
+		return (V) old[0];
 	}
 
 	@Override
 	public void putAll(Map<? extends K, ? extends V> m) {
-		this.listener.onPutAll(this, m);
-		map.putAll(m);
+		for (Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
+			put(e.getKey(), e.getValue());
+		}
 	}
 
 	public void putNoEvent(K key, V value) {
-		map.put(key, value);
+		update(key, value, nextVersion(), null);
 	}
 
 	@Override
 	public V remove(Object key) {
-		listener.onRemove(this, key);
-		return map.remove(key);
+		if (!map.containsKey(key)) {
+			return null;
+		}
+		final Object[] old = new Object[1];
+		final Version version = nextVersion();
+		update((K) key, null, version, old);
+		listener.onRemove(this, key, version);
+		return (V) old[0];
 	}
 
 	public V removeNoEvent(Object key) {
-		return map.remove(key);
+		final Object[] old = new Object[1];
+		if (map.containsKey(key)) {
+			update((K) key, null, nextVersion(), old);
+		}
+		return (V) old[0];
 	}
 
 	@Override
@@ -123,16 +205,97 @@ class DMap<K, V>
 		return new CollectionWrapper<>(map.values());
 	}
 
+	int getTombstonesCount() {
+		int count = 0;
+		for (Stamp stamp : stamps.values()) {
+			if (stamp.removedAt != 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private Version nextVersion() {
+		return new Version(clock.incrementAndGet(), nodeId);
+	}
+
+	private boolean update(K key, V value, Version version, Object[] old) {
+		final boolean[] applied = new boolean[1];
+		// value map is modified only inside of compute() of the key, so both maps are always consistent
+		stamps.compute(key, (k, stamp) -> {
+			if (stamp != null && stamp.version.compareTo(version) >= 0) {
+				return stamp;
+			}
+			applied[0] = true;
+			V prev = value == null ? map.remove(k) : map.put(k, value);
+			if (old != null) {
+				old[0] = prev;
+			}
+			return new Stamp(version, value == null ? System.currentTimeMillis() : 0);
+		});
+		return applied[0];
+	}
+
 	interface DMapListener {
 
-		void onClear(DMap map);
+		void onPut(DMap map, Object key, Object value, Version version);
 
-		void onPut(DMap map, Object key, Object value);
+		void onRemove(DMap map, Object key, Version version);
+
+	}
+
+	interface VersionedEntryConsumer<K, V> {
+
+		void accept(K key, V value, Version version);
+
+	}
+
+	/**
+	 * Version of a key. Versions are ordered by logical clock and then by identifier of the node, so every node
+	 * picks the same winner of concurrent changes.
+	 */
+	static final class Version
+			implements Comparable<Version> {
+
+		final long clock;
+		final String node;
+
+		Version(long clock, String node) {
+			this.clock = clock;
+			this.node = node == null ? "" : node;
+		}
+
+		@Override
+		public int compareTo(Version o) {
+			int result = Long.compare(clock, o.clock);
+			return result != 0 ? result : node.compareTo(o.node);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Version && clock == ((Version) o).clock && node.equals(((Version) o).node);
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(clock) * 31 + node.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return clock + "@" + node;
+		}
+	}
 
-		void onPutAll(DMap map, Map<?, ?> m);
+	private static final class Stamp {
 
-		void onRemove(DMap map, Object key);
+		private final long removedAt;
+		private final Version version;
 
+		private Stamp(Version version, long removedAt) {
+			this.version = version;
+			this.removedAt = removedAt;
+		}
 	}
 
 }
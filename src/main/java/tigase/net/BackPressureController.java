@@ -0,0 +1,312 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.net;
+
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.kernel.core.Kernel;
+import tigase.server.Packet;
+import tigase.server.Priority;
+import tigase.stats.StatisticsList;
+import tigase.sys.OverloadController;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Credit based back-pressure from components processing packets received from network connections (ie.
+ * <code>SessionManager</code>) to connection managers. Without it a connection manager reads sockets at full speed
+ * even if input queues of the session manager are full and packets are dropped there.
+ * <br>
+ * Controller samples queues of downstream components in short intervals. When fill of the most loaded queue exceeds
+ * the high watermark, connections are given credits for each interval: the credit pool is half of the free space in
+ * downstream queues and every connection which was reading in the previous interval gets an equal share of it. Each
+ * packet read from a connection consumes credits depending on its priority (packets of high priority are free,
+ * presences cost more than other stanzas), and a connection which used its share or found the pool empty is paused:
+ * its socket is not registered for reading in {@link SocketThread}, so data waits in the network buffers instead of
+ * being read and dropped. As a result the noisiest connections are paused first and connections sending a stanza
+ * from time to time are not affected. Paused connections are resumed gradually while downstream queues drain, all of
+ * them when fill drops below the low watermark, and each of them after the maximal pause time.
+ * <br>
+ * Input queues of components implementing {@link Downstream} (<code>SessionManager</code>) are protected and only
+ * client connections are paused. Controller is disabled by default, activating its bean is the only switch of
+ * back-pressure and its thresholds are set in the configuration:
+ * <pre>
+ * 'back-pressure-controller' (active: true) {
+ *     'high-watermark' = 80
+ *     'low-watermark' = 50
+ *     'interval' = 100
+ *     'max-pause' = 5000
+ * }
+ * </pre>
+ */
+@Bean(name = BackPressureController.ID, parent = Kernel.class, active = false, exportable = true)
+public class BackPressureController
+		implements Initializable, UnregisterAware {
+
+	public static final String ID = "back-pressure-controller";
+
+	private static final Logger log = Logger.getLogger(BackPressureController.class.getName());
+
+	private final AtomicInteger activeConnections = new AtomicInteger();
+	private final AtomicLong credits = new AtomicLong();
+	private final Queue<IOService<?>> paused = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pausedCount = new AtomicInteger();
+	private final AtomicLong pauses = new AtomicLong();
+	private long congestedIntervals = 0;
+	private volatile boolean congested = false;
+	@Inject(nullAllowed = true)
+	private Downstream[] downstreams = new Downstream[0];
+	private volatile int epoch = 0;
+	private ScheduledExecutorService executor = null;
+	private volatile int fairShare = Integer.MAX_VALUE;
+	@ConfigField(desc = "Queue fill in % at which reading from connections is throttled", alias = "high-watermark")
+	private float highWatermark = 80;
+	@ConfigField(desc = "Length of a credit interval in ms", alias = "interval")
+	private long interval = 100;
+	@ConfigField(desc = "Queue fill in % at which all connections are resumed", alias = "low-watermark")
+	private float lowWatermark = 50;
+	@ConfigField(desc = "Maximal time in ms for which reading from a connection may be paused", alias = "max-pause")
+	private long maxPause = 5000;
+	private float queueFill = 0;
+
+	/**
+	 * Returns number of credits consumed by reading a packet of the priority.
+	 */
+	static int getCost(Priority priority) {
+		switch (priority) {
+			case SYSTEM:
+			case CLUSTER:
+			case HIGH:
+				return 0;
+			case NORMAL:
+				return 1;
+			default:
+				return 2;
+		}
+	}
+
+	public BackPressureController() {
+	}
+
+	BackPressureController(float highWatermark, float lowWatermark, long interval, long maxPause) {
+		this.highWatermark = highWatermark;
+		this.lowWatermark = lowWatermark;
+		this.interval = interval;
+		this.maxPause = maxPause;
+	}
+
+	@Override
+	public void initialize() {
+		if (lowWatermark > highWatermark) {
+			throw new IllegalArgumentException(
+					"low-watermark (" + lowWatermark + ") is higher than high-watermark (" + highWatermark + ")");
+		}
+		if (interval <= 0) {
+			throw new IllegalArgumentException("interval has to be positive, got: " + interval);
+		}
+		startSampling();
+	}
+
+	@Override
+	public void beforeUnregister() {
+		stopSampling();
+	}
+
+	public void setDownstreams(Downstream[] downstreams) {
+		this.downstreams = downstreams == null ? new Downstream[0] : downstreams;
+	}
+
+	public boolean isCongested() {
+		return congested;
+	}
+
+	/**
+	 * Called by a connection manager with packets read from the connection before they are processed. When downstream
+	 * queues are congested credits for the packets are consumed and the connection is paused if it exceeded its share.
+	 */
+	public void packetsRead(IOService<?> service, Queue<Packet> packets) {
+		if (!congested) {
+			return;
+		}
+		int cost = 0;
+		for (Packet packet : packets) {
+			cost += getCost(packet.getPriority());
+		}
+		consume(service, cost);
+	}
+
+	public void getStatistics(String compName, StatisticsList list) {
+		list.add(compName, "Back pressure/Congested", String.valueOf(congested), Level.INFO);
+		list.add(compName, "Back pressure/Queue fill [%]", queueFill, Level.FINE);
+		list.add(compName, "Back pressure/Congested intervals", congestedIntervals, Level.FINE);
+		list.add(compName, "Back pressure/Paused connections", pausedCount.get(), Level.FINE);
+		list.add(compName, "Back pressure/Pauses", pauses.get(), Level.FINE);
+		list.add(compName, "Back pressure/Credits per connection", congested ? fairShare : 0, Level.FINER);
+	}
+
+	void consume(IOService<?> service, int cost) {
+		if (!congested || cost == 0) {
+			return;
+		}
+		// packets of a single connection are processed by one thread at a time
+		int currentEpoch = epoch;
+		if (service.creditEpoch != currentEpoch) {
+			service.creditEpoch = currentEpoch;
+			service.creditsUsed = 0;
+			activeConnections.incrementAndGet();
+		}
+		service.creditsUsed += cost;
+		long left = credits.addAndGet(-cost);
+		if (service.creditsUsed > fairShare || left < 0) {
+			pause(service, System.currentTimeMillis());
+		}
+	}
+
+	int getPausedCount() {
+		return pausedCount.get();
+	}
+
+	/**
+	 * Starts a new credit interval with the current state of downstream queues.
+	 */
+	void update(float fill, long freeCapacity, long now) {
+		queueFill = fill;
+		if (!congested && fill >= highWatermark) {
+			congested = true;
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Downstream queues filled in {0}%, throttling reading from connections", fill);
+			}
+		} else if (congested && fill <= lowWatermark) {
+			congested = false;
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Downstream queues filled in {0}%, resuming all connections", fill);
+			}
+		}
+
+		long pool = Math.max(0, freeCapacity / 2);
+		int readers = Math.max(1, activeConnections.getAndSet(0));
+		fairShare = (int) Math.max(1, Math.min(Integer.MAX_VALUE, pool / readers));
+		credits.set(pool);
+		epoch++;
+
+		if (congested) {
+			congestedIntervals++;
+			// connections paused longest ago are resumed first, while there is enough credits for them
+			long resumable = pool / fairShare;
+			IOService<?> service;
+			while ((service = paused.peek()) != null) {
+				if (resumable <= 0 && now - service.readPausedAt < maxPause) {
+					break;
+				}
+				if (paused.poll() == service) {
+					resume(service);
+					resumable--;
+				}
+			}
+		} else {
+			IOService<?> service;
+			while ((service = paused.poll()) != null) {
+				resume(service);
+			}
+		}
+	}
+
+	private void pause(IOService<?> service, long now) {
+		if (service.isReadPaused()) {
+			return;
+		}
+		service.pauseReading(now);
+		paused.offer(service);
+		pausedCount.incrementAndGet();
+		pauses.incrementAndGet();
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Paused reading from {0}, used credits: {1}",
+					new Object[]{service, service.creditsUsed});
+		}
+	}
+
+	private void resume(IOService<?> service) {
+		pausedCount.decrementAndGet();
+		service.resumeReading();
+	}
+
+	private void sample() {
+		try {
+			float fill = 0;
+			long free = Long.MAX_VALUE;
+			for (Downstream downstream : downstreams) {
+				fill = Math.max(fill, downstream.getQueueFill());
+				free = Math.min(free, downstream.getQueueFreeCapacity());
+			}
+			update(fill, free == Long.MAX_VALUE ? 0 : free, System.currentTimeMillis());
+		} catch (Exception ex) {
+			log.log(Level.WARNING, "Could not sample downstream queues", ex);
+		}
+	}
+
+	private synchronized void startSampling() {
+		if (executor != null) {
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "back-pressure-controller");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleAtFixedRate(this::sample, interval, interval, TimeUnit.MILLISECONDS);
+		log.log(Level.CONFIG, "Back pressure controller started, watermarks: {0}%/{1}%, interval: {2}ms",
+				new Object[]{highWatermark, lowWatermark, interval});
+	}
+
+	private synchronized void stopSampling() {
+		if (executor == null) {
+			return;
+		}
+		executor.shutdownNow();
+		executor = null;
+		congested = false;
+		IOService<?> service;
+		while ((service = paused.poll()) != null) {
+			resume(service);
+		}
+	}
+
+	/**
+	 * Component which input queues are protected by back-pressure.
+	 */
+	public interface Downstream
+			extends OverloadController.QueueSource {
+
+		/**
+		 * Returns number of packets which may be added to input queues before the most loaded queue is full.
+		 */
+		long getQueueFreeCapacity();
+
+	}
+}
@@ -139,6 +139,14 @@ public abstract class IOService<RefObject>
 
 	private TrustManager[] x509TrustManagers;
 
+	/**
+	 * Credits accounting of {@link BackPressureController}, modified only while processing data read from the socket.
+	 */
+	int creditEpoch = -1;
+	int creditsUsed = 0;
+	long readPausedAt = 0;
+	private volatile boolean readPaused = false;
+
 	private static String getRemoteHostname(IOService ios) {
 		String tls_hostname = (String) ios.getSessionData().get(HOSTNAME_KEY);
 		String tls_remote_hostname = (String) ios.getSessionData().get("remote-host");
@@ -273,6 +281,18 @@ public abstract class IOService<RefObject>
 		}
 	}
 
+	@Override
+	public void handshakeTasksCompleted(TLSWrapper wrapper) {
+		// TLS handshake may be continued now, service needs to be processed again
+		// even if there is no new data from the network
+		if (socketServiceReady && isConnected()) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "TLS handshake tasks completed, resuming processing [{0}]", this);
+			}
+			SocketThread.addSocketService(this);
+		}
+	}
+
 	@Override
 	public void handshakeCompleted(TLSWrapper wrapper) {
 		String reqCertDomain = (String) getSessionData().get(CERT_REQUIRED_DOMAIN);
@@ -454,7 +474,33 @@ public abstract class IOService<RefObject>
 	}
 
 	public boolean waitingToRead() {
-		return true;
+		return !readPaused;
+	}
+
+	/**
+	 * Checks if reading from the socket was paused by {@link BackPressureController}.
+	 */
+	public boolean isReadPaused() {
+		return readPaused;
+	}
+
+	/**
+	 * Stops reading from the socket. It is not registered for reading in {@link SocketThread} until reading is
+	 * resumed, while writing is not affected.
+	 */
+	void pauseReading(long now) {
+		readPausedAt = now;
+		readPaused = true;
+	}
+
+	void resumeReading() {
+		readPaused = false;
+		if (socketServiceReady && isConnected()) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Resuming reading from socket [{0}]", this);
+			}
+			SocketThread.addSocketService(this);
+		}
 	}
 
 	public boolean waitingToSend() {
@@ -21,13 +21,17 @@ import tigase.component.ScheduledTask;
 import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.config.ConfigField;
 import tigase.server.filters.PacketFiltersBean;
+import tigase.stats.LatencyHistogram;
 import tigase.stats.StatisticType;
 import tigase.stats.StatisticsContainer;
 import tigase.stats.StatisticsList;
+import tigase.stats.StatisticsRegistry;
+import tigase.sys.OverloadController;
 import tigase.sys.TigaseRuntime;
 import tigase.util.Algorithms;
 import tigase.util.routing.PatternComparator;
 import tigase.util.stringprep.TigaseStringprepException;
+import tigase.util.tracer.SamplingTracer;
 import tigase.util.workqueue.PriorityQueueAbstract;
 import tigase.util.workqueue.PriorityQueueRelaxed;
 import tigase.xmpp.jid.JID;
@@ -56,7 +60,7 @@ import java.util.regex.Pattern;
 */
 public abstract class AbstractMessageReceiver
 		extends BasicComponent
-		implements StatisticsContainer, MessageReceiver, PacketWriterWithTimeout {
+		implements StatisticsContainer, MessageReceiver, PacketWriterWithTimeout, OverloadController.QueueSource {
 
 	/**
 	 * Configuration property key for setting incoming packets filters on the component level.
@@ -131,6 +135,10 @@ public abstract class AbstractMessageReceiver
 	private PacketFiltersBean.IncomingPacketFiltersBean incoming_filters;
 	@Inject
 	private PacketFiltersBean.OutgoingPacketFiltersBean outgoing_filters;
+	@Inject(nullAllowed = true)
+	protected OverloadController overloadController;
+	@Inject(nullAllowed = true)
+	protected SamplingTracer samplingTracer;
 	// Array cache to speed processing up....
 	private final Priority[] pr_cache = Priority.values();
 	private final List<PriorityQueueAbstract<Packet>> out_queues = new ArrayList<PriorityQueueAbstract<Packet>>(
@@ -195,6 +203,13 @@ public abstract class AbstractMessageReceiver
 	 */
 	private long statReceivedPacketsOk = 0;
 	private long statSentPacketsEr = 0;
+	private final StatisticsRegistry statisticsRegistry = new StatisticsRegistry();
+	private final LatencyHistogram inQueueWaitTime = statisticsRegistry.histogram("Latency/In queue wait time",
+																				   Level.FINE);
+	private final LatencyHistogram outQueueWaitTime = statisticsRegistry.histogram("Latency/Out queue wait time",
+																					Level.FINE);
+	private final LatencyHistogram processingTime = statisticsRegistry.histogram("Latency/Processing time",
+																				  Level.FINE);
 	private long statSentPacketsOk = 0;
 	private Queue<Runnable> tasksAwaitingReceiver = new LinkedList<>();
 	private ArrayDeque<QueueListener> threadsQueueIn = null;
@@ -280,8 +295,12 @@ public abstract class AbstractMessageReceiver
 			log.log(Level.FINEST, "[{0}] queueIdx={1}, {2}",
 					new Object[]{getName(), queueIdx, packet.toStringSecure()});
 		}
+		packet.setQueuedTime(System.nanoTime());
+		if (samplingTracer != null && packet.getTraceId() != 0) {
+			samplingTracer.trace(packet, getName() + "/in-queue put");
+		}
 		try {
-			in_queues.get(queueIdx).put(packet, packet.getPriority().ordinal());
+			in_queues.get(queueIdx).put(packet, getQueuePriority(packet).ordinal());
 			++statReceivedPacketsOk;
 		} catch (InterruptedException e) {
 			++statReceivedPacketsEr;
@@ -321,7 +340,12 @@ public abstract class AbstractMessageReceiver
 					new Object[]{getName(), queueIdx, packet.toStringSecure()});
 		}
 
-		boolean result = in_queues.get(queueIdx).offer(packet, packet.getPriority().ordinal());
+		packet.setQueuedTime(System.nanoTime());
+		if (samplingTracer != null && packet.getTraceId() != 0) {
+			samplingTracer.trace(packet, getName() + "/in-queue put");
+		}
+
+		boolean result = in_queues.get(queueIdx).offer(packet, getQueuePriority(packet).ordinal());
 
 		if (result) {
 			++statReceivedPacketsOk;
@@ -691,6 +715,38 @@ public abstract class AbstractMessageReceiver
 		stopThreads();
 	}
 
+	/**
+	 * Returns fill of the most loaded input queue of the component in %, used to detect overload.
+	 */
+	@Override
+	public float getQueueFill() {
+		int max = 0;
+		for (PriorityQueueAbstract<Packet> queue : in_queues) {
+			max = Math.max(max, queue.totalSize());
+		}
+		return maxInQueueSize > 0 ? (max * 100f) / maxInQueueSize : 0;
+	}
+
+	/**
+	 * Returns number of packets which may be added before the most loaded input queue is full, assuming that packets
+	 * are evenly distributed between queues.
+	 */
+	public long getQueueFreeCapacity() {
+		int max = 0;
+		for (PriorityQueueAbstract<Packet> queue : in_queues) {
+			max = Math.max(max, queue.totalSize());
+		}
+		return Math.max(0L, (long) (maxInQueueSize - max) * in_queues_size);
+	}
+
+	/**
+	 * Returns priority of the input queue for the packet, which is lowered for some packets when the server is
+	 * overloaded.
+	 */
+	private Priority getQueuePriority(Packet packet) {
+		return overloadController == null ? packet.getPriority() : overloadController.getQueuePriority(packet);
+	}
+
 	/**
 	 * Method returns a <code>Set</code> with all component's routings as a compiled regular expression patterns. The
 	 * <code>Set</code> can be empty but it can not be null.
@@ -805,9 +861,18 @@ public abstract class AbstractMessageReceiver
 			list.add(getName(), "Processed packets thread (outliers) OUT", calculateOutliers(threadsQueueOut),
 					 Level.FINEST);
 		}
+		statisticsRegistry.getStatistics(getName(), list);
 		super.getStatistics(list);
 	}
 
+	/**
+	 * Returns registry of component metrics. Metrics registered there are updated by the component on hot paths and
+	 * are added to component statistics when they are collected.
+	 */
+	public StatisticsRegistry getStatisticsRegistry() {
+		return statisticsRegistry;
+	}
+
 	@Override
 	public boolean isInRegexRoutings(String address) {
 
@@ -924,6 +989,10 @@ public abstract class AbstractMessageReceiver
 			log.log(Level.FINEST, "[{0}]  queueIdx={1}, {2}",
 					new Object[]{getName(), queueIdx, packet.toStringSecure()});
 		}
+		packet.setQueuedTime(System.nanoTime());
+		if (samplingTracer != null && packet.getTraceId() != 0) {
+			samplingTracer.trace(packet, getName() + "/out-queue put");
+		}
 		try {
 			out_queues.get(queueIdx).put(packet, packet.getPriority().ordinal());
 			++statSentPacketsOk;
@@ -956,6 +1025,10 @@ public abstract class AbstractMessageReceiver
 
 		boolean result = false;
 
+		packet.setQueuedTime(System.nanoTime());
+		if (samplingTracer != null && packet.getTraceId() != 0) {
+			samplingTracer.trace(packet, getName() + "/out-queue put");
+		}
 		result = out_queues.get(queueIdx).offer(packet, packet.getPriority().ordinal());
 		if (result) {
 			++statSentPacketsOk;
@@ -1324,12 +1397,14 @@ public abstract class AbstractMessageReceiver
 		private long packetCounter = 0;
 		private PriorityQueueAbstract<Packet> queue;
 		private boolean threadStopped = false;
+		private String tracePoint = null;
 		private QueueType type = null;
 
 		private QueueListener(PriorityQueueAbstract<Packet> q, QueueType type) {
 			this.queue = q;
 			this.type = type;
 			compName = AbstractMessageReceiver.this.getName();
+			tracePoint = compName + (type == QueueType.IN_QUEUE ? "/in-queue take" : "/out-queue take");
 		}
 
 		@Override
@@ -1350,12 +1425,20 @@ public abstract class AbstractMessageReceiver
 					packet = queue.take();
 					++packetCounter;
 
+					long takenTime = System.nanoTime();
+
+					if (samplingTracer != null && packet.getTraceId() != 0) {
+						samplingTracer.trace(packet, tracePoint);
+					}
+
 					// if (log.isLoggable(Level.INFO)) {
 					// log.info("[" + getName() + "] packet from " + type + " queue: " +
 					// packet);
 					// }
 					switch (type) {
 						case IN_QUEUE:
+							inQueueWaitTime.record(takenTime - packet.getQueuedTime());
+
 							long startPPT = System.currentTimeMillis();
 
 							// tracer.trace(null, packet.getElemTo(), packet.getElemFrom(),
@@ -1405,11 +1488,13 @@ public abstract class AbstractMessageReceiver
 								long timing = System.currentTimeMillis() - startPPT;
 
 								processPacketTimings[idx] = timing;
+								processingTime.record(System.nanoTime() - takenTime);
 							}
 
 							break;
 
 						case OUT_QUEUE:
+							outQueueWaitTime.record(takenTime - packet.getQueuedTime());
 
 							// tracer.trace(null, packet.getElemTo(), packet.getElemFrom(),
 							// packet.getTo(), getName(), type.name(), null, packet);
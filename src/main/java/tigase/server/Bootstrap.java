@@ -65,6 +65,8 @@ public class Bootstrap {
 
 	private static final Logger log = Logger.getLogger(Bootstrap.class.getCanonicalName());
 
+	private static final String PARALLEL_INIT_THREADS_KEY = "kernel-parallel-init-threads";
+
 	private final Kernel kernel;
 	private final ShutdownHook shutdownHook = new BootstrapShutdownHook();
 	private ConfigHolder config = new ConfigHolder();
@@ -278,6 +280,18 @@ public class Bootstrap {
 			}
 		}
 
+		Object parallelInitThreads = config.getProperties().getOrDefault(PARALLEL_INIT_THREADS_KEY, 0);
+		if (parallelInitThreads instanceof ConfigReader.Variable) {
+			parallelInitThreads = ((ConfigReader.Variable) parallelInitThreads).calculateValue();
+			if (parallelInitThreads == null) {
+				parallelInitThreads = 0;
+			}
+		}
+		if (parallelInitThreads instanceof String) {
+			parallelInitThreads = Integer.parseInt(((String) parallelInitThreads).trim());
+		}
+		kernel.setParallelInitializationThreads(((Number) parallelInitThreads).intValue());
+
 		try {
 			ClassUtilBean classUtilBean = null;
 			if (XMPPServer.isOSGi()) {
@@ -359,6 +373,45 @@ public class Bootstrap {
 		MonitorRuntime.getMonitorRuntime().addShutdownHook(shutdownHook);
 
 		initializeAutostartBeans(kernel);
+
+		if (log.isLoggable(Level.CONFIG)) {
+			List<BeanConfig> beanConfigs = new ArrayList<>();
+			collectInitializedBeans(kernel, beanConfigs);
+			StringBuilder sb = new StringBuilder("Slowest beans to initialize:");
+			beanConfigs.stream()
+					.sorted(Comparator.comparingLong(Bootstrap::getStartupTime).reversed())
+					.limit(10)
+					.forEach(bc -> sb.append("\n\t")
+							.append(bc.getKernel().getName())
+							.append('.')
+							.append(bc.getBeanName())
+							.append(": created in ")
+							.append(bc.getCreationTime())
+							.append("ms, initialized in ")
+							.append(Math.max(0, bc.getInitializationTime()))
+							.append("ms"));
+			log.config(sb.toString());
+		}
+	}
+
+	private static long getStartupTime(BeanConfig bc) {
+		return Math.max(0, bc.getCreationTime()) + Math.max(0, bc.getInitializationTime());
+	}
+
+	private void collectInitializedBeans(Kernel kernel, List<BeanConfig> result) {
+		for (BeanConfig bc : kernel.getDependencyManager().getBeanConfigs()) {
+			if (bc instanceof Kernel.DelegatedBeanConfig || bc.getState() != BeanConfig.State.initialized) {
+				continue;
+			}
+			if (Kernel.class.isAssignableFrom(bc.getClazz())) {
+				Kernel sk = kernel.getInstance(bc.getBeanName());
+				if (sk != kernel) {
+					collectInitializedBeans(sk, result);
+				}
+				continue;
+			}
+			result.add(bc);
+		}
 	}
 
 	public void stop() {
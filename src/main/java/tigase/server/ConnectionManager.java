@@ -28,11 +28,13 @@ import tigase.kernel.core.Kernel;
 import tigase.net.*;
 import tigase.server.script.CommandIfc;
 import tigase.server.xmppclient.XMPPIOProcessor;
+import tigase.stats.LatencyHistogram;
 import tigase.stats.StatisticsList;
 import tigase.util.common.TimerTask;
 import tigase.util.repository.DataTypes;
 import tigase.xml.Element;
 import tigase.xmpp.StreamError;
+import tigase.xmpp.WriteCoalescingStatistics;
 import tigase.xmpp.XMPPDomBuilderHandler;
 import tigase.xmpp.XMPPIOService;
 import tigase.xmpp.XMPPIOServiceListener;
@@ -145,6 +147,8 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	@ConfigField(desc = "Limit of elements for single XMPP stanza", alias = ELEMENTS_NUMBER_LIMIT_PROP_KEY)
 	protected int elements_number_limit = ELEMENTS_NUMBER_LIMIT_PROP_VAL;
 	protected Kernel kernel;
+	@ConfigField(desc = "Keep payloads of routed stanzas unparsed until they are accessed", alias = "lazy-payloads")
+	protected boolean lazyPayloads = false;
 	@ConfigField(desc = "Default size of a network buffer", alias = "net-buffer")
 	protected int net_buffer = isHighThroughput() ? NET_BUFFER_HT_PROP_VAL : NET_BUFFER_ST_PROP_VAL;
 	@Inject(nullAllowed = true)
@@ -161,6 +165,12 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	private long bytesSent = 0;
 	@Inject
 	private CertificateContainerIfc certificateContainer;
+	/**
+	 * Time from receiving a stanza from a connection of this server to writing the stanza (or response to it) to a
+	 * connection of this connection manager.
+	 */
+	private final LatencyHistogram deliveryTime = getStatisticsRegistry().histogram("Latency/Delivery time",
+																					 Level.FINE);
 	@ConfigField(desc = "Flash cross domain policy file path", alias = XMPPIOService.CROSS_DOMAIN_POLICY_FILE_PROP_KEY)
 	private String flashCrossDomainPolicyFile = XMPPIOService.CROSS_DOMAIN_POLICY_FILE_PROP_VAL;
 	private String flassCrossDomainPolicy = null;
@@ -193,6 +203,9 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	private long watchdogStopped = 0;
 	private long watchdogTests = 0;
 	private boolean white_char_ack = WHITE_CHAR_ACK_PROP_VAL;
+	private final WriteCoalescingStatistics writeCoalescingStatistics = new WriteCoalescingStatistics();
+	@ConfigField(desc = "Maximal delay of writes to busy connections in microseconds (0 - disabled)", alias = "write-coalescing-window")
+	private long writeCoalescingWindow = 0;
 
 	@ConfigField(desc = "Action taken if XMPP limit is exceeded")
 	private LIMIT_ACTION xmppLimitAction = LIMIT_ACTION.DISCONNECT;
@@ -342,6 +355,10 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 		// may take over earlier data depending on a thread scheduler used.
 		// synchronized (serv) {
 		if (checkTrafficLimits(serv)) {
+			BackPressureController backPressureController = getBackPressureController();
+			if (backPressureController != null) {
+				backPressureController.packetsRead(serv, serv.getReceivedPackets());
+			}
 			writePacketsToSocket(serv, processSocketData(serv));
 		}
 
@@ -442,6 +459,10 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 		}
 		services.put(id, service);
 		++services_size;
+		if (writeCoalescingWindow > 0) {
+			service.setWriteCoalescing(writeCoalescingWindow, writeCoalescingStatistics);
+		}
+		service.setSamplingTracer(samplingTracer);
 
 		if (enableServiceConnectedTimeout(service)) {
 			ServiceConnectedTimer startTimer = new ServiceConnectedTimer(service);
@@ -588,9 +609,22 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 				log.log(Level.FINEST, "Writing packet: {1} [{0}]", new Object[]{ios, p});
 			}
 
+			if (p.hasReceivedTime()) {
+				deliveryTime.record(System.nanoTime() - p.getReceivedTime());
+			}
+			if (samplingTracer != null && p.getTraceId() != 0) {
+				samplingTracer.trace(p, getName() + "/socket-write");
+			}
+
 			// if packet is added to waiting packets queue then we can assume it is sent
 			// as if it will fail it will be returned as error by serviceStopped method
 			ios.addPacketToSend(p);
+			if (ios.delayWrite(p)) {
+				if (ios.scheduleFlush()) {
+					addTimerTask(new WriteFlushTask<>(ios), ios.getWriteCoalescingWindow(), TimeUnit.MICROSECONDS);
+				}
+				return true;
+			}
 			if (ios.writeInProgress.tryLock()) {
 				try {
 					ios.processWaitingPackets();
@@ -653,6 +687,12 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 		list.add(getName(), "Watchdog runs", watchdogRuns, Level.FINER);
 		list.add(getName(), "Watchdog tests", watchdogTests, Level.FINE);
 		list.add(getName(), "Watchdog stopped", watchdogStopped, Level.FINE);
+		if (sslContextContainer != null) {
+			sslContextContainer.getStatistics(getName(), list);
+		}
+		if (writeCoalescingWindow > 0) {
+			writeCoalescingStatistics.getStatistics(getName(), list);
+		}
 		for (XMPPIOProcessor proc : processors) {
 			proc.getStatistics(list);
 		}
@@ -889,6 +929,14 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 		}
 	}
 
+	/**
+	 * Returns controller which pauses reading from connections of this connection manager when session manager
+	 * queues are full or <code>null</code> if reading should never be paused.
+	 */
+	protected BackPressureController getBackPressureController() {
+		return null;
+	}
+
 	protected int[] getDefPlainPorts() {
 		return null;
 	}
@@ -1203,7 +1251,9 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 			serv.setBufferLimit(net_buffer_limit);
 			serv.setCertificateContainer(certificateContainer);
 
-			((XMPPDomBuilderHandler) serv.getSessionData().get(DOM_HANDLER)).setElementsLimit(elements_number_limit);
+			XMPPDomBuilderHandler domHandler = (XMPPDomBuilderHandler) serv.getSessionData().get(DOM_HANDLER);
+			domHandler.setElementsLimit(elements_number_limit);
+			domHandler.setLazyPayloads(lazyPayloads);
 
 			serv.setIOServiceListener(ConnectionManager.this);
 			serv.setSessionData(port_props);
@@ -1512,5 +1562,43 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 			}
 		}
 	}
+
+	/**
+	 * Writes packets which writing was delayed by writes coalescing.
+	 */
+	private static class WriteFlushTask<IO extends XMPPIOService<?>>
+			extends TimerTask {
+
+		private final IO service;
+
+		private WriteFlushTask(IO service) {
+			this.service = service;
+		}
+
+		@Override
+		public void run() {
+			service.flushStarted();
+			if (!service.isConnected()) {
+				return;
+			}
+			if (service.writeInProgress.tryLock()) {
+				try {
+					service.processWaitingPackets();
+				} catch (Exception e) {
+					log.log(Level.WARNING, "Exception during writing packets [" + service + "]: ", e);
+					try {
+						service.forceStop();
+					} catch (Exception e1) {
+						log.log(Level.WARNING, "Exception stopping XMPPIOService [" + service + "]: ", e1);
+					}
+					return;
+				} finally {
+					service.writeInProgress.unlock();
+				}
+			}
+			// if other thread is writing packets now, socket thread will write remaining packets
+			SocketThread.addSocketService(service);
+		}
+	}
 }    // ConnectionManager
 
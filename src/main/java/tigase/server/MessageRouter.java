@@ -19,12 +19,14 @@ package tigase.server;
 
 import tigase.conf.*;
 import tigase.disco.XMPPService;
+import tigase.io.TLSHandshakeExecutor;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.RegistrarBean;
 import tigase.kernel.beans.UnregisterAware;
 import tigase.kernel.beans.config.ConfigField;
 import tigase.kernel.core.Kernel;
+import tigase.net.BackPressureController;
 import tigase.server.script.CommandIfc;
 import tigase.stats.StatisticsList;
 import tigase.sys.NMTScope;
@@ -93,12 +95,16 @@ public class MessageRouter
 	@ConfigField(desc = "Show version of server software in discovery")
 	private boolean disco_show_version = DISCO_SHOW_VERSION_PROP_VAL;
 	private boolean inProperties = false;
+	@Inject(nullAllowed = true)
+	private BackPressureController backPressureController;
 	@Inject(bean = "kernel")
 	private Kernel kernel;
 	@Inject(nullAllowed = true)
 	private MonitoringBeanIfc monitoringBean;
 	private Map<String, MessageReceiver> receivers = new ConcurrentHashMap<>();
 	private ConcurrentHashMap<String, ComponentRegistrator> registrators = new ConcurrentHashMap<>();
+	@Inject(nullAllowed = true)
+	private TLSHandshakeExecutor tlsHandshakeExecutor;
 	@Inject
 	private UpdatesChecker updates_checker = null;
 	private Map<String, XMPPService> xmppServices = new ConcurrentHashMap<>();
@@ -566,6 +572,15 @@ public class MessageRouter
 		list.add(getName(), "Load average", format.format(runtime.getLoadAverage()), Level.FINE);
 		list.add(getName(), "CPUs no", runtime.getCPUsNumber(), Level.FINEST);
 		list.add(getName(), "Threads count", runtime.getThreadsNumber(), Level.FINEST);
+		if (tlsHandshakeExecutor != null) {
+			tlsHandshakeExecutor.getStatistics(getName(), list);
+		}
+		if (overloadController != null) {
+			overloadController.getStatistics(getName(), list);
+		}
+		if (backPressureController != null) {
+			backPressureController.getStatistics(getName(), list);
+		}
 
 		float cpuUsage = runtime.getCPUUsage();
 		float heapUsage = runtime.getHeapMemUsage();
@@ -99,12 +99,17 @@ public class Packet {
 	private String packetToStringSecure = null;
 	private Permissions permissions = Permissions.NONE;
 	private Priority priority = Priority.NORMAL;
+	private long queuedTime = 0;
+	private long receivedTime = 0;
+	// System.nanoTime() may return any value, so receivedTime is valid only if this is set
+	private boolean receivedTimeSet = false;
 	private Set<String> processorsIds = new LinkedHashSet<String>(4, 0.9f);
 	private boolean routed;
 	private LinkedHashSet<String> skippedProcessorsIds = new LinkedHashSet<String>(4, 0.9f);
 	private JID stanzaFrom = null;
 	private String stanzaId = null;
 	private JID stanzaTo = null;
+	private long traceId = 0;
 	private StanzaType type;
 	private String stableId = null;
 
@@ -279,6 +284,9 @@ public class Packet {
 		Packet result = packetInstance(res_elem, getStanzaFrom(), getStanzaTo());
 
 		result.setPriority(priority);
+		result.receivedTime = receivedTime;
+		result.receivedTimeSet = receivedTimeSet;
+		result.traceId = traceId;
 
 		return result;
 	}
@@ -586,6 +594,55 @@ public class Packet {
 		this.priority = priority;
 	}
 
+	/**
+	 * Returns time (as returned by {@link System#nanoTime()}) at which stanza was received from the client connection.
+	 * The time is passed to responses and copies of the packet, so it may be used to measure time of delivery to the
+	 * destination client. Value is valid only if {@link #hasReceivedTime()} returns <code>true</code>.
+	 */
+	public long getReceivedTime() {
+		return receivedTime;
+	}
+
+	/**
+	 * Checks if the stanza was received from a client connection and time of receiving it is known.
+	 */
+	public boolean hasReceivedTime() {
+		return receivedTimeSet;
+	}
+
+	/**
+	 * Sets time at which stanza was received from the client connection.
+	 *
+	 * @param receivedTime value returned by {@link System#nanoTime()}
+	 */
+	public void setReceivedTime(long receivedTime) {
+		this.receivedTime = receivedTime;
+		this.receivedTimeSet = true;
+	}
+
+	/**
+	 * Returns time (as returned by {@link System#nanoTime()}) at which packet was added to the last component queue.
+	 */
+	public long getQueuedTime() {
+		return queuedTime;
+	}
+
+	public void setQueuedTime(long queuedTime) {
+		this.queuedTime = queuedTime;
+	}
+
+	/**
+	 * Returns id assigned to the packet by {@link tigase.util.tracer.SamplingTracer} or <code>0</code> if the packet
+	 * is not traced. The id is passed to copies of the packet and responses to it.
+	 */
+	public long getTraceId() {
+		return traceId;
+	}
+
+	public void setTraceId(long traceId) {
+		this.traceId = traceId;
+	}
+
 	/**
 	 * Method returns a set of all processor IDs which processed the packet. Each session manager processor which
 	 * handles the packet can mark the packet as processed. This is used internally by the session manager to detect
@@ -897,6 +954,9 @@ public class Packet {
 		Packet result = swapFromTo(reply, getStanzaTo(), getStanzaFrom());
 
 		result.setPriority(priority);
+		result.receivedTime = receivedTime;
+		result.receivedTimeSet = receivedTimeSet;
+		result.traceId = traceId;
 
 		return result;
 	}
@@ -947,6 +1007,9 @@ public class Packet {
 		Packet result = swapFromTo(reply, getStanzaTo(), getStanzaFrom());
 
 		result.setPriority(priority);
+		result.receivedTime = receivedTime;
+		result.receivedTimeSet = receivedTimeSet;
+		result.traceId = traceId;
 
 		return result;
 	}
@@ -965,7 +1028,13 @@ public class Packet {
 
 		routedp.addChild(elem);
 
-		return packetInstance(routedp, getFrom(), getTo());
+		Packet result = packetInstance(routedp, getFrom(), getTo());
+
+		result.receivedTime = receivedTime;
+		result.receivedTimeSet = receivedTimeSet;
+		result.traceId = traceId;
+
+		return result;
 	}
 
 	/**
@@ -997,6 +1066,9 @@ public class Packet {
 		packet.setPacketTo(getFrom());
 		packet.setPacketFrom(getTo());
 		packet.setPriority(priority);
+		packet.receivedTime = receivedTime;
+		packet.receivedTimeSet = receivedTimeSet;
+		packet.traceId = traceId;
 
 		return packet;
 	}
@@ -1015,6 +1087,9 @@ public class Packet {
 		packet.setPacketTo(getFrom());
 		packet.setPacketFrom(getTo());
 		packet.setPriority(priority);
+		packet.receivedTime = receivedTime;
+		packet.receivedTimeSet = receivedTimeSet;
+		packet.traceId = traceId;
 
 		return packet;
 	}
@@ -1030,6 +1105,9 @@ public class Packet {
 		Packet result = packetInstance(copy, getStanzaTo(), getStanzaFrom());
 
 		result.setPriority(priority);
+		result.receivedTime = receivedTime;
+		result.receivedTimeSet = receivedTimeSet;
+		result.traceId = traceId;
 
 		return result;
 	}
@@ -1050,6 +1128,9 @@ public class Packet {
 		Packet result = packetInstance(copy, getStanzaTo(), getStanzaFrom());
 
 		result.setPriority(priority);
+		result.receivedTime = receivedTime;
+		result.receivedTimeSet = receivedTimeSet;
+		result.traceId = traceId;
 
 		return result;
 	}
@@ -1141,6 +1222,9 @@ public class Packet {
 		result.setPacketTo(getTo());
 		result.setPacketFrom(getFrom());
 		result.setPriority(priority);
+		result.receivedTime = receivedTime;
+		result.receivedTimeSet = receivedTimeSet;
+		result.traceId = traceId;
 		result.setPermissions(permissions);
 
 		return result;
@@ -31,6 +31,8 @@ import tigase.server.amp.action.Broadcast;
 import tigase.server.amp.cond.Deliver;
 import tigase.server.amp.cond.ExpireAt;
 import tigase.server.amp.cond.MatchResource;
+import tigase.stats.StatisticsList;
+import tigase.stats.StatisticsProviderIfc;
 import tigase.sys.TigaseRuntime;
 import tigase.xml.Element;
 import tigase.xmpp.jid.JID;
@@ -137,6 +139,16 @@ public class AmpComponent
 		return query;
 	}
 
+	@Override
+	public void getStatistics(StatisticsList list) {
+		super.getStatistics(list);
+		for (ActionIfc action : actions.values()) {
+			if (action instanceof StatisticsProviderIfc) {
+				((StatisticsProviderIfc) action).getStatistics(getName(), list);
+			}
+		}
+	}
+
 	@Override
 	public int processingInThreads() {
 		return TigaseRuntime.getTigaseRuntime().getCPUsNumber() * 4;
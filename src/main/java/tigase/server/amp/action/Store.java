@@ -24,17 +24,24 @@ import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Initializable;
 import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
 import tigase.server.Packet;
 import tigase.server.amp.ActionAbstract;
 import tigase.server.amp.AmpComponent;
 import tigase.server.amp.cond.ExpireAt;
+import tigase.stats.StatisticsList;
+import tigase.stats.StatisticsProviderIfc;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.Date;
 import java.util.List;
+import java.util.Queue;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -46,15 +53,21 @@ import java.util.logging.Logger;
 @Bean(name = "store", parent = AmpComponent.class, active = true)
 public class Store
 		extends ActionAbstract
-		implements Initializable, UnregisterAware {
+		implements Initializable, UnregisterAware, StatisticsProviderIfc {
 
 	private static final Logger log = Logger.getLogger(Store.class.getName());
 	private static final String name = "store";
 
+	private final AtomicLong expiredBatches = new AtomicLong();
+	private final AtomicLong expiredProcessed = new AtomicLong();
+	private final AtomicLong expiredProcessingTime = new AtomicLong();
 	private final SimpleDateFormat formatter;
 	private final SimpleDateFormat formatter2;
 	// ~--- fields ---------------------------------------------------------------
+	@ConfigField(desc = "Maximal number of expired messages processed in a single batch", alias = "expired-batch-size")
+	private int expiredBatchSize = 1000;
 	private Thread expiredProcessor = null;
+	private volatile int lastExpiredBatchSize = 0;
 	@Inject
 	private NonAuthUserRepositoryImpl nonAuthUserRepo;
 	@Inject
@@ -127,6 +140,21 @@ public class Store
 		return name;
 	}
 
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		if (repo == null) {
+			return;
+		}
+		long processed = expiredProcessed.get();
+		long time = expiredProcessingTime.get();
+		list.add(compName, "Expired messages/Processed", processed, Level.FINE);
+		list.add(compName, "Expired messages/Queue size", repo.getExpiredQueueSize(), Level.FINE);
+		list.add(compName, "Expired messages/Batches", expiredBatches.get(), Level.FINER);
+		list.add(compName, "Expired messages/Last batch size", lastExpiredBatchSize, Level.FINER);
+		list.add(compName, "Expired messages/Throughput [msg/s]",
+				 time == 0 ? 0 : (float) (processed * TimeUnit.SECONDS.toNanos(1) / (double) time), Level.FINER);
+	}
+
 	@Override
 	public void initialize() {
 		if ((repo != null) && (expiredProcessor == null)) {
@@ -136,15 +164,29 @@ public class Store
 					try {
 						Thread.sleep(90 * 1000);
 						while (true) {
-							Element elem = repo.getMessageExpired(0, true);
-
-							if (elem != null) {
-								elem.addAttribute(OFFLINE, "1");
-								elem.addAttribute(EXPIRED, "1");
-								try {
-									resultsHandler.addOutPacket(Packet.packetInstance(elem));
-								} catch (TigaseStringprepException ex) {
-									log.info("Stringprep error for offline message loaded from DB: " + elem);
+							// waits until there are expired messages, so only processing of the batch is timed
+							List<Element> expired = repo.getMessagesExpired(expiredBatchSize, true);
+							long start = System.nanoTime();
+
+							if (!expired.isEmpty()) {
+								Queue<Packet> packets = new ArrayDeque<>(expired.size());
+								for (Element elem : expired) {
+									elem.addAttribute(OFFLINE, "1");
+									elem.addAttribute(EXPIRED, "1");
+									try {
+										packets.offer(Packet.packetInstance(elem));
+									} catch (TigaseStringprepException ex) {
+										log.info("Stringprep error for offline message loaded from DB: " + elem);
+									}
+								}
+								resultsHandler.addOutPackets(packets);
+								expiredProcessingTime.addAndGet(System.nanoTime() - start);
+								expiredProcessed.addAndGet(expired.size());
+								expiredBatches.incrementAndGet();
+								lastExpiredBatchSize = expired.size();
+								if (log.isLoggable(Level.FINEST)) {
+									log.log(Level.FINEST, "Processed batch of {0} expired messages",
+											expired.size());
 								}
 							}
 							if (Thread.interrupted()) {
@@ -493,6 +493,32 @@ public class JDBCMsgRepository
 		}
 	}
 
+	@Override
+	protected void deleteMessages(List<Long> msg_ids) {
+		if (msg_ids.size() == 1) {
+			deleteMessage(msg_ids.get(0));
+			return;
+		}
+		try {
+			PreparedStatement delete_id_st = data_repo.getPreparedStatement(null, MSGS_DELETE_MESSAGE);
+
+			synchronized (delete_id_st) {
+				try {
+					for (Long msg_id : msg_ids) {
+						delete_id_st.setLong(1, msg_id);
+						delete_id_st.addBatch();
+					}
+					delete_id_st.executeBatch();
+				} finally {
+					delete_id_st.clearBatch();
+				}
+			}
+		} catch (SQLException e) {
+			log.log(Level.FINE, "Batch removal of expired messages failed, removing one by one", e);
+			super.deleteMessages(msg_ids);
+		}
+	}
+
 	@Override
 	protected void loadExpiredQueue(int min_elements) {
 		try {
@@ -36,6 +36,8 @@ import tigase.xmpp.XMPPResourceConnection;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -166,6 +168,53 @@ public abstract class MsgRepository<T, S extends DataSource>
 
 	@Override
 	public Element getMessageExpired(long time, boolean delete) {
+		refreshExpiredQueue();
+
+		MsgDBItem<T> item = expiredQueue.poll();
+
+		if (item == null) {
+			return null;
+		}
+
+		if (delete) {
+			deleteMessage(item.db_id);
+		}
+
+		return item.msg;
+	}
+
+	@Override
+	public List<Element> getMessagesExpired(int limit, boolean delete) {
+		refreshExpiredQueue();
+
+		List<MsgDBItem<T>> items = new ArrayList<>(Math.min(limit, MAX_QUEUE_SIZE));
+		// only already expired items are drained
+		expiredQueue.drainTo(items, limit);
+		if (items.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		List<Element> result = new ArrayList<>(items.size());
+		List<T> db_ids = delete ? new ArrayList<>(items.size()) : null;
+		for (MsgDBItem<T> item : items) {
+			result.add(item.msg);
+			if (delete) {
+				db_ids.add(item.db_id);
+			}
+		}
+		if (delete) {
+			deleteMessages(db_ids);
+		}
+
+		return result;
+	}
+
+	@Override
+	public int getExpiredQueueSize() {
+		return expiredQueue.size();
+	}
+
+	private void refreshExpiredQueue() {
 		if (expiredQueue.size() == 0) {
 
 			// If the queue is empty load it with some elements
@@ -187,18 +236,6 @@ public abstract class MsgRepository<T, S extends DataSource>
 				loadExpiredQueue(item.expired);
 			}
 		}
-
-		MsgDBItem<T> item = expiredQueue.poll();
-
-		if (item == null) {
-			return null;
-		}
-
-		if (delete) {
-			deleteMessage(item.db_id);
-		}
-
-		return item.msg;
 	}
 
 	@Override
@@ -213,6 +250,16 @@ public abstract class MsgRepository<T, S extends DataSource>
 
 	protected abstract void deleteMessage(T db_id);
 
+	/**
+	 * Removes messages with passed ids. Implementations should override it to remove all of them with a single
+	 * request to the database.
+	 */
+	protected void deleteMessages(List<T> db_ids) {
+		for (T db_id : db_ids) {
+			deleteMessage(db_id);
+		}
+	}
+
 	protected long getMsgsStoreLimit(BareJID userJid, NonAuthUserRepository userRepo) throws UserNotFoundException {
 		if (msgs_user_store_limit) {
 			String limitStr = userRepo.getPublicData(userJid, OFFLINE_MSGS_KEY, MSGS_STORE_LIMIT_KEY, NULL_STR);
@@ -306,6 +353,48 @@ public abstract class MsgRepository<T, S extends DataSource>
 			return null;
 		}
 
+		@Override
+		public List<Element> getMessagesExpired(int limit, boolean delete) {
+			lock.lock();
+			try {
+				List<Element> result = null;
+				for (MsgRepositoryIfc repo : getRepositories().values()) {
+					List<Element> expired = repo.getMessagesExpired(
+							result == null ? limit : limit - result.size(), delete);
+					if (expired.isEmpty()) {
+						continue;
+					}
+					if (result == null) {
+						result = new ArrayList<>(expired);
+					} else {
+						result.addAll(expired);
+					}
+					if (result.size() >= limit) {
+						break;
+					}
+				}
+				if (result != null) {
+					return result;
+				}
+				expiredMessagesCondition.await();
+			} catch (InterruptedException e) {
+				log.log(Level.FINER, "awaiting for expired messages interrupted");
+			} finally {
+				lock.unlock();
+			}
+
+			return Collections.emptyList();
+		}
+
+		@Override
+		public int getExpiredQueueSize() {
+			int size = 0;
+			for (MsgRepositoryIfc repo : getRepositories().values()) {
+				size += repo.getExpiredQueueSize();
+			}
+			return size;
+		}
+
 		@Override
 		public Queue<Element> loadMessagesToJID(XMPPResourceConnection session, boolean delete)
 				throws UserNotFoundException {
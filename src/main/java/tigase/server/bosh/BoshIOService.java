@@ -184,6 +184,22 @@ public class BoshIOService
 		return null;
 	}
 
+	/**
+	 * BOSH responses are written by the session as complete HTTP responses, so writes cannot be coalesced.
+	 */
+	@Override
+	protected boolean isWriteCoalescingSupported() {
+		return false;
+	}
+
+	/**
+	 * Stanzas are wrapped in BOSH body elements, so they have to be written as text.
+	 */
+	@Override
+	protected boolean isEncodedWriteSupported() {
+		return false;
+	}
+
 	@Override
 	public void writeRawData(String data) throws IOException {
 		if ((data != null) && data.startsWith("<body")) {
@@ -18,11 +18,18 @@
 package tigase.server.ext;
 
 import tigase.net.ConnectionType;
+import tigase.server.Iq;
+import tigase.server.Packet;
 import tigase.util.cache.SizedCache;
+import tigase.xmpp.StanzaType;
 import tigase.xmpp.XMPPIOService;
 import tigase.xmpp.jid.JID;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created: Jun 14, 2010 12:05:41 PM
@@ -32,10 +39,18 @@ import java.util.List;
 public class ComponentIOService
 		extends XMPPIOService<List<ComponentConnection>> {
 
+	private static final int MAX_PENDING_REQUESTS = 10000;
 	private static final int MAX_RECENT_JIDS = 10000;
 	private static final long MAX_CACHE_TIME = 100000;
+	// time for which a sender stays bound to the connection after a stanza without response, if the average response
+	// time of the connection is not known yet
+	private static final long DEFAULT_ONE_WAY_AFFINITY = TimeUnit.SECONDS.toNanos(1);
 
+	private final ConcurrentHashMap<JID, Integer> inFlightJIDs = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, PendingRequest> pendingRequests = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<JID, Long> oneWayAffinity = new ConcurrentHashMap<>();
 	private boolean authenticated = false;
+	private volatile long averageResponseTime = 0;
 	private SizedCache<JID, JID> recentJIDs = new SizedCache<JID, JID>(MAX_RECENT_JIDS);
 	private String routings = null;
 
@@ -66,4 +81,129 @@ public class ComponentIOService
 		return jid != null && recentJIDs.get(jid) != null;
 	}
 
+	/**
+	 * Returns number of requests sent over this connection which are still waiting for a response.
+	 */
+	public int getOutstandingRequests() {
+		return pendingRequests.size();
+	}
+
+	/**
+	 * Returns moving average of time in nanoseconds in which the external component responded to requests sent over
+	 * this connection.
+	 */
+	public long getAverageResponseTime() {
+		return averageResponseTime;
+	}
+
+	/**
+	 * Checks if there are stanzas sent on behalf of the JID over this connection which the external component may be
+	 * still processing. Requests are in flight until a response is received. Messages, presences and IQ responses have
+	 * no response which could be matched, so they are considered in flight for the average response time of this
+	 * connection after they were sent.
+	 */
+	public boolean hasInFlightStanzas(JID jid) {
+		if (jid == null) {
+			return false;
+		}
+		if (inFlightJIDs.containsKey(jid)) {
+			return true;
+		}
+		Long until = oneWayAffinity.get(jid);
+		return until != null && until - System.nanoTime() > 0;
+	}
+
+	/**
+	 * Returns number of bytes which are waiting to be written to the socket, as the external component is not reading
+	 * data fast enough.
+	 */
+	public int getWaitingBytes() {
+		return isConnected() ? waitingToSendSize() : 0;
+	}
+
+	/**
+	 * Registers packet sent to the external component, if it is a request it is tracked until response is received.
+	 * Sender of any other stanza is bound to this connection for the average response time.
+	 */
+	public void requestSent(Packet packet) {
+		final JID from = packet.getStanzaFrom();
+		if (from == null) {
+			return;
+		}
+		if (packet.getElemName() != Iq.ELEM_NAME || packet.getStanzaId() == null ||
+				(packet.getType() != StanzaType.get && packet.getType() != StanzaType.set)) {
+			if (oneWayAffinity.size() < MAX_PENDING_REQUESTS || oneWayAffinity.containsKey(from)) {
+				long avg = averageResponseTime;
+				oneWayAffinity.put(from, System.nanoTime() + (avg > 0 ? avg : DEFAULT_ONE_WAY_AFFINITY));
+			}
+			return;
+		}
+		if (pendingRequests.size() >= MAX_PENDING_REQUESTS) {
+			return;
+		}
+		PendingRequest request = new PendingRequest(from, System.nanoTime());
+		if (pendingRequests.putIfAbsent(requestKey(from, packet.getStanzaId()), request) == null) {
+			inFlightJIDs.merge(request.jid, 1, Integer::sum);
+		}
+	}
+
+	/**
+	 * Registers packet received from the external component, if it is a response to a tracked request then time of
+	 * response is recorded.
+	 */
+	public void responseReceived(Packet packet) {
+		if (pendingRequests.isEmpty() || packet.getElemName() != Iq.ELEM_NAME || packet.getStanzaId() == null ||
+				packet.getStanzaTo() == null ||
+				(packet.getType() != StanzaType.result && packet.getType() != StanzaType.error)) {
+			return;
+		}
+		PendingRequest request = pendingRequests.remove(requestKey(packet.getStanzaTo(), packet.getStanzaId()));
+		if (request != null) {
+			requestCompleted(request);
+			long time = System.nanoTime() - request.sentAt;
+			long avg = averageResponseTime;
+			// exponential moving average with weight of 1/8 for the new sample
+			averageResponseTime = avg == 0 ? time : avg + ((time - avg) >> 3);
+		}
+	}
+
+	/**
+	 * Stops tracking of requests which were not responded in passed time and releases senders of other stanzas which
+	 * are no longer in flight.
+	 *
+	 * @return number of expired requests.
+	 */
+	public int expireRequests(long timeoutNanos) {
+		final long now = System.nanoTime();
+		int expired = 0;
+		for (Iterator<Map.Entry<String, PendingRequest>> it = pendingRequests.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<String, PendingRequest> e = it.next();
+			if (now - e.getValue().sentAt >= timeoutNanos && pendingRequests.remove(e.getKey(), e.getValue())) {
+				requestCompleted(e.getValue());
+				expired++;
+			}
+		}
+		oneWayAffinity.values().removeIf(until -> until - now <= 0);
+		return expired;
+	}
+
+	private void requestCompleted(PendingRequest request) {
+		inFlightJIDs.computeIfPresent(request.jid, (jid, count) -> count > 1 ? count - 1 : null);
+	}
+
+	private static String requestKey(JID jid, String id) {
+		return jid.toString() + ' ' + id;
+	}
+
+	private static class PendingRequest {
+
+		private final JID jid;
+		private final long sentAt;
+
+		private PendingRequest(JID jid, long sentAt) {
+			this.jid = jid;
+			this.sentAt = sentAt;
+		}
+	}
+
 }
@@ -78,6 +78,8 @@ public class ComponentProtocol
 	public static final String RETURN_SERVICE_DISCO_KEY = "service-disco";
 	public static final boolean RETURN_SERVICE_DISCO_VAL = true;
 	private static final Logger log = Logger.getLogger(ComponentProtocol.class.getName());
+	// requests not responded within this time are no longer counted as load of a connection
+	private static final long REQUEST_TRACKING_TIMEOUT = TimeUnit.MINUTES.toNanos(1);
 
 	// In seconds
 	@ConfigField(desc = "Authentication timeout", alias = AUTHENTICATION_TIMEOUT_PROP_KEY)
@@ -254,6 +256,40 @@ public class ComponentProtocol
 			size += conns.size();
 		}
 		list.add(getName(), "Number of external component connections", size, Level.FINER);
+
+		if (list.checkLevel(Level.FINE)) {
+			for (Map.Entry<String, CopyOnWriteArrayList<ComponentConnection>> e : connections.entrySet()) {
+				for (ComponentConnection conn : e.getValue()) {
+					ComponentIOService serv = conn.getService();
+					if (serv == null) {
+						continue;
+					}
+					String prefix = "Connection " + e.getKey() + " " + serv.getUniqueId() + "/";
+					list.add(getName(), prefix + "Waiting packets", serv.getWaitingPackets().size(), Level.FINE);
+					list.add(getName(), prefix + "Waiting bytes", serv.getWaitingBytes(), Level.FINE);
+					list.add(getName(), prefix + "Outstanding requests", serv.getOutstandingRequests(), Level.FINE);
+					list.add(getName(), prefix + "Average response time [ms]",
+							 serv.getAverageResponseTime() / 1000000f, Level.FINE);
+				}
+			}
+		}
+	}
+
+	@Override
+	public synchronized void everyMinute() {
+		super.everyMinute();
+		for (CopyOnWriteArrayList<ComponentConnection> conns : connections.values()) {
+			for (ComponentConnection conn : conns) {
+				ComponentIOService serv = conn.getService();
+				if (serv != null) {
+					int expired = serv.expireRequests(REQUEST_TRACKING_TIMEOUT);
+					if (expired > 0 && log.isLoggable(Level.FINE)) {
+						log.log(Level.FINE, "{0} requests sent over {1} were not responded in time",
+								new Object[]{expired, serv});
+					}
+				}
+			}
+		}
 	}
 
 	@Override
@@ -337,6 +373,7 @@ public class ComponentProtocol
 					if (result.getStanzaFrom() != null) {
 						serv.addRecentJID(result.getStanzaFrom());
 					}
+					serv.responseReceived(result);
 					addOutPacket(result);
 				} else {
 					try {
@@ -506,6 +543,7 @@ public class ComponentProtocol
 		// p.getElement().setXMLNS(xmlns);
 		// }
 		p.getElement().removeAttribute("xmlns");
+		ios.requestSent(p);
 
 		return super.writePacketToSocket(ios, p);
 	}
@@ -0,0 +1,86 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.ext.lb;
+
+import tigase.server.Packet;
+import tigase.server.ext.ComponentConnection;
+import tigase.server.ext.ComponentIOService;
+import tigase.xmpp.jid.JID;
+
+import java.util.List;
+
+/**
+ * Load balancer which sends packets to the least loaded connection. Load of a connection is estimated as the time
+ * needed to drain it: number of requests waiting for a response and data waiting to be written to the socket,
+ * multiplied by the average response time of the external component on this connection.
+ * <br>
+ * Stanzas of a sender are sent over the same connection for as long as any of its previous stanzas may be still
+ * processed by the component, so their order is preserved. IQ requests are in flight until their response is received,
+ * messages, presences and IQ responses for the average response time of the connection after they were sent. Idle
+ * connections are selected based on hash of sender bare JID to spread traffic evenly.
+ */
+public class LeastLoadedLB
+		implements LoadBalancerIfc {
+
+	// unsent bytes which are counted as a single outstanding stanza
+	private static final int AVERAGE_STANZA_SIZE = 512;
+
+	static long estimateLoad(ComponentIOService serv) {
+		long outstanding = serv.getOutstandingRequests() + serv.getWaitingBytes() / AVERAGE_STANZA_SIZE;
+		return outstanding * Math.max(1, serv.getAverageResponseTime() / 1000);
+	}
+
+	@Override
+	public ComponentIOService selectConnection(Packet p, List<ComponentConnection> conns) {
+		final JID from = p.getStanzaFrom();
+		final int size = conns.size();
+		if (size == 0) {
+			return null;
+		}
+
+		if (from != null) {
+			for (ComponentConnection conn : conns) {
+				ComponentIOService serv = conn.getService();
+				if (serv != null && serv.hasInFlightStanzas(from) && serv.isConnected()) {
+					return serv;
+				}
+			}
+		}
+
+		JID hashJid = from != null ? from : p.getStanzaTo();
+		int start = hashJid == null ? 0 : Math.abs(hashJid.getBareJID().hashCode() % size);
+		ComponentIOService result = null;
+		long resultLoad = Long.MAX_VALUE;
+		for (int i = 0; i < size; i++) {
+			ComponentIOService serv = conns.get((start + i) % size).getService();
+			if (serv == null || !serv.isConnected()) {
+				continue;
+			}
+			long load = estimateLoad(serv);
+			if (load < resultLoad) {
+				result = serv;
+				resultLoad = load;
+				if (load == 0) {
+					break;
+				}
+			}
+		}
+
+		return result;
+	}
+}
@@ -22,30 +22,35 @@ import tigase.server.Iq;
 import tigase.server.Packet;
 import tigase.server.PacketFilterIfc;
 import tigase.server.QueueType;
+import tigase.stats.LongCounter;
 import tigase.stats.StatisticsList;
 
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
+/**
+ * Filter counting packets passing through component queues by their type. It is called for every packet by many
+ * threads, so counters are striped ({@link LongCounter}) and are never locked. Values are summed only when statistics
+ * are retrieved.
+ */
 @Bean(name = "packetCounter", parents = {PacketFiltersBean.IncomingPacketFiltersBean.class,
 										 PacketFiltersBean.OutgoingPacketFiltersBean.class}, active = true)
 public class PacketCounter
 		implements PacketFilterIfc {
 
 	private final static String DETAILED_OTHER_STATISTICS_KEY = "detailed-other-statistics";
+	private final LongCounter clusterCounter = new LongCounter();
 	private final TypeCounter iqCounter = new TypeCounter("IQ");
+	private final LongCounter msgCounter = new LongCounter();
+	private final LongCounter otherCounter = new LongCounter();
 	private final Map<String, TypeCounter> otherCounters = new ConcurrentHashMap<>();
-	private long clusterCounter = 0;
+	private final LongCounter presCounter = new LongCounter();
+	private final LongCounter total = new LongCounter();
 	private boolean detailedOtherStat = true;
-	private long msgCounter = 0;
 	private String name = null;
-	private long otherCounter = 0;
-	private long presCounter = 0;
+	private String prefix = null;
 	private QueueType queueType = null;
-	private long total = 0;
 
 	public PacketCounter() {
 		final String tmp = System.getProperty(DETAILED_OTHER_STATISTICS_KEY);
@@ -60,23 +65,27 @@ public class PacketCounter
 
 	@Override
 	public Packet filter(Packet packet) {
-		total++;
+		total.inc();
 		final String elemName = packet.getElemName();
 		if (elemName == "message") {
-			++msgCounter;
+			msgCounter.inc();
 		} else if (elemName == "presence") {
-			++presCounter;
+			presCounter.inc();
 		} else if (elemName == "cluster") {
-			++clusterCounter;
+			clusterCounter.inc();
 		} else if (elemName == "iq") {
 			String xmlns = ((Iq) packet).getIQXMLNS();
 			iqCounter.incrementCounter((xmlns != null) ? xmlns : ((Iq) packet).getIQChildName());
 		} else {
-			++otherCounter;
+			otherCounter.inc();
 
 			if (detailedOtherStat) {
 				String xmlns = packet.getXMLNS() != null ? packet.getXMLNS() : "no XMLNS";
-				otherCounters.computeIfAbsent(xmlns, s -> new TypeCounter("other " + xmlns)).incrementCounter(elemName);
+				TypeCounter counter = otherCounters.get(xmlns);
+				if (counter == null) {
+					counter = otherCounters.computeIfAbsent(xmlns.intern(), s -> new TypeCounter("other " + s));
+				}
+				counter.incrementCounter(elemName);
 			}
 		}
 		return packet;
@@ -84,11 +93,11 @@ public class PacketCounter
 
 	@Override
 	public void getStatistics(StatisticsList list) {
-		list.add(name, queueType.name() + " processed", total, Level.FINER);
-		list.add(name, queueType.name() + " processed messages", msgCounter, Level.FINER);
-		list.add(name, queueType.name() + " processed presences", presCounter, Level.FINER);
-		list.add(name, queueType.name() + " processed cluster", clusterCounter, Level.FINER);
-		list.add(name, queueType.name() + " processed other", otherCounter, Level.FINER);
+		list.add(name, prefix, total.get(), Level.FINER);
+		list.add(name, prefix + " messages", msgCounter.get(), Level.FINER);
+		list.add(name, prefix + " presences", presCounter.get(), Level.FINER);
+		list.add(name, prefix + " cluster", clusterCounter.get(), Level.FINER);
+		list.add(name, prefix + " other", otherCounter.get(), Level.FINER);
 
 		iqCounter.getStatistics(list, Level.FINER);
 
@@ -102,31 +111,31 @@ public class PacketCounter
 	public void init(String name, QueueType queueType) {
 		this.name = name;
 		this.queueType = queueType;
+		this.prefix = queueType.name() + " processed";
 	}
 
 	private class TypeCounter {
 
-		private final Map<String, AtomicLong> counter = new ConcurrentHashMap<>();
+		private final Map<String, LongCounter> counter = new ConcurrentHashMap<>();
 		private final String counterName;
-		private final AtomicLong total = new AtomicLong();
+		private final LongCounter total = new LongCounter();
 
 		public TypeCounter(String name) {
 			this.counterName = name;
 		}
 
-		public Map<String, AtomicLong> getCounter() {
-			return counter;
-		}
-
 		public void getStatistics(StatisticsList list) {
 			getStatistics(list, Level.FINEST);
 		}
 
 		public void getStatistics(StatisticsList list, Level level) {
-			list.add(name, queueType.name() + " processed " + counterName, total.get(), level);
-			for (Entry<String, AtomicLong> xmlnsValues : counter.entrySet()) {
-				list.add(name, queueType.name() + " processed " + counterName + " " + xmlnsValues.getKey(),
-						 xmlnsValues.getValue().get(), level);
+			if (!list.checkLevel(level)) {
+				return;
+			}
+			String typePrefix = prefix + " " + counterName;
+			list.add(name, typePrefix, total.get(), level);
+			for (Map.Entry<String, LongCounter> xmlnsValues : counter.entrySet()) {
+				list.add(name, typePrefix + " " + xmlnsValues.getKey(), xmlnsValues.getValue().get(), level);
 			}
 		}
 
@@ -134,10 +143,17 @@ public class PacketCounter
 			return total.get();
 		}
 
-		synchronized public void incrementCounter(String param) {
-			total.incrementAndGet();
+		public void incrementCounter(String param) {
+			total.inc();
 			param = param == null ? "[no XMLNS/child]" : param;
-			counter.computeIfAbsent(param, s -> new AtomicLong()).getAndIncrement();
+
+			// keys are interned, so lookups of namespaces parsed from XML (which are interned) are resolved by
+			// reference comparison and new strings are not kept for each of the counters
+			LongCounter paramCounter = counter.get(param);
+			if (paramCounter == null) {
+				paramCounter = counter.computeIfAbsent(param.intern(), s -> new LongCounter());
+			}
+			paramCounter.inc();
 		}
 	}
 }
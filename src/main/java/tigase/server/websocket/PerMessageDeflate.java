@@ -0,0 +1,460 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Class implements <code>permessage-deflate</code> extension of WebSocket protocol used for compression of
+ * messages sent over WebSocket connection.
+ * <br>
+ * Instances of <code>Deflater</code> and <code>Inflater</code> are pooled. If context takeover is disabled for a
+ * direction, then instance is taken from the pool only for the time of processing of a single message, in other case
+ * it is bound to the connection and returned to the pool when connection is closed.
+ * <br>
+ * Java implementation of DEFLATE always uses window of 15 bits, so offers limiting <code>server_max_window_bits</code>
+ * are declined, while <code>client_max_window_bits</code> may be limited as requested in configuration.
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc7692">RFC 7692: Compression Extensions for WebSocket</a>
+ */
+public class PerMessageDeflate {
+
+	public static final String EXTENSION_NAME = "permessage-deflate";
+
+	private static final Logger log = Logger.getLogger(PerMessageDeflate.class.getCanonicalName());
+
+	private static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+	private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+	private static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+	private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+	private static final int MAX_WINDOW_BITS = 15;
+	private static final int MIN_WINDOW_BITS = 8;
+	private static final byte[] TAIL = new byte[]{0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
+
+	private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger deflatersPoolSize = new AtomicInteger(0);
+	private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger inflatersPoolSize = new AtomicInteger(0);
+	private int clientMaxWindowBits = MAX_WINDOW_BITS;
+	private boolean clientNoContextTakeover = false;
+	private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+	private int maxInflatedMessageSize = 10 * 1024 * 1024;
+	private int poolSize = 1000;
+	private boolean serverNoContextTakeover = false;
+
+	public void setClientMaxWindowBits(int clientMaxWindowBits) {
+		this.clientMaxWindowBits = Math.max(MIN_WINDOW_BITS, Math.min(MAX_WINDOW_BITS, clientMaxWindowBits));
+	}
+
+	public void setClientNoContextTakeover(boolean clientNoContextTakeover) {
+		this.clientNoContextTakeover = clientNoContextTakeover;
+	}
+
+	public void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
+	public void setMaxInflatedMessageSize(int maxInflatedMessageSize) {
+		this.maxInflatedMessageSize = maxInflatedMessageSize;
+	}
+
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	public void setServerNoContextTakeover(boolean serverNoContextTakeover) {
+		this.serverNoContextTakeover = serverNoContextTakeover;
+	}
+
+	/**
+	 * Method selects first acceptable offer of <code>permessage-deflate</code> extension from the value of
+	 * <code>Sec-WebSocket-Extensions</code> HTTP header.
+	 *
+	 * @param extensionsHeader value of the header sent by the client
+	 *
+	 * @return compression context for connection or <code>null</code> if no offer was accepted
+	 */
+	public Context negotiate(String extensionsHeader) {
+		if (extensionsHeader == null) {
+			return null;
+		}
+
+		for (String offer : extensionsHeader.split(",")) {
+			String[] parts = offer.split(";");
+			if (!EXTENSION_NAME.equalsIgnoreCase(parts[0].trim())) {
+				continue;
+			}
+			Context context = negotiateOffer(parts);
+			if (context != null) {
+				return context;
+			}
+		}
+		return null;
+	}
+
+	private Context negotiateOffer(String[] parts) {
+		boolean serverNoContextTakeover = this.serverNoContextTakeover;
+		boolean clientNoContextTakeover = this.clientNoContextTakeover;
+		int clientMaxWindowBits = -1;
+		boolean serverMaxWindowBitsOffered = false;
+		boolean clientMaxWindowBitsOffered = false;
+
+		for (int i = 1; i < parts.length; i++) {
+			String param = parts[i].trim();
+			String value = null;
+			int idx = param.indexOf('=');
+			if (idx > 0) {
+				value = param.substring(idx + 1).trim();
+				if (value.length() > 1 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"') {
+					value = value.substring(1, value.length() - 1);
+				}
+				param = param.substring(0, idx).trim();
+			}
+
+			switch (param.toLowerCase()) {
+				case SERVER_NO_CONTEXT_TAKEOVER:
+					if (value != null) {
+						return null;
+					}
+					serverNoContextTakeover = true;
+					break;
+				case CLIENT_NO_CONTEXT_TAKEOVER:
+					if (value != null) {
+						return null;
+					}
+					clientNoContextTakeover = true;
+					break;
+				case SERVER_MAX_WINDOW_BITS:
+					if (serverMaxWindowBitsOffered || parseWindowBits(value) != MAX_WINDOW_BITS) {
+						// we are not able to limit size of the window used by Deflater
+						return null;
+					}
+					serverMaxWindowBitsOffered = true;
+					break;
+				case CLIENT_MAX_WINDOW_BITS:
+					if (clientMaxWindowBitsOffered) {
+						return null;
+					}
+					clientMaxWindowBitsOffered = true;
+					clientMaxWindowBits = value == null ? MAX_WINDOW_BITS : parseWindowBits(value);
+					if (clientMaxWindowBits < 0) {
+						return null;
+					}
+					break;
+				default:
+					// unknown parameter, we need to decline this offer
+					return null;
+			}
+		}
+
+		StringBuilder response = new StringBuilder(EXTENSION_NAME);
+		if (serverNoContextTakeover) {
+			response.append("; ").append(SERVER_NO_CONTEXT_TAKEOVER);
+		}
+		if (clientNoContextTakeover) {
+			response.append("; ").append(CLIENT_NO_CONTEXT_TAKEOVER);
+		}
+		if (serverMaxWindowBitsOffered) {
+			response.append("; ").append(SERVER_MAX_WINDOW_BITS).append('=').append(MAX_WINDOW_BITS);
+		}
+		if (clientMaxWindowBitsOffered && this.clientMaxWindowBits < MAX_WINDOW_BITS) {
+			response.append("; ")
+					.append(CLIENT_MAX_WINDOW_BITS)
+					.append('=')
+					.append(Math.min(clientMaxWindowBits, this.clientMaxWindowBits));
+		}
+
+		return new Context(response.toString(), serverNoContextTakeover, clientNoContextTakeover);
+	}
+
+	private static int parseWindowBits(String value) {
+		if (value == null) {
+			return -1;
+		}
+		try {
+			int bits = Integer.parseInt(value);
+			return (bits < MIN_WINDOW_BITS || bits > MAX_WINDOW_BITS) ? -1 : bits;
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+
+	private Deflater acquireDeflater() {
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) {
+			return new Deflater(compressionLevel, true);
+		}
+		deflatersPoolSize.decrementAndGet();
+		deflater.setLevel(compressionLevel);
+		return deflater;
+	}
+
+	private void releaseDeflater(Deflater deflater) {
+		if (deflatersPoolSize.incrementAndGet() <= poolSize) {
+			deflater.reset();
+			deflaters.offer(deflater);
+		} else {
+			deflatersPoolSize.decrementAndGet();
+			deflater.end();
+		}
+	}
+
+	private Inflater acquireInflater() {
+		Inflater inflater = inflaters.poll();
+		if (inflater == null) {
+			return new Inflater(true);
+		}
+		inflatersPoolSize.decrementAndGet();
+		return inflater;
+	}
+
+	private void releaseInflater(Inflater inflater) {
+		if (inflatersPoolSize.incrementAndGet() <= poolSize) {
+			inflater.reset();
+			inflaters.offer(inflater);
+		} else {
+			inflatersPoolSize.decrementAndGet();
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Compression state of a single WebSocket connection.
+	 * <br>
+	 * Compression and decompression are called by different threads (writing and reading from the socket), so
+	 * deflating and inflating state are not shared and are guarded by separate locks. Each lock is held for the whole
+	 * operation, so {@link #release()} called by other thread waits until the operation is finished before instances
+	 * are returned to the pool.
+	 */
+	public class Context {
+
+		private final boolean clientNoContextTakeover;
+		private final Object deflateLock = new Object();
+		private final Object inflateLock = new Object();
+		private final String response;
+		private final boolean serverNoContextTakeover;
+		private volatile boolean closed = false;
+		private Deflater deflater;
+		private Inflater inflater;
+		private byte[] inflated;
+		private int inflatedLength;
+		private long inflatedMessageSize = 0;
+		private boolean inflatingMessage = false;
+
+		private Context(String response, boolean serverNoContextTakeover, boolean clientNoContextTakeover) {
+			this.response = response;
+			this.serverNoContextTakeover = serverNoContextTakeover;
+			this.clientNoContextTakeover = clientNoContextTakeover;
+		}
+
+		/**
+		 * Returns value of <code>Sec-WebSocket-Extensions</code> header which should be sent to the client.
+		 */
+		public String getResponse() {
+			return response;
+		}
+
+		/**
+		 * Compresses complete message.
+		 *
+		 * @param data message payload
+		 * @param headroom number of bytes to leave free before compressed payload, so frame header may be put there
+		 *
+		 * @return compressed payload (without trailing <code>0x00 0x00 0xFF 0xFF</code>) starting at position equal
+		 * to <code>headroom</code>
+		 */
+		public ByteBuffer compress(ByteBuffer data, int headroom) throws IOException {
+			byte[] output;
+			int length;
+			synchronized (deflateLock) {
+				if (closed) {
+					throw new IOException("Compression context already released");
+				}
+				Deflater deflater = this.deflater;
+				if (deflater == null) {
+					deflater = acquireDeflater();
+					if (!serverNoContextTakeover) {
+						this.deflater = deflater;
+					}
+				}
+
+				try {
+					if (data.hasArray()) {
+						deflater.setInput(data.array(), data.arrayOffset() + data.position(), data.remaining());
+					} else {
+						byte[] input = new byte[data.remaining()];
+						data.get(input);
+						deflater.setInput(input);
+					}
+					output = new byte[headroom + data.remaining() / 2 + 64];
+					length = headroom;
+					while (true) {
+						length += deflater.deflate(output, length, output.length - length, Deflater.SYNC_FLUSH);
+						if (length < output.length) {
+							break;
+						}
+						output = grow(output, length);
+					}
+					data.position(data.limit());
+				} finally {
+					if (serverNoContextTakeover) {
+						releaseDeflater(deflater);
+					}
+				}
+			}
+
+			// removing empty block added by SYNC_FLUSH as required by RFC 7692
+			if (length - headroom >= TAIL.length && endsWithTail(output, length)) {
+				length -= TAIL.length;
+			}
+			return ByteBuffer.wrap(output, headroom, length - headroom);
+		}
+
+		/**
+		 * Decompresses payload of a single frame of compressed message.
+		 *
+		 * @param data frame payload, which will be fully consumed
+		 * @param fin <code>true</code> if it is the last frame of the message
+		 *
+		 * @return decompressed data
+		 */
+		public ByteBuffer decompress(ByteBuffer data, boolean fin) throws IOException {
+			synchronized (inflateLock) {
+				if (closed) {
+					throw new IOException("Compression context already released");
+				}
+				if (inflater == null) {
+					inflater = acquireInflater();
+				}
+
+				inflated = new byte[data.remaining() * 4 + 64];
+				inflatedLength = 0;
+				try {
+					if (data.hasArray()) {
+						inflate(data.array(), data.arrayOffset() + data.position(), data.remaining());
+					} else {
+						byte[] input = new byte[data.remaining()];
+						data.get(input);
+						inflate(input, 0, input.length);
+					}
+					data.position(data.limit());
+					if (fin) {
+						inflate(TAIL, 0, TAIL.length);
+					}
+				} catch (DataFormatException ex) {
+					throw new IOException("Invalid compressed data", ex);
+				}
+
+				ByteBuffer result = ByteBuffer.wrap(inflated, 0, inflatedLength);
+				inflatedMessageSize = fin ? 0 : inflatedMessageSize + inflatedLength;
+				inflated = null;
+				if (fin && clientNoContextTakeover) {
+					releaseInflater(inflater);
+					inflater = null;
+				}
+				return result;
+			}
+		}
+
+		/**
+		 * Marks start of the new message received from the client.
+		 *
+		 * @param compressed <code>true</code> if RSV1 bit was set for the first frame of the message
+		 */
+		public void messageStarted(boolean compressed) {
+			synchronized (inflateLock) {
+				inflatingMessage = compressed;
+				inflatedMessageSize = 0;
+			}
+		}
+
+		/**
+		 * Checks if currently received message is compressed.
+		 */
+		public boolean isMessageCompressed() {
+			return inflatingMessage;
+		}
+
+		/**
+		 * Returns instances of <code>Deflater</code> and <code>Inflater</code> to the pool. If compression or
+		 * decompression is in progress, then method waits until it is finished, so instance is not used after it is
+		 * returned to the pool.
+		 */
+		public void release() {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+			}
+			synchronized (deflateLock) {
+				if (deflater != null) {
+					releaseDeflater(deflater);
+					deflater = null;
+				}
+			}
+			synchronized (inflateLock) {
+				if (inflater != null) {
+					releaseInflater(inflater);
+					inflater = null;
+				}
+			}
+		}
+
+		private void inflate(byte[] input, int offset, int length) throws DataFormatException, IOException {
+			inflater.setInput(input, offset, length);
+			while (true) {
+				int read = inflater.inflate(inflated, inflatedLength, inflated.length - inflatedLength);
+				inflatedLength += read;
+				if (inflatedMessageSize + inflatedLength > maxInflatedMessageSize) {
+					throw new IOException("Decompressed message exceeds allowed size of " + maxInflatedMessageSize);
+				}
+				if (inflatedLength == inflated.length) {
+					inflated = grow(inflated, inflatedLength);
+				} else if (read == 0 || inflater.needsInput() || inflater.finished()) {
+					break;
+				}
+			}
+		}
+	}
+
+	private static byte[] grow(byte[] array, int length) {
+		byte[] result = new byte[array.length * 2];
+		System.arraycopy(array, 0, result, 0, length);
+		return result;
+	}
+
+	private static boolean endsWithTail(byte[] output, int length) {
+		for (int i = 0; i < TAIL.length; i++) {
+			if (output[length - TAIL.length + i] != TAIL[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -24,11 +24,13 @@ import tigase.util.Base64;
 import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
 import static tigase.server.websocket.WebSocketXMPPIOService.State.closing;
 
@@ -54,19 +56,73 @@ public class WebSocketHybi
 					"Access-Control-Allow-Headers: Content-Type\r\n" + "Access-Control-Max-Age: 86400\r\n";
 
 	private static final String WS_ACCEPT_KEY = "Sec-WebSocket-Accept";
+	private static final String WS_EXTENSIONS_KEY = "Sec-WebSocket-Extensions";
 	private static final String WS_KEY_KEY = "Sec-WebSocket-Key";
 
 	private static final String CLOSE_CODE = "close-code";
+	private static final int MAX_FRAME_HEADER_SIZE = 10;
 	private static final int PROTOCOL_ERROR = 1003;
 	private static byte[] EMPTY = new byte[0];
 	@ConfigField(desc = "Allow for unmasked frames send from client", alias = "ws-allow-unmasked-frames")
 	private boolean allowUnmaskedFromClient = false;
+	private final PerMessageDeflate perMessageDeflate = new PerMessageDeflate();
+	@ConfigField(desc = "Enable permessage-deflate compression", alias = "ws-permessage-deflate")
+	private boolean deflateEnabled = false;
+	@ConfigField(desc = "Compression level used by permessage-deflate", alias = "ws-deflate-compression-level")
+	private int deflateCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+	@ConfigField(desc = "Minimal size of message to compress", alias = "ws-deflate-min-size")
+	private int deflateMinSize = 64;
+	@ConfigField(desc = "Request client to not use context takeover", alias = "ws-deflate-client-no-context-takeover")
+	private boolean deflateClientNoContextTakeover = false;
+	@ConfigField(desc = "Maximal LZ77 window size requested for client", alias = "ws-deflate-client-max-window-bits")
+	private int deflateClientMaxWindowBits = 15;
+	@ConfigField(desc = "Do not use context takeover for sent messages", alias = "ws-deflate-server-no-context-takeover")
+	private boolean deflateServerNoContextTakeover = false;
+	@ConfigField(desc = "Maximal size of decompressed message", alias = "ws-deflate-max-message-size")
+	private int deflateMaxMessageSize = 10 * 1024 * 1024;
+	@ConfigField(desc = "Maximal number of pooled Deflater and Inflater instances", alias = "ws-deflate-pool-size")
+	private int deflatePoolSize = 1000;
 
 	@Override
 	public String getId() {
 		return ID;
 	}
 
+	@Override
+	public int getFrameHeaderReserve() {
+		return MAX_FRAME_HEADER_SIZE;
+	}
+
+	public void setDeflateClientMaxWindowBits(int deflateClientMaxWindowBits) {
+		this.deflateClientMaxWindowBits = deflateClientMaxWindowBits;
+		perMessageDeflate.setClientMaxWindowBits(deflateClientMaxWindowBits);
+	}
+
+	public void setDeflateClientNoContextTakeover(boolean deflateClientNoContextTakeover) {
+		this.deflateClientNoContextTakeover = deflateClientNoContextTakeover;
+		perMessageDeflate.setClientNoContextTakeover(deflateClientNoContextTakeover);
+	}
+
+	public void setDeflateCompressionLevel(int deflateCompressionLevel) {
+		this.deflateCompressionLevel = deflateCompressionLevel;
+		perMessageDeflate.setCompressionLevel(deflateCompressionLevel);
+	}
+
+	public void setDeflateMaxMessageSize(int deflateMaxMessageSize) {
+		this.deflateMaxMessageSize = deflateMaxMessageSize;
+		perMessageDeflate.setMaxInflatedMessageSize(deflateMaxMessageSize);
+	}
+
+	public void setDeflatePoolSize(int deflatePoolSize) {
+		this.deflatePoolSize = deflatePoolSize;
+		perMessageDeflate.setPoolSize(deflatePoolSize);
+	}
+
+	public void setDeflateServerNoContextTakeover(boolean deflateServerNoContextTakeover) {
+		this.deflateServerNoContextTakeover = deflateServerNoContextTakeover;
+		perMessageDeflate.setServerNoContextTakeover(deflateServerNoContextTakeover);
+	}
+
 	static String calculateWsAcceptKey(final String webSocketKey) throws NoSuchAlgorithmException {
 		final MessageDigest md = MessageDigest.getInstance("SHA1");
 		if (webSocketKey != null) {
@@ -99,6 +155,18 @@ public class WebSocketHybi
 		response.append(WS_ACCEPT_KEY + ": ");
 		response.append(wsAccept);
 		response.append("\r\n");
+		if (deflateEnabled) {
+			service.deflateContext = perMessageDeflate.negotiate(headers.get(WS_EXTENSIONS_KEY.toUpperCase()));
+			if (service.deflateContext != null) {
+				if (log.isLoggable(Level.FINEST)) {
+					log.log(Level.FINEST, "Socket: {0}, negotiated extension: {1}",
+							new Object[]{service, service.deflateContext.getResponse()});
+				}
+				response.append(WS_EXTENSIONS_KEY).append(": ");
+				response.append(service.deflateContext.getResponse());
+				response.append("\r\n");
+			}
+		}
 		response.append("\r\n");
 		service.maskingKey = new byte[4];
 		service.writeRawData(response.toString());
@@ -140,6 +208,19 @@ public class WebSocketHybi
 
 				byte b2 = buf.get();
 
+				if ((type & 0x40) == 0x40 &&
+						(service.deflateContext == null || (type & 0x08) == 0x08 || (type & 0x0F) == 0x00)) {
+					// RSV1 bit may be set only if compression was negotiated and only for the first frame of a data
+					// message, never for control or continuation frames (RFC 7692, section 6.1)
+					if (log.isLoggable(Level.FINEST)) {
+						log.log(Level.FINEST,
+								"Socket: {0}, closing connection due to protocol error - unexpected RSV1 bit {1}",
+								new Object[]{service, String.format("%02X ", type)});
+					}
+					closeConnection(service, PROTOCOL_ERROR);
+					return null;
+				}
+
 				// check if content is masked
 				masked = (b2 & 0x80) == 0x80;
 				if (!masked && !allowUnmaskedFromClient) {
@@ -169,19 +250,38 @@ public class WebSocketHybi
 			}
 
 			if (buf.remaining() >= service.frameLength) {
-				byte[] data = new byte[(int) service.frameLength];
+				int length = (int) service.frameLength;
+				int offset = buf.position();
 
-				buf.get(data);
-
-				// if content is masked then unmask content
+				// if content is masked then unmask content in place
 				if (masked) {
-					byte[] maskingKey = service.maskingKey;
-					for (int i = 0; i < data.length; i++) {
-						data[i] = (byte) (data[i] ^ maskingKey[i % 4]);
-					}
+					unmask(buf, offset, length, service.maskingKey);
 				}
-				unmasked = ByteBuffer.wrap(data);
+				// payload is returned as a view of the input buffer, so it is not copied
+				unmasked = buf.slice();
+				unmasked.limit(length);
+				buf.position(offset + length);
 				service.frameLength = -1;
+
+				PerMessageDeflate.Context deflateContext = service.deflateContext;
+				if (deflateContext != null && (type & 0x08) == 0) {
+					// data frame, for continuation frame (opcode 0x00) we use state from the first frame of message
+					if ((type & 0x0F) != 0x00) {
+						deflateContext.messageStarted((type & 0x40) == 0x40);
+					}
+					if (deflateContext.isMessageCompressed()) {
+						try {
+							unmasked = deflateContext.decompress(unmasked, (type & 0x80) == 0x80);
+						} catch (IOException ex) {
+							if (log.isLoggable(Level.FINEST)) {
+								log.log(Level.FINEST, "Socket: {0}, closing connection due to decompression error {1}",
+										new Object[]{service, ex.getMessage()});
+							}
+							closeConnection(service, PROTOCOL_ERROR);
+							return null;
+						}
+					}
+				}
 			} else {
 				// not enought data so reset buffer position
 				buf.position(position);
@@ -204,12 +304,18 @@ public class WebSocketHybi
 						log.log(Level.FINEST, "Socket: {0}, sending response on ping frame", new Object[]{service});
 					}
 					type = (byte) (((byte) (type ^ 0x09)) | 0x0A);
+					// payload needs to be copied as written buffers are queued and input buffer will be reused
+					int size = unmasked.remaining();
+					int headerSize = getFrameHeaderSize(size);
+					ByteBuffer pong = ByteBuffer.allocate(headerSize + size);
+					putFrameHeader(pong, 0, type, size);
+					pong.position(headerSize);
+					pong.put(unmasked);
+					pong.flip();
+
+					service.writeInProgress.lock();
 					try {
-						ByteBuffer header = createFrameHeader(type, unmasked.remaining());
-
-						service.writeInProgress.lock();
-						service.writeBytes(header);
-						service.writeBytes(unmasked);
+						service.writeBytes(pong);
 					} finally {
 						service.writeInProgress.unlock();
 					}
@@ -233,16 +339,38 @@ public class WebSocketHybi
 		int size = buf.remaining();
 
 		// set type as finally part (0x80) of message of type text (0x01)
+		byte type = (byte) 0x81;
+		PerMessageDeflate.Context deflateContext = service.deflateContext;
+		if (deflateContext != null && size >= deflateMinSize) {
+			// set RSV1 bit (0x40) to mark message as compressed
+			type = (byte) 0xC1;
+			buf = deflateContext.compress(buf, MAX_FRAME_HEADER_SIZE);
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Socket: {0}, compressed data size = {1} to {2}",
+						new Object[]{service, size, buf.remaining()});
+			}
+			size = buf.remaining();
+		}
+
 		if (log.isLoggable(Level.FINEST)) {
 			log.log(Level.FINEST, "Socket: {0}, sending encoded data size = {1}", new Object[]{service, size});
 		}
 
-		ByteBuffer bbuf = createFrameHeader((byte) 0x81, size);
+		int headerSize = getFrameHeaderSize(size);
+		if (buf.position() >= headerSize && !buf.isReadOnly()) {
+			// there is space reserved for frame header, so we can send header and data as a single buffer
+			int start = buf.position() - headerSize;
+			putFrameHeader(buf, start, type, size);
+			buf.position(start);
+			service.writeBytes(buf);
+		} else {
+			ByteBuffer bbuf = createFrameHeader(type, size);
 
-		// send frame header
-		service.writeBytes(bbuf);
+			// send frame header
+			service.writeBytes(bbuf);
 
-		service.writeBytes(buf);
+			service.writeBytes(buf);
+		}
 	}
 
 	@Override
@@ -292,20 +420,60 @@ public class WebSocketHybi
 	 *
 	 */
 	private ByteBuffer createFrameHeader(byte type, int size) {
-		ByteBuffer bbuf = ByteBuffer.allocate(12);
+		ByteBuffer bbuf = ByteBuffer.allocate(getFrameHeaderSize(size));
+		putFrameHeader(bbuf, 0, type, size);
+		return bbuf;
+	}
 
-		bbuf.put(type);
+	/**
+	 * Returns size of header of unmasked frame with payload of passed size
+	 */
+	private static int getFrameHeaderSize(int size) {
 		if (size <= 125) {
-			bbuf.put((byte) size);
+			return 2;
 		} else if (size <= 0xFFFF) {
-			bbuf.put((byte) 0x7E);
-			bbuf.putShort((short) size);
+			return 4;
 		} else {
-			bbuf.put((byte) 0x7F);
-			bbuf.putLong(size);
+			return MAX_FRAME_HEADER_SIZE;
 		}
-		bbuf.flip();
+	}
 
-		return bbuf;
+	/**
+	 * Puts header of unmasked frame at specified offset of the buffer without changing its position
+	 */
+	private static void putFrameHeader(ByteBuffer buf, int offset, byte type, int size) {
+		buf.put(offset, type);
+		if (size <= 125) {
+			buf.put(offset + 1, (byte) size);
+		} else {
+			int lengthBytes = size <= 0xFFFF ? 2 : 8;
+			buf.put(offset + 1, lengthBytes == 2 ? (byte) 0x7E : (byte) 0x7F);
+			for (int i = lengthBytes; i > 0; i--) {
+				buf.put(offset + 1 + i, (byte) size);
+				size = size >>> 8;
+			}
+		}
+	}
+
+	/**
+	 * Unmasks frame payload in place, 8 bytes at once where possible
+	 */
+	static void unmask(ByteBuffer buf, int offset, int length, byte[] maskingKey) {
+		int i = 0;
+		if (length >= 8) {
+			long mask = 0;
+			for (int j = 0; j < 8; j++) {
+				mask = (mask << 8) | (maskingKey[j & 3] & 0xFF);
+			}
+			if (buf.order() == ByteOrder.LITTLE_ENDIAN) {
+				mask = Long.reverseBytes(mask);
+			}
+			for (; i + 8 <= length; i += 8) {
+				buf.putLong(offset + i, buf.getLong(offset + i) ^ mask);
+			}
+		}
+		for (; i < length; i++) {
+			buf.put(offset + i, (byte) (buf.get(offset + i) ^ maskingKey[i & 3]));
+		}
 	}
 }
@@ -59,6 +59,9 @@ public interface WebSocketProtocolIfc {
 	/**
 	 * Method responsible for decoding data received from socket and returning data after extracting it from WebSocket
 	 * frame.
+	 * <br>
+	 * Returned buffer may share its content with the input buffer, so it is valid only until the input buffer is
+	 * modified.
 	 *
 	 * @return decoded data or null if not full frame is available in input buffer
 	 */
@@ -66,9 +69,21 @@ public interface WebSocketProtocolIfc {
 
 	/**
 	 * Method encodes data into WebSocket frame and writes it to passed service
+	 * <br>
+	 * Bytes of the buffer located before its position (up to {@link #getFrameHeaderReserve()} bytes) may be
+	 * overwritten by the frame header.
 	 */
 	void encodeFrameAndWrite(WebSocketXMPPIOService service, ByteBuffer buf) throws IOException;
 
+	/**
+	 * Method returns number of bytes which should be left free before data passed to {@link
+	 * #encodeFrameAndWrite(WebSocketXMPPIOService, ByteBuffer)} so that frame header could be put there without copying
+	 * data to a new buffer.
+	 */
+	default int getFrameHeaderReserve() {
+		return 0;
+	}
+
 	/**
 	 * Method closes connection by sending close frame
 	 */
@@ -70,6 +70,7 @@ public class WebSocketXMPPIOService<RefObject>
 	/* static variables used by WebSocket protocol */
 
 	private final WebSocketProtocolIfc[] protocols;
+	protected PerMessageDeflate.Context deflateContext = null;
 	protected long frameLength = -1;
 	protected byte[] maskingKey = null;
 	private byte[] partialData = null;
@@ -84,12 +85,36 @@ public class WebSocketXMPPIOService<RefObject>
 		this.protocols = enabledProtocols;
 	}
 
+	/**
+	 * Every stanza has to be sent in a separate WebSocket message, so stanzas cannot be joined into a single write.
+	 */
+	@Override
+	protected boolean isWriteCoalescingSupported() {
+		return false;
+	}
+
+	/**
+	 * Stanzas are encoded in WebSocket frames, so they have to be written as text.
+	 */
+	@Override
+	protected boolean isEncodedWriteSupported() {
+		return false;
+	}
+
 	@Override
 	public void stop() {
 		protocol.closeConnection(this);
 		super.stop(); //To change body of generated methods, choose Tools | Templates.
 	}
 
+	@Override
+	public void forceStop() {
+		super.forceStop();
+		if (deflateContext != null && !isConnected()) {
+			deflateContext.release();
+		}
+	}
+
 	public void dumpHeaders(Map<String, String> headers) {
 		if (log.isLoggable(Level.FINEST)) {
 			StringBuilder builder = new StringBuilder(1000);
@@ -173,15 +198,39 @@ public class WebSocketXMPPIOService<RefObject>
 		if (state != State.handshaking) {
 
 			// data needs to be decoded fully not just first frame!!
-			ByteBuffer tmp = ByteBuffer.allocate(cb.remaining());
-			// here we got buffer overflow
+			// payloads of decoded frames are moved to the beginning of the input buffer over already processed frame
+			// headers, so additional buffer is needed only if decompressed data do not fit there
+			int start = cb.position();
+			ByteBuffer tmp = cb.duplicate();
+			tmp.limit(tmp.capacity());
+			ByteBuffer overflow = null;
 			ByteBuffer decoded = null;
 			while (cb.hasRemaining() && (decoded = decodeFrame(cb)) != null) {
-				//decoded = decodeFrame(cb);
-				if (decoded != null && decoded.hasRemaining()) {
+				if (!decoded.hasRemaining()) {
+					continue;
+				}
+				if (overflow == null && decoded.remaining() <= cb.position() - tmp.position()) {
 					tmp.put(decoded);
+				} else {
+					if (overflow == null) {
+						tmp.limit(tmp.position());
+						tmp.position(start);
+						overflow = ByteBuffer.allocate(Math.max(cb.capacity(), tmp.remaining() + decoded.remaining()));
+						overflow.put(tmp);
+					} else if (overflow.remaining() < decoded.remaining()) {
+						ByteBuffer oldOverflow = overflow;
+						overflow = ByteBuffer.allocate(
+								Math.max(oldOverflow.capacity() * 2, oldOverflow.position() + decoded.remaining()));
+						oldOverflow.flip();
+						overflow.put(oldOverflow);
+					}
+					overflow.put(decoded);
 				}
 			}
+			if (overflow != null) {
+				tmp = overflow;
+				start = 0;
+			}
 
 			// handling data which were not decoded - not complete data
 			if (cb.hasRemaining()) {
@@ -189,12 +238,11 @@ public class WebSocketXMPPIOService<RefObject>
 				cb.get(partialData);
 			}
 
-			// compact buffer after reading all frames
+			// compact buffer after reading all frames, content of the buffer is not moved as nothing remains in it
 			cb.compact();
 
-			if (tmp.capacity() > 0) {
-				tmp.flip();
-			}
+			tmp.limit(tmp.position());
+			tmp.position(start);
 			cb = tmp;
 		}
 		if (started) {
@@ -267,7 +315,7 @@ public class WebSocketXMPPIOService<RefObject>
 							log.log(Level.FINEST, "sending data = {0}", data);
 						}
 
-						ByteBuffer buf = encode(data);
+						ByteBuffer buf = encode(data, protocol.getFrameHeaderReserve());
 						protocol.encodeFrameAndWrite(this, buf);
 
 						//buf.compact();
@@ -461,19 +509,34 @@ public class WebSocketXMPPIOService<RefObject>
 	}
 
 	/**
-	 * Encode string into buffer
+	 * Encode string into buffer leaving <code>headroom</code> bytes free before encoded data
 	 */
-	private ByteBuffer encode(String data) throws CharacterCodingException {
-		ByteBuffer dataBuffer = null;
-
+	private ByteBuffer encode(String data, int headroom) throws CharacterCodingException {
 		encoder.reset();
 
-		// dataBuffer = encoder.encode(CharBuffer.wrap(data, idx_start,
-		// idx_offset));
-		dataBuffer = encoder.encode(CharBuffer.wrap(data));
-		encoder.flush(dataBuffer);
+		CharBuffer input = CharBuffer.wrap(data);
+		ByteBuffer dataBuffer = ByteBuffer.allocate(
+				headroom + (int) (data.length() * encoder.averageBytesPerChar()) + 16);
+		dataBuffer.position(headroom);
+		while (true) {
+			CoderResult cr = input.hasRemaining() ? encoder.encode(input, dataBuffer, true) : CoderResult.UNDERFLOW;
+			if (cr.isUnderflow()) {
+				cr = encoder.flush(dataBuffer);
+			}
+			if (cr.isUnderflow()) {
+				break;
+			}
+			if (!cr.isOverflow()) {
+				cr.throwException();
+			}
+			ByteBuffer oldBuffer = dataBuffer;
+			dataBuffer = ByteBuffer.allocate(headroom + (oldBuffer.capacity() - headroom) * 2);
+			oldBuffer.flip();
+			dataBuffer.put(oldBuffer);
+		}
+		dataBuffer.flip();
+		dataBuffer.position(headroom);
 
-		// dataBuffer.flip();
 		return dataBuffer;
 	}
 
@@ -29,6 +29,7 @@ import tigase.kernel.beans.selector.ClusterModeRequired;
 import tigase.kernel.beans.selector.ConfigType;
 import tigase.kernel.beans.selector.ConfigTypeEnum;
 import tigase.kernel.core.Kernel;
+import tigase.net.BackPressureController;
 import tigase.net.IOService;
 import tigase.net.SocketThread;
 import tigase.net.SocketType;
@@ -85,6 +86,8 @@ public class ClientConnectionManager
 	//private final Map<String, XMPPProcessorIfc> processors = new ConcurrentHashMap<String,
 //    XMPPProcessorIfc>();
 	private final ReceiverTimeoutHandler stoppedHandler = newStoppedHandler();
+	@Inject(nullAllowed = true)
+	private BackPressureController backPressureController;
 	@Inject
 	protected EventBus eventBus;
 	@Inject
@@ -415,6 +418,32 @@ public class ClientConnectionManager
 		}
 		Integer redirect_port = (Integer) serv.getSessionData().get(FORCE_REDIRECT_TO_KEY);
 
+		if ((overloadController != null) && (serv.getSessionData().get(IOService.SESSION_ID_KEY) == null)) {
+			// this is a new connection, not a stream restart after TLS or SASL
+			if ((fromJID != null) && (see_other_host_strategy != null) &&
+					see_other_host_strategy.isEnabled(vHostManager.getVHostItem(fromJID.getDomain()),
+													  SeeOtherHostIfc.Phase.OPEN)) {
+				BareJID see_other_host = overloadController.findRedirectHost(fromJID);
+
+				if ((see_other_host != null) &&
+						see_other_host_strategy.isRedirectionRequired(getDefHostName(), see_other_host)) {
+					if (log.isLoggable(Level.FINE)) {
+						log.log(Level.FINE, "Server overloaded, sending redirect for {0} to host {1}, connection {2}.",
+								new Object[]{fromJID, see_other_host, serv});
+					}
+
+					return prepareSeeOtherHost(serv, fromJID.getDomain(), see_other_host);
+				}
+			}
+			if (!overloadController.tryLogin()) {
+				if (log.isLoggable(Level.FINE)) {
+					log.log(Level.FINE, "Server overloaded, rejecting new connection {0}", serv);
+				}
+
+				return prepareStreamError(serv, StreamError.ResourceConstraint, hostname);
+			}
+		}
+
 		if ((fromJID != null) && (see_other_host_strategy != null) &&
 				see_other_host_strategy.isEnabled(vHostManager.getVHostItem(fromJID.getDomain()),
 												  SeeOtherHostIfc.Phase.OPEN)) {
@@ -881,6 +910,11 @@ public class ClientConnectionManager
 		}    // end of switch (pc.getCommand())
 	}
 
+	@Override
+	protected BackPressureController getBackPressureController() {
+		return backPressureController;
+	}
+
 	@Override
 	protected int[] getDefPlainPorts() {
 		return new int[]{5222};
@@ -21,8 +21,9 @@ import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
 import tigase.server.ConnectionManager;
 import tigase.server.Packet;
-import tigase.stats.CounterValue;
+import tigase.stats.LongCounter;
 import tigase.stats.StatisticsList;
+import tigase.stats.StatisticsRegistry;
 import tigase.xml.Element;
 import tigase.xmpp.StreamError;
 import tigase.xmpp.XMPPIOService;
@@ -114,16 +115,17 @@ public class StreamErrorCounterIOProcessor
 			}
 		}
 
-		private final CounterValue[] counters;
+		private final LongCounter[] counters;
+		private final StatisticsRegistry registry = new StatisticsRegistry();
 
 		public static String[] getErrorNames() {
 			return ERROR_NAMES;
 		}
 
 		public ErrorStatisticsHolder() {
-			counters = new CounterValue[ERROR_NAMES.length];
+			counters = new LongCounter[ERROR_NAMES.length];
 			for (int i = 0; i < counters.length; i++) {
-				counters[i] = new CounterValue(ERROR_NAMES[i], Level.FINER);
+				counters[i] = registry.counter("StreamErrorStats/" + ERROR_NAMES[i] + "ErrorsNumber", Level.FINER);
 			}
 		}
 
@@ -132,9 +134,7 @@ public class StreamErrorCounterIOProcessor
 		}
 
 		public void getStatistics(String compName, StatisticsList list) {
-			for (CounterValue c : counters) {
-				list.add(compName, "StreamErrorStats/" + c.getName() + "ErrorsNumber", c.getValue(), c.getLevel());
-			}
+			registry.getStatistics(compName, list);
 		}
 	}
 }
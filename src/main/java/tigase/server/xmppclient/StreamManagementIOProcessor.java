@@ -18,7 +18,9 @@
 package tigase.server.xmppclient;
 
 import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Initializable;
 import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.UnregisterAware;
 import tigase.kernel.beans.config.ConfigField;
 import tigase.net.IOServiceListener;
 import tigase.net.SocketThread;
@@ -27,7 +29,10 @@ import tigase.stats.StatisticsList;
 import tigase.util.common.TimerTask;
 import tigase.util.dns.DNSResolverFactory;
 import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.DomBuilderHandler;
 import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
 import tigase.xmpp.StanzaType;
 import tigase.xmpp.StreamError;
 import tigase.xmpp.XMPPIOService;
@@ -38,6 +43,8 @@ import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -48,7 +55,7 @@ import java.util.logging.Logger;
  */
 @Bean(name = StreamManagementIOProcessor.XMLNS, parent = ClientConnectionManager.class, active = true)
 public class StreamManagementIOProcessor
-		implements XMPPIOProcessor {
+		implements XMPPIOProcessor, Initializable, UnregisterAware {
 
 	public static final String XMLNS = "urn:xmpp:sm:3";
 	private static final Logger log = Logger.getLogger(StreamManagementIOProcessor.class.getCanonicalName());
@@ -68,8 +75,12 @@ public class StreamManagementIOProcessor
 	private static final String PREVID_ATTR = "previd";
 
 	// various strings used as key to store data in maps
+	private static final String ACK_REQUEST_BYTES_KEY = "ack-request-bytes";
 	private static final String ACK_REQUEST_COUNT_KEY = "ack-request-count";
+	private static final String ACK_REQUEST_INTERVAL_KEY = "ack-request-interval";
+	private static final int DEF_ACK_REQUEST_BYTES_VAL = 16 * 1024;
 	private static final int DEF_ACK_REQUEST_COUNT_VAL = 10;
+	private static final int DEF_ACK_REQUEST_INTERVAL_VAL = 30;
 	private static final String[] DELAY_PATH = {Message.ELEM_NAME, "delay"};
 	private static final String DELAY_XMLNS = "urn:xmpp:delay";
 	private static final String IGNORE_UNDELIVERED_PRESENCE_KEY = "ignore-undelivered-presence";
@@ -91,9 +102,18 @@ public class StreamManagementIOProcessor
 		formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
 	}
 
+	private final AtomicLong ackRequestsSent = new AtomicLong(0);
+	private final AckRequestTask ackRequestTask = new AckRequestTask();
+	private final QueueStatistics queueStatistics = new QueueStatistics();
 	private final ConcurrentHashMap<String, XMPPIOService> services = new ConcurrentHashMap<String, XMPPIOService>();
+	// connections with packets waiting for ack, checked periodically by ackRequestTask
+	private final Set<XMPPIOService> unackedServices = ConcurrentHashMap.newKeySet();
+	@ConfigField(desc = "Size of sent data (in bytes) after which we should ask for confirmation of delivery", alias = ACK_REQUEST_BYTES_KEY)
+	private int ack_request_bytes = DEF_ACK_REQUEST_BYTES_VAL;
 	@ConfigField(desc = "Number of sent packets after should ask for confirmation of delivery", alias = ACK_REQUEST_COUNT_KEY)
 	private int ack_request_count = DEF_ACK_REQUEST_COUNT_VAL;
+	@ConfigField(desc = "Time (in seconds) after which we should ask for confirmation of delivery of any sent packet", alias = ACK_REQUEST_INTERVAL_KEY)
+	private int ack_request_interval = DEF_ACK_REQUEST_INTERVAL_VAL;
 	@Inject(bean = "service")
 	private ConnectionManager connectionManager;
 	@ConfigField(desc = "Ignore undelivered presence packets", alias = IGNORE_UNDELIVERED_PRESENCE_KEY)
@@ -123,6 +143,18 @@ public class StreamManagementIOProcessor
 		return XMLNS;
 	}
 
+	@Override
+	public void initialize() {
+		if (ack_request_interval > 0) {
+			connectionManager.addTimerTask(ackRequestTask, ack_request_interval * 1000L, ack_request_interval * 1000L);
+		}
+	}
+
+	@Override
+	public void beforeUnregister() {
+		ackRequestTask.cancel();
+	}
+
 	@Override
 	public Element[] supStreamFeatures(XMPPIOService service) {
 		// user jid may not be set yet because is is set during resource binding
@@ -244,12 +276,16 @@ public class StreamManagementIOProcessor
 		OutQueue outQueue = (OutQueue) service.getSessionData().get(OUT_COUNTER_KEY);
 		if (outQueue == null) {
 			OutQueue.Entry e = new OutQueue.Entry(packet);
-			connectionManager.processUndeliveredPacket(e.getPacketWithStamp(), e.stamp, null);
+			Packet undelivered = e.getPacketWithStamp();
+			if (undelivered != null) {
+				connectionManager.processUndeliveredPacket(undelivered, e.stamp, null);
+			}
 		} else {
 			if (log.isLoggable(Level.FINEST)) {
 				log.log(Level.FINEST, "Queuing StreamManagement packet: {1} [{0}]", new Object[]{service, packet});
 			}
 			outQueue.append(packet);
+			unackedServices.add(service);
 		}
 
 		return service.getSessionData().containsKey(RESUMPTION_TASK_KEY);
@@ -261,10 +297,7 @@ public class StreamManagementIOProcessor
 			return;
 		}
 
-		OutQueue outQueue = (OutQueue) service.getSessionData().get(OUT_COUNTER_KEY);
-		if (outQueue != null && shouldRequestAck(service, outQueue)) {
-			service.writeRawData("<" + REQ_NAME + " xmlns='" + XMLNS + "' />");
-		}
+		requestAckIfNeeded(service);
 	}
 
 	@Override
@@ -296,21 +329,30 @@ public class StreamManagementIOProcessor
 					service.getSessionData().put("stream-closed", "stream-closed");
 					services.put(id, newService);
 
-					// resending packets thru new connection
+					// resending packets thru new connection, resent packets are appended to the same queue, so we
+					// iterate only over entries which were waiting for ack when resumption started
 					OutQueue outQueue = (OutQueue) newService.getSessionData().get(OUT_COUNTER_KEY);
-					List<OutQueue.Entry> packetsToResend = new ArrayList<OutQueue.Entry>(outQueue.getQueue());
-					for (OutQueue.Entry entry : packetsToResend) {
-						Packet packetToResend = entry.getPacketWithStamp();
+					OutQueue.EntryQueue queue = outQueue.getQueue();
+					long firstSequence = queue.firstSequence();
+					int resent = 0;
+					for (long sequence = firstSequence, last = firstSequence + queue.size(); sequence < last; sequence++) {
+						OutQueue.Entry entry = queue.get(sequence);
+						Packet packetToResend = entry == null ? null : entry.getPacketWithStamp();
+						if (packetToResend == null) {
+							continue;
+						}
 						if (log.isLoggable(Level.FINE)) {
 							log.log(Level.FINE, "resuming stream with id = {1} resending unacked packet = {2} [{0}]",
 									new Object[]{service, id, packetToResend});
 						}
 						newService.addPacketToSend(packetToResend);
+						resent++;
 					}
+					queueStatistics.resent.addAndGet(resent);
 
 					// if there is any packet waiting we need to write them to socket
 					// and to do that we need to call processWaitingPackets();
-					if (!packetsToResend.isEmpty()) {
+					if (resent > 0) {
 						if (newService.writeInProgress.tryLock()) {
 							try {
 								newService.processWaitingPackets();
@@ -364,6 +406,8 @@ public class StreamManagementIOProcessor
 			return false;
 		}
 
+		unackedServices.remove(service);
+
 		String id = (String) service.getSessionData().get(STREAM_ID_KEY);
 
 		if (streamClosed) {
@@ -417,6 +461,11 @@ public class StreamManagementIOProcessor
 					log.log(Level.FINEST, "Service stopped - resumption enabled but service not available [{0}]",
 							new Object[]{service});
 				}
+				// queue of a resumed stream is now owned by the new connection, otherwise nobody is able to resume
+				// this stream, so queued packets have to be released
+				if (service.getSessionData().get(RESUMPTION_TASK_KEY) != Boolean.TRUE) {
+					sendErrorsForQueuedPackets(service);
+				}
 				return false;
 			}
 
@@ -463,6 +512,16 @@ public class StreamManagementIOProcessor
 
 	@Override
 	public void getStatistics(StatisticsList list) {
+		String compName = connectionManager.getName();
+		list.add(compName, "StreamManagement/Ack requests sent", ackRequestsSent.get(), Level.FINE);
+		list.add(compName, "StreamManagement/Queued packets", queueStatistics.packets.get(), Level.FINE);
+		list.add(compName, "StreamManagement/Queued bytes", queueStatistics.bytes.get(), Level.FINE);
+		if (list.checkLevel(Level.FINE)) {
+			// maximum is reset on each read, so it is reported per statistics interval
+			list.add(compName, "StreamManagement/Max queued bytes per connection", queueStatistics.maxBytes.getAndSet(0),
+					 Level.FINE);
+		}
+		list.add(compName, "StreamManagement/Resent packets", queueStatistics.resent.get(), Level.FINE);
 	}
 
 	@Override
@@ -471,11 +530,30 @@ public class StreamManagementIOProcessor
 
 	/**
 	 * Override this method to define a custom behaviour for request ack. The default implementation will request an ack
-	 * if there are more than {@link #ack_request_count} packets waiting, so you probably want to OR your behaviour with
-	 * this.
+	 * if since the last request at least {@link #ack_request_count} packets or {@link #ack_request_bytes} bytes were
+	 * sent, or if any packet was sent and the last request was sent more than {@link #ack_request_interval} seconds
+	 * ago, so you probably want to OR your behaviour with this.
 	 */
 	protected boolean shouldRequestAck(XMPPIOService service, OutQueue outQueue) {
-		return outQueue.waitingForAck() >= ack_request_count;
+		int packets = outQueue.getPacketsSinceAckRequest();
+		if (packets == 0 || outQueue.waitingForAck() == 0) {
+			return false;
+		}
+		return packets >= ack_request_count || outQueue.getBytesSinceAckRequest() >= ack_request_bytes ||
+				(System.currentTimeMillis() - outQueue.getLastAckRequestTime()) >= ack_request_interval * 1000L;
+	}
+
+	/**
+	 * Sends ack request if {@link #shouldRequestAck(XMPPIOService, OutQueue)} returns true. Caller has to hold {@link
+	 * XMPPIOService#writeInProgress} lock.
+	 */
+	private void requestAckIfNeeded(XMPPIOService service) throws IOException {
+		OutQueue outQueue = (OutQueue) service.getSessionData().get(OUT_COUNTER_KEY);
+		if (outQueue != null && shouldRequestAck(service, outQueue)) {
+			outQueue.ackRequested(System.currentTimeMillis());
+			ackRequestsSent.incrementAndGet();
+			service.writeRawData("<" + REQ_NAME + " xmlns='" + XMLNS + "' />");
+		}
 	}
 
 	protected Counter newCounter() {
@@ -483,7 +561,7 @@ public class StreamManagementIOProcessor
 	}
 
 	protected OutQueue newOutQueue() {
-		return new OutQueue();
+		return new OutQueue(queueStatistics);
 	}
 
 	/**
@@ -521,8 +599,8 @@ public class StreamManagementIOProcessor
 			OutQueue outQueue = (OutQueue) oldService.getSessionData().get(OUT_COUNTER_KEY);
 			if (log.isLoggable(Level.FINE)) {
 				log.log(Level.FINE,
-						"Resuming stream with id = {1} with {2} packets waiting for ack, local h = {3} and remote h = {4} [{0}]",
-						new Object[]{service, id, outQueue.waitingForAck(), outQueue.get(), h});
+						"Resuming stream with id = {1} with {2} packets ({5} bytes) waiting for ack, local h = {3} and remote h = {4} [{0}]",
+						new Object[]{service, id, outQueue.waitingForAck(), outQueue.get(), h, outQueue.getQueuedBytes()});
 			}
 			outQueue.ack(h);
 
@@ -532,6 +610,7 @@ public class StreamManagementIOProcessor
 					.put(MAX_RESUMPTION_TIMEOUT_KEY, oldService.getSessionData().get(MAX_RESUMPTION_TIMEOUT_KEY));
 			service.getSessionData().put(IN_COUNTER_KEY, oldService.getSessionData().get(IN_COUNTER_KEY));
 			service.getSessionData().put(STREAM_ID_KEY, oldService.getSessionData().get(STREAM_ID_KEY));
+			unackedServices.add(service);
 
 			// send notification to session manager about change of connection
 			// used for session
@@ -575,8 +654,11 @@ public class StreamManagementIOProcessor
 		if (outQueue != null) {
 			OutQueue.Entry e = null;
 
-			while ((e = outQueue.queue.poll()) != null) {
-				connectionManager.processUndeliveredPacket(e.getPacketWithStamp(), e.stamp, null);
+			while ((e = outQueue.getQueue().poll()) != null) {
+				Packet packet = e.getPacketWithStamp();
+				if (packet != null) {
+					connectionManager.processUndeliveredPacket(packet, e.stamp, null);
+				}
 			}
 		}
 	}
@@ -617,14 +699,27 @@ public class StreamManagementIOProcessor
 	/**
 	 * OutQueue class implements queue of outgoing packets waiting for ack with implementation of removing acked
 	 * elements when id of acked packet is passed
+	 * <br>
+	 * Packets are kept in serialized form, as they are needed only if they are not acked, and queue keeps track of
+	 * packets and bytes sent since the last ack request.
 	 */
 	public static class OutQueue
 			extends Counter {
 
-		private final ArrayDeque<Entry> queue = new ArrayDeque<Entry>();
-
+		private final EntryQueue queue;
+		private long bytesSinceAckRequest = 0;
+		private long lastAckRequestTime = System.currentTimeMillis();
+		private int packetsSinceAckRequest = 0;
 		private boolean resumptionEnabled = false;
 
+		public OutQueue() {
+			this(null);
+		}
+
+		public OutQueue(QueueStatistics statistics) {
+			queue = new EntryQueue(statistics);
+		}
+
 		/**
 		 * Append packet to waiting for ack queue
 		 *
@@ -633,7 +728,10 @@ public class StreamManagementIOProcessor
 			if (!packet.wasProcessedBy(XMLNS)) {
 				packet.processedBy(XMLNS);
 
-				queue.offer(new Entry(packet));
+				Entry entry = new Entry(packet);
+				queue.offer(entry);
+				packetsSinceAckRequest++;
+				bytesSinceAckRequest += entry.getSize();
 				inc();
 			}
 		}
@@ -649,9 +747,45 @@ public class StreamManagementIOProcessor
 				count = (Integer.MAX_VALUE - value) + get() + 1;
 			}
 
-			while (count < queue.size()) {
-				queue.poll();
-			}
+			queue.retainLast(count);
+		}
+
+		/**
+		 * Marks that ack request was sent
+		 *
+		 */
+		public void ackRequested(long time) {
+			packetsSinceAckRequest = 0;
+			bytesSinceAckRequest = 0;
+			lastAckRequestTime = time;
+		}
+
+		/**
+		 * Returns size of data (in bytes) appended since the last ack request
+		 */
+		public long getBytesSinceAckRequest() {
+			return bytesSinceAckRequest;
+		}
+
+		/**
+		 * Returns time of the last ack request
+		 */
+		public long getLastAckRequestTime() {
+			return lastAckRequestTime;
+		}
+
+		/**
+		 * Returns number of packets appended since the last ack request
+		 */
+		public int getPacketsSinceAckRequest() {
+			return packetsSinceAckRequest;
+		}
+
+		/**
+		 * Returns size of data (in bytes) of packets waiting for ack
+		 */
+		public long getQueuedBytes() {
+			return queue.getBytes();
 		}
 
 		public void setResumptionEnabled(boolean enabled) {
@@ -666,9 +800,9 @@ public class StreamManagementIOProcessor
 		}
 
 		/**
-		 * Method returns internal queue with packets waiting for ack - use testing only!
+		 * Method returns internal queue with packets waiting for ack
 		 */
-		protected ArrayDeque<Entry> getQueue() {
+		protected EntryQueue getQueue() {
 			return queue;
 		}
 
@@ -681,32 +815,79 @@ public class StreamManagementIOProcessor
 
 		public static class Entry {
 
-			private final Packet packet;
+			private final String data;
+			private final JID packetTo;
+			private final Priority priority;
+			private final int size;
+			private final JID stanzaFrom;
+			private final JID stanzaTo;
 			private final long stamp = System.currentTimeMillis();
 
+			private static int utf8Length(String str) {
+				int length = 0;
+				for (int i = 0, len = str.length(); i < len; i++) {
+					char c = str.charAt(i);
+					if (c < 0x80) {
+						length++;
+					} else if (c < 0x800) {
+						length += 2;
+					} else if (Character.isHighSurrogate(c) && i + 1 < len &&
+							Character.isLowSurrogate(str.charAt(i + 1))) {
+						length += 4;
+						i++;
+					} else {
+						length += 3;
+					}
+				}
+				return length;
+			}
+
 			public Entry(Packet packet) {
-				this.packet = packet;
+				this.data = packet.getElement().toString();
+				this.size = utf8Length(data);
+				this.packetTo = packet.getPacketTo();
+				this.priority = packet.getPriority();
+				this.stanzaFrom = packet.getStanzaFrom();
+				this.stanzaTo = packet.getStanzaTo();
 			}
 
+			/**
+			 * Returns size of serialized packet in bytes, when encoded as UTF-8
+			 */
+			public int getSize() {
+				return size;
+			}
+
+			/**
+			 * Restores packet from its serialized form and adds delay element if needed.
+			 *
+			 * @return packet or <code>null</code> if it was not possible to restore it
+			 */
 			public Packet getPacketWithStamp() {
-				Packet result = packet.copyElementOnly();
+				Element elem = parseElement(data);
+				if (elem == null) {
+					log.log(Level.WARNING, "could not restore queued packet from data: {0}", data);
+					return null;
+				}
+				Packet result = Packet.packetInstance(elem, stanzaFrom, stanzaTo);
+				result.setPriority(priority);
 				if (result.getElemName() != Iq.ELEM_NAME && !result.isXMLNSStaticStr(DELAY_PATH, DELAY_XMLNS)) {
 					String stamp = null;
 					synchronized (formatter) {
 						stamp = formatter.format(this.stamp);
 					}
 					String from = null;
-					if (packet.getStanzaTo() != null) {
-						from = packet.getStanzaTo().getDomain();
-					} else if (packet.getPacketTo() != null) {
-						from = packet.getPacketTo().getDomain();
+					if (stanzaTo != null) {
+						from = stanzaTo.getDomain();
+					} else if (packetTo != null) {
+						from = packetTo.getDomain();
 					} else {
 						// if we still do not have anything just set from to the cluster node name
 						// (same as result.getPacket().getDomain())
 						from = DNSResolverFactory.getInstance().getDefaultHost();
 						if (log.isLoggable(Level.WARNING)) {
 							log.log(Level.WARNING, "unacked packet without stanzaTo: {0}, and packetTo: {1}; setting from to: {2}; packet: {3} ",
-									new Object[]{packet.getStanzaTo(), packet.getPacketTo(), from, packet.toString()});
+									new Object[]{stanzaTo, packetTo, from, result.toString()});
 						}
 					}
 
@@ -727,7 +908,229 @@ public class StreamManagementIOProcessor
 				}
 				return result;
 			}
+
+			private static Element parseElement(String data) {
+				DomBuilderHandler domHandler = new DomBuilderHandler();
+				SimpleParser parser = SingletonFactory.getParserInstance();
+				char[] chars = data.toCharArray();
+
+				parser.parse(domHandler, chars, 0, chars.length);
+
+				return domHandler.getParsedElements().poll();
+			}
 		}
+
+		/**
+		 * Ring buffer of entries waiting for ack. Each appended entry gets a sequence number, so entries may be
+		 * accessed without copying even if acked entries are removed at the same time.
+		 * <br>
+		 * Capacity of the buffer is doubled when it is full and halved when it is used in less than a quarter, so
+		 * memory is released after long queue is acked.
+		 */
+		public static class EntryQueue
+				implements Iterable<Entry> {
+
+			private static final int MIN_CAPACITY = 16;
+
+			private final QueueStatistics statistics;
+			private long bytes = 0;
+			private Entry[] entries = new Entry[MIN_CAPACITY];
+			private long firstSequence = 0;
+			private int head = 0;
+			private int size = 0;
+
+			public EntryQueue(QueueStatistics statistics) {
+				this.statistics = statistics;
+			}
+
+			public synchronized void offer(Entry entry) {
+				if (size == entries.length) {
+					resize(entries.length * 2);
+				}
+				entries[(head + size) & (entries.length - 1)] = entry;
+				size++;
+				bytes += entry.getSize();
+				if (statistics != null) {
+					statistics.added(entry, bytes);
+				}
+			}
+
+			public synchronized Entry peek() {
+				return size == 0 ? null : entries[head];
+			}
+
+			public synchronized Entry poll() {
+				if (size == 0) {
+					return null;
+				}
+				Entry entry = entries[head];
+				entries[head] = null;
+				head = (head + 1) & (entries.length - 1);
+				size--;
+				firstSequence++;
+				bytes -= entry.getSize();
+				if (statistics != null) {
+					statistics.removed(entry);
+				}
+				if (entries.length > MIN_CAPACITY && size < entries.length / 4) {
+					resize(entries.length / 2);
+				}
+				return entry;
+			}
+
+			/**
+			 * Removes oldest entries, so that only <code>count</code> entries remain in the queue
+			 */
+			public synchronized void retainLast(int count) {
+				while (size > count && size > 0) {
+					poll();
+				}
+			}
+
+			public synchronized void clear() {
+				while (size > 0) {
+					poll();
+				}
+			}
+
+			/**
+			 * Returns entry with passed sequence number or <code>null</code> if it is not in the queue
+			 */
+			public synchronized Entry get(long sequence) {
+				long idx = sequence - firstSequence;
+				if (idx < 0 || idx >= size) {
+					return null;
+				}
+				return entries[(head + (int) idx) & (entries.length - 1)];
+			}
+
+			/**
+			 * Returns sequence number of the oldest entry in the queue
+			 */
+			public synchronized long firstSequence() {
+				return firstSequence;
+			}
+
+			public synchronized long getBytes() {
+				return bytes;
+			}
+
+			public synchronized int size() {
+				return size;
+			}
+
+			/**
+			 * Iterates over entries present in the queue when iteration started.
+			 */
+			@Override
+			public Iterator<Entry> iterator() {
+				final long first;
+				final int count;
+				synchronized (this) {
+					first = firstSequence;
+					count = size;
+				}
+				return new Iterator<Entry>() {
+
+					private long sequence = first;
+
+					@Override
+					public boolean hasNext() {
+						return sequence < first + count;
+					}
+
+					@Override
+					public Entry next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						return get(sequence++);
+					}
+				};
+			}
+
+			@Override
+			public void forEach(Consumer<? super Entry> action) {
+				for (Entry entry : this) {
+					if (entry != null) {
+						action.accept(entry);
+					}
+				}
+			}
+
+			private void resize(int capacity) {
+				Entry[] resized = new Entry[capacity];
+				for (int i = 0; i < size; i++) {
+					resized[i] = entries[(head + i) & (entries.length - 1)];
+				}
+				entries = resized;
+				head = 0;
+			}
+		}
+	}
+
+	/**
+	 * Statistics of memory used by all queues of packets waiting for ack
+	 */
+	public static class QueueStatistics {
+
+		private final AtomicLong bytes = new AtomicLong(0);
+		private final AtomicLong maxBytes = new AtomicLong(0);
+		private final AtomicLong packets = new AtomicLong(0);
+		private final AtomicLong resent = new AtomicLong(0);
+
+		private void added(OutQueue.Entry entry, long queueBytes) {
+			packets.incrementAndGet();
+			bytes.addAndGet(entry.getSize());
+			long max;
+			while ((max = maxBytes.get()) < queueBytes && !maxBytes.compareAndSet(max, queueBytes)) {
+			}
+		}
+
+		private void removed(OutQueue.Entry entry) {
+			packets.decrementAndGet();
+			bytes.addAndGet(-entry.getSize());
+		}
+	}
+
+	/**
+	 * AckRequestTask class is used for sending ack requests when no packets are written to the connection. Single
+	 * task is shared by all connections and checks only connections with packets waiting for ack.
+	 */
+	private class AckRequestTask
+			extends TimerTask {
+
+		@Override
+		public void run() {
+			for (XMPPIOService service : unackedServices) {
+				OutQueue outQueue = (OutQueue) service.getSessionData().get(OUT_COUNTER_KEY);
+				if (!service.isConnected() || outQueue == null) {
+					unackedServices.remove(service);
+					continue;
+				}
+				if (outQueue.waitingForAck() == 0) {
+					unackedServices.remove(service);
+					// packet might have been appended after the check
+					if (outQueue.waitingForAck() > 0) {
+						unackedServices.add(service);
+					}
+					continue;
+				}
+				// if lock is held, packets are being written and ack request will be checked after that
+				if (service.writeInProgress.tryLock()) {
+					try {
+						requestAckIfNeeded(service);
+					} catch (IOException ex) {
+						if (log.isLoggable(Level.FINE)) {
+							log.log(Level.FINE, service.toString() + ", exception while sending ack request", ex);
+						}
+					} finally {
+						service.writeInProgress.unlock();
+					}
+				}
+			}
+		}
+
 	}
 
 	/**
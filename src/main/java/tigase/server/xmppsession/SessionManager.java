@@ -44,8 +44,10 @@ import tigase.kernel.beans.selector.ClusterModeRequired;
 import tigase.kernel.beans.selector.ConfigType;
 import tigase.kernel.beans.selector.ConfigTypeEnum;
 import tigase.kernel.core.Kernel;
+import tigase.net.BackPressureController;
 import tigase.server.*;
 import tigase.server.script.CommandIfc;
+import tigase.stats.LatencyHistogram;
 import tigase.stats.MaxDailyCounterQueue;
 import tigase.stats.StatisticsList;
 import tigase.sys.OnlineJidsReporter;
@@ -92,7 +94,8 @@ import static tigase.server.xmppsession.SessionManagerConfig.*;
 @ClusterModeRequired(active = false)
 public class SessionManager
 		extends AbstractMessageReceiver
-		implements Configurable, SessionManagerHandler, OnlineJidsReporter, RegistrarBean {
+		implements Configurable, SessionManagerHandler, OnlineJidsReporter, RegistrarBean,
+				   BackPressureController.Downstream {
 
 	protected static final String ADMIN_COMMAND_NODE = "http://jabber.org/protocol/admin";
 
@@ -166,6 +169,7 @@ public class SessionManager
 	// private long[] walkTime = new long[maxIdx];
 	// private long[] postTime = new long[maxIdx];
 	private Map<String, long[]> postTimes = new ConcurrentSkipListMap<String, long[]>();
+	private Map<String, LatencyHistogram> processingTimes = new ConcurrentHashMap<String, LatencyHistogram>(32);
 	private Map<String, XMPPPreprocessorIfc> preProcessors = new ConcurrentHashMap<String, XMPPPreprocessorIfc>(10);
 	private Map<String, XMPPProcessorIfc> processors = new ConcurrentHashMap<String, XMPPProcessorIfc>(32);
 	@Inject(nullAllowed = true)
@@ -258,6 +262,8 @@ public class SessionManager
 				}
 			}
 			processors.put(proc.id(), (XMPPProcessorIfc) proc);
+			processingTimes.put(proc.id(), getStatisticsRegistry().histogram(getProcessingTimeStatName(proc.id()),
+																			   Level.FINER));
 			log.log(Level.CONFIG, "Added processor: {0} for plugin id: {1}",
 					new Object[]{proc.getClass().getSimpleName(), proc.id()});
 			loaded = true;
@@ -358,7 +364,7 @@ public class SessionManager
 
 			Packet cmd = Command.CLOSE.getPacket(getComponentId(), conn.getConnectionId(), StanzaType.set,
 												 conn.nextStanzaId());
-			String error = (String) conn.getSessionData(XMPPResourceConnection.ERROR_KEY);
+			String error = conn.getSessionData(XMPPResourceConnection.ERROR_SLOT);
 
 			if (error != null) {
 				Element err_el = new Element(error);
@@ -485,6 +491,9 @@ public class SessionManager
 
 		if (pt != null) {
 			p = processors.remove(plug_id);
+			if (processingTimes.remove(plug_id) != null) {
+				getStatisticsRegistry().unregister(getProcessingTimeStatName(plug_id));
+			}
 			pt.shutdown();
 			if (p != null) {
 				allPlugins.remove(p);
@@ -872,6 +881,18 @@ public class SessionManager
 		addOutPackets(results);
 	}
 
+	/**
+	 * Method passes results generated by a processor outside of processing threads (ie. by its own executor) through
+	 * the same steps as results returned from {@link XMPPProcessorIfc#process}, so permissions are set and output
+	 * filters are applied before they are sent.
+	 */
+	public void processAsyncResults(Packet packet, XMPPResourceConnection conn, Queue<Packet> results) {
+		if (conn != null) {
+			setPermissions(conn, results);
+		}
+		addOutPackets(packet, conn, results);
+	}
+
 	protected boolean addTrusted(JID jid) {
 		return trusted.add(jid.getBareJID().toString());
 	}
@@ -893,7 +914,7 @@ public class SessionManager
 			// closed. The best example is handleLogin, it happens they are called
 			// concurrently and this is where things go wrong....
 			synchronized (connection) {
-				connection.putSessionData(XMPPResourceConnection.CLOSING_KEY, XMPPResourceConnection.CLOSING_KEY);
+				connection.putSessionData(XMPPResourceConnection.CLOSING_SLOT, XMPPResourceConnection.CLOSING_KEY);
 				closeSession(connection, closeOnly);
 			}
 		} else {
@@ -1280,7 +1301,7 @@ public class SessionManager
 				} else {
 					TimerTask task = new SessionCloseTimer(iqc.getFrom(), connection.getSessionId());
 					addTimerTask(task, 10, TimeUnit.SECONDS);
-					connection.putSessionData(XMPPResourceConnection.CLOSING_KEY, XMPPResourceConnection.CLOSING_KEY);
+					connection.putSessionData(XMPPResourceConnection.CLOSING_SLOT, XMPPResourceConnection.CLOSING_KEY);
 					connection.putSessionData(SESSION_CLOSE_TIMER_KEY, task);
 				}
 				processing_result = true;
@@ -1964,7 +1985,7 @@ public class SessionManager
 
 	protected void registerNewSession(BareJID userId, XMPPResourceConnection conn) {
 		synchronized (conn) {
-			if (conn.getSessionData(XMPPResourceConnection.CLOSING_KEY) != null) {
+			if (conn.getSessionData(XMPPResourceConnection.CLOSING_SLOT) != null) {
 
 				// The user just closed the connection, ignore....
 				return;
@@ -1996,12 +2017,12 @@ public class SessionManager
 
 				if (connections != null) {
 					for (XMPPResourceConnection connection : connections) {
-						if (connection != conn && connection.getSessionData(XMPPResourceConnection.CLOSING_KEY) == null) {
-							Long lastCheck = (Long) connection.getSessionData(XMPPResourceConnection.CONNECTION_CHECK_TIMESTAMP_KEY);
+						if (connection != conn && connection.getSessionData(XMPPResourceConnection.CLOSING_SLOT) == null) {
+							Long lastCheck = connection.getSessionData(XMPPResourceConnection.CONNECTION_CHECK_TIMESTAMP_SLOT);
 							if (lastCheck != null && (System.currentTimeMillis() - lastCheck) < this.connectionCheckPeriod) {
 								continue;
 							}
-							connection.putSessionData(XMPPResourceConnection.CONNECTION_CHECK_TIMESTAMP_KEY, System.currentTimeMillis());
+							connection.putSessionData(XMPPResourceConnection.CONNECTION_CHECK_TIMESTAMP_SLOT, System.currentTimeMillis());
 							if (log.isLoggable(Level.FINEST)) {
 								log.log(Level.FINEST, "Checking connection: {0}", connection);
 							}
@@ -2376,6 +2397,10 @@ public class SessionManager
 		}
 	}
 
+	private static String getProcessingTimeStatName(String plug_id) {
+		return "Latency/Plugin " + plug_id + " processing time";
+	}
+
 	private Permissions getPermissionForConnection(XMPPResourceConnection conn) {
 		Permissions perms = Permissions.NONE;
 		if (conn != null) {
@@ -2643,8 +2668,23 @@ public class SessionManager
 			XMPPProcessorIfc processor = item.getProcessor();
 
 			try {
+				long start = System.nanoTime();
+				boolean traced = samplingTracer != null && item.getPacket().getTraceId() != 0;
+
+				if (traced) {
+					samplingTracer.trace(item.getPacket(), getName() + "/" + processor.id() + " start");
+				}
 				processor.process(item.getPacket(), item.getConn(), naUserRepository, local_results,
 								  plugin_config.get(processor.id()));
+
+				LatencyHistogram processingTime = processingTimes.get(processor.id());
+
+				if (processingTime != null) {
+					processingTime.record(System.nanoTime() - start);
+				}
+				if (traced) {
+					samplingTracer.trace(item.getPacket(), getName() + "/" + processor.id() + " end");
+				}
 				if (item.getConn() != null) {
 					setPermissions(item.getConn(), local_results);
 				}
@@ -0,0 +1,150 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.stats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+
+/**
+ * Lock-free latency histogram with log-linear buckets (HDR-style). Values are recorded with microsecond resolution,
+ * values below 16 microseconds have their own buckets and every next power of two range is split into 8 buckets, so percentiles
+ * are reported with relative error not bigger than 12.5% while the whole histogram fits in about 2kB.
+ * <br>
+ * Values bigger than 2<sup>36</sup> microseconds (about 19 hours) are counted in the last bucket.
+ */
+public class LatencyHistogram {
+
+	private static final int LINEAR_BUCKETS = 16;
+	private static final int LINEAR_BITS = 4;
+	private static final int MAX_EXPONENT = 36;
+	private static final int SUB_BUCKETS_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKETS_BITS;
+	private static final int BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - LINEAR_BITS + 1) * SUB_BUCKETS;
+	private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+	private static final String[] PERCENTILES_NAMES = {"p50", "p90", "p99", "p99.9"};
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong maxNanos = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+
+	static int bucketIndex(long micros) {
+		if (micros < LINEAR_BUCKETS) {
+			return micros < 0 ? 0 : (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int subBucket = (int) (micros >>> (exponent - SUB_BUCKETS_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR_BUCKETS + (exponent - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the highest value in microseconds which is counted in the bucket.
+	 */
+	static long bucketUpperBound(int idx) {
+		if (idx < LINEAR_BUCKETS) {
+			return idx;
+		}
+		int exponent = (idx - LINEAR_BUCKETS) / SUB_BUCKETS + LINEAR_BITS;
+		int subBucket = (idx - LINEAR_BUCKETS) % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BUCKETS_BITS);
+		return ((SUB_BUCKETS + subBucket) * width) + width - 1;
+	}
+
+	public void record(long nanos) {
+		counts.incrementAndGet(bucketIndex(TimeUnit.NANOSECONDS.toMicros(nanos)));
+		totalNanos.addAndGet(nanos);
+		long max;
+		while ((max = maxNanos.get()) < nanos && !maxNanos.compareAndSet(max, nanos)) {
+			// retrying..
+		}
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/**
+	 * Returns value in nanoseconds below which the given percentage of recorded values falls. Returned value is the
+	 * upper bound of the matching bucket, but never more than the maximal recorded value.
+	 *
+	 * @param percentile in range from 0 to 100
+	 */
+	public long getPercentile(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		return getPercentile(snapshot, count, percentile);
+	}
+
+	public void getStatistics(String compName, String prefix, StatisticsList list) {
+		getStatistics(compName, prefix, Level.FINE, list);
+	}
+
+	public void getStatistics(String compName, String prefix, Level level, StatisticsList list) {
+		if (!list.checkLevel(level)) {
+			return;
+		}
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		list.add(compName, prefix + "/Count", count, level);
+		list.add(compName, prefix + "/Average [ms]", count == 0 ? 0f : toMillis(totalNanos.get() / count), level);
+		list.add(compName, prefix + "/Max [ms]", toMillis(maxNanos.get()), level);
+		for (int i = 0; i < PERCENTILES.length; i++) {
+			list.add(compName, prefix + "/" + PERCENTILES_NAMES[i] + " [ms]",
+					 toMillis(getPercentile(snapshot, count, PERCENTILES[i])), level);
+		}
+	}
+
+	private long getPercentile(long[] snapshot, long count, double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(TimeUnit.MICROSECONDS.toNanos(bucketUpperBound(i) + 1) - 1, maxNanos.get());
+			}
+		}
+		return maxNanos.get();
+	}
+
+	private static float toMillis(long nanos) {
+		return nanos / 1_000_000f;
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counter which may be updated concurrently by many threads on hot paths without contention. Updates are spread over
+ * internal cells and summed only when value is read, ie. when statistics are collected.
+ */
+public class LongCounter {
+
+	private final LongAdder adder = new LongAdder();
+
+	public void add(long value) {
+		adder.add(value);
+	}
+
+	public long get() {
+		return adder.sum();
+	}
+
+	public void inc() {
+		adder.increment();
+	}
+
+	@Override
+	public String toString() {
+		return String.valueOf(get());
+	}
+}
@@ -149,7 +149,7 @@ public class StatRecord<E extends Number> {
 		return nonZero;
 	}
 
-	float getFloatValue() {
+	public float getFloatValue() {
 		return this.floatValue;
 	}
 
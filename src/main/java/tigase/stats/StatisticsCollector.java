@@ -30,6 +30,8 @@ import tigase.kernel.core.Kernel;
 import tigase.server.*;
 import tigase.sys.ShutdownHook;
 import tigase.sys.TigaseRuntime;
+import tigase.util.historyCache.StatisticsHistoryCache;
+import tigase.util.tracer.SamplingTracer;
 import tigase.xml.Element;
 import tigase.xml.XMLUtils;
 import tigase.xmpp.StanzaType;
@@ -37,6 +39,8 @@ import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
 import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -68,6 +72,10 @@ public class StatisticsCollector
 
 	public static final String STATS_HIGH_MEMORY_LEVEL_KEY = "stats-high-memory-level";
 
+	private static final String PACKET_TRACE_NODE = "packet-trace";
+
+	private static final String STATS_HISTORY_NODE = "stats-history";
+
 	private static final String STATS_XMLNS = "http://jabber.org/protocol/stats";
 	private static final Logger log = Logger.getLogger(StatisticsCollector.class.getName());
 
@@ -77,6 +85,8 @@ public class StatisticsCollector
 	private Map<StatisticsArchivizerIfc, TimerTask> archiverTasks = new ConcurrentHashMap<>();
 	@Inject(nullAllowed = true)
 	private StatisticsArchivizerIfc[] archivizers = new StatisticsArchivizerIfc[0];
+	@Inject(nullAllowed = true)
+	private SamplingTracer samplingTracer;
 	private ErrorsStatisticsProvider esp = null;
 	@ConfigField(desc = "High memory level", alias = STATS_HIGH_MEMORY_LEVEL_KEY)
 	private int highMemoryLevel = 95;
@@ -223,6 +233,17 @@ public class StatisticsCollector
 					return;
 				}
 
+				if (STATS_HISTORY_NODE.equals(iqc.getStrCommand())) {
+					results.offer(getStatsHistoryResult(iqc));
+
+					break;
+				}
+				if (PACKET_TRACE_NODE.equals(iqc.getStrCommand())) {
+					results.offer(getPacketTraceResult(iqc));
+
+					break;
+				}
+
 				String tmp_val = Command.getFieldValue(iqc, "Stats level");
 
 				// copying default value of stats level to local variable to not override default value
@@ -400,6 +421,16 @@ public class StatisticsCollector
 														"Statistics retrieving commands"));
 		serviceEntity.addFeatures(DEF_FEATURES);
 		serviceEntity.addFeatures(CMD_FEATURES);
+
+		ServiceEntity historyItem = new ServiceEntity(name, STATS_HISTORY_NODE, "Statistics history");
+		historyItem.addFeatures(CMD_FEATURES);
+		historyItem.addIdentities(new ServiceIdentity("automation", "command-node", "Statistics history"));
+		serviceEntity.addItems(historyItem);
+
+		ServiceEntity traceItem = new ServiceEntity(name, PACKET_TRACE_NODE, "Packet traces");
+		traceItem.addFeatures(CMD_FEATURES);
+		traceItem.addIdentities(new ServiceIdentity("automation", "command-node", "Packet traces"));
+		serviceEntity.addItems(traceItem);
 	}
 
 	@Override
@@ -452,6 +483,114 @@ public class StatisticsCollector
 		esp.update(sp);
 	}
 
+	private Packet getStatsHistoryResult(Iq iqc) {
+		String metric = Command.getFieldValue(iqc, "Metric");
+		long to = parseTime(Command.getFieldValue(iqc, "To [ms]"), System.currentTimeMillis());
+		long from = parseTime(Command.getFieldValue(iqc, "From [ms]"), to - 60 * 60 * 1000);
+
+		if (metric == null || metric.isEmpty()) {
+			Packet result = iqc.commandResult(Command.DataType.form);
+
+			Command.addFieldValue(result, "Metric", "", "text-single", "Metric (component/description)");
+			Command.addFieldValue(result, "From [ms]", String.valueOf(from));
+			Command.addFieldValue(result, "To [ms]", String.valueOf(to));
+			return result;
+		}
+
+		Packet result = iqc.commandResult(Command.DataType.result);
+		StatisticsHistoryCache.Series series = (sp == null) ? null : sp.getStatsHistory(metric, from, to);
+
+		Command.addFieldValue(result, "Metric", XMLUtils.escape(metric));
+		if (series == null) {
+			Command.addTextField(result, "Note", "There is no history for this metric");
+			return result;
+		}
+
+		List<String> values = new ArrayList<>(series.size());
+		for (int i = 0; i < series.size(); i++) {
+			values.add(series.getTimestamp(i) + " " + series.getValue(i));
+		}
+		Command.addFieldMultiValue(result, "Values", values);
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Returning {0} samples of {1} history", new Object[]{series.size(), metric});
+		}
+		return result;
+	}
+
+	private Packet getPacketTraceResult(Iq iqc) {
+		SamplingTracer tracer = samplingTracer;
+		if (tracer == null) {
+			Packet result = iqc.commandResult(Command.DataType.result);
+			Command.addTextField(result, "Error", "Packet tracer is not enabled");
+			return result;
+		}
+		String sampling = Command.getFieldValue(iqc, "Sampling");
+		String traceId = Command.getFieldValue(iqc, "Trace id");
+		String fileName = Command.getFieldValue(iqc, "Dump to file");
+
+		if (sampling == null && traceId == null && fileName == null) {
+			Packet result = iqc.commandResult(Command.DataType.form);
+
+			Command.addFieldValue(result, "Sampling", String.valueOf(tracer.getSampling()), "text-single",
+								  "Trace one of every N packets (0 disables tracing)");
+			Command.addFieldValue(result, "Trace id", "", "text-single", "Trace id (empty lists recent traces)");
+			Command.addFieldValue(result, "Dump to file", "", "text-single",
+								  "Dump all traces to file in logs directory");
+			return result;
+		}
+
+		Packet result = iqc.commandResult(Command.DataType.result);
+
+		if (sampling != null && !sampling.trim().isEmpty()) {
+			try {
+				int value = Integer.parseInt(sampling.trim());
+				if (value != tracer.getSampling()) {
+					tracer.setSampling(value);
+				}
+			} catch (NumberFormatException ex) {
+				Command.addTextField(result, "Error", "Incorrect sampling value: " + XMLUtils.escape(sampling));
+			}
+		}
+		Command.addFieldValue(result, "Sampling", String.valueOf(tracer.getSampling()));
+		if (fileName != null && !fileName.trim().isEmpty()) {
+			// only name of the file is used, so the command is not able to write outside of logs directory
+			File file = new File("logs", new File(fileName.trim()).getName());
+			try {
+				int traces = tracer.dump(file);
+				Command.addTextField(result, "Note", "Dumped " + traces + " traces to " + file.getPath());
+			} catch (IOException ex) {
+				log.log(Level.WARNING, "Could not dump packet traces to " + file, ex);
+				Command.addTextField(result, "Error", "Could not dump packet traces: " + ex.getMessage());
+			}
+		}
+		if (traceId != null && !traceId.trim().isEmpty()) {
+			try {
+				List<SamplingTracer.Event> trace = tracer.getTrace(Long.parseLong(traceId.trim()));
+				Command.addFieldMultiValue(result, "Events", SamplingTracer.format(trace));
+			} catch (NumberFormatException ex) {
+				Command.addTextField(result, "Error", "Incorrect trace id: " + XMLUtils.escape(traceId));
+			}
+		} else {
+			List<String> ids = new ArrayList<>();
+			for (Long id : tracer.getRecentTraceIds(50)) {
+				ids.add(String.valueOf(id));
+			}
+			Command.addFieldMultiValue(result, "Recent traces", ids);
+		}
+		return result;
+	}
+
+	private long parseTime(String value, long def) {
+		if (value == null || value.isEmpty()) {
+			return def;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException ex) {
+			return def;
+		}
+	}
+
 	private class ArchivizerRunner
 			extends Thread {
 
@@ -41,22 +41,37 @@ public class StatisticsList
 	}
 
 	public boolean add(String comp, String description, long value, Level recordLevel) {
+		if (!checkLevel(recordLevel)) {
+			return false;
+		}
 		return addEntry(comp, description, recordLevel, new StatRecord(comp, description, value, recordLevel));
 	}
 
 	public boolean add(String comp, String description, int value, Level recordLevel) {
+		if (!checkLevel(recordLevel)) {
+			return false;
+		}
 		return addEntry(comp, description, recordLevel, new StatRecord(comp, description, value, recordLevel));
 	}
 
 	public boolean add(String comp, String description, String value, Level recordLevel) {
+		if (!checkLevel(recordLevel)) {
+			return false;
+		}
 		return addEntry(comp, description, recordLevel, new StatRecord(comp, description, value, recordLevel));
 	}
 
 	public boolean add(String comp, String description, float value, Level recordLevel) {
+		if (!checkLevel(recordLevel)) {
+			return false;
+		}
 		return addEntry(comp, description, recordLevel, new StatRecord(comp, description, value, recordLevel));
 	}
 
 	public <E extends Number> boolean add(String comp, String description, Collection<E> value, Level recordLevel) {
+		if (!checkLevel(recordLevel)) {
+			return false;
+		}
 		return addEntry(comp, description, recordLevel, new StatRecord(comp, description, value, recordLevel));
 	}
 
@@ -19,10 +19,10 @@ package tigase.stats;
 
 import tigase.server.QueueType;
 import tigase.sys.TigaseRuntime;
-import tigase.util.historyCache.AllHistoryCache;
 import tigase.util.historyCache.FloatHistoryCache;
 import tigase.util.historyCache.IntHistoryCache;
 import tigase.util.historyCache.LongHistoryCache;
+import tigase.util.historyCache.StatisticsHistoryCache;
 
 import javax.management.*;
 import java.util.*;
@@ -356,16 +356,8 @@ public class StatisticsProvider
 
 		if (cache.allHistory != null) {
 			result = new LinkedHashMap<String, LinkedList<Object>>();
-			for (StatisticsList stHist : cache.allHistory.getCurrentHistory()) {
-				for (String key : statsKeys) {
-					LinkedList<Object> statsForKey = result.get(key);
-
-					if (statsForKey == null) {
-						statsForKey = new LinkedList<Object>();
-						result.put(key, statsForKey);
-					}
-					statsForKey.add(stHist.getValue(key));
-				}
+			for (String key : statsKeys) {
+				result.put(key, cache.allHistory.getHistory(key));
 			}
 		} else {
 			log.log(Level.INFO, "The server does not keep metrics history.");
@@ -375,6 +367,28 @@ public class StatisticsProvider
 		return result;
 	}
 
+	/**
+	 * Returns samples of the metric collected between passed times.
+	 *
+	 * @return series of samples or <code>null</code> if history is not kept or there is no history for the metric.
+	 */
+	public StatisticsHistoryCache.Series getStatsHistory(String statsKey, long from, long to) {
+		if (cache.allHistory == null) {
+			return null;
+		}
+		return cache.allHistory.getRange(statsKey, from, to);
+	}
+
+	/**
+	 * Returns keys of metrics for which history is kept.
+	 */
+	public List<String> getStatsHistoryKeys() {
+		if (cache.allHistory == null) {
+			return Collections.emptyList();
+		}
+		return cache.allHistory.getKeys();
+	}
+
 	@Override
 	public String getSystemDetails() {
 
@@ -536,7 +550,7 @@ public class StatisticsProvider
 		private static final long MINUTE = 60 * SECOND;
 		private static final long HOUR = 60 * MINUTE;
 
-		private AllHistoryCache allHistory = null;
+		private StatisticsHistoryCache allHistory = null;
 		// ~--- fields -------------------------------------------------------------
 		private int clIOQueue = 0;
 		private int clQueue = 0;
@@ -611,7 +625,7 @@ public class StatisticsProvider
 				conns_history = new IntHistoryCache(historySize);
 				clpacks_history = new FloatHistoryCache(historySize);
 				direct_used_history = new LongHistoryCache(historySize);
-				allHistory = new AllHistoryCache(historySize, highMemoryLevel);
+				allHistory = new StatisticsHistoryCache(historySize, highMemoryLevel);
 			}
 			updateTimer = new Timer("stats-cache", true);
 			updateTimer.scheduleAtFixedRate(new TimerTask() {
@@ -658,7 +672,7 @@ public class StatisticsProvider
 			}
 			theRef.getAllStats(allStats);
 			if (allHistory != null) {
-				allHistory.addItem(allStats);
+				allHistory.addItem(System.currentTimeMillis(), allStats);
 			}
 
 			long tmp_reg = allStats.getValue(SM_COMP, "Registered accounts", -1L);
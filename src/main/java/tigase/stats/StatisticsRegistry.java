@@ -0,0 +1,167 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.stats;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+/**
+ * Registry of named metrics of a single component. Metrics are registered once, ie. during initialization, and then
+ * updated directly on hot paths without any locking. Statistics are produced only when requested by copying current
+ * values of registered metrics to the {@link StatisticsList}, so there is no need to build names of metrics or
+ * calculate values on each collection.
+ * <br>
+ * Registering metric with the same description again returns already registered instance.
+ */
+public class StatisticsRegistry {
+
+	private final ConcurrentMap<String, Metric> metricsByName = new ConcurrentHashMap<>();
+	private final List<Metric> metrics = new CopyOnWriteArrayList<>();
+
+	public LongCounter counter(String description, Level level) {
+		return ((CounterMetric) register(new CounterMetric(description, level, new LongCounter()))).counter;
+	}
+
+	public void gauge(String description, Level level, LongSupplier supplier) {
+		register(new GaugeMetric(description, level, supplier));
+	}
+
+	public void gauge(String description, Level level, DoubleSupplier supplier) {
+		register(new FloatGaugeMetric(description, level, supplier));
+	}
+
+	public LatencyHistogram histogram(String prefix, Level level) {
+		return ((HistogramMetric) register(new HistogramMetric(prefix, level, new LatencyHistogram()))).histogram;
+	}
+
+	public void getStatistics(String compName, StatisticsList list) {
+		for (Metric metric : metrics) {
+			if (list.checkLevel(metric.level)) {
+				metric.getStatistics(compName, list);
+			}
+		}
+	}
+
+	public boolean isEmpty() {
+		return metrics.isEmpty();
+	}
+
+	public void unregister(String description) {
+		Metric metric = metricsByName.remove(description);
+		if (metric != null) {
+			metrics.remove(metric);
+		}
+	}
+
+	private Metric register(Metric metric) {
+		Metric existing = metricsByName.putIfAbsent(metric.description, metric);
+		if (existing != null) {
+			if (existing.getClass() != metric.getClass()) {
+				throw new IllegalArgumentException(
+						"Metric " + metric.description + " is already registered with different type");
+			}
+			return existing;
+		}
+		metrics.add(metric);
+		return metric;
+	}
+
+	private static abstract class Metric {
+
+		protected final String description;
+		protected final Level level;
+
+		protected Metric(String description, Level level) {
+			// interned as StatRecord would do it on each collection
+			this.description = description.intern();
+			this.level = level;
+		}
+
+		protected abstract void getStatistics(String compName, StatisticsList list);
+
+	}
+
+	private static class CounterMetric
+			extends Metric {
+
+		private final LongCounter counter;
+
+		private CounterMetric(String description, Level level, LongCounter counter) {
+			super(description, level);
+			this.counter = counter;
+		}
+
+		@Override
+		protected void getStatistics(String compName, StatisticsList list) {
+			list.add(compName, description, counter.get(), level);
+		}
+	}
+
+	private static class FloatGaugeMetric
+			extends Metric {
+
+		private final DoubleSupplier supplier;
+
+		private FloatGaugeMetric(String description, Level level, DoubleSupplier supplier) {
+			super(description, level);
+			this.supplier = supplier;
+		}
+
+		@Override
+		protected void getStatistics(String compName, StatisticsList list) {
+			list.add(compName, description, (float) supplier.getAsDouble(), level);
+		}
+	}
+
+	private static class GaugeMetric
+			extends Metric {
+
+		private final LongSupplier supplier;
+
+		private GaugeMetric(String description, Level level, LongSupplier supplier) {
+			super(description, level);
+			this.supplier = supplier;
+		}
+
+		@Override
+		protected void getStatistics(String compName, StatisticsList list) {
+			list.add(compName, description, supplier.getAsLong(), level);
+		}
+	}
+
+	private static class HistogramMetric
+			extends Metric {
+
+		private final LatencyHistogram histogram;
+
+		private HistogramMetric(String prefix, Level level, LatencyHistogram histogram) {
+			super(prefix, level);
+			this.histogram = histogram;
+		}
+
+		@Override
+		protected void getStatistics(String compName, StatisticsList list) {
+			histogram.getStatistics(compName, description, level, list);
+		}
+	}
+}
@@ -0,0 +1,504 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.sys;
+
+import tigase.eventbus.EventBus;
+import tigase.eventbus.HandleEvent;
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.kernel.core.Kernel;
+import tigase.server.Message;
+import tigase.server.Packet;
+import tigase.server.Priority;
+import tigase.stats.StatisticsList;
+import tigase.util.dns.DNSResolverFactory;
+import tigase.xmpp.jid.BareJID;
+
+import java.io.Serializable;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Global controller detecting overload of the server and shedding load in steps. Every second it samples fill of
+ * queues of all components, time spent in GC and CPU usage, and every input is compared against its thresholds of
+ * {@link OverloadLevel#ELEVATED}, {@link OverloadLevel#HIGH} and {@link OverloadLevel#CRITICAL} levels. The highest
+ * level reached by any input becomes the overload level of the node. Level is raised immediately and lowered by one
+ * step only after inputs stayed below it for a few consecutive samples.
+ * <br>
+ * Actions applied at each level (including all actions of lower levels):
+ * <ul>
+ * <li><code>ELEVATED</code> - presence and PEP notifications are put to the lowest priority queues,</li>
+ * <li><code>HIGH</code> - rate of new client connections is limited and offline messages are rejected with
+ * <code>resource-constraint</code> error instead of being stored,</li>
+ * <li><code>CRITICAL</code> - new client connections are redirected with <code>see-other-host</code> to a cluster node
+ * which is not overloaded, if redirection is enabled in the <code>see-other-host</code> strategy.</li>
+ * </ul>
+ * Cluster nodes share their overload levels using the event bus. Controller is disabled by default and has to be
+ * enabled in the configuration:
+ * <pre>
+ * 'overload-controller' () {
+ *     'queue-thresholds' = [ 50, 75, 90 ]
+ *     'cpu-thresholds' = [ 85, 92, 97 ]
+ * }
+ * </pre>
+ */
+@Bean(name = OverloadController.ID, parent = Kernel.class, active = false, exportable = true)
+public class OverloadController
+		implements Initializable, UnregisterAware {
+
+	public static final String ID = "overload-controller";
+
+	private static final String PUBSUB_EVENT_XMLNS = "http://jabber.org/protocol/pubsub#event";
+	private static final long NODE_STATE_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+	private static final long NODE_STATE_REFRESH = TimeUnit.SECONDS.toMillis(30);
+	private static final int RECOVERY_SAMPLES = 5;
+	private static final long SAMPLE_INTERVAL = 1000;
+
+	private static final Logger log = Logger.getLogger(OverloadController.class.getName());
+
+	private final String[] actionTriggers = new String[OverloadLevel.values().length];
+	private final AtomicLong deprioritized = new AtomicLong();
+	private final AtomicLong loginWindow = new AtomicLong();
+	private final AtomicInteger loginWindowCount = new AtomicInteger();
+	private final Map<String, NodeState> nodes = new ConcurrentHashMap<>();
+	private final AtomicLong redirected = new AtomicLong();
+	private final AtomicLong rejectedOfflineMessages = new AtomicLong();
+	private final AtomicLong throttledLogins = new AtomicLong();
+	@ConfigField(desc = "CPU usage in % at which overload levels are reached", alias = "cpu-thresholds")
+	private float[] cpuThresholds = {85, 92, 97};
+	private float cpuUsage = 0;
+	@Inject(nullAllowed = true)
+	private EventBus eventBus = null;
+	private ScheduledExecutorService executor = null;
+	@ConfigField(desc = "Time spent in GC in ms per second at which overload levels are reached", alias = "gc-thresholds")
+	private float[] gcThresholds = {100, 200, 400};
+	private long gcTime = 0;
+	private float gcTimePerSecond = 0;
+	private long lastNodeStatePublished = 0;
+	private long lastSampleTime = 0;
+	private volatile OverloadLevel level = OverloadLevel.NONE;
+	private long levelChanges = 0;
+	private String localNode = null;
+	@ConfigField(desc = "Maximal number of new client connections per second when overloaded", alias = "login-rate")
+	private int loginRate = 50;
+	private float queueFill = 0;
+	@Inject(nullAllowed = true)
+	private QueueSource[] queueSources = new QueueSource[0];
+	@ConfigField(desc = "Fill of queues in % at which overload levels are reached", alias = "queue-thresholds")
+	private float[] queueThresholds = {50, 75, 90};
+	private int recoverySamples = 0;
+	private String trigger = null;
+
+	private static void checkThresholds(String name, float[] thresholds) {
+		if (thresholds == null || thresholds.length != OverloadLevel.values().length - 1) {
+			throw new IllegalArgumentException(
+					"Expected " + (OverloadLevel.values().length - 1) + " values of " + name + ", got: " +
+							(thresholds == null ? null : toString(thresholds)));
+		}
+	}
+
+	public OverloadController() {
+	}
+
+	OverloadController(float[] queueThresholds, float[] cpuThresholds, float[] gcThresholds, int loginRate) {
+		this.queueThresholds = queueThresholds;
+		this.cpuThresholds = cpuThresholds;
+		this.gcThresholds = gcThresholds;
+		this.loginRate = loginRate;
+	}
+
+	@Override
+	public void initialize() {
+		checkThresholds("queue-thresholds", queueThresholds);
+		checkThresholds("cpu-thresholds", cpuThresholds);
+		checkThresholds("gc-thresholds", gcThresholds);
+		startSampling();
+	}
+
+	@Override
+	public void beforeUnregister() {
+		stopSampling();
+	}
+
+	public void setQueueSources(QueueSource[] queueSources) {
+		this.queueSources = queueSources == null ? new QueueSource[0] : queueSources;
+	}
+
+	public OverloadLevel getLevel() {
+		return level;
+	}
+
+	/**
+	 * Returns priority of queue to which the packet should be added. When overloaded, presence and PEP notifications
+	 * are put to the lowest priority queue.
+	 */
+	public Priority getQueuePriority(Packet packet) {
+		Priority priority = packet.getPriority();
+		if (level == OverloadLevel.NONE || priority == Priority.LOWEST) {
+			return priority;
+		}
+		if (priority == Priority.PRESENCE || (packet.getElemName() == Message.ELEM_NAME &&
+				packet.getElement().getChild("event", PUBSUB_EVENT_XMLNS) != null)) {
+			deprioritized.incrementAndGet();
+			return Priority.LOWEST;
+		}
+		return priority;
+	}
+
+	/**
+	 * Checks if a new client connection may be accepted. When overloaded only a limited number of new connections is
+	 * accepted every second.
+	 */
+	public boolean tryLogin() {
+		if (level.ordinal() < OverloadLevel.HIGH.ordinal()) {
+			return true;
+		}
+		long window = System.currentTimeMillis() / 1000;
+		long current = loginWindow.get();
+		if (current != window && loginWindow.compareAndSet(current, window)) {
+			loginWindowCount.set(0);
+		}
+		if (loginWindowCount.incrementAndGet() > loginRate) {
+			throttledLogins.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if a message for an offline user may be stored. When overloaded storage is not deferred, as accepted
+	 * messages could be lost, but the message should be rejected with <code>resource-constraint</code> error.
+	 */
+	public boolean isOfflineStorageAllowed() {
+		if (level.ordinal() < OverloadLevel.HIGH.ordinal()) {
+			return true;
+		}
+		rejectedOfflineMessages.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Finds a cluster node to which a new client connection should be redirected. Connections are redirected only
+	 * when this node is critically overloaded and to nodes which are not overloaded.
+	 *
+	 * @return address of the node or <code>null</code> if connection should not be redirected
+	 */
+	public BareJID findRedirectHost(BareJID jid) {
+		if (level != OverloadLevel.CRITICAL) {
+			return null;
+		}
+		long now = System.currentTimeMillis();
+		List<String> candidates = new ArrayList<>();
+		for (Map.Entry<String, NodeState> e : nodes.entrySet()) {
+			NodeState state = e.getValue();
+			if (state.level == OverloadLevel.NONE && now - state.timestamp < NODE_STATE_TIMEOUT) {
+				candidates.add(e.getKey());
+			}
+		}
+		if (candidates.isEmpty()) {
+			return null;
+		}
+		// the same user is redirected to the same node as long as the set of candidates does not change
+		Collections.sort(candidates);
+		redirected.incrementAndGet();
+		return BareJID.bareJIDInstanceNS(candidates.get(Math.abs(jid.hashCode() % candidates.size())));
+	}
+
+	@HandleEvent(filter = HandleEvent.Type.remote)
+	public void onNodeStateChanged(OverloadStateEvent event) {
+		if (event.getNode() == null || event.getLevel() == null) {
+			return;
+		}
+		nodes.put(event.getNode(), new NodeState(OverloadLevel.valueOf(event.getLevel()), System.currentTimeMillis()));
+	}
+
+	public void getStatistics(String compName, StatisticsList list) {
+		list.add(compName, "Overload/Level", level.name(), Level.INFO);
+		list.add(compName, "Overload/Trigger", trigger == null ? "none" : trigger, Level.INFO);
+		list.add(compName, "Overload/Level changes", levelChanges, Level.FINE);
+		list.add(compName, "Overload/Queue fill [%]", queueFill, Level.FINE);
+		list.add(compName, "Overload/CPU usage [%]", cpuUsage, Level.FINE);
+		list.add(compName, "Overload/GC time [ms/s]", gcTimePerSecond, Level.FINE);
+		for (OverloadLevel actionLevel : OverloadLevel.values()) {
+			if (actionLevel != OverloadLevel.NONE) {
+				String actionTrigger = actionTriggers[actionLevel.ordinal()];
+				list.add(compName, "Overload/Action/" + actionLevel.getActions(),
+						 actionTrigger == null ? "inactive" : actionTrigger, Level.FINE);
+			}
+		}
+		list.add(compName, "Overload/Deprioritized packets", deprioritized.get(), Level.FINE);
+		list.add(compName, "Overload/Throttled logins", throttledLogins.get(), Level.FINE);
+		list.add(compName, "Overload/Rejected offline messages", rejectedOfflineMessages.get(), Level.FINE);
+		list.add(compName, "Overload/Redirected connections", redirected.get(), Level.FINE);
+		long now = System.currentTimeMillis();
+		int overloadedNodes = 0;
+		for (NodeState state : nodes.values()) {
+			if (state.level != OverloadLevel.NONE && now - state.timestamp < NODE_STATE_TIMEOUT) {
+				overloadedNodes++;
+			}
+		}
+		list.add(compName, "Overload/Overloaded cluster nodes", overloadedNodes, Level.FINE);
+	}
+
+	/**
+	 * Updates overload level using sampled inputs.
+	 */
+	synchronized void update(float queueFill, String queueName, float cpuUsage, float gcTimePerSecond, long now) {
+		this.queueFill = queueFill;
+		this.cpuUsage = cpuUsage;
+		this.gcTimePerSecond = gcTimePerSecond;
+
+		OverloadLevel sampled = OverloadLevel.NONE;
+		String sampledTrigger = null;
+		OverloadLevel tmp = OverloadLevel.forValue(queueFill, queueThresholds);
+		if (tmp.ordinal() > sampled.ordinal()) {
+			sampled = tmp;
+			sampledTrigger = "queue of " + queueName + " " + Math.round(queueFill) + "%";
+		}
+		tmp = OverloadLevel.forValue(cpuUsage, cpuThresholds);
+		if (tmp.ordinal() > sampled.ordinal()) {
+			sampled = tmp;
+			sampledTrigger = "CPU usage " + Math.round(cpuUsage) + "%";
+		}
+		tmp = OverloadLevel.forValue(gcTimePerSecond, gcThresholds);
+		if (tmp.ordinal() > sampled.ordinal()) {
+			sampled = tmp;
+			sampledTrigger = "GC time " + Math.round(gcTimePerSecond) + "ms/s";
+		}
+
+		OverloadLevel current = level;
+		OverloadLevel next = current;
+		if (sampled.ordinal() >= current.ordinal()) {
+			recoverySamples = 0;
+			next = sampled;
+			if (sampled != OverloadLevel.NONE) {
+				trigger = sampledTrigger;
+			}
+		} else if (++recoverySamples >= RECOVERY_SAMPLES) {
+			recoverySamples = 0;
+			next = OverloadLevel.values()[current.ordinal() - 1];
+		}
+
+		if (next != current) {
+			levelChanges++;
+			for (OverloadLevel actionLevel : OverloadLevel.values()) {
+				if (actionLevel.ordinal() > next.ordinal()) {
+					actionTriggers[actionLevel.ordinal()] = null;
+				} else if (actionLevel.ordinal() > current.ordinal()) {
+					actionTriggers[actionLevel.ordinal()] = trigger;
+				}
+			}
+			if (next == OverloadLevel.NONE) {
+				trigger = null;
+			}
+			level = next;
+			log.log(next.ordinal() > current.ordinal() ? Level.WARNING : Level.INFO,
+					"Overload level changed from {0} to {1}, trigger: {2}", new Object[]{current, next, trigger});
+		}
+		if (next != current || now - lastNodeStatePublished >= NODE_STATE_REFRESH) {
+			lastNodeStatePublished = now;
+			publishState(next);
+		}
+	}
+
+	String getActionTrigger(OverloadLevel actionLevel) {
+		return actionTriggers[actionLevel.ordinal()];
+	}
+
+	void setNodeState(String node, OverloadLevel level, long timestamp) {
+		nodes.put(node, new NodeState(level, timestamp));
+	}
+
+	private synchronized void startSampling() {
+		if (executor != null) {
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "overload-controller");
+			thread.setDaemon(true);
+			return thread;
+		});
+		localNode = DNSResolverFactory.getInstance().getDefaultHost();
+		if (eventBus != null) {
+			eventBus.registerAll(this);
+		} else {
+			log.log(Level.WARNING, "Overload state will not be shared with cluster nodes");
+		}
+		executor.scheduleAtFixedRate(this::sample, SAMPLE_INTERVAL, SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+		log.log(Level.CONFIG, "Overload controller started, queue thresholds: {0}%, CPU thresholds: {1}%, " +
+						"GC thresholds: {2}ms/s",
+				new Object[]{toString(queueThresholds), toString(cpuThresholds), toString(gcThresholds)});
+	}
+
+	private synchronized void stopSampling() {
+		if (executor == null) {
+			return;
+		}
+		executor.shutdownNow();
+		executor = null;
+		if (eventBus != null) {
+			eventBus.unregisterAll(this);
+		}
+	}
+
+	private void sample() {
+		try {
+			float maxFill = 0;
+			String maxFillName = null;
+			for (QueueSource source : queueSources) {
+				float fill = source.getQueueFill();
+				if (fill > maxFill || maxFillName == null) {
+					maxFill = fill;
+					maxFillName = source.getName();
+				}
+			}
+
+			long now = System.currentTimeMillis();
+			long currentGcTime = 0;
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				currentGcTime += Math.max(0, gc.getCollectionTime());
+			}
+			float gcRate = 0;
+			if (lastSampleTime > 0 && now > lastSampleTime) {
+				gcRate = (currentGcTime - gcTime) * 1000f / (now - lastSampleTime);
+			}
+			gcTime = currentGcTime;
+			lastSampleTime = now;
+
+			update(maxFill, maxFillName, TigaseRuntime.getTigaseRuntime().getCPUUsage(), gcRate, now);
+		} catch (Throwable ex) {
+			log.log(Level.WARNING, "Overload sampling failed", ex);
+		}
+	}
+
+	private void publishState(OverloadLevel level) {
+		if (eventBus == null || localNode == null) {
+			return;
+		}
+		OverloadStateEvent event = new OverloadStateEvent();
+		event.setNode(localNode);
+		event.setLevel(level.name());
+		eventBus.fire(event);
+	}
+
+	private static String toString(float[] thresholds) {
+		StringBuilder sb = new StringBuilder();
+		for (float threshold : thresholds) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(threshold);
+		}
+		return sb.toString();
+	}
+
+	public enum OverloadLevel {
+		NONE(null),
+		ELEVATED("Deprioritize presence and PEP"),
+		HIGH("Throttle logins and reject offline messages"),
+		CRITICAL("Redirect new connections");
+
+		private final String actions;
+
+		static OverloadLevel forValue(float value, float[] thresholds) {
+			for (int i = thresholds.length - 1; i >= 0; i--) {
+				if (value >= thresholds[i]) {
+					return values()[i + 1];
+				}
+			}
+			return NONE;
+		}
+
+		OverloadLevel(String actions) {
+			this.actions = actions;
+		}
+
+		/**
+		 * Returns description of actions applied at this level.
+		 */
+		public String getActions() {
+			return actions;
+		}
+	}
+
+	/**
+	 * Component which queues are monitored by the controller.
+	 */
+	public interface QueueSource {
+
+		String getName();
+
+		/**
+		 * Returns fill of the most loaded queue in %.
+		 */
+		float getQueueFill();
+
+	}
+
+	/**
+	 * Overload level of a cluster node, sent to other nodes when it changes and periodically.
+	 */
+	public static class OverloadStateEvent
+			implements Serializable {
+
+		private String level;
+		private String node;
+
+		public String getLevel() {
+			return level;
+		}
+
+		public void setLevel(String level) {
+			this.level = level;
+		}
+
+		public String getNode() {
+			return node;
+		}
+
+		public void setNode(String node) {
+			this.node = node;
+		}
+	}
+
+	private static class NodeState {
+
+		private final OverloadLevel level;
+		private final long timestamp;
+
+		private NodeState(OverloadLevel level, long timestamp) {
+			this.level = level;
+			this.timestamp = timestamp;
+		}
+	}
+}
@@ -0,0 +1,307 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.historyCache;
+
+import tigase.stats.StatRecord;
+import tigase.stats.StatisticsList;
+import tigase.sys.TigaseRuntime;
+import tigase.util.repository.DataTypes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * History of numeric statistics stored in columns. Each metric has its own ring buffer of primitive values of size
+ * equal to the history limit, so a sample costs 8 bytes (4 bytes for float metrics) per metric instead of a whole
+ * {@link StatisticsList} with all its records. Metrics with text or collection values are not kept in the history.
+ * <br>
+ * Metrics are identified by <code>component/description</code> key, the same as used by {@link
+ * StatisticsList#getValue(String)}. Memory for a metric is allocated when it appears for the first time and new
+ * metrics are not added while heap usage is above the high memory level.
+ */
+public class StatisticsHistoryCache {
+
+	private static final Logger log = Logger.getLogger(StatisticsHistoryCache.class.getName());
+	private static final long MISSING_LONG = Long.MIN_VALUE;
+
+	private final Map<String, Map<String, Column>> columns = new HashMap<>();
+	private final int highMemoryLevel;
+	private final int limit;
+	private final long[] timestamps;
+	private int columnsCount = 0;
+	private int count = 0;
+	private int start = 0;
+
+	public StatisticsHistoryCache(int limit, int highMemoryLevel) {
+		this.highMemoryLevel = highMemoryLevel;
+		this.limit = limit;
+		this.timestamps = new long[limit];
+	}
+
+	public synchronized void addItem(long timestamp, StatisticsList item) {
+		int ix = (start + count) % limit;
+
+		timestamps[ix] = timestamp;
+		for (Map<String, Column> compColumns : columns.values()) {
+			for (Column column : compColumns.values()) {
+				column.clear(ix);
+			}
+		}
+		for (StatRecord record : item) {
+			Column column = getColumn(record);
+			if (column != null) {
+				column.set(ix, record);
+			}
+		}
+
+		if (count < limit) {
+			count++;
+		} else {
+			start++;
+			start %= limit;
+		}
+	}
+
+	/**
+	 * Returns number of metrics for which history is kept.
+	 */
+	public synchronized int getMetricsCount() {
+		return columnsCount;
+	}
+
+	/**
+	 * Returns approximate size in bytes of memory allocated for history.
+	 */
+	public synchronized long getMemoryUsage() {
+		long size = timestamps.length * 8L;
+		for (Map<String, Column> compColumns : columns.values()) {
+			for (Column column : compColumns.values()) {
+				size += column.getMemoryUsage();
+			}
+		}
+		return size;
+	}
+
+	public synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * Returns values of the metric for every sample kept in history, from the oldest to the newest one. If the metric
+	 * was not present in a sample then <code>0</code> is returned for this sample.
+	 *
+	 * @param key of the metric, optionally followed by type suffix, ie. <code>sess-man/Open user sessions[L]</code>
+	 */
+	public synchronized LinkedList<Object> getHistory(String key) {
+		LinkedList<Object> result = new LinkedList<>();
+		Column column = findColumn(key);
+		Object missing = (column != null && column.floats != null) ? (Object) 0f : (Object) 0L;
+		for (int i = 0; i < count; i++) {
+			int ix = (start + i) % limit;
+			Object value = column == null ? null : column.get(ix);
+			result.add(value == null ? missing : value);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns samples of the metric collected between passed times (inclusive). Samples in which metric was not present
+	 * are skipped.
+	 *
+	 * @param key of the metric, optionally followed by type suffix
+	 * @param from time in milliseconds
+	 * @param to time in milliseconds
+	 *
+	 * @return series of samples or <code>null</code> if there is no history for the metric
+	 */
+	public synchronized Series getRange(String key, long from, long to) {
+		Column column = findColumn(key);
+		if (column == null) {
+			return null;
+		}
+		long[] times = new long[count];
+		Object[] values = new Object[count];
+		int size = 0;
+		for (int i = 0; i < count; i++) {
+			int ix = (start + i) % limit;
+			if (timestamps[ix] < from || timestamps[ix] > to) {
+				continue;
+			}
+			Object value = column.get(ix);
+			if (value != null) {
+				times[size] = timestamps[ix];
+				values[size] = value;
+				size++;
+			}
+		}
+		return new Series(Arrays.copyOf(times, size), Arrays.copyOf(values, size));
+	}
+
+	/**
+	 * Returns keys of all metrics for which history is kept.
+	 */
+	public synchronized List<String> getKeys() {
+		List<String> keys = new ArrayList<>(columnsCount);
+		for (Map.Entry<String, Map<String, Column>> compColumns : columns.entrySet()) {
+			for (String description : compColumns.getValue().keySet()) {
+				keys.add(compColumns.getKey() + "/" + description);
+			}
+		}
+		return keys;
+	}
+
+	protected boolean isHighMemoryUsage() {
+		return TigaseRuntime.getTigaseRuntime().getHeapMemUsage() > highMemoryLevel;
+	}
+
+	private Column findColumn(String key) {
+		String name = DataTypes.stripNameFromTypeId(key);
+		int idx = name.indexOf('/');
+		if (idx < 0) {
+			return null;
+		}
+		Map<String, Column> compColumns = columns.get(name.substring(0, idx));
+		return compColumns == null ? null : compColumns.get(name.substring(idx + 1));
+	}
+
+	private Column getColumn(StatRecord record) {
+		// component and description are interned by StatRecord
+		Map<String, Column> compColumns = columns.get(record.getComponent());
+		Column column = compColumns == null ? null : compColumns.get(record.getDescription());
+		if (column == null) {
+			boolean isFloat;
+			if (record.getLongValue() != -1 || record.getIntValue() != -1) {
+				isFloat = false;
+			} else if (record.getFloatValue() != -1f) {
+				isFloat = true;
+			} else {
+				return null;
+			}
+			if (isHighMemoryUsage()) {
+				if (log.isLoggable(Level.FINEST)) {
+					log.log(Level.FINEST, "Skipping history of {0}/{1} due to high memory usage",
+							new Object[]{record.getComponent(), record.getDescription()});
+				}
+				return null;
+			}
+			if (compColumns == null) {
+				compColumns = new HashMap<>();
+				columns.put(record.getComponent(), compColumns);
+			}
+			column = new Column(isFloat, limit);
+			compColumns.put(record.getDescription(), column);
+			columnsCount++;
+		}
+		return column;
+	}
+
+	/**
+	 * Samples of a single metric.
+	 */
+	public static class Series {
+
+		private final long[] timestamps;
+		private final Object[] values;
+
+		private Series(long[] timestamps, Object[] values) {
+			this.timestamps = timestamps;
+			this.values = values;
+		}
+
+		public long getTimestamp(int i) {
+			return timestamps[i];
+		}
+
+		/**
+		 * Returns value of the sample as {@link Long} or {@link Float}.
+		 */
+		public Object getValue(int i) {
+			return values[i];
+		}
+
+		public int size() {
+			return timestamps.length;
+		}
+	}
+
+	private static class Column {
+
+		private final float[] floats;
+		private final long[] longs;
+
+		private Column(boolean isFloat, int limit) {
+			if (isFloat) {
+				floats = new float[limit];
+				longs = null;
+				Arrays.fill(floats, Float.NaN);
+			} else {
+				floats = null;
+				longs = new long[limit];
+				Arrays.fill(longs, MISSING_LONG);
+			}
+		}
+
+		private void clear(int ix) {
+			if (floats != null) {
+				floats[ix] = Float.NaN;
+			} else {
+				longs[ix] = MISSING_LONG;
+			}
+		}
+
+		private Object get(int ix) {
+			if (floats != null) {
+				float value = floats[ix];
+				return Float.isNaN(value) ? null : value;
+			} else {
+				long value = longs[ix];
+				return value == MISSING_LONG ? null : value;
+			}
+		}
+
+		private long getMemoryUsage() {
+			return floats != null ? floats.length * 4L : longs.length * 8L;
+		}
+
+		private void set(int ix, StatRecord record) {
+			if (floats != null) {
+				float value = record.getFloatValue();
+				if (value == -1f && record.getLongValue() != -1) {
+					value = record.getLongValue();
+				} else if (value == -1f && record.getIntValue() != -1) {
+					value = record.getIntValue();
+				}
+				floats[ix] = value;
+			} else {
+				long value = record.getLongValue();
+				if (value == -1 && record.getIntValue() != -1) {
+					value = record.getIntValue();
+				} else if (value == -1 && record.getFloatValue() != -1f) {
+					value = (long) record.getFloatValue();
+				}
+				longs[ix] = value;
+			}
+		}
+	}
+}
@@ -0,0 +1,665 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.repository;
+
+import tigase.auth.credentials.Credentials;
+import tigase.db.AuthRepository;
+import tigase.db.TigaseDBException;
+import tigase.db.UserExistsException;
+import tigase.db.UserRepository;
+import tigase.xmpp.jid.BareJID;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copies users from one repository to another using a bounded pool of worker threads. Users are sorted by JID and
+ * split into batches of <code>batchSize</code> users, each batch is read from the source repository in one pass and
+ * then written to the destination repository. Only a limited number of batches is waiting for execution, so the
+ * source repository is read at the pace of writes to the destination repository.
+ * <br>
+ * Users which already exist in the destination repository are skipped and reported as existing, unless overwriting
+ * of existing users is enabled with {@link #setOverwrite(boolean)}.
+ * <br>
+ * When a checkpoint file is set, JID of the last user of the longest sequence of completed batches is stored in this
+ * file together with JIDs of users of these batches which could not be copied. Before a batch is written, range of
+ * its users is stored in the file as well and it is removed when the batch is completed. A migration started again
+ * with the same file skips users which were already copied and copies failed users and users of batches which were
+ * not completed again, overwriting them if they exist, as they may have been copied only partially. Users of other
+ * batches completed after the stored sequence are processed again and are reported as existing.
+ * <br>
+ * It works with any implementation of {@link UserRepository} as a source and {@link UserRepository} or {@link
+ * AuthRepository} as a destination.
+ */
+public class RepositoryMigration {
+
+	private static final String CHECKPOINT_FAILED_USERS_KEY = "failed-users";
+	private static final String CHECKPOINT_IN_FLIGHT_KEY = "in-flight";
+	private static final String CHECKPOINT_LAST_USER_KEY = "last-user";
+	private static final String CHECKPOINT_PROCESSED_KEY = "processed";
+	private static final long CHECKPOINT_INTERVAL = 1000;
+	private static final Logger log = Logger.getLogger(RepositoryMigration.class.getName());
+
+	private final Set<BareJID> checkpointFailedUsers = new LinkedHashSet<>();
+	private final Map<Integer, CompletedBatch> completedBatches = new HashMap<>();
+	/**
+	 * Ranges of users of batches which are being written, stored in the checkpoint until batches are completed.
+	 */
+	private final Map<Integer, UsersRange> inFlightBatches = new HashMap<>();
+	private final AuthRepository dstAuth;
+	private final UserRepository dstRepo;
+	private final AtomicLong existing = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final List<BareJID> failedUsers = Collections.synchronizedList(new ArrayList<>());
+	private final AtomicLong processed = new AtomicLong();
+	private final UserRepository src;
+	private int batchSize = 100;
+	private Path checkpointFile = null;
+	private String checkpointLastUser = null;
+	private long checkpointProcessed = 0;
+	private long checkpointWrittenAt = 0;
+	private int nextCheckpointBatch = 0;
+	private boolean overwrite = false;
+	private long processedBeforeResume = 0;
+	/**
+	 * Ranges of users of batches not completed before the migration was resumed, kept in the checkpoint until users
+	 * within them are copied.
+	 */
+	private final List<UsersRange> redoRanges = new CopyOnWriteArrayList<>();
+	private Set<BareJID> retryUsers = Collections.emptySet();
+	private Consumer<Progress> progressListener = progress -> log.log(Level.INFO, progress.toString());
+	private long progressInterval = TimeUnit.SECONDS.toMillis(10);
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	public RepositoryMigration(UserRepository src, UserRepository dst) {
+		this.src = src;
+		this.dstRepo = dst;
+		this.dstAuth = null;
+	}
+
+	public RepositoryMigration(UserRepository src, AuthRepository dst) {
+		this.src = src;
+		this.dstRepo = null;
+		this.dstAuth = dst;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be greater than 0");
+		}
+		this.batchSize = batchSize;
+	}
+
+	public Path getCheckpointFile() {
+		return checkpointFile;
+	}
+
+	/**
+	 * Sets file in which progress of the migration is stored. If the file exists, migration is resumed after the last
+	 * user stored in it.
+	 */
+	public void setCheckpointFile(Path checkpointFile) {
+		this.checkpointFile = checkpointFile;
+	}
+
+	public boolean isOverwrite() {
+		return overwrite;
+	}
+
+	/**
+	 * Enables overwriting of data of users which already exist in the destination repository. By default such users
+	 * are skipped.
+	 */
+	public void setOverwrite(boolean overwrite) {
+		this.overwrite = overwrite;
+	}
+
+	public void setProgressInterval(long interval, TimeUnit unit) {
+		this.progressInterval = unit.toMillis(interval);
+	}
+
+	/**
+	 * Sets consumer of progress reports called periodically during the migration and once after it is finished.
+	 * Reports are logged by default.
+	 */
+	public void setProgressListener(Consumer<Progress> progressListener) {
+		this.progressListener = progressListener;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be greater than 0");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Copies all users of the source repository which were not copied yet according to the checkpoint file.
+	 *
+	 * @return report of the migration
+	 */
+	public Progress run() throws TigaseDBException, IOException, InterruptedException {
+		String resumeAfter = readCheckpoint();
+		List<BareJID> users = getUsersToCopy(resumeAfter);
+		long total = users.size() + processedBeforeResume;
+		long startedAt = System.currentTimeMillis();
+
+		if (resumeAfter != null || !redoRanges.isEmpty()) {
+			log.log(Level.INFO,
+					"Resuming migration after {0}, {1} users already processed, {2} failed users and {3} not " +
+							"completed batches to copy again",
+					new Object[]{resumeAfter, processedBeforeResume, retryUsers.size(), redoRanges.size()});
+		}
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+															 new LinkedBlockingQueue<>(),
+															 new MigrationThreadFactory("repository-migration-"));
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(
+				new MigrationThreadFactory("repository-migration-progress-"));
+		// limits number of batches being copied or waiting in the executor queue
+		Semaphore pendingBatches = new Semaphore(threads * 3);
+		ProgressCounter counter = new ProgressCounter(total, startedAt);
+
+		reporter.scheduleAtFixedRate(() -> progressListener.accept(counter.next()), progressInterval,
+									 progressInterval, TimeUnit.MILLISECONDS);
+		try {
+			int batchIdx = 0;
+			for (int from = 0; from < users.size(); from += batchSize) {
+				List<BareJID> batch = users.subList(from, Math.min(from + batchSize, users.size()));
+				final int idx = batchIdx++;
+				pendingBatches.acquire();
+				batchStarted(idx, batch);
+				executor.execute(() -> {
+					try {
+						batchCompleted(idx, batch, copyBatch(batch));
+					} finally {
+						pendingBatches.release();
+					}
+				});
+			}
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} finally {
+			executor.shutdownNow();
+			reporter.shutdownNow();
+		}
+		writeCheckpoint(true);
+
+		Progress result = counter.next();
+		progressListener.accept(result);
+		return result;
+	}
+
+	/**
+	 * Returns JIDs of users which could not be copied.
+	 */
+	public List<BareJID> getFailedUsers() {
+		synchronized (failedUsers) {
+			return new ArrayList<>(failedUsers);
+		}
+	}
+
+	/**
+	 * Copies users of the batch.
+	 *
+	 * @return users of the batch which could not be copied
+	 */
+	private List<BareJID> copyBatch(List<BareJID> batch) {
+		List<BareJID> batchFailed = new ArrayList<>();
+		List<UserData> data = new ArrayList<>(batch.size());
+		for (BareJID user : batch) {
+			try {
+				data.add(readUser(user));
+			} catch (Exception ex) {
+				userFailed(user, ex);
+				batchFailed.add(user);
+			}
+		}
+		for (UserData userData : data) {
+			try {
+				boolean redo = isRedo(userData.user);
+				if (!writeUser(userData, redo) && !redo) {
+					existing.incrementAndGet();
+				}
+			} catch (Exception ex) {
+				userFailed(userData.user, ex);
+				batchFailed.add(userData.user);
+			}
+		}
+		return batchFailed;
+	}
+
+	/**
+	 * Stores range of users of the batch in the checkpoint before any of them is written.
+	 */
+	private synchronized void batchStarted(int idx, List<BareJID> batch) throws IOException {
+		if (checkpointFile == null) {
+			return;
+		}
+		inFlightBatches.put(idx, new UsersRange(batch.get(0).toString(), batch.get(batch.size() - 1).toString()));
+		writeCheckpoint(true);
+	}
+
+	private synchronized void batchCompleted(int idx, List<BareJID> batch, List<BareJID> batchFailed) {
+		processed.addAndGet(batch.size());
+		inFlightBatches.remove(idx);
+		completedBatches.put(idx, new CompletedBatch(batch, batchFailed));
+		// checkpoint is moved only over batches completed in order, later batches wait for preceding ones
+		CompletedBatch completed;
+		while ((completed = completedBatches.remove(nextCheckpointBatch)) != null) {
+			nextCheckpointBatch++;
+			// retried users precede the last user of the previous checkpoint, so it may not be moved backwards
+			String lastUser = completed.users.get(completed.users.size() - 1).toString();
+			if (checkpointLastUser == null || lastUser.compareTo(checkpointLastUser) > 0) {
+				checkpointLastUser = lastUser;
+			}
+			// failed users are stored in the checkpoint and counted as processed only when they are copied
+			checkpointProcessed += completed.users.size() - completed.failed.size();
+			checkpointFailedUsers.removeAll(completed.users);
+			checkpointFailedUsers.addAll(completed.failed);
+		}
+		// users of a range are copied or stored as failed users when the stored sequence passes the range
+		redoRanges.removeIf(range -> checkpointLastUser != null && range.last.compareTo(checkpointLastUser) <= 0);
+		try {
+			writeCheckpoint(false);
+		} catch (IOException ex) {
+			log.log(Level.WARNING, "Could not write migration checkpoint to " + checkpointFile, ex);
+		}
+	}
+
+	private List<BareJID> getUsersToCopy(String resumeAfter) throws TigaseDBException {
+		List<BareJID> allUsers = src.getUsers();
+		if (allUsers == null) {
+			return Collections.emptyList();
+		}
+		List<BareJID> users = new ArrayList<>(allUsers.size());
+		for (BareJID user : allUsers) {
+			if (resumeAfter == null || user.toString().compareTo(resumeAfter) > 0 || isRedo(user)) {
+				users.add(user);
+			}
+		}
+		users.sort(Comparator.comparing(BareJID::toString));
+		return users;
+	}
+
+	private String readCheckpoint() throws IOException {
+		if (checkpointFile == null || !Files.exists(checkpointFile)) {
+			return null;
+		}
+		Properties props = new Properties();
+		try (InputStream in = Files.newInputStream(checkpointFile)) {
+			props.load(in);
+		}
+		checkpointLastUser = props.getProperty(CHECKPOINT_LAST_USER_KEY);
+		checkpointProcessed = Long.parseLong(props.getProperty(CHECKPOINT_PROCESSED_KEY, "0"));
+		processedBeforeResume = checkpointProcessed;
+		String failedUsers = props.getProperty(CHECKPOINT_FAILED_USERS_KEY, "").trim();
+		if (!failedUsers.isEmpty()) {
+			retryUsers = new HashSet<>();
+			for (String user : failedUsers.split("\\s+")) {
+				retryUsers.add(BareJID.bareJIDInstanceNS(user));
+			}
+			// retried users are kept in the checkpoint until they are copied
+			checkpointFailedUsers.addAll(retryUsers);
+		}
+		String[] inFlight = props.getProperty(CHECKPOINT_IN_FLIGHT_KEY, "").trim().split("\\s+");
+		for (int i = 0; i + 1 < inFlight.length; i += 2) {
+			redoRanges.add(new UsersRange(inFlight[i], inFlight[i + 1]));
+		}
+		return checkpointLastUser;
+	}
+
+	/**
+	 * Checks if the user could have been copied partially before the migration was resumed, so it has to be copied
+	 * again even if it exists in the destination repository.
+	 */
+	private boolean isRedo(BareJID user) {
+		if (retryUsers.contains(user)) {
+			return true;
+		}
+		String jid = user.toString();
+		for (UsersRange range : redoRanges) {
+			if (range.contains(jid)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private UserData readUser(BareJID user) throws TigaseDBException {
+		UserData data = new UserData(user);
+		if (dstAuth != null) {
+			data.password = src.getData(user, "password");
+			return data;
+		}
+		// nodes are traversed iteratively, root node is represented by an empty string
+		ArrayDeque<String> nodes = new ArrayDeque<>();
+		nodes.add("");
+		while (!nodes.isEmpty()) {
+			String node = nodes.poll();
+			String subnode = node.isEmpty() ? null : node;
+			String[] keys = src.getKeys(user, subnode);
+			if (keys != null) {
+				for (String key : keys) {
+					String[] values = src.getDataList(user, subnode, key);
+					if (values != null) {
+						data.entries.add(new DataEntry(subnode, key, values));
+					}
+				}
+			}
+			String[] children = src.getSubnodes(user, subnode);
+			if (children != null) {
+				for (String child : children) {
+					nodes.add(subnode == null ? child : subnode + "/" + child);
+				}
+			}
+		}
+		return data;
+	}
+
+	private void userFailed(BareJID user, Exception ex) {
+		failed.incrementAndGet();
+		failedUsers.add(user);
+		log.log(Level.WARNING, "Could not copy user " + user, ex);
+	}
+
+	private void userExists(BareJID user) {
+		log.log(Level.WARNING, "ERROR, user {0} already exists, skipping it", user);
+	}
+
+	private synchronized void writeCheckpoint(boolean force) throws IOException {
+		if (checkpointFile == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (!force && now - checkpointWrittenAt < CHECKPOINT_INTERVAL) {
+			return;
+		}
+		checkpointWrittenAt = now;
+
+		Properties props = new Properties();
+		if (checkpointLastUser != null) {
+			props.setProperty(CHECKPOINT_LAST_USER_KEY, checkpointLastUser);
+		}
+		props.setProperty(CHECKPOINT_PROCESSED_KEY, String.valueOf(checkpointProcessed));
+		StringBuilder failedUsers = new StringBuilder();
+		for (BareJID user : checkpointFailedUsers) {
+			if (failedUsers.length() > 0) {
+				failedUsers.append(' ');
+			}
+			failedUsers.append(user);
+		}
+		props.setProperty(CHECKPOINT_FAILED_USERS_KEY, failedUsers.toString());
+		StringBuilder inFlight = new StringBuilder();
+		List<UsersRange> ranges = new ArrayList<>(redoRanges);
+		ranges.addAll(inFlightBatches.values());
+		for (UsersRange range : ranges) {
+			if (inFlight.length() > 0) {
+				inFlight.append(' ');
+			}
+			inFlight.append(range.first).append(' ').append(range.last);
+		}
+		props.setProperty(CHECKPOINT_IN_FLIGHT_KEY, inFlight.toString());
+		Path tmp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+		try (OutputStream out = Files.newOutputStream(tmp)) {
+			props.store(out, "Repository migration checkpoint");
+		}
+		Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Writes user data to the destination repository.
+	 *
+	 * @param redo <code>true</code> if the user has to be overwritten as it could have been copied only partially
+	 *
+	 * @return <code>false</code> if the user already existed in the destination repository and was skipped or
+	 * overwritten
+	 */
+	private boolean writeUser(UserData data, boolean redo) throws TigaseDBException {
+		boolean created = true;
+		if (dstAuth != null) {
+			try {
+				dstAuth.addUser(data.user, data.password);
+			} catch (UserExistsException ex) {
+				created = false;
+				if (!overwrite && !redo) {
+					userExists(data.user);
+				} else if (data.password != null) {
+					dstAuth.updateCredential(data.user, Credentials.DEFAULT_CREDENTIAL_ID, data.password);
+				}
+			}
+			return created;
+		}
+		try {
+			dstRepo.addUser(data.user);
+		} catch (UserExistsException ex) {
+			created = false;
+			if (!overwrite && !redo) {
+				userExists(data.user);
+				return created;
+			}
+		}
+		for (DataEntry entry : data.entries) {
+			dstRepo.setDataList(data.user, entry.subnode, entry.key, entry.values);
+		}
+		return created;
+	}
+
+	/**
+	 * Snapshot of progress of the migration.
+	 */
+	public static class Progress {
+
+		private final long elapsed;
+		private final long existing;
+		private final long failed;
+		private final long processed;
+		private final float rate;
+		private final float currentRate;
+		private final long total;
+
+		Progress(long total, long processed, long existing, long failed, long elapsed, float rate,
+				 float currentRate) {
+			this.total = total;
+			this.processed = processed;
+			this.existing = existing;
+			this.failed = failed;
+			this.elapsed = elapsed;
+			this.rate = rate;
+			this.currentRate = currentRate;
+		}
+
+		/**
+		 * Returns number of users processed in the last reporting interval divided by its length in seconds.
+		 */
+		public float getCurrentRate() {
+			return currentRate;
+		}
+
+		public long getElapsed() {
+			return elapsed;
+		}
+
+		/**
+		 * Returns number of users which already existed in the destination repository and were skipped, or
+		 * overwritten if overwriting is enabled.
+		 */
+		public long getExisting() {
+			return existing;
+		}
+
+		public long getFailed() {
+			return failed;
+		}
+
+		/**
+		 * Returns number of users processed including users processed before the migration was resumed.
+		 */
+		public long getProcessed() {
+			return processed;
+		}
+
+		/**
+		 * Returns average number of users processed per second since the migration was started or resumed.
+		 */
+		public float getRate() {
+			return rate;
+		}
+
+		public long getTotal() {
+			return total;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Processed %d of %d users (%.1f%%), %d existing, %d failed, %.1f users/s " +
+										 "(current %.1f users/s), elapsed %d s", processed, total,
+								 total == 0 ? 100f : processed * 100f / total, existing, failed, rate, currentRate,
+								 TimeUnit.MILLISECONDS.toSeconds(elapsed));
+		}
+	}
+
+	private static class CompletedBatch {
+
+		private final List<BareJID> failed;
+		private final List<BareJID> users;
+
+		private CompletedBatch(List<BareJID> users, List<BareJID> failed) {
+			this.users = users;
+			this.failed = failed;
+		}
+	}
+
+	private static class UsersRange {
+
+		private final String first;
+		private final String last;
+
+		private UsersRange(String first, String last) {
+			this.first = first;
+			this.last = last;
+		}
+
+		private boolean contains(String user) {
+			return first.compareTo(user) <= 0 && last.compareTo(user) >= 0;
+		}
+	}
+
+	private static class DataEntry {
+
+		private final String key;
+		private final String subnode;
+		private final String[] values;
+
+		private DataEntry(String subnode, String key, String[] values) {
+			this.subnode = subnode;
+			this.key = key;
+			this.values = values;
+		}
+	}
+
+	private static class UserData {
+
+		private final List<DataEntry> entries = new ArrayList<>();
+		private final BareJID user;
+		private String password;
+
+		private UserData(BareJID user) {
+			this.user = user;
+		}
+	}
+
+	private static class MigrationThreadFactory
+			implements ThreadFactory {
+
+		private final AtomicInteger counter = new AtomicInteger();
+		private final String prefix;
+
+		private MigrationThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	private class ProgressCounter {
+
+		private final long startedAt;
+		private final long total;
+		private long lastProcessed = 0;
+		private long lastReportAt;
+
+		private ProgressCounter(long total, long startedAt) {
+			this.total = total;
+			this.startedAt = startedAt;
+			this.lastReportAt = startedAt;
+		}
+
+		private synchronized Progress next() {
+			long now = System.currentTimeMillis();
+			long processedNow = processed.get();
+			float rate = processedNow * 1000f / Math.max(1, now - startedAt);
+			float currentRate = (processedNow - lastProcessed) * 1000f / Math.max(1, now - lastReportAt);
+			lastProcessed = processedNow;
+			lastReportAt = now;
+			return new Progress(total, processedBeforeResume + processedNow, existing.get(), failed.get(),
+								now - startedAt, rate, currentRate);
+		}
+	}
+}
@@ -30,6 +30,7 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.Writer;
+import java.nio.file.Paths;
 import java.util.List;
 
 /**
@@ -44,9 +45,13 @@ public class RepositoryUtils {
 	private static boolean add = false;
 	private static boolean add_user_test = false;
 	private static boolean allowed_empty_groups = true;
+	private static String checkpoint_file = null;
 	private static boolean check_roster = false;
 	private static String content = null;
+	private static int copy_batch_size = 100;
+	private static boolean copy_overwrite = false;
 	private static boolean copy_repos = false;
+	private static int copy_threads = Runtime.getRuntime().availableProcessors();
 	private static long counter = 0;
 	private static boolean del = false;
 	private static String dst_class = null;
@@ -121,18 +126,7 @@ public class RepositoryUtils {
 		if (user != null) {
 			copyUser(user, src, dst);
 		} else {
-			List<BareJID> users = src.getUsers();
-
-			if (users != null) {
-				System.out.println("Found " + users.size() + " in the source repository.");
-
-				for (BareJID usr : users) {
-					System.out.println("Found " + usr + " in the source repository.");
-					copyUser(usr, src, dst);
-				}    // end of for (String user: users)
-			} else {
-				System.out.println("There are no user accounts in source repository.");
-			}      // end of else
+			runMigration(new RepositoryMigration(src, dst));
 		}        // end of if (user != null) else
 	}
 
@@ -140,18 +134,27 @@ public class RepositoryUtils {
 		if (user != null) {
 			copyUser(user, src, dst);
 		} else {
-			List<BareJID> users = src.getUsers();
-
-			if (users != null) {
-				for (BareJID usr : users) {
-					copyUser(usr, src, dst);
-				}    // end of for (String user: users)
-			} else {
-				System.out.println("There are no user accounts in source repository.");
-			}      // end of else
+			runMigration(new RepositoryMigration(src, dst));
 		}        // end of if (user != null) else
 	}
 
+	private static void runMigration(RepositoryMigration migration) throws Exception {
+		migration.setThreads(copy_threads);
+		migration.setBatchSize(copy_batch_size);
+		migration.setOverwrite(copy_overwrite);
+		if (checkpoint_file != null) {
+			migration.setCheckpointFile(Paths.get(checkpoint_file));
+		}
+		migration.setProgressListener(progress -> System.out.println(progress));
+
+		RepositoryMigration.Progress result = migration.run();
+
+		System.out.println("Migration finished: " + result);
+		for (BareJID failed : migration.getFailedUsers()) {
+			System.out.println("Failed to copy user: " + failed);
+		}
+	}
+
 	public static void copyUser(BareJID user, UserRepository src, UserRepository dst) throws Exception {
 		if (user == null) {
 			return;
@@ -277,6 +280,12 @@ public class RepositoryUtils {
 				"             in form: \"user:password\"\n" + " -st         perform simple test on repository\n" +
 				" -at         simple test for adding and removing user\n" +
 				" -cp         copy content from source to destination repository\n" +
+				" -threads n  number of threads copying users (default: number of CPUs)\n" +
+				" -batch n    number of users copied in a single batch (default: 100)\n" +
+				" -checkpoint file  file storing progress of copying, if it exists copying\n" +
+				"             is resumed after the last copied user\n" +
+				" -overwrite  overwrite data of users which already exist in destination\n" +
+				"             repository, by default they are skipped\n" +
 				" -pr         print content of the repository\n" +
 				" -n          data content string is a node string\n" +
 				" -kv         data content string is node/key=value string\n" +
@@ -595,6 +604,22 @@ public class RepositoryUtils {
 					copy_repos = true;
 				}    // end of if (args[i].equals("-h"))
 
+				if (args[i].equals("-threads")) {
+					copy_threads = Integer.parseInt(args[++i]);
+				}    // end of if (args[i].equals("-threads"))
+
+				if (args[i].equals("-batch")) {
+					copy_batch_size = Integer.parseInt(args[++i]);
+				}    // end of if (args[i].equals("-batch"))
+
+				if (args[i].equals("-checkpoint")) {
+					checkpoint_file = args[++i];
+				}    // end of if (args[i].equals("-checkpoint"))
+
+				if (args[i].equals("-overwrite")) {
+					copy_overwrite = true;
+				}    // end of if (args[i].equals("-overwrite"))
+
 				if (args[i].equals("-pr")) {
 					print_repo = true;
 				}    // end of if (args[i].equals("-h"))
@@ -0,0 +1,284 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.tracer;
+
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.kernel.core.Kernel;
+import tigase.server.Packet;
+import tigase.xmpp.StanzaType;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tracer following a sample of packets through the server. A fraction of packets received from connections gets a
+ * trace id, which is passed to copies of the packet and responses to it, and every processing step of a traced packet
+ * (queues, plugins, write to socket) is recorded with its time in a lock-free ring buffer.
+ * <br>
+ * Unlike {@link TigaseTracer} it does not format nor write anything during processing, so it may be kept enabled on
+ * a production system. When sampling is disabled the cost is a single check of a packet field on each step.
+ * <br>
+ * Tracing is disabled by default and may be enabled in the configuration:
+ * <pre>
+ * 'packet-tracer' () {
+ *     'sampling' = 1000
+ *     'buffer-size' = 65536
+ * }
+ * </pre>
+ * where <code>sampling</code> means tracing one of every N packets (<code>0</code> disables tracing) and
+ * <code>buffer-size</code> is the number of recorded events kept in memory, rounded up to a power of two.
+ * <br>
+ * Sampling may be changed and traces retrieved or dumped to a file with <code>packet-trace</code> ad-hoc command of
+ * the statistics component.
+ */
+@Bean(name = SamplingTracer.ID, parent = Kernel.class, active = true, exportable = true)
+public class SamplingTracer
+		implements Initializable {
+
+	public static final String ID = "packet-tracer";
+
+	private static final Logger log = Logger.getLogger(SamplingTracer.class.getName());
+
+	@ConfigField(desc = "Number of recorded events kept in memory", alias = "buffer-size")
+	private int bufferSize = 65536;
+	private volatile AtomicReferenceArray<Event> events = null;
+	@ConfigField(desc = "Trace one of every N packets, 0 disables tracing", alias = "sampling")
+	private volatile int sampling = 0;
+	private final AtomicLong sequence = new AtomicLong();
+	private final AtomicLong traceIds = new AtomicLong();
+
+	public SamplingTracer() {
+	}
+
+	SamplingTracer(int sampling, int bufferSize) {
+		this.bufferSize = bufferSize;
+		setSampling(sampling);
+		initialize();
+	}
+
+	@Override
+	public void initialize() {
+		int size = Integer.highestOneBit(Math.max(2, bufferSize) - 1) << 1;
+		events = new AtomicReferenceArray<>(size);
+		sequence.set(0);
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Sets number of recorded events kept in memory. Events recorded so far are dropped if the tracer is already
+	 * initialized.
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+		if (events != null) {
+			initialize();
+		}
+	}
+
+	public int getSampling() {
+		return sampling;
+	}
+
+	/**
+	 * Sets which fraction of packets is traced.
+	 *
+	 * @param sampling trace one of every <code>sampling</code> packets, <code>0</code> disables tracing
+	 */
+	public void setSampling(int sampling) {
+		this.sampling = Math.max(0, sampling);
+		log.log(Level.CONFIG, "Packet tracer sampling set to {0}", this.sampling);
+	}
+
+	/**
+	 * Called for every packet received from a connection, assigns trace id to sampled packets.
+	 *
+	 * @param point name of the processing step, ie. name of the connection manager
+	 */
+	public void sample(Packet packet, String point) {
+		int sampling = this.sampling;
+		if (sampling == 0) {
+			return;
+		}
+		if (sampling == 1 || ThreadLocalRandom.current().nextInt(sampling) == 0) {
+			packet.setTraceId(traceIds.incrementAndGet());
+			record(packet, point);
+		}
+	}
+
+	/**
+	 * Records processing step of a packet if the packet is traced. Callers building name of the step dynamically
+	 * should check {@link Packet#getTraceId()} first to avoid the cost for packets which are not traced.
+	 */
+	public void trace(Packet packet, String point) {
+		if (packet.getTraceId() != 0) {
+			record(packet, point);
+		}
+	}
+
+	/**
+	 * Returns all recorded events of a trace ordered by time.
+	 */
+	public List<Event> getTrace(long traceId) {
+		AtomicReferenceArray<Event> events = this.events;
+		List<Event> result = new ArrayList<>();
+		for (int i = 0; i < events.length(); i++) {
+			Event event = events.get(i);
+			if (event != null && event.traceId == traceId) {
+				result.add(event);
+			}
+		}
+		result.sort(Comparator.comparingLong(Event::getSequence));
+		return result;
+	}
+
+	/**
+	 * Returns ids of the newest traces which have events in the buffer, the newest first.
+	 */
+	public List<Long> getRecentTraceIds(int limit) {
+		AtomicReferenceArray<Event> events = this.events;
+		int mask = events.length() - 1;
+		List<Long> result = new ArrayList<>(limit);
+		long seq = sequence.get();
+		for (long i = seq - 1; i >= 0 && i >= seq - events.length() && result.size() < limit; i--) {
+			Event event = events.get((int) (i & mask));
+			if (event != null && event.sequence == i && !result.contains(event.traceId)) {
+				result.add(event.traceId);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Writes all events kept in the buffer to the file, grouped by trace.
+	 *
+	 * @return number of written traces
+	 */
+	public int dump(File file) throws IOException {
+		AtomicReferenceArray<Event> events = this.events;
+		Map<Long, List<Event>> traces = new LinkedHashMap<>();
+		List<Event> all = new ArrayList<>(events.length());
+		for (int i = 0; i < events.length(); i++) {
+			Event event = events.get(i);
+			if (event != null) {
+				all.add(event);
+			}
+		}
+		all.sort(Comparator.comparingLong(Event::getSequence));
+		for (Event event : all) {
+			traces.computeIfAbsent(event.traceId, id -> new ArrayList<>()).add(event);
+		}
+		try (PrintWriter writer = new PrintWriter(new FileWriter(file, false))) {
+			for (Map.Entry<Long, List<Event>> trace : traces.entrySet()) {
+				writer.println("trace " + trace.getKey());
+				for (String line : format(trace.getValue())) {
+					writer.println("\t" + line);
+				}
+			}
+		}
+		return traces.size();
+	}
+
+	/**
+	 * Formats events of a single trace, one line per event with time in microseconds elapsed since the first event.
+	 */
+	public static List<String> format(List<Event> trace) {
+		List<String> result = new ArrayList<>(trace.size());
+		if (trace.isEmpty()) {
+			return result;
+		}
+		long start = trace.get(0).nanoTime;
+		for (Event event : trace) {
+			result.add("+" + ((event.nanoTime - start) / 1000) + "us " + event.point + " " + event.elemName +
+							   (event.type == null ? "" : " " + event.type) + " [" + event.thread + "]");
+		}
+		return result;
+	}
+
+	private void record(Packet packet, String point) {
+		AtomicReferenceArray<Event> events = this.events;
+		if (events == null) {
+			return;
+		}
+		long seq = sequence.getAndIncrement();
+		events.set((int) (seq & (events.length() - 1)),
+				   new Event(seq, packet.getTraceId(), System.nanoTime(), point, packet.getElemName(),
+							 packet.getType(), Thread.currentThread().getName()));
+	}
+
+	/**
+	 * Single processing step of a traced packet.
+	 */
+	public static class Event {
+
+		private final String elemName;
+		private final long nanoTime;
+		private final String point;
+		private final long sequence;
+		private final String thread;
+		private final long traceId;
+		private final StanzaType type;
+
+		private Event(long sequence, long traceId, long nanoTime, String point, String elemName, StanzaType type,
+					  String thread) {
+			this.sequence = sequence;
+			this.traceId = traceId;
+			this.nanoTime = nanoTime;
+			this.point = point;
+			this.elemName = elemName;
+			this.type = type;
+			this.thread = thread;
+		}
+
+		public String getElemName() {
+			return elemName;
+		}
+
+		public long getNanoTime() {
+			return nanoTime;
+		}
+
+		public String getPoint() {
+			return point;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public long getTraceId() {
+			return traceId;
+		}
+	}
+}
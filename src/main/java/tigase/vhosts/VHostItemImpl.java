@@ -33,6 +33,7 @@ import tigase.xmpp.jid.JID;
 import java.lang.reflect.Array;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -1406,6 +1407,9 @@ public class VHostItemImpl
 
 	protected static class VHostItemWrapper implements VHostItem {
 
+		// incremented when settings of any wrapper are changed in place, so data derived from them may be invalidated
+		private static final AtomicLong refreshes = new AtomicLong();
+
 		private VHostItem defaultVHost;
 		private VHostItem item;
 		private VHostItemDefaults vhostDefaults;
@@ -1449,6 +1453,13 @@ public class VHostItemImpl
 			return (item instanceof VHostItemWrapper) ? ((VHostItemWrapper)item).item : item;
 		}
 
+		/**
+		 * Returns number of in place changes of settings of all wrappers.
+		 */
+		static long getRefreshes() {
+			return refreshes.get();
+		}
+
 		public void refresh() {
 			if (defaultVHost == null || item == null) {
 				return;
@@ -1459,6 +1470,7 @@ public class VHostItemImpl
 			} else {
 				mergeSettingsWithUpdatedDefaults(item, defaultVHost);
 			}
+			refreshes.incrementAndGet();
 		}
 
 		private void overrideSettingsWithNewDefaults(VHostItem item) {
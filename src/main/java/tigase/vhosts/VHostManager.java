@@ -43,6 +43,7 @@ import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -65,7 +66,12 @@ public class VHostManager
 	@Inject
 	protected VHostComponentRepository repo = null;
 	private long getComponentsForLocalDomainCalls = 0;
+	private long getComponentsForLocalDomainRebuilds = 0;
 	private long getComponentsForNonLocalDomainCalls = 0;
+	// incremented on every change of registered components to invalidate all cached routes
+	private volatile long componentsGeneration = 0;
+	private final ConcurrentHashMap<String, DomainComponents> localDomainsComponents = new ConcurrentHashMap<>();
+	private volatile ServerComponent[] nonLocalDomainsComponents = new ServerComponent[0];
 	// private ServiceEntity serviceEntity = null;
 	private String identity_type = "generic";
 	private long isAnonymousEnabledCalls = 0;
@@ -99,6 +105,7 @@ public class VHostManager
 		if (component.handlesNameSubdomains()) {
 			nameSubdomainsHandlers.add(component);
 		}
+		componentsChanged();
 	}
 
 	@Override
@@ -106,6 +113,7 @@ public class VHostManager
 		localDomainsHandlers.remove(component);
 		nonLocalDomainsHandlers.remove(component);
 		nameSubdomainsHandlers.remove(component);
+		componentsChanged();
 	}
 
 	@Override
@@ -150,59 +158,28 @@ public class VHostManager
 		++getComponentsForLocalDomainCalls;
 
 		VHostItem vhost = repo.getItem(domain);
+		DomainComponents cached = localDomainsComponents.get(domain);
 
-		if (vhost == null) {
-
-			// This is not a local domain.
-			// Maybe this is a 'name' subdomain: 'pubsub'.domain.name
-			int idx = domain.indexOf('.');
-
-			if (idx > 0) {
-				String name = domain.substring(0, idx);
-				String basedomain = domain.substring(idx + 1);
-				VHostListener listener = components.get(name);
+		if (cached != null && isValid(cached, vhost)) {
+			return cached.components;
+		}
 
-				if ((listener != null) && listener.handlesNameSubdomains() && isLocalDomain(basedomain)) {
-					return new ServerComponent[]{listener};
-				}
+		// snapshot is missing or outdated, we need to rebuild it
+		++getComponentsForLocalDomainRebuilds;
+		long generation = componentsGeneration;
+		long itemsGeneration = VHostItemImpl.VHostItemWrapper.getRefreshes();
+		DomainComponents rebuilt = vhost == null
+								   ? resolveNameSubdomainComponents(domain, generation, itemsGeneration)
+								   : resolveLocalDomainComponents(vhost, generation, itemsGeneration);
+
+		if (rebuilt == null) {
+			if (cached != null) {
+				localDomainsComponents.remove(domain, cached);
 			}
-
 			return null;
-		} else {
-
-//    // First check whether the domain has special configuration
-//    // specifying what components are for this domain:
-//    String[] comps = vhost.getComps();
-//    if (comps != null && comps.length > 0) {
-//      !!
-//    }
-			// Return all components for local domains and components selected
-			// for this specific domain
-			LinkedHashSet<ServerComponent> results = new LinkedHashSet<ServerComponent>(10);
-
-			// are there any components explicitly bound to this domain?
-			String[] comps = vhost.getComps();
-
-			if ((comps != null) && (comps.length > 0)) {
-				for (String name : comps) {
-					VHostListener listener = components.get(name);
-
-					if (listener != null) {
-						results.add(listener);
-					}
-				}
-			}
-
-			// if not, then add any generic handlers
-			if (results.size() == 0) {
-				results.addAll(localDomainsHandlers);
-			}
-			if (results.size() > 0) {
-				return results.toArray(new ServerComponent[results.size()]);
-			} else {
-				return null;
-			}
 		}
+		localDomainsComponents.put(domain, rebuilt);
+		return rebuilt.components;
 	}
 
 	@Override
@@ -210,11 +187,8 @@ public class VHostManager
 		++getComponentsForNonLocalDomainCalls;
 
 		// Return components for non-local domains
-		if (nonLocalDomainsHandlers.size() > 0) {
-			return nonLocalDomainsHandlers.toArray(new ServerComponent[nonLocalDomainsHandlers.size()]);
-		} else {
-			return null;
-		}
+		ServerComponent[] result = nonLocalDomainsComponents;
+		return result.length > 0 ? result : null;
 	}
 
 	@Override
@@ -238,6 +212,9 @@ public class VHostManager
 		list.add(getName(), "Checks: is local domain", isLocalDomainCalls, Level.FINER);
 		list.add(getName(), "Checks: is anonymous domain", isAnonymousEnabledCalls, Level.FINER);
 		list.add(getName(), "Get components for local domain", getComponentsForLocalDomainCalls, Level.FINER);
+		list.add(getName(), "Get components for local domain rebuilds", getComponentsForLocalDomainRebuilds,
+				 Level.FINER);
+		list.add(getName(), "Cached domains routes", localDomainsComponents.size(), Level.FINEST);
 		list.add(getName(), "Get components for non-local domain", getComponentsForNonLocalDomainCalls, Level.FINER);
 	}
 
@@ -340,6 +317,100 @@ public class VHostManager
 		return repo;
 	}
 
+	private void componentsChanged() {
+		nonLocalDomainsComponents = nonLocalDomainsHandlers.toArray(
+				new ServerComponent[nonLocalDomainsHandlers.size()]);
+		++componentsGeneration;
+		localDomainsComponents.clear();
+	}
+
+	private boolean isValid(DomainComponents cached, VHostItem vhost) {
+		// items may be also changed in place, ie. when settings of the default virtual host are merged into them
+		if (cached.generation != componentsGeneration || cached.vhost != vhost ||
+				cached.itemsGeneration != VHostItemImpl.VHostItemWrapper.getRefreshes()) {
+			return false;
+		}
+		return cached.baseDomain == null || repo.getItem(cached.baseDomain) == cached.baseVHost;
+	}
+
+	private DomainComponents resolveLocalDomainComponents(VHostItem vhost, long generation, long itemsGeneration) {
+		// Return all components for local domains and components selected
+		// for this specific domain
+		LinkedHashSet<ServerComponent> results = new LinkedHashSet<ServerComponent>(10);
+
+		// are there any components explicitly bound to this domain?
+		String[] comps = vhost.getComps();
+
+		if ((comps != null) && (comps.length > 0)) {
+			for (String name : comps) {
+				VHostListener listener = components.get(name);
+
+				if (listener != null) {
+					results.add(listener);
+				}
+			}
+		}
+
+		// if not, then add any generic handlers
+		if (results.size() == 0) {
+			results.addAll(localDomainsHandlers);
+		}
+		if (results.size() > 0) {
+			return new DomainComponents(vhost, null, null, generation, itemsGeneration,
+										results.toArray(new ServerComponent[results.size()]));
+		} else {
+			// no components, but we still cache it to avoid rebuilding it for each packet
+			return new DomainComponents(vhost, null, null, generation, itemsGeneration, null);
+		}
+	}
+
+	private DomainComponents resolveNameSubdomainComponents(String domain, long generation, long itemsGeneration) {
+		// This is not a local domain.
+		// Maybe this is a 'name' subdomain: 'pubsub'.domain.name
+		int idx = domain.indexOf('.');
+
+		if (idx > 0) {
+			String name = domain.substring(0, idx);
+			String basedomain = domain.substring(idx + 1);
+			VHostListener listener = components.get(name);
+
+			if ((listener != null) && listener.handlesNameSubdomains()) {
+				VHostItem baseVHost = repo.getItem(basedomain);
+				if (baseVHost != null) {
+					return new DomainComponents(null, basedomain, baseVHost, generation, itemsGeneration,
+												new ServerComponent[]{listener});
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Immutable snapshot of components resolved for a single domain. It is valid as long as the same instance of
+	 * <code>VHostItem</code> is stored in the repository (and for name subdomains the same instance of base domain
+	 * item), this instance was not changed in place and there were no changes to the registered components.
+	 */
+	private static final class DomainComponents {
+
+		private final String baseDomain;
+		private final VHostItem baseVHost;
+		private final ServerComponent[] components;
+		private final long generation;
+		private final long itemsGeneration;
+		private final VHostItem vhost;
+
+		private DomainComponents(VHostItem vhost, String baseDomain, VHostItem baseVHost, long generation,
+								 long itemsGeneration, ServerComponent[] components) {
+			this.vhost = vhost;
+			this.baseDomain = baseDomain;
+			this.baseVHost = baseVHost;
+			this.generation = generation;
+			this.itemsGeneration = itemsGeneration;
+			this.components = components;
+		}
+	}
+
 	@Bean(name = "vhostRepository", parent = VHostManager.class, active = true)
 	public static class DefVHostRepositoryBean
 			extends AbstractSDComponentRepositoryBean<VHostItem> implements VHostComponentRepository {
@@ -72,7 +72,7 @@ public interface VHostManagerIfc {
 	 * created with component name and localdomain.
 	 *
 	 * @return an array with ServerComponents which can handle packets for a given domain or <code>null</code> if no
-	 * component found for a given domain.
+	 * component found for a given domain. Returned array may be shared between calls and must not be modified.
 	 */
 	ServerComponent[] getComponentsForLocalDomain(String domain);
 
@@ -84,7 +84,8 @@ public interface VHostManagerIfc {
 	 * @param domain is a <code>String</code> with a domain to check. At the moment this parameter is ignored. In the
 	 * future it will be possible to assign a specific component for any non-local domain.
 	 *
-	 * @return an array with ServerComponents which can handle packets to non-local domains.
+	 * @return an array with ServerComponents which can handle packets to non-local domains. Returned array may be
+	 * shared between calls and must not be modified.
 	 */
 	ServerComponent[] getComponentsForNonLocalDomain(String domain);
 
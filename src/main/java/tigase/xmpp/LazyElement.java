@@ -0,0 +1,464 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import tigase.xml.DefaultElementFactory;
+import tigase.xml.Element;
+import tigase.xml.ElementFactory;
+import tigase.xml.SimpleHandler;
+import tigase.xml.SingletonFactory;
+import tigase.xml.XMLNodeIfc;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Element which content was not turned into a <em>DOM</em> tree during parsing. {@link XMPPDomBuilderHandler} creates
+ * instances of this class for payloads of routed stanzas: name and attributes of the element are available at once,
+ * while its children and character data are kept as the original <em>XML</em> text. The text is parsed when any
+ * method accessing or modifying content of the element is called for the first time. Until then the element is
+ * serialized by copying the original text, so a payload which is only routed is neither built nor rebuilt.
+ * <br>
+ * Copies of the element share its unparsed content. {@link #writeUTF8(Element, ByteArrayOutputStream)} encodes the
+ * content once and reuses the encoded bytes for all copies, so only envelopes of the copies are encoded when a stanza
+ * is sent to many connections.
+ */
+public class LazyElement
+		extends Element {
+
+	private static final Logger log = Logger.getLogger(LazyElement.class.getName());
+
+	private static final String WRAPPER_END = "</payload>";
+	private static final String WRAPPER_START = "<payload>";
+	private static final ElementFactory factory = new DefaultElementFactory();
+	/**
+	 * Placed by {@link #toString()} instead of the content while {@link #writeUTF8(Element, ByteArrayOutputStream)}
+	 * serializes an element. It is not allowed in XML, so it cannot be a part of any serialized element.
+	 */
+	private static final char PAYLOAD_MARKER = '\u0000';
+	private static final ThreadLocal<List<Payload>> writtenPayloads = new ThreadLocal<>();
+
+	private boolean parsing = false;
+	private volatile Payload payload = null;
+
+	/**
+	 * Serializes the element and writes it encoded in UTF-8 to the stream. Unparsed content of {@link LazyElement}
+	 * instances within the element is encoded only once and the result is shared by all copies of the element.
+	 */
+	public static void writeUTF8(Element elem, ByteArrayOutputStream out) {
+		List<Payload> payloads = new ArrayList<>();
+		String data;
+		writtenPayloads.set(payloads);
+		try {
+			data = elem.toString();
+		} finally {
+			writtenPayloads.remove();
+		}
+		if (payloads.isEmpty()) {
+			writeUTF8(data, out);
+			return;
+		}
+
+		int markers = 0;
+		for (int i = data.indexOf(PAYLOAD_MARKER); i >= 0; i = data.indexOf(PAYLOAD_MARKER, i + 1)) {
+			markers++;
+		}
+		if (markers != payloads.size()) {
+			// marker was a part of the serialized element, so we cannot tell where content should be placed
+			writeUTF8(elem.toString(), out);
+			return;
+		}
+
+		int start = 0;
+		for (Payload payload : payloads) {
+			int end = data.indexOf(PAYLOAD_MARKER, start);
+			writeUTF8(data.substring(start, end), out);
+			byte[] bytes = payload.getBytes();
+			out.write(bytes, 0, bytes.length);
+			start = end + 1;
+		}
+		writeUTF8(data.substring(start), out);
+	}
+
+	private static void writeUTF8(String data, ByteArrayOutputStream out) {
+		byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	LazyElement(String name, StringBuilder[] attnames, StringBuilder[] attvals) {
+		super(name, null, attnames, attvals);
+	}
+
+	/**
+	 * Returns <code>true</code> if content of the element was already parsed.
+	 */
+	public boolean isParsed() {
+		return payload == null;
+	}
+
+	@Override
+	public void addCData(String argCData) {
+		ensureParsed();
+		super.addCData(argCData);
+	}
+
+	@Override
+	public void addChild(XMLNodeIfc child) {
+		ensureParsed();
+		super.addChild(child);
+	}
+
+	@Override
+	public void addChildren(List<Element> children) {
+		ensureParsed();
+		super.addChildren(children);
+	}
+
+	@Override
+	public Element clone() {
+		if (!isParsed()) {
+			Element copy = super.clone();
+			if (copy instanceof LazyElement) {
+				// payload is immutable and shared by both elements
+				return copy;
+			}
+			ensureParsed();
+		}
+		return super.clone();
+	}
+
+	@Override
+	public Element findChild(String[] elementPath) {
+		ensureParsed();
+		return super.findChild(elementPath);
+	}
+
+	@Override
+	public Element findChild(Predicate<Element> predicate) {
+		ensureParsed();
+		return super.findChild(predicate);
+	}
+
+	@Override
+	public Element findChildStaticStr(String[] elementPath) {
+		ensureParsed();
+		return super.findChildStaticStr(elementPath);
+	}
+
+	@Override
+	public List<Element> findChildren(Predicate<Element> predicate) {
+		ensureParsed();
+		return super.findChildren(predicate);
+	}
+
+	@Override
+	public void forEachChild(Consumer<Element> consumer) {
+		ensureParsed();
+		super.forEachChild(consumer);
+	}
+
+	@Override
+	public String getCData() {
+		ensureParsed();
+		return super.getCData();
+	}
+
+	@Override
+	public Element getChild(String name) {
+		ensureParsed();
+		return super.getChild(name);
+	}
+
+	@Override
+	public Element getChild(String name, String child_xmlns) {
+		ensureParsed();
+		return super.getChild(name, child_xmlns);
+	}
+
+	@Override
+	public String getChildCData(String[] elementPath) {
+		ensureParsed();
+		return super.getChildCData(elementPath);
+	}
+
+	@Override
+	public String getChildCDataStaticStr(String[] elementPath) {
+		ensureParsed();
+		return super.getChildCDataStaticStr(elementPath);
+	}
+
+	@Override
+	public Element getChildStaticStr(String name) {
+		ensureParsed();
+		return super.getChildStaticStr(name);
+	}
+
+	@Override
+	public Element getChildStaticStr(String name, String child_xmlns) {
+		ensureParsed();
+		return super.getChildStaticStr(name, child_xmlns);
+	}
+
+	@Override
+	public List<Element> getChildren() {
+		ensureParsed();
+		return super.getChildren();
+	}
+
+	@Override
+	public List<Element> getChildrenStaticStr(String[] elementPath) {
+		ensureParsed();
+		return super.getChildrenStaticStr(elementPath);
+	}
+
+	@Override
+	public <R> List<R> mapChildren(Predicate<Element> predicate, Function<Element, ? extends R> mapper) {
+		ensureParsed();
+		return super.mapChildren(predicate, mapper);
+	}
+
+	@Override
+	public boolean removeChild(Element child) {
+		ensureParsed();
+		return super.removeChild(child);
+	}
+
+	@Override
+	public void setCData(String argCData) {
+		ensureParsed();
+		super.setCData(argCData);
+	}
+
+	@Override
+	public void setChildren(List<XMLNodeIfc> children) {
+		ensureParsed();
+		super.setChildren(children);
+	}
+
+	@Override
+	public String toString() {
+		if (!isParsed()) {
+			synchronized (this) {
+				Payload payload = this.payload;
+				if (payload != null) {
+					// element without content is serialized as an empty element tag
+					String envelope = super.toString();
+					StringBuilder result = new StringBuilder(
+							envelope.length() + payload.text.length() + getName().length() + 2);
+					result.append(envelope, 0, envelope.length() - 2).append('>');
+					List<Payload> payloads = writtenPayloads.get();
+					if (payloads == null) {
+						result.append(payload.text);
+					} else {
+						payloads.add(payload);
+						result.append(PAYLOAD_MARKER);
+					}
+					result.append("</").append(getName()).append('>');
+					return result.toString();
+				}
+			}
+		}
+		return super.toString();
+	}
+
+	@Override
+	public String toStringPretty() {
+		ensureParsed();
+		return super.toStringPretty();
+	}
+
+	@Override
+	public String toStringSecure() {
+		ensureParsed();
+		return super.toStringSecure();
+	}
+
+	/**
+	 * Sets content of the element.
+	 *
+	 * @param payload original text of children and character data of the element.
+	 * @param namespaces prefixes declared by ancestors of the element if the payload contains prefixed elements,
+	 * <code>null</code> otherwise.
+	 */
+	void setPayload(String payload, Map<String, String> namespaces) {
+		this.payload = new Payload(payload, namespaces);
+	}
+
+	private void ensureParsed() {
+		if (payload != null) {
+			parsePayload();
+		}
+	}
+
+	private synchronized void parsePayload() {
+		// content is added by the thread which is already parsing it
+		Payload payload = this.payload;
+		if (payload == null || parsing) {
+			return;
+		}
+		parsing = true;
+		try {
+			PayloadHandler handler = new PayloadHandler(this, payload.namespaces);
+			char[] data = (WRAPPER_START + payload.text + WRAPPER_END).toCharArray();
+			SingletonFactory.getParserInstance().parse(handler, data, 0, data.length);
+			if (handler.error && log.isLoggable(Level.WARNING)) {
+				log.log(Level.WARNING, "Could not parse content of element {0}: {1}",
+						new Object[]{getName(), payload.text});
+			}
+		} finally {
+			this.payload = null;
+			parsing = false;
+		}
+	}
+
+	/**
+	 * Unparsed content of the element shared by its copies.
+	 */
+	private static class Payload {
+
+		private final Map<String, String> namespaces;
+		private final String text;
+		private volatile byte[] bytes = null;
+
+		private Payload(String text, Map<String, String> namespaces) {
+			this.text = text;
+			this.namespaces = namespaces;
+		}
+
+		/**
+		 * Returns the content encoded in UTF-8, it is encoded when requested for the first time.
+		 */
+		private byte[] getBytes() {
+			byte[] result = bytes;
+			if (result == null) {
+				result = text.getBytes(StandardCharsets.UTF_8);
+				bytes = result;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Builds children of the element from its payload wrapped in an additional element.
+	 */
+	private static class PayloadHandler
+			implements SimpleHandler {
+
+		private final Map<String, String> namespaces;
+		private final LazyElement root;
+		private final ArrayDeque<Element> stack = new ArrayDeque<>();
+		private int depth = 0;
+		private boolean error = false;
+		private Object parserState = null;
+
+		private PayloadHandler(LazyElement root, Map<String, String> namespaces) {
+			this.root = root;
+			this.namespaces = namespaces == null ? new TreeMap<>() : new TreeMap<>(namespaces);
+		}
+
+		@Override
+		public void elementCData(StringBuilder cdata) {
+			if (depth == 1) {
+				root.addCData(cdata.toString());
+			} else if (depth > 1) {
+				stack.peek().addCData(cdata.toString());
+			}
+		}
+
+		@Override
+		public boolean endElement(StringBuilder name) {
+			if (--depth == 0) {
+				return true;
+			}
+			Element elem = stack.pop();
+			if (stack.isEmpty()) {
+				root.addChild(elem);
+			} else {
+				stack.peek().addChild(elem);
+			}
+			return true;
+		}
+
+		@Override
+		public void error(String errorMessage) {
+			error = true;
+		}
+
+		@Override
+		public void otherXML(StringBuilder other) {
+			// Just ignore
+		}
+
+		@Override
+		public Object restoreParserState() {
+			return parserState;
+		}
+
+		@Override
+		public void saveParserState(Object state) {
+			parserState = state;
+		}
+
+		@Override
+		public void startElement(StringBuilder name, StringBuilder[] attr_names, StringBuilder[] attr_values) {
+			if (depth++ == 0) {
+				return;
+			}
+			if (attr_names != null) {
+				for (int i = 0; i < attr_names.length && attr_names[i] != null; ++i) {
+					if (attr_names[i].toString().startsWith("xmlns:")) {
+						namespaces.put(attr_names[i].substring("xmlns:".length()).intern(), attr_values[i].toString());
+					}
+				}
+			}
+
+			String tmp_name = name.toString();
+			String prefix = null;
+			String new_xmlns = null;
+			int idx = tmp_name.indexOf(':');
+			if (idx > 0) {
+				prefix = tmp_name.substring(0, idx);
+				new_xmlns = namespaces.get(prefix);
+				if (new_xmlns != null) {
+					tmp_name = tmp_name.substring(idx + 1);
+				}
+			}
+
+			Element elem = factory.elementInstance(tmp_name, null, attr_names, attr_values);
+			Element parent = stack.isEmpty() ? root : stack.peek();
+			if (elem.getXMLNS() == null && parent.getXMLNS() != null) {
+				elem.setDefXMLNS(parent.getXMLNS());
+			}
+			if (new_xmlns != null) {
+				elem.setXMLNS(new_xmlns);
+				elem.removeAttribute("xmlns:" + prefix);
+			}
+			stack.push(elem);
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Temporary data of a session. Values of registered {@link SessionDataSlot}s are kept in an array indexed by the slot
+ * index, values for other keys are kept in a map which is created when the first such value is stored.
+ * <br>
+ * Reads are lock free, modifications are synchronized as they are rare and rarely concurrent. As with {@link
+ * ConcurrentHashMap}, <code>null</code> values are not allowed.
+ */
+public class SessionData {
+
+	private static final AtomicReferenceArray<Object> EMPTY = new AtomicReferenceArray<>(0);
+
+	private volatile ConcurrentHashMap<String, Object> other = null;
+	private volatile AtomicReferenceArray<Object> values = EMPTY;
+
+	public <T> T get(SessionDataSlot<T> slot) {
+		AtomicReferenceArray<Object> values = this.values;
+		return slot.getIndex() < values.length() ? (T) values.get(slot.getIndex()) : null;
+	}
+
+	public Object get(String key) {
+		SessionDataSlot<?> slot = SessionDataSlot.forKey(key);
+		if (slot != null) {
+			return get(slot);
+		}
+		ConcurrentHashMap<String, Object> other = this.other;
+		return other == null ? null : other.get(key);
+	}
+
+	public <T> T put(SessionDataSlot<T> slot, T value) {
+		T val = slot.cast(checkNotNull(value));
+		synchronized (this) {
+			return (T) ensureCapacity(slot).getAndSet(slot.getIndex(), val);
+		}
+	}
+
+	public Object put(String key, Object value) {
+		SessionDataSlot<?> slot = SessionDataSlot.forKey(key);
+		if (slot != null) {
+			return put((SessionDataSlot<Object>) slot, value);
+		}
+		return getOrCreateOther().put(key, checkNotNull(value));
+	}
+
+	public <T> T putIfAbsent(SessionDataSlot<T> slot, T value) {
+		T val = slot.cast(checkNotNull(value));
+		synchronized (this) {
+			AtomicReferenceArray<Object> values = ensureCapacity(slot);
+			T prev = (T) values.get(slot.getIndex());
+			if (prev == null) {
+				values.set(slot.getIndex(), val);
+			}
+			return prev;
+		}
+	}
+
+	public Object putIfAbsent(String key, Object value) {
+		SessionDataSlot<?> slot = SessionDataSlot.forKey(key);
+		if (slot != null) {
+			return putIfAbsent((SessionDataSlot<Object>) slot, value);
+		}
+		return getOrCreateOther().putIfAbsent(key, checkNotNull(value));
+	}
+
+	public <T> T computeIfAbsent(SessionDataSlot<T> slot, Supplier<? extends T> valueFactory) {
+		T value = get(slot);
+		if (value != null) {
+			return value;
+		}
+		synchronized (this) {
+			AtomicReferenceArray<Object> values = ensureCapacity(slot);
+			value = (T) values.get(slot.getIndex());
+			if (value == null) {
+				value = valueFactory.get();
+				if (value != null) {
+					values.set(slot.getIndex(), slot.cast(value));
+				}
+			}
+			return value;
+		}
+	}
+
+	public Object computeIfAbsent(String key, Function<String, Object> valueFactory) {
+		SessionDataSlot<?> slot = SessionDataSlot.forKey(key);
+		if (slot != null) {
+			return computeIfAbsent((SessionDataSlot<Object>) slot, () -> valueFactory.apply(key));
+		}
+		return getOrCreateOther().computeIfAbsent(key, valueFactory);
+	}
+
+	public <T> T remove(SessionDataSlot<T> slot) {
+		if (slot.getIndex() >= values.length()) {
+			return null;
+		}
+		synchronized (this) {
+			return (T) values.getAndSet(slot.getIndex(), null);
+		}
+	}
+
+	public Object remove(String key) {
+		SessionDataSlot<?> slot = SessionDataSlot.forKey(key);
+		if (slot != null) {
+			return remove(slot);
+		}
+		ConcurrentHashMap<String, Object> other = this.other;
+		return other == null ? null : other.remove(key);
+	}
+
+	/**
+	 * Returns number of stored values.
+	 */
+	public int size() {
+		AtomicReferenceArray<Object> values = this.values;
+		int size = 0;
+		for (int i = 0; i < values.length(); i++) {
+			if (values.get(i) != null) {
+				size++;
+			}
+		}
+		ConcurrentHashMap<String, Object> other = this.other;
+		return other == null ? size : size + other.size();
+	}
+
+	private static <T> T checkNotNull(T value) {
+		if (value == null) {
+			throw new NullPointerException("Null values are not allowed in session data");
+		}
+		return value;
+	}
+
+	private AtomicReferenceArray<Object> ensureCapacity(SessionDataSlot<?> slot) {
+		AtomicReferenceArray<Object> values = this.values;
+		if (slot.getIndex() >= values.length()) {
+			// slots may be registered after the session was created, ie. by processors loaded later
+			AtomicReferenceArray<Object> newValues = new AtomicReferenceArray<>(
+					Math.max(slot.getIndex() + 1, SessionDataSlot.getSlotsCount()));
+			for (int i = 0; i < values.length(); i++) {
+				newValues.set(i, values.get(i));
+			}
+			this.values = newValues;
+			values = newValues;
+		}
+		return values;
+	}
+
+	private ConcurrentHashMap<String, Object> getOrCreateOther() {
+		ConcurrentHashMap<String, Object> other = this.other;
+		if (other == null) {
+			synchronized (this) {
+				other = this.other;
+				if (other == null) {
+					other = new ConcurrentHashMap<>(4, 0.9f);
+					this.other = other;
+				}
+			}
+		}
+		return other;
+	}
+}
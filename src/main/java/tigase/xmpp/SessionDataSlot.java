@@ -0,0 +1,110 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Typed slot of data kept in {@link XMPPResourceConnection} or {@link XMPPSession}. Slots should be registered by
+ * processors when their classes are loaded:
+ * <pre>
+ * public static final SessionDataSlot&lt;Long&gt; LAST_ACTIVITY = SessionDataSlot.register("LAST_ACTIVITY_KEY", Long.class);
+ * </pre>
+ * Values of registered slots are stored in a small array indexed by the slot index instead of a hash map, which saves
+ * memory when there are many sessions. Values stored with the <code>String</code> key based methods are stored in the
+ * slot if a slot is registered for the key.
+ */
+public final class SessionDataSlot<T> {
+
+	private static final ConcurrentHashMap<String, SessionDataSlot<?>> slots = new ConcurrentHashMap<>();
+	private static final List<SessionDataSlot<?>> slotsList = new ArrayList<>();
+
+	private final int index;
+	private final String key;
+	private final Class<? super T> type;
+
+	/**
+	 * Registers slot for the key. If a slot for the key is already registered, the same slot is returned.
+	 *
+	 * @throws IllegalArgumentException if slot for the key was registered with a different type.
+	 */
+	public static <T> SessionDataSlot<T> register(String key, Class<? super T> type) {
+		synchronized (slotsList) {
+			SessionDataSlot<?> slot = slots.get(key);
+			if (slot == null) {
+				slot = new SessionDataSlot<>(key, type, slotsList.size());
+				slotsList.add(slot);
+				slots.put(key, slot);
+			} else if (slot.type != type) {
+				throw new IllegalArgumentException(
+						"Slot " + key + " is already registered with type " + slot.type.getName() + " instead of " +
+								type.getName());
+			}
+			return (SessionDataSlot<T>) slot;
+		}
+	}
+
+	/**
+	 * Returns slot registered for the key or <code>null</code> if there is none.
+	 */
+	public static SessionDataSlot<?> forKey(String key) {
+		return slots.get(key);
+	}
+
+	public static int getSlotsCount() {
+		synchronized (slotsList) {
+			return slotsList.size();
+		}
+	}
+
+	public static List<SessionDataSlot<?>> getSlots() {
+		synchronized (slotsList) {
+			return Collections.unmodifiableList(new ArrayList<>(slotsList));
+		}
+	}
+
+	private SessionDataSlot(String key, Class<? super T> type, int index) {
+		this.key = key;
+		this.type = type;
+		this.index = index;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public Class<? super T> getType() {
+		return type;
+	}
+
+	T cast(Object value) {
+		return (T) type.cast(value);
+	}
+
+	@Override
+	public String toString() {
+		return "SessionDataSlot[" + key + ", " + type.getName() + ", " + index + "]";
+	}
+}
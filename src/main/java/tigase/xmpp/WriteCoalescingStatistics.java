@@ -0,0 +1,81 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import tigase.stats.LatencyHistogram;
+import tigase.stats.LongCounter;
+import tigase.stats.StatisticsList;
+
+import java.util.logging.Level;
+
+/**
+ * Statistics of coalescing of writes of stanzas to connections of a single connection manager.
+ */
+public class WriteCoalescingStatistics {
+
+	private final LatencyHistogram addedLatency = new LatencyHistogram();
+	private final LongCounter delayedPackets = new LongCounter();
+	private final LongCounter writtenBytes = new LongCounter();
+	private final LongCounter writtenPackets = new LongCounter();
+	private final LongCounter writes = new LongCounter();
+
+	/**
+	 * Called when a packet was not written immediately but was left for a flush.
+	 */
+	public void packetDelayed() {
+		delayedPackets.inc();
+	}
+
+	/**
+	 * Called when delayed packets were written.
+	 *
+	 * @param nanos time elapsed since the first of written packets was delayed
+	 */
+	public void flushed(long nanos) {
+		addedLatency.record(nanos);
+	}
+
+	/**
+	 * Called after a write of one or more packets.
+	 *
+	 * @param bytes number of bytes passed to the socket, including TLS overhead
+	 */
+	public void written(int packets, long bytes) {
+		writes.inc();
+		writtenPackets.add(packets);
+		writtenBytes.add(bytes);
+	}
+
+	public float getAverageBytesPerWrite() {
+		long count = writes.get();
+		return count == 0 ? 0 : ((float) writtenBytes.get()) / count;
+	}
+
+	public float getAveragePacketsPerWrite() {
+		long count = writes.get();
+		return count == 0 ? 0 : ((float) writtenPackets.get()) / count;
+	}
+
+	public void getStatistics(String compName, StatisticsList list) {
+		list.add(compName, "Write coalescing/Writes", writes.get(), Level.FINE);
+		list.add(compName, "Write coalescing/Delayed packets", delayedPackets.get(), Level.FINE);
+		list.add(compName, "Write coalescing/Average packets per write", getAveragePacketsPerWrite(), Level.FINE);
+		list.add(compName, "Write coalescing/Average bytes per write", getAverageBytesPerWrite(), Level.FINE);
+		addedLatency.getStatistics(compName, "Write coalescing/Added latency", Level.FINER, list);
+	}
+}
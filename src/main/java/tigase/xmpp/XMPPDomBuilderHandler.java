@@ -35,6 +35,10 @@ import java.util.logging.Logger;
  * receive trees built with instances of proper class user must provide <code>ElementFactory</code> implementation
  * creating instances of required <code>ELement</code> extension.
  * <br>
+ * If payloads are parsed lazily (see {@link #setLazyPayloads(boolean)}) children of <code>message</code>,
+ * <code>presence</code> and <code>iq</code> stanzas are created as {@link LazyElement} instances: they have their
+ * attributes set, but their content is only collected as text which is parsed when accessed.
+ * <br>
  * <p> Created: Sat Oct  2 22:01:34 2004 </p>
  * @author <a href="mailto:artur.hefczyc@tigase.org">Artur Hefczyc</a>
 */
@@ -44,6 +48,7 @@ public class XMPPDomBuilderHandler<RefObject>
 	private static final Logger log = Logger.getLogger(XMPPDomBuilderHandler.class.getName());
 
 	private static final String ELEM_STREAM_STREAM = "stream:stream";
+	private static final String[] ROUTED_STANZAS = {"message", "presence", "iq"};
 	private static ElementFactory defaultFactory = new DefaultElementFactory();
 
 	private ArrayDeque<Element> all_roots = new ArrayDeque<>(1);
@@ -56,8 +61,15 @@ public class XMPPDomBuilderHandler<RefObject>
 	 */
 	private int elements_number_limit_count = 0;
 	private boolean error = false;
+	private LazyElement lazy = null;
+	private boolean lazyPayloads = false;
 	private Map<String, String> namespaces = new TreeMap<>();
 	private Object parserState = null;
+	private StringBuilder payload = new StringBuilder(100);
+	private ArrayDeque<String> payloadNames = new ArrayDeque<>(10);
+	private boolean payloadNested = false;
+	private boolean payloadPrefixed = false;
+	private int payloadTagEnd = -1;
 	private XMPPIOService<RefObject> service = null;
 	private boolean streamClosed = false;
 	private String top_xmlns = null;
@@ -80,6 +92,11 @@ public class XMPPDomBuilderHandler<RefObject>
 			log.finest("Element CDATA: " + cdata);
 		}
 
+		if (lazy != null) {
+			payload.append(cdata);
+			return;
+		}
+
 		Element elem = el_stack.peek();
 		if (elem != null) {
 			elem.addCData(cdata.toString());
@@ -102,6 +119,13 @@ public class XMPPDomBuilderHandler<RefObject>
 			return true;
 		}    // end of if (tmp_name.equals(ELEM_STREAM_STREAM))
 
+		if (lazy != null) {
+			if (!payloadNames.isEmpty()) {
+				return endPayloadElement(tmp_name);
+			}
+			endPayload();
+		}
+
 		if (el_stack.isEmpty()) {
 			el_stack.push(newElement(tmp_name, null, null, null));
 		}    // end of if (tmp_name.equals())
@@ -155,6 +179,18 @@ public class XMPPDomBuilderHandler<RefObject>
 		return all_roots;
 	}
 
+	public boolean isLazyPayloads() {
+		return lazyPayloads;
+	}
+
+	/**
+	 * Enables lazy parsing of payloads of routed stanzas. It is used only if elements are created by the default
+	 * <code>ElementFactory</code>.
+	 */
+	public void setLazyPayloads(boolean lazyPayloads) {
+		this.lazyPayloads = lazyPayloads;
+	}
+
 	public boolean isStreamClosed() {
 		return streamClosed;
 	}
@@ -238,6 +274,11 @@ public class XMPPDomBuilderHandler<RefObject>
 			return;
 		}          // end of if (tmp_name.equals(ELEM_STREAM_STREAM))
 
+		if (lazy != null) {
+			startPayloadElement(tmp_name, attr_names, attr_values);
+			return;
+		}
+
 		String new_xmlns = null;
 		String prefix = null;
 		String tmp_name_prefix = null;
@@ -265,7 +306,14 @@ public class XMPPDomBuilderHandler<RefObject>
 			}      // end of for (String xmlns: namespaces.keys())
 		}
 
-		Element elem = newElement(tmp_name, null, attr_names, attr_values);
+		Element elem;
+		if (isLazyPayload()) {
+			checkElementsLimit();
+			lazy = new LazyElement(tmp_name, attr_names, attr_values);
+			elem = lazy;
+		} else {
+			elem = newElement(tmp_name, null, attr_names, attr_values);
+		}
 		String ns = elem.getXMLNS();
 
 		if (ns == null) {
@@ -294,15 +342,85 @@ public class XMPPDomBuilderHandler<RefObject>
 	}
 
 	private Element newElement(String name, String cdata, StringBuilder[] attnames, StringBuilder[] attvals) {
-		++elements_number_limit_count;
 		Element el = customFactory.elementInstance(name, cdata, attnames, attvals);
 
+		checkElementsLimit();
+		return el;
+	}
+
+	private void checkElementsLimit() {
+		++elements_number_limit_count;
 		if (elements_number_limit_count > elements_number_limit) {
 			throw new XMPPParserException(
 					"Too many elements for staza, possible DoS attack." + "Current service " + service.getClass() +
 							" limit of elements: " + elements_number_limit);
 		}
-		return el;
+	}
+
+	/**
+	 * Checks if the element which is started now is a child of a routed stanza which content should be kept as text.
+	 */
+	private boolean isLazyPayload() {
+		if (!lazyPayloads || customFactory != defaultFactory || el_stack.size() != 1) {
+			return false;
+		}
+		String stanza = el_stack.peek().getName();
+		for (String name : ROUTED_STANZAS) {
+			if (name == stanza) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void startPayloadElement(String name, StringBuilder[] attr_names, StringBuilder[] attr_values) {
+		checkElementsLimit();
+		payloadNested = true;
+		if (name.indexOf(':') > 0) {
+			payloadPrefixed = true;
+		}
+		payloadNames.push(name);
+		payload.append('<').append(name);
+		if (attr_names != null) {
+			for (int i = 0; i < attr_names.length && attr_names[i] != null; ++i) {
+				char quote = attr_values[i].indexOf("\"") < 0 ? '"' : '\'';
+				payload.append(' ').append(attr_names[i]).append('=').append(quote).append(attr_values[i]).append(quote);
+			}
+		}
+		payload.append('>');
+		payloadTagEnd = payload.length();
+	}
+
+	private boolean endPayloadElement(String name) {
+		if (!payloadNames.pop().equals(name)) {
+			return false;
+		}
+		if (payload.length() == payloadTagEnd) {
+			// element without content
+			payload.setLength(payloadTagEnd - 1);
+			payload.append("/>");
+		} else {
+			payload.append("</").append(name).append('>');
+		}
+		payloadTagEnd = -1;
+		return true;
+	}
+
+	/**
+	 * Passes collected content to the lazy element. Character data only is set directly as there is nothing to gain by
+	 * postponing it.
+	 */
+	private void endPayload() {
+		if (payloadNested) {
+			lazy.setPayload(payload.toString(), payloadPrefixed ? new TreeMap<>(namespaces) : null);
+		} else if (payload.length() > 0) {
+			lazy.addCData(payload.toString());
+		}
+		lazy = null;
+		payload.setLength(0);
+		payloadNested = false;
+		payloadPrefixed = false;
+		payloadTagEnd = -1;
 	}
 }    // XMPPDomBuilderHandler
 
@@ -19,20 +19,27 @@ package tigase.xmpp;
 
 import tigase.net.IOService;
 import tigase.server.ConnectionManager;
+import tigase.server.Message;
 import tigase.server.Packet;
+import tigase.server.Presence;
 import tigase.server.xmppclient.XMPPIOProcessor;
 import tigase.util.StringUtilities;
 import tigase.util.stringprep.TigaseStringprepException;
+import tigase.util.tracer.SamplingTracer;
 import tigase.xml.Element;
 import tigase.xml.SimpleParser;
 import tigase.xml.SingletonFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -69,16 +76,27 @@ public class XMPPIOService<RefObject>
 
 	private static final Logger log = Logger.getLogger(XMPPIOService.class.getName());
 
+	/**
+	 * Maximal number of bytes of stanzas joined into a single write when writes coalescing is enabled.
+	 */
+	private static final int WRITE_COALESCING_MAX_BYTES = 16384;
+
 	public ReentrantLock writeInProgress = new ReentrantLock();
 	protected SimpleParser parser = SingletonFactory.getParserInstance();
 	protected XMPPIOProcessor[] processors = null;
+	private volatile boolean delayed = false;
+	private volatile long delayedSince = 0;
 	private XMPPDomBuilderHandler<RefObject> domHandler = null;
 	private boolean firstPacket = true;
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
 	private String jid = null;
 	/**
 	 * This variable keeps the time of last received XMPP packet, it is used to help detect dead connections.
 	 */
 	private long lastXmppPacketReceivedTime = 0;
+	private volatile long lastWriteTime = 0;
+	// System.nanoTime() may return any value, so lastWriteTime is valid only if this is set
+	private volatile boolean lastWriteTimeSet = false;
 	private long packetsReceived = 0;
 	private long packetsSent = 0;
 	/**
@@ -86,6 +104,7 @@ public class XMPPIOService<RefObject>
 	 * results.
 	 */
 	private ConcurrentLinkedQueue<Packet> receivedPackets = new ConcurrentLinkedQueue<Packet>();
+	private SamplingTracer samplingTracer = null;
 	private long req_idx = 0;
 	@SuppressWarnings("rawtypes")
 	protected XMPPIOServiceListener serviceListener = null;
@@ -98,6 +117,8 @@ public class XMPPIOService<RefObject>
 	 */
 	private ConcurrentLinkedQueue<Packet> waitingPackets = new ConcurrentLinkedQueue<Packet>();
 	private boolean white_char_ack = false;
+	private WriteCoalescingStatistics writeCoalescingStatistics = null;
+	private long writeCoalescingWindow = 0;
 	private String xmlns = null;
 	private boolean xmpp_ack = false;
 
@@ -224,6 +245,157 @@ public class XMPPIOService<RefObject>
 
 	@Override
 	public void processWaitingPackets() throws IOException {
+		if (writeCoalescingWindow > 0) {
+			processWaitingPacketsCoalesced();
+		} else {
+			processWaitingPacketsOneByOne();
+		}
+
+		// notify io processors that all waiting packets were sent
+		if (processors != null) {
+			for (XMPPIOProcessor processor : processors) {
+				processor.packetsSent(this);
+			}
+		}
+	}
+
+	/**
+	 * Enables coalescing of writes for this connection. Stanzas waiting to send are joined and written at once and
+	 * writing of messages and presences may be delayed by {@link #delayWrite(Packet)} for up to
+	 * <code>windowMicros</code> if the connection was written to recently. Coalescing is not enabled if the
+	 * connection does not support it, ie. when every stanza has to be written in a separate frame.
+	 *
+	 * @param windowMicros maximal time in microseconds for which writing may be delayed, <code>0</code> disables
+	 * coalescing
+	 */
+	public void setWriteCoalescing(long windowMicros, WriteCoalescingStatistics statistics) {
+		if (!isWriteCoalescingSupported()) {
+			return;
+		}
+		this.writeCoalescingWindow = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+		this.writeCoalescingStatistics = statistics;
+	}
+
+	/**
+	 * Sets tracer which assigns trace ids to a sample of packets read from this connection.
+	 */
+	public void setSamplingTracer(SamplingTracer samplingTracer) {
+		this.samplingTracer = samplingTracer;
+	}
+
+	/**
+	 * Checks if writing of the packet, which was just added with {@link #addPacketToSend(Packet)}, may be delayed to
+	 * write it together with following packets. Only messages and presences are delayed, so IQ responses, pings and
+	 * stream level elements are written immediately (with all packets waiting before them). Writing is not delayed if
+	 * nothing was written to the connection during the coalescing window, so a packet on an idle connection is sent
+	 * without any delay, like with Nagle's algorithm.
+	 *
+	 * @return <code>true</code> if the packet should not be written now. Caller is responsible for calling
+	 * {@link #scheduleFlush()} and writing waiting packets after the coalescing window.
+	 */
+	public boolean delayWrite(Packet packet) {
+		if (writeCoalescingWindow == 0) {
+			return false;
+		}
+		String elemName = packet.getElemName();
+		if (elemName != Message.ELEM_NAME && elemName != Presence.ELEM_NAME) {
+			return false;
+		}
+		if (!lastWriteTimeSet || System.nanoTime() - lastWriteTime > writeCoalescingWindow) {
+			return false;
+		}
+		writeCoalescingStatistics.packetDelayed();
+		return true;
+	}
+
+	/**
+	 * Marks that delayed packets are waiting for a flush.
+	 *
+	 * @return <code>true</code> if flush was not scheduled yet and caller should schedule it.
+	 */
+	public boolean scheduleFlush() {
+		if (flushScheduled.compareAndSet(false, true)) {
+			delayedSince = System.nanoTime();
+			delayed = true;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Called by scheduled flush before writing waiting packets.
+	 */
+	public void flushStarted() {
+		flushScheduled.set(false);
+	}
+
+	/**
+	 * Returns time in microseconds for which writing of packets may be delayed or <code>0</code> if writes coalescing
+	 * is disabled.
+	 */
+	public long getWriteCoalescingWindow() {
+		return TimeUnit.NANOSECONDS.toMicros(writeCoalescingWindow);
+	}
+
+	protected boolean isWriteCoalescingSupported() {
+		return true;
+	}
+
+	/**
+	 * Checks if stanzas may be written to the connection already encoded, which allows reusing encoded content shared
+	 * by copies of a stanza (see {@link LazyElement#writeUTF8(Element, ByteArrayOutputStream)}). It is not possible if
+	 * the connection has to process written data, ie. to wrap it in frames. Connections which support writes
+	 * coalescing have to support it as well.
+	 */
+	protected boolean isEncodedWriteSupported() {
+		return true;
+	}
+
+	private void processWaitingPacketsCoalesced() throws IOException {
+		ByteArrayOutputStream out = null;
+
+		while (!waitingPackets.isEmpty()) {
+			if (out == null) {
+				out = new ByteArrayOutputStream(1024);
+			} else {
+				out.reset();
+			}
+
+			int count = 0;
+
+			for (Packet packet : waitingPackets) {
+				if (log.isLoggable(Level.FINEST)) {
+					log.log(Level.FINEST, "Sending packet: {1} [{0}]", new Object[]{toString(), packet});
+				}
+				LazyElement.writeUTF8(packet.getElement(), out);
+				++count;
+				if (out.size() >= WRITE_COALESCING_MAX_BYTES) {
+					break;
+				}
+			}
+
+			long bytesSent = isConnected() ? getTotalBytesSent() : 0;
+
+			writeBytes(ByteBuffer.wrap(out.toByteArray()));
+
+			// packets are removed after sending them to minimalize chances of lost packets
+			for (int i = 0; i < count; i++) {
+				waitingPackets.poll();
+			}
+			writeCoalescingStatistics.written(count, isConnected() ? getTotalBytesSent() - bytesSent : 0);
+		}
+
+		long now = System.nanoTime();
+
+		lastWriteTime = now;
+		lastWriteTimeSet = true;
+		if (delayed) {
+			delayed = false;
+			writeCoalescingStatistics.flushed(now - delayedSince);
+		}
+	}
+
+	private void processWaitingPacketsOneByOne() throws IOException {
 		Packet packet = null;
 
 		// int cnt = 0;
@@ -236,7 +408,13 @@ public class XMPPIOService<RefObject>
 			if (log.isLoggable(Level.FINEST)) {
 				log.log(Level.FINEST, "Sending packet: {1} [{0}]", new Object[]{toString(), packet});
 			}
-			writeRawData(packet.getElement().toString());
+			if (isEncodedWriteSupported()) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+				LazyElement.writeUTF8(packet.getElement(), out);
+				writeBytes(ByteBuffer.wrap(out.toByteArray()));
+			} else {
+				writeRawData(packet.getElement().toString());
+			}
 
 			// and after sending it we should remove it to minimalize chances of lost packets
 			waitingPackets.poll();
@@ -245,13 +423,6 @@ public class XMPPIOService<RefObject>
 				log.log(Level.FINEST, "SENT: {1} [{0}]", new Object[]{toString(), packet.getElement().toString()});
 			}
 		}    // end of while (packet = waitingPackets.poll() != null)
-
-		// notify io processors that all waiting packets were sent
-		if (processors != null) {
-			for (XMPPIOProcessor processor : processors) {
-				processor.packetsSent(this);
-			}
-		}
 	}
 
 	@Override
@@ -659,6 +830,12 @@ public class XMPPIOService<RefObject>
 		if (elems.size() > 0 && sendAck) {
 			readCompleted();
 		}
+
+		// single timestamp for all stanzas parsed from the same read is precise enough for latency statistics,
+		// it is read when the first stanza is converted to a packet
+		long receivedTime = 0;
+		boolean receivedTimeRead = false;
+
 		while ((elem = elems.poll()) != null) {
 			try {
 				// assert debug(elem.toString() + "\n");
@@ -669,6 +846,14 @@ public class XMPPIOService<RefObject>
 				// System.out.print(elem.toString());
 				Packet pack = Packet.packetInstance(elem);
 
+				if (!receivedTimeRead) {
+					receivedTime = System.nanoTime();
+					receivedTimeRead = true;
+				}
+				pack.setReceivedTime(receivedTime);
+				if (samplingTracer != null) {
+					samplingTracer.sample(pack, "socket-read");
+				}
 				addReceivedPacket(pack);
 				if (sendAck) {
 					sendAck(pack);
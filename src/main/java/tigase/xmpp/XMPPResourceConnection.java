@@ -34,8 +34,8 @@ import tigase.xmpp.jid.JID;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -59,16 +59,26 @@ public class XMPPResourceConnection
 
 	public static final String CLOSING_KEY = "closing-conn";
 
+	public static final SessionDataSlot<String> CLOSING_SLOT = SessionDataSlot.register(CLOSING_KEY, String.class);
+
 	public static final String ERROR_KEY = "error-key";
 
+	public static final SessionDataSlot<String> ERROR_SLOT = SessionDataSlot.register(ERROR_KEY, String.class);
+
 	public static final String CONNECTION_CHECK_TIMESTAMP_KEY = "connection-check-timestamp";
 
+	public static final SessionDataSlot<Long> CONNECTION_CHECK_TIMESTAMP_SLOT = SessionDataSlot.register(
+			CONNECTION_CHECK_TIMESTAMP_KEY, Long.class);
+
 	/**
 	 * Constant <code>PRESENCE_KEY</code> is a key in temporary session data where the last presence sent by the user to
 	 * server is stored, either initial presence or off-line presence before disconnecting.
 	 */
 	public static final String PRESENCE_KEY = "user-presence";
 
+	public static final SessionDataSlot<Element> PRESENCE_SLOT = SessionDataSlot.register(PRESENCE_KEY,
+																						   Element.class);
+
 	private static final Logger log = Logger.getLogger(XMPPResourceConnection.class.getName());
 
 	private long authenticationTime = 0;
@@ -97,9 +107,9 @@ public class XMPPResourceConnection
 	private String resource = null;
 
 	/**
-	 * Session temporary data. All data stored in this <code>Map</code> disappear when session finishes.
+	 * Session temporary data. All data stored in this <code>SessionData</code> disappear when session finishes.
 	 */
-	private Map<String, Object> sessionData = null;
+	private final SessionData sessionData = new SessionData();
 
 	/**
 	 * <code>sessionId</code> keeps XMPP stream session ID given at connection initialization time.
@@ -118,7 +128,6 @@ public class XMPPResourceConnection
 		this.loginHandler = loginHandler;
 		this.creationTime = currTime;
 		this.lastAccessed = currTime;
-		sessionData = new ConcurrentHashMap<String, Object>(4, 0.9f);
 	}
 
 	public void authorizeJID(BareJID jid, boolean anonymous) throws TigaseStringprepException {
@@ -161,6 +170,16 @@ public class XMPPResourceConnection
 		return valueFactory.apply(key);
 	}
 
+	/**
+	 * Typed variant of {@link #computeCommonSessionDataIfAbsent(String, Function)}.
+	 */
+	public <T> T computeCommonSessionDataIfAbsent(SessionDataSlot<T> slot, Supplier<? extends T> valueFactory) {
+		if (parentSession != null) {
+			return parentSession.computeCommonSessionDataIfAbsent(slot, valueFactory);
+		}
+		return valueFactory.get();
+	}
+
 	/**
 	 * Method checks if in session data is value for passed {@code key} and returns it if exists. If not then it uses
 	 * passed {@code valueFactory} to generate value and sets it in session data under passed {@code key} and returns
@@ -171,6 +190,14 @@ public class XMPPResourceConnection
 		return sessionData.computeIfAbsent(key, valueFactory);
 	}
 
+	/**
+	 * Typed variant of {@link #computeSessionDataIfAbsent(String, Function)}.
+	 */
+	public <T> T computeSessionDataIfAbsent(SessionDataSlot<T> slot, Supplier<? extends T> valueFactory) {
+		setLastAccessed(System.currentTimeMillis());
+		return sessionData.computeIfAbsent(slot, valueFactory);
+	}
+
 	/**
 	 * Returns full user JID for this session without throwing the <code>NotAuthorizedException</code> exception if
 	 * session is not authorized yet and therefore user name and resource is not known yet. Please note this method is
@@ -207,6 +234,15 @@ public class XMPPResourceConnection
 		}
 	}
 
+	/**
+	 * Typed variant of {@link #putCommonSessionData(String, Object)}.
+	 */
+	public <T> void putCommonSessionData(SessionDataSlot<T> slot, T value) {
+		if (parentSession != null) {
+			parentSession.putCommonSessionData(slot, value);
+		}
+	}
+
 	/**
 	 * Method sets passed value under passed {@code key} in common {@code sessionData} kept in {@code parentSession} but
 	 * only if there is no value for this {@code key} already
@@ -237,6 +273,14 @@ public class XMPPResourceConnection
 		sessionData.put(key, value);
 	}
 
+	/**
+	 * Typed variant of {@link #putSessionData(String, Object)}.
+	 */
+	public final <T> void putSessionData(final SessionDataSlot<T> slot, final T value) {
+		setLastAccessed(System.currentTimeMillis());
+		sessionData.put(slot, value);
+	}
+
 	/**
 	 * Method sets passed value under passed {@code key} in {@code sessionData} but only if there is no value for this
 	 * {@code key} already
@@ -256,6 +300,10 @@ public class XMPPResourceConnection
 		return (parentSession == null) ? null : parentSession.removeCommonSessionData(key);
 	}
 
+	public <T> T removeCommonSessionData(SessionDataSlot<T> slot) {
+		return (parentSession == null) ? null : parentSession.removeCommonSessionData(slot);
+	}
+
 	public void removeParentSession(final XMPPSession parent) {
 		synchronized (this) {
 			parentSession = null;
@@ -267,6 +315,11 @@ public class XMPPResourceConnection
 		sessionData.remove(key);
 	}
 
+	public final void removeSessionData(final SessionDataSlot<?> slot) {
+		setLastAccessed(System.currentTimeMillis());
+		sessionData.remove(slot);
+	}
+
 	public void streamClosed() {
 		synchronized (this) {
 			if (parentSession != null) {
@@ -331,6 +384,10 @@ public class XMPPResourceConnection
 		return (parentSession == null) ? null : parentSession.getCommonSessionData(key);
 	}
 
+	public <T> T getCommonSessionData(SessionDataSlot<T> slot) {
+		return (parentSession == null) ? null : parentSession.getCommonSessionData(slot);
+	}
+
 	/**
 	 * Gets the value of connectionId
 	 *
@@ -457,11 +514,11 @@ public class XMPPResourceConnection
 	 * @return an <code>Element</code> with last presence status received from the user.
 	 */
 	public Element getPresence() {
-		return (Element) getSessionData(PRESENCE_KEY);
+		return getSessionData(PRESENCE_SLOT);
 	}
 
 	public void setPresence(Element packet) {
-		putSessionData(PRESENCE_KEY, packet);
+		putSessionData(PRESENCE_SLOT, packet);
 
 		// Parse resource priority:
 		String pr_str = packet.getCDataStaticStr(Presence.PRESENCE_PRIORITY_PATH);
@@ -485,7 +542,7 @@ public class XMPPResourceConnection
 			if (getPriority() != 0 && !"unavailable".equals(packet.getAttributeStaticStr("type"))) {
 				packet.addChild(new Element("priority", String.valueOf(getPriority())));
 			}
-			putSessionData(PRESENCE_KEY, packet);
+			putSessionData(PRESENCE_SLOT, packet);
 		}
 		loginHandler.handlePresenceSet(this);
 	}
@@ -548,6 +605,15 @@ public class XMPPResourceConnection
 		return sessionData.get(key);
 	}
 
+	/**
+	 * Typed variant of {@link #getSessionData(String)}.
+	 */
+	public final <T> T getSessionData(final SessionDataSlot<T> slot) {
+		setLastAccessed(System.currentTimeMillis());
+
+		return sessionData.get(slot);
+	}
+
 	/**
 	 * Gets the value of sessionId
 	 *
@@ -23,10 +23,9 @@ import tigase.xmpp.jid.JID;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,7 +43,7 @@ public class XMPPSession {
 	private CopyOnWriteArrayList<XMPPResourceConnection> activeResources = null;
 	private long creationTime = 0;
 	private long packets_counter = 0;
-	private Map<String, Object> sessionData = null;
+	private final SessionData sessionData = new SessionData();
 
 	/**
 	 * User name - localpart of user's JID
@@ -57,7 +56,6 @@ public class XMPPSession {
 	 * @param username - localpart of user's JID
 	 */
 	public XMPPSession(final String username) {
-		sessionData = new ConcurrentHashMap<String, Object>();
 		activeResources = new CopyOnWriteArrayList<XMPPResourceConnection>();
 		this.username = username;
 		this.creationTime = System.currentTimeMillis();
@@ -104,7 +102,7 @@ public class XMPPSession {
 						log.finest("Found old resource connection for: " + username + ", id: " + old_res);
 					}
 					try {
-						old_res.putSessionData(XMPPResourceConnection.ERROR_KEY, "conflict");
+						old_res.putSessionData(XMPPResourceConnection.ERROR_SLOT, "conflict");
 						old_res.logout();
 					} catch (NotAuthorizedException e) {
 						log.log(Level.INFO, "Exception during closing old connection, ignoring.", e);
@@ -209,6 +207,13 @@ public class XMPPSession {
 		return sessionData.get(key);
 	}
 
+	/**
+	 * Typed variant of {@link #getCommonSessionData(String)}.
+	 */
+	public <T> T getCommonSessionData(SessionDataSlot<T> slot) {
+		return sessionData.get(slot);
+	}
+
 	/**
 	 * Method returns an array of all ConnectionIDs related to this {@link XMPPSession}
 	 */
@@ -416,6 +421,10 @@ public class XMPPSession {
 		return sessionData.computeIfAbsent(key, valueFactory);
 	}
 
+	public <T> T computeCommonSessionDataIfAbsent(SessionDataSlot<T> slot, Supplier<? extends T> valueFactory) {
+		return sessionData.computeIfAbsent(slot, valueFactory);
+	}
+
 	/**
 	 * Method used to store data common for all connections of the user.
 	 *
@@ -426,6 +435,10 @@ public class XMPPSession {
 		sessionData.put(key, value);
 	}
 
+	protected <T> void putCommonSessionData(SessionDataSlot<T> slot, T value) {
+		sessionData.put(slot, value);
+	}
+
 	protected Object putCommonSessionDataIfAbsent(String key, Object value) {
 		return sessionData.putIfAbsent(key, value);
 	}
@@ -438,4 +451,8 @@ public class XMPPSession {
 	protected Object removeCommonSessionData(String key) {
 		return sessionData.remove(key);
 	}
+
+	protected <T> T removeCommonSessionData(SessionDataSlot<T> slot) {
+		return sessionData.remove(slot);
+	}
 }    // XMPPSession
@@ -21,8 +21,9 @@ import tigase.db.NonAuthUserRepository;
 import tigase.kernel.beans.Bean;
 import tigase.server.Packet;
 import tigase.server.xmppsession.SessionManager;
-import tigase.stats.CounterValue;
+import tigase.stats.LongCounter;
 import tigase.stats.StatisticsList;
+import tigase.stats.StatisticsRegistry;
 import tigase.xmpp.Authorization;
 import tigase.xmpp.StanzaType;
 import tigase.xmpp.XMPPPacketFilterIfc;
@@ -101,16 +102,17 @@ public class ErrorCounter
 			ERROR_NAMES[vals.length] = "0Unknown";
 		}
 
-		private final CounterValue[] counters;
+		private final LongCounter[] counters;
+		private final StatisticsRegistry registry = new StatisticsRegistry();
 
 		public static String[] getErrorNames() {
 			return ERROR_NAMES;
 		}
 
 		public ErrorStatisticsHolder() {
-			counters = new CounterValue[ERROR_NAMES.length];
+			counters = new LongCounter[ERROR_NAMES.length];
 			for (int i = 0; i < ERROR_NAMES.length; i++) {
-				counters[i] = new CounterValue(ERROR_NAMES[i], Level.FINER);
+				counters[i] = registry.counter("ErrorStats/" + ERROR_NAMES[i] + "ErrorsNumber", Level.FINER);
 			}
 		}
 
@@ -125,9 +127,7 @@ public class ErrorCounter
 		}
 
 		public void getStatistics(StatisticsList list) {
-			for (CounterValue c : counters) {
-				list.add(SM_COMP, "ErrorStats/" + c.getName() + "ErrorsNumber", c.getValue(), c.getLevel());
-			}
+			registry.getStatistics(SM_COMP, list);
 		}
 	}
 
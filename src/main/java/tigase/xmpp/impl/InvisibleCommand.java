@@ -113,9 +113,9 @@ public class InvisibleCommand
 							Element presence = new Element("presence", new String[]{"from", "type"},
 														   new String[]{session.getJID().toString(), "unavailable"});
 
-							session.putSessionData(XMPPResourceConnection.PRESENCE_KEY, presence);
+							session.putSessionData(XMPPResourceConnection.PRESENCE_SLOT, presence);
 							PresenceState.broadcastOffline(session, results, settings, roster_util);
-							session.removeSessionData(PresenceState.OFFLINE_BUD_SENT);
+							session.removeSessionData(PresenceState.OFFLINE_BUD_SENT_SLOT);
 
 							// session.removeSessionData(XMPPResourceConnection.PRESENCE_KEY);
 						} else if (packet.getElement().findChildStaticStr(VISIBLE_PATH) != null) {
@@ -586,7 +586,7 @@ public class JabberIqPrivacy
 
 				if ((items == null) || items.isEmpty()) {
 					// if the list is in use then forbid changes
-					boolean inUse = session.getCommonSessionData(PRIVACY_LIST_LOADED) != null &&
+					boolean inUse = session.getCommonSessionData(PRIVACY_LIST_LOADED_SLOT) != null &&
 							session.getCommonSessionData(DEFAULT) != null;
 
 					if (!inUse) {
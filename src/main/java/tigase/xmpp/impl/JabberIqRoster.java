@@ -588,7 +588,7 @@ public class JabberIqRoster
 						if ((type != null) && type.equals(ANON) || autoAuthorize) {
 							roster_util.setBuddySubscription(session, SubscriptionType.both, buddy);
 
-							Element pres = (Element) session.getSessionData(XMPPResourceConnection.PRESENCE_KEY);
+							Element pres = session.getSessionData(XMPPResourceConnection.PRESENCE_SLOT);
 
 							if (pres == null) {
 								pres = new Element(PresenceAbstract.PRESENCE_ELEMENT_NAME);
@@ -27,6 +27,7 @@ import tigase.xml.Element;
 import tigase.xml.SimpleParser;
 import tigase.xml.SingletonFactory;
 import tigase.xmpp.NotAuthorizedException;
+import tigase.xmpp.SessionDataSlot;
 import tigase.xmpp.XMPPProcessorIfc;
 import tigase.xmpp.XMPPResourceConnection;
 import tigase.xmpp.impl.annotation.AnnotatedXMPPProcessor;
@@ -49,6 +50,8 @@ public abstract class LastActivityAbstract
 
 	protected static final String XMLNS = "jabber:iq:last";
 	public final static String LAST_ACTIVITY_KEY = "LAST_ACTIVITY_KEY";
+	public final static SessionDataSlot<Long> LAST_ACTIVITY_SLOT = SessionDataSlot.register(LAST_ACTIVITY_KEY,
+																							 Long.class);
 	public final static String LAST_STATUS_KEY = "LAST_STATUS_KEY";
 	public final static String LAST_SHOW_KEY = "LAST_SHOW_KEY";
 	public final static String LAST_PRESENCE_KEY = "LAST_PRESENCE_KEY";
@@ -77,9 +80,9 @@ public abstract class LastActivityAbstract
 		Long result = null;
 
 		if (global) {
-			result = (Long) session.getCommonSessionData(LAST_ACTIVITY_KEY);
+			result = session.getCommonSessionData(LAST_ACTIVITY_SLOT);
 		} else {
-			result = (Long) session.getSessionData(LAST_ACTIVITY_KEY);
+			result = session.getSessionData(LAST_ACTIVITY_SLOT);
 		}
 		if (log.isLoggable(Level.FINEST)) {
 			log.log(Level.FINEST,
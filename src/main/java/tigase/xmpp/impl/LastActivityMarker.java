@@ -72,8 +72,8 @@ public class LastActivityMarker
 	private boolean updateOnPresence = true;
 
 	private static void setLastActivity(XMPPResourceConnection session, Long last, Element presence, boolean repository) {
-		session.putCommonSessionData(LastActivityAbstract.LAST_ACTIVITY_KEY, last);
-		session.putSessionData(LastActivityAbstract.LAST_ACTIVITY_KEY, last);
+		session.putCommonSessionData(LastActivityAbstract.LAST_ACTIVITY_SLOT, last);
+		session.putSessionData(LastActivityAbstract.LAST_ACTIVITY_SLOT, last);
 		if (repository) {
 			persistLastActivity(session, presence);
 		}
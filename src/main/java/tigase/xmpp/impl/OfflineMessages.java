@@ -29,6 +29,7 @@ import tigase.server.Iq;
 import tigase.server.Packet;
 import tigase.server.amp.db.MsgRepository;
 import tigase.server.xmppsession.SessionManager;
+import tigase.sys.OverloadController;
 import tigase.util.dns.DNSResolverFactory;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.DomBuilderHandler;
@@ -124,6 +125,8 @@ public class OfflineMessages
 	private List<Notifier> notifiers;
 	@ConfigField(desc = "Store offline messages with mathing paths", alias = MSG_OFFLINE_STORAGE_PATHS)
 	private ElementMatcher[] offlineStorageMatchers = new ElementMatcher[0];
+	@Inject(nullAllowed = true)
+	private OverloadController overloadController;
 
 	{
 		this.formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
@@ -165,6 +168,10 @@ public class OfflineMessages
 					case SERVICE_UNAVAILABLE:
 						result = saveResult.getResponseMessage(packet, "Offline messages queue is full", true);
 						break;
+					case RESOURCE_CONSTRAINT:
+						result = saveResult.getResponseMessage(packet, "Server is overloaded, message was not stored",
+															   true);
+						break;
 					default:
 						break;
 				}
@@ -354,6 +361,13 @@ public class OfflineMessages
 		// message stanza with either {@code <body>} or {@code <event>} child element and only of type normal, chat
 		// presence stanza of type subscribe, subscribed, unsubscribe and unsubscribed
 		if (isAllowedForOfflineStorage(packet)) {
+			// when server is overloaded message is rejected, as it would be lost if accepted but stored later
+			if (overloadController != null && !overloadController.isOfflineStorageAllowed()) {
+				if (log.isLoggable(Level.FINEST)) {
+					log.log(Level.FINEST, "Server is overloaded, not storing packet for offline user: {0}", packet);
+				}
+				return Authorization.RESOURCE_CONSTRAINT;
+			}
 			if (log.isLoggable(Level.FINEST)) {
 				log.log(Level.FINEST, "Storing packet for offline user: {0}", packet);
 			}
@@ -61,14 +61,23 @@ public class PresenceState
 	 */
 	public static final String DIRECT_PRESENCE = "direct-presences";
 
+	public static final SessionDataSlot<Set<JID>> DIRECT_PRESENCE_SLOT = SessionDataSlot.register(DIRECT_PRESENCE,
+																								   Set.class);
+
 	public static final String ENABLE_ROSTER_LAZY_LOADING_KEY = "enable-roster-lazy-loading";
 
 	public static final String EXTENDED_PRESENCE_PROCESSORS_KEY = "extended-presence-processors";
 
 	public static final String OFFLINE_BUD_SENT = "offline-bud-sent";
 
+	public static final SessionDataSlot<String> OFFLINE_BUD_SENT_SLOT = SessionDataSlot.register(OFFLINE_BUD_SENT,
+																								 String.class);
+
 	public static final String OFFLINE_RES_SENT = "offline-res-sent";
 
+	public static final SessionDataSlot<String> OFFLINE_RES_SENT_SLOT = SessionDataSlot.register(OFFLINE_RES_SENT,
+																								 String.class);
+
 	public static final String OFFLINE_ROSTER_LAST_SEEN_PROP_KEY = "offline-roster-last-seen";
 
 	/**
@@ -103,11 +112,11 @@ public class PresenceState
 	 */
 	@SuppressWarnings({"unchecked"})
 	public static void addDirectPresenceJID(JID jid, XMPPResourceConnection session) {
-		Set<JID> direct_presences = (Set<JID>) session.getSessionData(DIRECT_PRESENCE);
+		Set<JID> direct_presences = session.getSessionData(DIRECT_PRESENCE_SLOT);
 
 		if (direct_presences == null) {
 			direct_presences = new LinkedHashSet<JID>(10);
-			session.putSessionData(DIRECT_PRESENCE, direct_presences);
+			session.putSessionData(DIRECT_PRESENCE_SLOT, direct_presences);
 		}    // end of if (direct_presences == null)
 		if (direct_presences.size() < MAX_DIRECT_PRESENCES_NO) {
 			direct_presences.add(jid);
@@ -131,7 +140,7 @@ public class PresenceState
 	@SuppressWarnings({"unchecked"})
 	protected static void broadcastDirectPresences(StanzaType t, XMPPResourceConnection session, Queue<Packet> results,
 												   Element pres) throws NotAuthorizedException, TigaseDBException {
-		Set<JID> direct_presences = (Set<JID>) session.getSessionData(DIRECT_PRESENCE);
+		Set<JID> direct_presences = session.getSessionData(DIRECT_PRESENCE_SLOT);
 
 		if ((direct_presences != null) && (t != null) && (t == StanzaType.unavailable)) {
 			for (JID buddy : direct_presences) {
@@ -163,10 +172,10 @@ public class PresenceState
 			throws NotAuthorizedException, TigaseDBException {
 
 		// Preventing sending offline notifications more than once
-		if (session.getSessionData(OFFLINE_BUD_SENT) != null) {
+		if (session.getSessionData(OFFLINE_BUD_SENT_SLOT) != null) {
 			return;
 		}
-		session.putSessionData(OFFLINE_BUD_SENT, OFFLINE_BUD_SENT);
+		session.putSessionData(OFFLINE_BUD_SENT_SLOT, OFFLINE_BUD_SENT);
 
 		Element pres = session.getPresence();
 
@@ -187,7 +196,7 @@ public class PresenceState
 	 */
 	@SuppressWarnings({"unchecked"})
 	public static void removeDirectPresenceJID(JID jid, XMPPResourceConnection session) {
-		Set<JID> direct_presences = (Set<JID>) session.getSessionData(DIRECT_PRESENCE);
+		Set<JID> direct_presences = session.getSessionData(DIRECT_PRESENCE_SLOT);
 
 		if (direct_presences != null) {
 			direct_presences.remove(jid);
@@ -282,10 +291,10 @@ public class PresenceState
 			throws NotAuthorizedException {
 
 		// Preventing sending offline notifications more than once
-		if (session.getSessionData(OFFLINE_RES_SENT) != null) {
+		if (session.getSessionData(OFFLINE_RES_SENT_SLOT) != null) {
 			return;
 		}
-		session.putSessionData(OFFLINE_RES_SENT, OFFLINE_RES_SENT);
+		session.putSessionData(OFFLINE_RES_SENT_SLOT, OFFLINE_RES_SENT);
 		for (XMPPResourceConnection conn : session.getActiveSessions()) {
 			try {
 				if (log.isLoggable(Level.FINER)) {
@@ -357,7 +366,7 @@ public class PresenceState
 					synchronized (session) {
 						Element presEl = session.getPresence();
 						if (presEl != null) {
-							session.removeSessionData(XMPPResourceConnection.PRESENCE_KEY);
+							session.removeSessionData(XMPPResourceConnection.PRESENCE_SLOT);
 							presEl.removeAttribute("from");
 							presEl.removeAttribute("to");
 							Packet pres = Packet.packetInstance(presEl, packet.getStanzaFrom(), packet.getStanzaTo());
@@ -835,8 +844,8 @@ public class PresenceState
 				// if it is already loaded then continue processing
 				// Special actions on the first availability presence
 				if ((packet.getType() == null) || (packet.getType() == StanzaType.available)) {
-					session.removeSessionData(OFFLINE_BUD_SENT);
-					session.removeSessionData(OFFLINE_RES_SENT);
+					session.removeSessionData(OFFLINE_BUD_SENT_SLOT);
+					session.removeSessionData(OFFLINE_RES_SENT_SLOT);
 					if (first) {
 						try {
 							sendRosterOfflinePresence(session, results);
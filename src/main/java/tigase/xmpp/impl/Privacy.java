@@ -23,6 +23,7 @@ import tigase.xml.Element;
 import tigase.xml.SimpleParser;
 import tigase.xml.SingletonFactory;
 import tigase.xmpp.NotAuthorizedException;
+import tigase.xmpp.SessionDataSlot;
 import tigase.xmpp.XMPPResourceConnection;
 import tigase.xmpp.impl.roster.RosterFactory;
 
@@ -72,6 +73,9 @@ public class Privacy {
 
 	public static final String PRIVACY_LIST_LOADED = "privacy-lists-loaded";
 
+	public static final SessionDataSlot<String> PRIVACY_LIST_LOADED_SLOT = SessionDataSlot.register(
+			PRIVACY_LIST_LOADED, String.class);
+
 	private static Logger log = Logger.getLogger(Privacy.class.getName());
 
 	public static void addList(XMPPResourceConnection session, Element list)
@@ -142,13 +146,13 @@ public class Privacy {
 	public static PrivacyList getDefaultList(XMPPResourceConnection session)
 			throws NotAuthorizedException, TigaseDBException {
 		PrivacyList sessionDefaultList = (PrivacyList) session.getCommonSessionData(DEFAULT);
-		if (session.getCommonSessionData(PRIVACY_LIST_LOADED) == null) {
+		if (session.getCommonSessionData(PRIVACY_LIST_LOADED_SLOT) == null) {
 			sessionDefaultList = PrivacyList.create(session, RosterFactory.getRosterImplementation(true),
 													getDefaultListElement(session));
 			if (null != sessionDefaultList) {
 				session.putCommonSessionData(DEFAULT, sessionDefaultList);
 			}
-			session.putCommonSessionData(PRIVACY_LIST_LOADED, PRIVACY_LIST_LOADED);
+			session.putCommonSessionData(PRIVACY_LIST_LOADED_SLOT, PRIVACY_LIST_LOADED);
 		}
 		return sessionDefaultList;
 	}
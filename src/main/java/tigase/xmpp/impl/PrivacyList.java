@@ -34,6 +34,12 @@ import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/**
+ * Evaluable representation of a privacy list. Items are kept in XEP-0016 order, but items of type <code>jid</code> and
+ * <code>group</code> are additionally indexed, so evaluation of lists with thousands of blocked JIDs (ie. created by
+ * blocking command) requires only a few hash lookups instead of walking through the whole list. Instances are immutable
+ * and are cached in user session and in the offline privacy lists cache.
+ */
 public class PrivacyList {
 
 	public static final PrivacyList ALLOW_ALL = new PrivacyList(null, new Element("list"));
@@ -45,8 +51,14 @@ public class PrivacyList {
 			return false;
 		}
 	};
+	private final Map<String, int[]> domainIndex;
+	private final Map<BareJID, int[]> bareJidIndex;
+	private final Map<JID, int[]> fullJidIndex;
+	private final Map<String, int[]> groupIndex;
 	private final Item[] items;
 	private final String name;
+	// positions of items which cannot be indexed (subscription, all)
+	private final int[] otherItems;
 	private final Function<JID, RosterElement> rosterElementGetter;
 
 	public static PrivacyList create(final Map<BareJID, RosterElement> roster, Element el) {
@@ -81,6 +93,45 @@ public class PrivacyList {
 				.map(this::elemToItem)
 				.filter(it -> it != null)
 				.toArray(x -> new Item[x]);
+
+		Map<String, List<Integer>> domains = new HashMap<>();
+		Map<BareJID, List<Integer>> bareJids = new HashMap<>();
+		Map<JID, List<Integer>> fullJids = new HashMap<>();
+		Map<String, List<Integer>> groups = new HashMap<>();
+		List<Integer> others = new ArrayList<>();
+		for (int i = 0; i < items.length; i++) {
+			Item item = items[i];
+			if (item instanceof ItemJid) {
+				JID itemJid = ((ItemJid) item).jid;
+				if (itemJid.getResource() != null) {
+					fullJids.computeIfAbsent(itemJid, k -> new ArrayList<>()).add(i);
+				} else if (itemJid.getLocalpart() != null) {
+					bareJids.computeIfAbsent(itemJid.getBareJID(), k -> new ArrayList<>()).add(i);
+				} else {
+					domains.computeIfAbsent(itemJid.getDomain(), k -> new ArrayList<>()).add(i);
+				}
+			} else if (item instanceof ItemGroup) {
+				groups.computeIfAbsent(((ItemGroup) item).group, k -> new ArrayList<>()).add(i);
+			} else {
+				others.add(i);
+			}
+		}
+		this.domainIndex = toIndex(domains);
+		this.bareJidIndex = toIndex(bareJids);
+		this.fullJidIndex = toIndex(fullJids);
+		this.groupIndex = toIndex(groups);
+		this.otherItems = others.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	private static <K> Map<K, int[]> toIndex(Map<K, List<Integer>> positions) {
+		if (positions.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		Map<K, int[]> index = new HashMap<>(positions.size() * 4 / 3 + 1);
+		for (Map.Entry<K, List<Integer>> e : positions.entrySet()) {
+			index.put(e.getKey(), e.getValue().stream().mapToInt(Integer::intValue).toArray());
+		}
+		return index;
 	}
 
 	public String getName() {
@@ -92,6 +143,48 @@ public class PrivacyList {
 	}
 
 	public boolean isAllowed(JID jid, Item.Type type) {
+		if (jid == null) {
+			return isAllowedSequentially(jid, type);
+		}
+
+		// position of the first matching item, items are checked only if
+		// they are placed before already found match
+		int match = items.length;
+		if (!fullJidIndex.isEmpty() && jid.getResource() != null) {
+			match = firstOfType(fullJidIndex.get(jid), type, match);
+		}
+		if (!bareJidIndex.isEmpty() && jid.getLocalpart() != null) {
+			match = firstOfType(bareJidIndex.get(jid.getBareJID()), type, match);
+		}
+		if (!domainIndex.isEmpty()) {
+			match = firstOfType(domainIndex.get(jid.getDomain()), type, match);
+		}
+		if (!groupIndex.isEmpty()) {
+			RosterElement rosterElement = rosterElementGetter.apply(jid);
+			String[] groups = rosterElement == null ? null : rosterElement.getGroups();
+			if (groups != null) {
+				for (String group : groups) {
+					match = firstOfType(groupIndex.get(group), type, match);
+				}
+			}
+		}
+		for (int idx : otherItems) {
+			if (idx >= match) {
+				break;
+			}
+			if (items[idx].matches(jid, type)) {
+				match = idx;
+				break;
+			}
+		}
+
+		return match < items.length ? items[match].isAllowed() : true;
+	}
+
+	/**
+	 * Evaluates list by checking items one by one, used for reference by tests and benchmarks.
+	 */
+	boolean isAllowedSequentially(JID jid, Item.Type type) {
 		for (Item item : items) {
 			if (item.matches(jid, type)) {
 				return item.isAllowed();
@@ -121,6 +214,21 @@ public class PrivacyList {
 		return joiner.toString();
 	}
 
+	private int firstOfType(int[] positions, Item.Type type, int match) {
+		if (positions == null) {
+			return match;
+		}
+		for (int idx : positions) {
+			if (idx >= match) {
+				break;
+			}
+			if (((AbstractItem) items[idx]).types.contains(type)) {
+				return idx;
+			}
+		}
+		return match;
+	}
+
 	private PrivacyList getSingletonIfPossible() {
 		if (isEmpty()) {
 			return ALLOW_ALL;
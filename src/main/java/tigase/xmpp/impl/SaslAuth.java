@@ -25,11 +25,15 @@ import tigase.db.AuthRepository;
 import tigase.db.NonAuthUserRepository;
 import tigase.db.TigaseDBException;
 import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Initializable;
 import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
 import tigase.server.Command;
 import tigase.server.Packet;
 import tigase.server.Priority;
 import tigase.server.xmppsession.SessionManager;
+import tigase.stats.StatisticsList;
 import tigase.util.Base64;
 import tigase.xml.Element;
 import tigase.xmpp.NotAuthorizedException;
@@ -42,10 +46,17 @@ import javax.security.auth.callback.CallbackHandler;
 import javax.security.sasl.Sasl;
 import javax.security.sasl.SaslException;
 import javax.security.sasl.SaslServer;
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -59,7 +70,7 @@ import java.util.logging.Logger;
 @Bean(name = SaslAuth.ID, parent = SessionManager.class, active = true)
 public class SaslAuth
 		extends AbstractAuthPreprocessor
-		implements XMPPProcessorIfc {
+		implements XMPPProcessorIfc, Initializable, UnregisterAware {
 
 	public static final String ID = "urn:ietf:params:xml:ns:xmpp-sasl";
 	private static final String _XMLNS = "urn:ietf:params:xml:ns:xmpp-sasl";
@@ -81,10 +92,78 @@ public class SaslAuth
 	}
 
 	private final Map<String, Object> props = new HashMap<String, Object>();
+	// single threaded executors, so requests of a session are processed in the order in which they were received
+	private ThreadPoolExecutor[] authExecutors = null;
+	@ConfigField(desc = "Maximal number of authentication requests waiting for execution", alias = "auth-queue-size")
+	private int authQueueSize = 10000;
+	private final AtomicLong authRejected = new AtomicLong();
+	@ConfigField(desc = "Number of threads authenticating users, 0 - authenticate in session manager threads", alias = "auth-threads")
+	private int authThreads = 0;
+	private final AtomicLong authWaitTimeMax = new AtomicLong();
+	private final AtomicLong authWaitTimeTotal = new AtomicLong();
 	@Inject
 	private BruteForceLockerBean bruteForceLocker;
 	@Inject
 	private TigaseSaslProvider saslProvider;
+	@Inject(nullAllowed = true)
+	private SessionManager sessionManager;
+
+	@Override
+	public void initialize() {
+		if (authThreads > 0) {
+			final AtomicInteger counter = new AtomicInteger();
+			final int queueSize = Math.max(1, authQueueSize / authThreads);
+			ThreadPoolExecutor[] executors = new ThreadPoolExecutor[authThreads];
+			for (int i = 0; i < executors.length; i++) {
+				executors[i] = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+													  r -> new Thread(r, "sasl-auth-" + counter.incrementAndGet()));
+			}
+			authExecutors = executors;
+			log.log(Level.CONFIG, "Authentication will be processed by {0} threads, queue size: {1}",
+					new Object[]{authThreads, authQueueSize});
+		}
+	}
+
+	@Override
+	public void beforeUnregister() {
+		ThreadPoolExecutor[] executors = authExecutors;
+		if (executors != null) {
+			authExecutors = null;
+			for (ThreadPoolExecutor executor : executors) {
+				executor.shutdown();
+			}
+		}
+	}
+
+	@Override
+	public void getStatistics(StatisticsList list) {
+		super.getStatistics(list);
+		ThreadPoolExecutor[] executors = authExecutors;
+		if (executors != null) {
+			String name = getComponentInfo().getName();
+			long executed = 0;
+			int queueSize = 0;
+			int active = 0;
+			for (ThreadPoolExecutor executor : executors) {
+				executed += executor.getCompletedTaskCount();
+				queueSize += executor.getQueue().size();
+				active += executor.getActiveCount();
+			}
+			list.add(name, "Auth queue size", queueSize, Level.FINE);
+			list.add(name, "Auth active threads", active, Level.FINER);
+			list.add(name, "Auth executed", executed, Level.FINE);
+			list.add(name, "Auth rejected", authRejected.get(), Level.FINE);
+			list.add(name, "Auth average wait time [ms]",
+					 executed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(authWaitTimeTotal.get() / executed),
+					 Level.FINE);
+			list.add(name, "Auth max wait time [ms]", TimeUnit.NANOSECONDS.toMillis(authWaitTimeMax.get()),
+					 Level.FINE);
+		}
+	}
+
+	void setAuthThreads(int authThreads) {
+		this.authThreads = authThreads;
+	}
 
 	@Override
 	public int concurrentQueuesNo() {
@@ -97,12 +176,50 @@ public class SaslAuth
 	}
 
 	@Override
-	@SuppressWarnings("unchecked")
 	public void process(final Packet packet, final XMPPResourceConnection session, final NonAuthUserRepository repo,
 						final Queue<Packet> results, final Map<String, Object> settings) {
 		if (session == null) {
 			return;
 		}
+		final ThreadPoolExecutor[] executors = authExecutors;
+		if (executors == null || sessionManager == null) {
+			processAuth(packet, session, repo, results, settings);
+			return;
+		}
+
+		// Password hashing is CPU intensive, during login storms it should not
+		// delay processing of stanzas by session manager threads.
+		final ThreadPoolExecutor executor = executors[(session.hashCode() & Integer.MAX_VALUE) % executors.length];
+		final long queuedAt = System.nanoTime();
+		try {
+			executor.execute(() -> {
+				long waitTime = System.nanoTime() - queuedAt;
+				authWaitTimeTotal.addAndGet(waitTime);
+				long max;
+				while ((max = authWaitTimeMax.get()) < waitTime && !authWaitTimeMax.compareAndSet(max, waitTime)) {
+					// retrying..
+				}
+
+				Queue<Packet> authResults = new ArrayDeque<>();
+				try {
+					processAuth(packet, session, repo, authResults, settings);
+				} finally {
+					sessionManager.processAsyncResults(packet, session, authResults);
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			authRejected.incrementAndGet();
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Authentication queue is full, rejecting request: {0}", packet);
+			}
+			sendNotAuthorized(SaslError.temporary_auth_failure, null, packet, results);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	protected void processAuth(final Packet packet, final XMPPResourceConnection session,
+							   final NonAuthUserRepository repo, final Queue<Packet> results,
+							   final Map<String, Object> settings) {
 		synchronized (session) {
 			// If authentication timeout expired, ignore the request....
 			if (session.getSessionData(XMPPResourceConnection.AUTHENTICATION_TIMEOUT_KEY) != null) {
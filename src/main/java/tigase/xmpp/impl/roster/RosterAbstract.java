@@ -59,10 +59,15 @@ public abstract class RosterAbstract {
 
 	public static final String ROSTER = "roster";
 
+	public static final SessionDataSlot<Map<BareJID, RosterElement>> ROSTER_SLOT = SessionDataSlot.register(ROSTER,
+																											 Map.class);
+
 	public static final String ROSTER_XMLNS = "jabber:iq:roster";
 
 	public static final String ROSTERHASH = "rosterhash";
 
+	public static final SessionDataSlot<String> ROSTERHASH_SLOT = SessionDataSlot.register(ROSTERHASH, String.class);
+
 	public static final String SUBSCRIPTION = "subscription";
 
 	public static final String VER_ATT = "ver";
@@ -584,7 +589,7 @@ public abstract class RosterAbstract {
 		} catch (Exception e) {
 			roster_hash = null;
 		}
-		session.putSessionData(ROSTERHASH, roster_hash);
+		session.putSessionData(ROSTERHASH_SLOT, roster_hash);
 	}
 
 	public abstract JID[] getBuddies(final XMPPResourceConnection session)
@@ -614,7 +619,7 @@ public abstract class RosterAbstract {
 	}
 
 	public String getBuddiesHash(final XMPPResourceConnection session) {
-		String hash = (String) session.getSessionData(ROSTERHASH);
+		String hash = session.getSessionData(ROSTERHASH_SLOT);
 
 		return ((hash != null) ? hash : "");
 	}
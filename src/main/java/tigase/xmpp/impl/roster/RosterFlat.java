@@ -342,7 +342,7 @@ public class RosterFlat
 
 	@Override
 	public boolean isRosterLoaded(XMPPResourceConnection session) {
-		return session.getCommonSessionData(ROSTER) != null;
+		return session.getCommonSessionData(ROSTER_SLOT) != null;
 	}
 
 	@Override
@@ -464,7 +464,7 @@ public class RosterFlat
 		// very unlikely by more than one thread
 		Map<BareJID, RosterElement> roster = new ConcurrentHashMap<BareJID, RosterElement>(100, 0.25f, 1);
 
-		session.putCommonSessionData(ROSTER, roster);
+		session.putCommonSessionData(ROSTER_SLOT, roster);
 
 		String roster_str = session.getData(null, ROSTER, null);
 
@@ -549,7 +549,7 @@ public class RosterFlat
 		// If the roster is not yet loaded from DB this causes concurent
 		// access problems
 		synchronized (session) {
-			roster = (Map<BareJID, RosterElement>) session.getCommonSessionData(ROSTER);
+			roster = session.getCommonSessionData(ROSTER_SLOT);
 			if (roster == null) {
 				roster = loadUserRoster(session);
 			}
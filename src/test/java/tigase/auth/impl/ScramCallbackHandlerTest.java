@@ -0,0 +1,99 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.auth.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import tigase.db.DBInitException;
+import tigase.db.TigaseDBException;
+import tigase.db.xml.XMLRepository;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.impl.ProcessorTestCase;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.NameCallback;
+import javax.security.sasl.AuthorizeCallback;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+public class ScramCallbackHandlerTest
+		extends ProcessorTestCase {
+
+	@Test
+	public void testDerivedCredentialsPersisted() throws Exception {
+		RecordingRepository repo = createRepository(true);
+		authorize(repo);
+		Assert.assertEquals(1, repo.updatedPasswords.size());
+		Assert.assertEquals("password", repo.updatedPasswords.get(0));
+	}
+
+	@Test
+	public void testDerivedCredentialsNotPersistedWithoutEncoder() throws Exception {
+		RecordingRepository repo = createRepository(false);
+		authorize(repo);
+		Assert.assertTrue(repo.updatedPasswords.isEmpty());
+	}
+
+	private RecordingRepository createRepository(boolean scramEncoded) throws DBInitException, TigaseDBException {
+		RecordingRepository repo = new RecordingRepository(scramEncoded);
+		repo.initRepository("memory://xmlRepo-" + UUID.randomUUID() + "?autoCreateUser=true", null);
+		repo.addUser(BareJID.bareJIDInstanceNS("user@example.com"), "password");
+		repo.updatedPasswords.clear();
+		return repo;
+	}
+
+	private void authorize(RecordingRepository repo) throws Exception {
+		XMPPResourceConnection session = getSession(JID.jidInstance("c2s@example.com/" + UUID.randomUUID()),
+													JID.jidInstance("user@example.com/res"), false);
+		ScramCallbackHandler handler = new ScramCallbackHandler();
+		handler.setAuthRepository(repo);
+		handler.setDomain("example.com");
+		handler.setMechanismName("SCRAM-SHA-1");
+		handler.setSession(session);
+		handler.setPersistDerivedCredentials(true);
+
+		AuthorizeCallback authorizeCallback = new AuthorizeCallback("user@example.com", "user@example.com");
+		handler.handle(new Callback[]{new NameCallback("user", "user"), authorizeCallback});
+		Assert.assertTrue(authorizeCallback.isAuthorized());
+	}
+
+	private static class RecordingRepository
+			extends XMLRepository {
+
+		private final boolean scramEncoded;
+		private final List<String> updatedPasswords = new ArrayList<>();
+
+		private RecordingRepository(boolean scramEncoded) {
+			this.scramEncoded = scramEncoded;
+		}
+
+		@Override
+		public boolean isMechanismEncoded(String domain, String mechanism) {
+			return scramEncoded && "SCRAM-SHA-1".equals(mechanism);
+		}
+
+		@Override
+		public void updateCredential(BareJID user, String credentialId, String password) throws TigaseDBException {
+			updatedPasswords.add(password);
+			super.updateCredential(user, credentialId, password);
+		}
+	}
+}
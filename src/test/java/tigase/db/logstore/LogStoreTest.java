@@ -0,0 +1,295 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.logstore;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import tigase.db.UserExistsException;
+import tigase.db.UserNotFoundException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+public class LogStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testUserData() throws Exception {
+		LogStore store = open(folder.getRoot().toPath());
+		store.addUser("user@example.com");
+		try {
+			store.addUser("user@example.com");
+			Assert.fail("User should already exist");
+		} catch (UserExistsException ex) {
+			// expected
+		}
+
+		store.setData("user@example.com", null, "password", new String[]{"secret"}, false, false);
+		store.setData("user@example.com", "/roster/", "item", new String[]{"a", "b"}, false, false);
+		store.setData("user@example.com", "roster", "item", new String[]{"c"}, true, false);
+		store.setData("user@example.com", "privacy/list1", "default", new String[]{"true"}, false, false);
+		store.setData("user@example.com", "privacy/list2", "default", new String[]{"false"}, false, false);
+
+		Assert.assertArrayEquals(new String[]{"secret"}, store.getData("user@example.com", "", "password", false));
+		Assert.assertArrayEquals(new String[]{"a", "b", "c"}, store.getData("user@example.com", "roster", "item", false));
+		Assert.assertNull(store.getData("user@example.com", "roster", "missing", false));
+		Assert.assertEquals(new HashSet<>(Arrays.asList("roster", "privacy")),
+							new HashSet<>(Arrays.asList(store.getSubnodes("user@example.com", null, false))));
+		Assert.assertEquals(new HashSet<>(Arrays.asList("list1", "list2")),
+							new HashSet<>(Arrays.asList(store.getSubnodes("user@example.com", "privacy", false))));
+
+		store.removeData("user@example.com", "privacy/list1", "default");
+		Assert.assertArrayEquals(new String[]{"list2"}, store.getSubnodes("user@example.com", "privacy", false));
+		store.removeSubnode("user@example.com", "privacy");
+		Assert.assertArrayEquals(new String[]{"roster"}, store.getSubnodes("user@example.com", null, false));
+
+		try {
+			store.getData("missing@example.com", null, "password", false);
+			Assert.fail("User should not exist");
+		} catch (UserNotFoundException ex) {
+			// expected
+		}
+		Assert.assertNull(store.getData("missing@example.com", null, "password", true));
+		Assert.assertTrue(store.userExists("missing@example.com"));
+		store.close();
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		Path dir = folder.getRoot().toPath();
+		LogStore store = open(dir);
+		for (int i = 0; i < 100; i++) {
+			String user = "user" + i + "@example.com";
+			store.addUser(user);
+			store.setData(user, null, "password", new String[]{"pass" + i}, false, false);
+			store.setData(user, "roster", "items", new String[]{largeValue(i)}, false, false);
+		}
+		store.setData("user1@example.com", null, "password", new String[]{"changed"}, false, false);
+		store.removeUser("user2@example.com");
+		store.removeData("user3@example.com", "roster", "items");
+		store.close();
+
+		store = open(dir);
+		Assert.assertEquals(99, store.getUsersCount());
+		Assert.assertFalse(store.userExists("user2@example.com"));
+		Assert.assertArrayEquals(new String[]{"changed"}, store.getData("user1@example.com", null, "password", false));
+		Assert.assertArrayEquals(new String[]{largeValue(5)}, store.getData("user5@example.com", "roster", "items", false));
+		Assert.assertNull(store.getData("user3@example.com", "roster", "items", false));
+		Assert.assertNull(store.getSubnodes("user3@example.com", null, false));
+		Assert.assertTrue(store.getGarbageSize() > 0);
+		store.close();
+	}
+
+	@Test
+	public void testCompaction() throws Exception {
+		Path dir = folder.getRoot().toPath();
+		LogStore store = open(dir);
+		for (int i = 0; i < 50; i++) {
+			String user = "user" + i + "@example.com";
+			store.addUser(user);
+			for (int j = 0; j < 20; j++) {
+				store.setData(user, "roster", "items", new String[]{largeValue(j)}, false, false);
+			}
+		}
+		Assert.assertTrue(store.getSegmentsCount() > 1);
+		long size = store.getSize();
+
+		store.compact();
+		Assert.assertTrue(store.getSize() < size / 5);
+		Assert.assertEquals(0, store.getGarbageSize());
+		Assert.assertArrayEquals(new String[]{largeValue(19)}, store.getData("user7@example.com", "roster", "items", false));
+		store.close();
+
+		store = open(dir);
+		Assert.assertEquals(50, store.getUsersCount());
+		Assert.assertArrayEquals(new String[]{largeValue(19)}, store.getData("user7@example.com", "roster", "items", false));
+		store.close();
+	}
+
+	@Test
+	public void testInterruptedCompaction() throws Exception {
+		Path dir = folder.getRoot().toPath();
+		LogStore store = open(dir);
+		for (int i = 0; i < 20; i++) {
+			String user = "user" + i + "@example.com";
+			store.addUser(user);
+			store.setData(user, null, "password", new String[]{"pass" + i}, false, false);
+			store.setData(user, "roster", "items", new String[]{largeValue(i)}, false, false);
+		}
+		store.close();
+
+		Path backup = folder.newFolder("backup").toPath();
+		List<Path> oldSegments = segments(dir);
+		for (Path segment : oldSegments) {
+			Files.copy(segment, backup.resolve(segment.getFileName()));
+		}
+
+		store = open(dir);
+		store.compact();
+		store.close();
+
+		// simulate crash in the middle of compaction: old segments are still there and only a part of the first
+		// compacted segment was written, ending with a torn record
+		List<Path> newSegments = segments(dir);
+		Assert.assertTrue(newSegments.size() > 1);
+		try (FileChannel channel = FileChannel.open(newSegments.get(0), StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+		for (Path segment : newSegments.subList(1, newSegments.size())) {
+			Files.delete(segment);
+		}
+		for (Path segment : oldSegments) {
+			Files.copy(backup.resolve(segment.getFileName()), segment);
+		}
+
+		store = open(dir);
+		Assert.assertEquals(20, store.getUsersCount());
+		for (int i = 0; i < 20; i++) {
+			String user = "user" + i + "@example.com";
+			Assert.assertArrayEquals(new String[]{"pass" + i}, store.getData(user, null, "password", false));
+			Assert.assertArrayEquals(new String[]{largeValue(i)}, store.getData(user, "roster", "items", false));
+		}
+		store.close();
+	}
+
+	@Test
+	public void testTornRecordDiscarded() throws Exception {
+		Path dir = folder.getRoot().toPath();
+		LogStore store = open(dir);
+		store.addUser("user@example.com");
+		store.setData("user@example.com", null, "key", new String[]{"value1"}, false, false);
+		store.setData("user@example.com", null, "key", new String[]{"value2"}, false, false);
+		store.close();
+
+		Path segment = Files.list(dir).filter(p -> p.toString().endsWith(".log")).findFirst().get();
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+
+		store = open(dir);
+		Assert.assertArrayEquals(new String[]{"value1"}, store.getData("user@example.com", null, "key", false));
+		store.setData("user@example.com", null, "key", new String[]{"value3"}, false, false);
+		store.close();
+
+		store = open(dir);
+		Assert.assertArrayEquals(new String[]{"value3"}, store.getData("user@example.com", null, "key", false));
+		store.close();
+	}
+
+	@Test
+	public void testCorruptedSegmentNotOpened() throws Exception {
+		Path dir = folder.getRoot().toPath();
+		LogStore store = open(dir);
+		for (int i = 0; i < 20; i++) {
+			String user = "user" + i + "@example.com";
+			store.addUser(user);
+			store.setData(user, "roster", "items", new String[]{largeValue(i)}, false, false);
+		}
+		Assert.assertTrue(store.getSegmentsCount() > 1);
+		store.close();
+
+		Path segment = Files.list(dir).filter(p -> p.toString().endsWith(".log")).sorted().findFirst().get();
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 0}), channel.size() / 2);
+		}
+		long size = Files.size(segment);
+
+		try {
+			open(dir);
+			Assert.fail("Store with corrupted segment should not be opened");
+		} catch (IOException ex) {
+			// expected
+		}
+		// corrupted segment is not truncated and the store lock is released
+		Assert.assertEquals(size, Files.size(segment));
+		try {
+			open(dir);
+			Assert.fail("Store with corrupted segment should not be opened");
+		} catch (IOException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testConcurrentModifications() throws Exception {
+		Path dir = folder.getRoot().toPath();
+		LogStore concurrentStore = open(dir);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			final int thread = t;
+			futures.add(executor.submit(() -> {
+				for (int i = 0; i < 500; i++) {
+					String user = "user" + thread + "-" + i + "@example.com";
+					concurrentStore.addUser(user);
+					concurrentStore.setData(user, "roster", "items", new String[]{largeValue(i)}, false, false);
+					concurrentStore.setData(user, "roster", "items", new String[]{"item" + i}, true, false);
+					if (i % 10 == 0) {
+						concurrentStore.compact();
+					}
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		concurrentStore.close();
+
+		LogStore store = open(dir);
+		Assert.assertEquals(4000, store.getUsersCount());
+		for (String user : store.getUsers().stream().limit(100).collect(Collectors.toList())) {
+			String[] items = store.getData(user, "roster", "items", false);
+			Assert.assertEquals(2, items.length);
+		}
+		store.close();
+	}
+
+	private static List<Path> segments(Path dir) throws IOException {
+		return Files.list(dir).filter(p -> p.toString().endsWith(".log")).sorted().collect(Collectors.toList());
+	}
+
+	private static LogStore open(Path dir) throws IOException {
+		return new LogStore(dir, 16, 16 * 1024, 32, false, 0.5f, Long.MAX_VALUE);
+	}
+
+	private static String largeValue(int i) {
+		StringBuilder sb = new StringBuilder();
+		for (int j = 0; j < 20; j++) {
+			sb.append("<item jid='contact").append(i).append('-').append(j).append("@example.com'/>");
+		}
+		return sb.toString();
+	}
+}
@@ -19,6 +19,7 @@ package tigase.io;
 
 import org.junit.Test;
 
+import javax.net.ssl.SSLContext;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -67,4 +68,31 @@ public class SSLContextContainerTest {
 		assertTrue(contexts.containsKey("*.two.com"));
 	}
 
+	@Test
+	public void testSessionContextConfiguration() throws Exception {
+		SSLContext sslContext = SSLContext.getInstance("TLS");
+		sslContext.init(null, null, null);
+
+		new SSLContextContainer().configureSessionContext(sslContext);
+
+		assertEquals(20480, sslContext.getServerSessionContext().getSessionCacheSize());
+		assertEquals(3600, sslContext.getServerSessionContext().getSessionTimeout());
+		assertEquals(20480, sslContext.getClientSessionContext().getSessionCacheSize());
+	}
+
+	@Test
+	public void testResumptionRate() {
+		TLSSessionStatistics statistics = new TLSSessionStatistics();
+		assertEquals(0, statistics.getResumptionRate(), 0.001);
+
+		statistics.handshakeCompleted(false);
+		statistics.handshakeCompleted(true);
+		statistics.handshakeCompleted(true);
+		statistics.handshakeCompleted(true);
+
+		assertEquals(1, statistics.getFullHandshakes());
+		assertEquals(3, statistics.getResumedHandshakes());
+		assertEquals(75, statistics.getResumptionRate(), 0.001);
+	}
+
 }
@@ -0,0 +1,91 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.io;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TLSHandshakeExecutorTest {
+
+	@Test
+	public void testTasksExecutedInOrderBeforeCompletion() throws Exception {
+		TLSHandshakeExecutor executor = new TLSHandshakeExecutor(2, 10);
+		List<String> executed = new CopyOnWriteArrayList<>();
+		CountDownLatch completed = new CountDownLatch(1);
+
+		Assert.assertTrue(executor.isEnabled());
+		Assert.assertTrue(executor.execute(Arrays.asList(() -> executed.add("1"), () -> executed.add("2")), () -> {
+			executed.add("completed");
+			completed.countDown();
+		}));
+
+		Assert.assertTrue(completed.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(Arrays.asList("1", "2", "completed"), executed);
+	}
+
+	@Test
+	public void testRejectWhenOverloaded() throws Exception {
+		TLSHandshakeExecutor executor = new TLSHandshakeExecutor(1, 1);
+		CountDownLatch blocked = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Runnable noop = () -> {
+		};
+
+		Assert.assertTrue(executor.execute(Collections.singletonList(() -> {
+			blocked.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}), noop));
+		Assert.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+		// single thread is busy, single slot in the queue is still free
+		Assert.assertTrue(executor.execute(Collections.singletonList(noop), noop));
+		Assert.assertFalse(executor.execute(Collections.singletonList(noop), noop));
+		release.countDown();
+	}
+
+	@Test
+	public void testRejectWhenUnregistered() {
+		TLSHandshakeExecutor executor = new TLSHandshakeExecutor(1, 10);
+		Runnable noop = () -> {
+		};
+
+		executor.beforeUnregister();
+		Assert.assertFalse(executor.isEnabled());
+		Assert.assertFalse(executor.execute(Collections.singletonList(noop), noop));
+	}
+
+	@Test
+	public void testDisabled() {
+		TLSHandshakeExecutor executor = new TLSHandshakeExecutor(0, 10);
+		List<String> executed = new CopyOnWriteArrayList<>();
+
+		Assert.assertFalse(executor.isEnabled());
+		executor.executeInline(Arrays.asList(() -> executed.add("1"), () -> executed.add("2")));
+		Assert.assertEquals(Arrays.asList("1", "2"), executed);
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.kernel;
+
+import org.junit.Test;
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.Inject;
+import tigase.kernel.beans.ParallelInitialization;
+import tigase.kernel.core.BeanConfig;
+import tigase.kernel.core.Kernel;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ParallelInitializationKernelTest {
+
+	private static CountDownLatch latch;
+
+	@Test
+	public void testParallelInitialization() {
+		latch = new CountDownLatch(2);
+
+		Kernel krnl = new Kernel();
+		krnl.setParallelInitializationThreads(2);
+		krnl.registerBean("slow1").asClass(SlowBean.class).exec();
+		krnl.registerBean("slow2").asClass(SlowBean.class).exec();
+		krnl.registerBean(DependentBean.class).exec();
+
+		DependentBean dependent = krnl.getInstance(DependentBean.class);
+
+		SlowBean slow1 = krnl.getInstance("slow1");
+		SlowBean slow2 = krnl.getInstance("slow2");
+		// both beans had to be initialized at the same time to pass the latch
+		assertTrue(slow1.concurrent);
+		assertTrue(slow2.concurrent);
+		assertTrue(dependent.dependenciesInitialized);
+		assertTrue(krnl.getDependencyManager().getBeanConfig("slow1").getInitializationTime() >= 0);
+
+		krnl.shutdown();
+	}
+
+	@Test
+	public void testSequentialInitialization() {
+		latch = new CountDownLatch(2);
+
+		Kernel krnl = new Kernel();
+		krnl.registerBean("slow1").asClass(SlowBean.class).exec();
+		krnl.registerBean("slow2").asClass(SlowBean.class).exec();
+		krnl.registerBean(DependentBean.class).exec();
+
+		DependentBean dependent = krnl.getInstance(DependentBean.class);
+
+		assertTrue(dependent.dependenciesInitialized);
+		assertFalse(((SlowBean) krnl.getInstance("slow1")).concurrent &&
+							((SlowBean) krnl.getInstance("slow2")).concurrent);
+	}
+
+	@Test
+	public void testFailedParallelInitialization() {
+		Kernel krnl = new Kernel();
+		krnl.setParallelInitializationThreads(2);
+		krnl.registerBean("failing").asClass(FailingBean.class).exec();
+
+		try {
+			krnl.getInstance("failing");
+			fail("Initialization of bean should fail");
+		} catch (KernelException ex) {
+			// expected
+		}
+
+		BeanConfig bc = krnl.getDependencyManager().getBeanConfig("failing");
+		assertEquals(BeanConfig.State.registered, bc.getState());
+		assertNull(krnl.getInstanceIfExistsOr("failing", name -> null));
+
+		krnl.shutdown();
+	}
+
+	@ParallelInitialization
+	public static class FailingBean
+			implements Initializable {
+
+		@Override
+		public void initialize() {
+			throw new IllegalStateException("Failing on purpose");
+		}
+	}
+
+	@ParallelInitialization
+	public static class SlowBean
+			implements Initializable {
+
+		private volatile boolean concurrent = false;
+		private volatile boolean initialized = false;
+
+		@Override
+		public void initialize() {
+			latch.countDown();
+			try {
+				concurrent = latch.await(200, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				concurrent = false;
+			}
+			initialized = true;
+		}
+	}
+
+	@Bean(name = "dependent", active = true)
+	public static class DependentBean
+			implements Initializable {
+
+		private boolean dependenciesInitialized = false;
+		@Inject(bean = "slow1")
+		private SlowBean slow1;
+		@Inject(bean = "slow2")
+		private SlowBean slow2;
+
+		@Override
+		public void initialize() {
+			dependenciesInitialized = slow1.initialized && slow2.initialized;
+		}
+	}
+}
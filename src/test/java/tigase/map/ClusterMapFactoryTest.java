@@ -20,8 +20,15 @@ package tigase.map;
 import org.junit.Assert;
 import org.junit.Test;
 import tigase.eventbus.EventBus;
+import tigase.eventbus.component.stores.Subscription;
 import tigase.eventbus.impl.EventBusImplementation;
+import tigase.xml.Element;
+import tigase.xmpp.jid.JID;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class ClusterMapFactoryTest {
@@ -93,10 +100,11 @@ public class ClusterMapFactoryTest {
 
 		final Map<String, String> map = factory.createMap("test", String.class, String.class);
 
-		eventBus.addListener(ClusterMapFactory.ElementAddEvent.class, event -> {
+		eventBus.addListener(ClusterMapFactory.ElementsChangedEvent.class, event -> {
 			received[0] = true;
-			Assert.assertEquals("kluczyk", event.getKey());
-			Assert.assertEquals("wartosc", event.getValue());
+			Element item = event.getItems().getChildren().get(0);
+			Assert.assertEquals("kluczyk", item.getAttributeStaticStr("key"));
+			Assert.assertEquals("wartosc", item.getAttributeStaticStr("value"));
 			Assert.assertEquals(((DMap<?,?>) map).getUid(), event.getUid());
 
 			synchronized (mutex) {
@@ -197,4 +205,155 @@ public class ClusterMapFactoryTest {
 		}
 		Assert.assertTrue(received[0]);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testBatchedChanges() {
+		final ClusterMapFactory factory = createFactory("node1");
+		factory.setBatchDelay(60_000);
+		factory.setBatchSize(3);
+
+		final List<ClusterMapFactory.ElementsChangedEvent> events = new ArrayList<>();
+		factory.getEventBus().addListener(ClusterMapFactory.ElementsChangedEvent.class, events::add);
+
+		final Map<String, String> map = factory.createMap("batched", String.class, String.class);
+		map.put("a", "1");
+		map.put("a", "2");
+		map.put("b", "1");
+		Assert.assertTrue(events.isEmpty());
+		map.remove("b");
+		map.put("c", "1");
+
+		Assert.assertEquals(1, events.size());
+		List<Element> items = events.get(0).getItems().getChildren();
+		Assert.assertEquals(3, items.size());
+		Assert.assertEquals("2", items.get(0).getAttributeStaticStr("value"));
+		Assert.assertEquals("b", items.get(1).getAttributeStaticStr("key"));
+		Assert.assertNull(items.get(1).getAttributeStaticStr("value"));
+	}
+
+	@Test
+	public void testDeltasAndSnapshotConverge() {
+		final ClusterMapFactory factory1 = createFactory("node1");
+		final ClusterMapFactory factory2 = createFactory("node2");
+
+		final List<ClusterMapFactory.ElementsChangedEvent> changes1 = new ArrayList<>();
+		factory1.getEventBus().addListener(ClusterMapFactory.ElementsChangedEvent.class, changes1::add);
+		final List<ClusterMapFactory.MapSnapshotEvent> snapshots1 = new ArrayList<>();
+		factory1.getEventBus().addListener(ClusterMapFactory.MapSnapshotEvent.class, snapshots1::add);
+		final List<ClusterMapFactory.MapSnapshotEvent> snapshots2 = new ArrayList<>();
+		factory2.getEventBus().addListener(ClusterMapFactory.MapSnapshotEvent.class, snapshots2::add);
+
+		final Map<String, String> map1 = factory1.createMap("sync", String.class, String.class);
+		for (int i = 0; i < 10; i++) {
+			map1.put("key" + i, "value" + i);
+		}
+		map1.remove("key0");
+
+		// node2 was not connected and made a concurrent change
+		final Map<String, String> map2 = factory2.createMap("sync", String.class, String.class);
+		map2.put("key1", "changed");
+		map2.put("key0", "resurrected");
+
+		// deltas sent by node1 while node2 was still starting are lost, node2 receives snapshot after connecting
+		Assert.assertFalse(changes1.isEmpty());
+		factory1.sendSnapshot((DMap<?, ?>) map1, null);
+		factory2.sendSnapshot((DMap<?, ?>) map2, null);
+		Assert.assertEquals(4, snapshots1.size());
+		Assert.assertTrue(snapshots1.get(3).isLast());
+
+		snapshots1.forEach(factory2::onMapSnapshot);
+		snapshots2.forEach(factory1::onMapSnapshot);
+
+		Assert.assertEquals(new HashMap<>(map1), new HashMap<>(map2));
+		for (String key : map1.keySet()) {
+			Assert.assertEquals(((DMap<?, ?>) map1).getVersion(key), ((DMap<?, ?>) map2).getVersion(key));
+		}
+	}
+
+	@Test
+	public void testLegacyEventsUntilAllNodesUpgraded() {
+		final ClusterMapFactory factory = createFactory("node1");
+		final List<ClusterMapFactory.ElementAddEvent> added = new ArrayList<>();
+		factory.getEventBus().addListener(ClusterMapFactory.ElementAddEvent.class, added::add);
+		final List<ClusterMapFactory.ElementRemoveEvent> removed = new ArrayList<>();
+		factory.getEventBus().addListener(ClusterMapFactory.ElementRemoveEvent.class, removed::add);
+
+		final Map<String, String> map = factory.createMap("legacy", String.class, String.class);
+		map.put("a", "1");
+		Assert.assertTrue(added.isEmpty());
+
+		factory.nodeConnected("node2");
+		Assert.assertTrue(factory.isLegacyNodeConnected());
+		map.put("b", "2");
+		map.remove("a");
+		Assert.assertEquals(1, added.size());
+		Assert.assertEquals("b", added.get(0).getKey());
+		Assert.assertEquals("2", added.get(0).getValue());
+		Assert.assertEquals("node1", added.get(0).getNode());
+		Assert.assertEquals(1, removed.size());
+		Assert.assertEquals("a", removed.get(0).getKey());
+
+		ClusterMapFactory.MapReplicationVersionEvent version = new ClusterMapFactory.MapReplicationVersionEvent();
+		version.setNode("node2");
+		factory.onReplicationVersion(version);
+		Assert.assertFalse(factory.isLegacyNodeConnected());
+		map.put("c", "3");
+		Assert.assertEquals(1, added.size());
+
+		factory.nodeDisconnected("node2");
+		factory.nodeConnected("node2");
+		Assert.assertTrue(factory.isLegacyNodeConnected());
+	}
+
+	@Test
+	public void testLegacyEventsOfUpgradedNodesIgnored() {
+		final ClusterMapFactory factory = createFactory("node1");
+		final Map<String, String> map = factory.createMap("legacy", String.class, String.class);
+
+		ClusterMapFactory.ElementAddEvent event = new ClusterMapFactory.ElementAddEvent();
+		event.setUid("legacy");
+		event.setKey("a");
+		event.setValue("1");
+		event.setNode("node2");
+		factory.onMapElementAdd(event);
+		Assert.assertFalse(map.containsKey("a"));
+
+		event.setNode(null);
+		factory.onMapElementAdd(event);
+		Assert.assertEquals("1", map.get("a"));
+	}
+
+	@Test
+	public void testSnapshotRoutedToRequestingNode() throws Exception {
+		final ClusterMapFactory factory = createFactory("node1");
+		final List<Subscription> subscriptions = new ArrayList<>();
+		for (String node : new String[]{"node2", "node3"}) {
+			Subscription s = new Subscription(JID.jidInstance("eventbus@" + node));
+			s.setInClusterSubscription(true);
+			subscriptions.add(s);
+		}
+		final Subscription local = new Subscription(JID.jidInstance("eventbus@node1"));
+		subscriptions.add(local);
+
+		ClusterMapFactory.MapSnapshotEvent event = new ClusterMapFactory.MapSnapshotEvent();
+		event.setUid("snapshot");
+		Assert.assertEquals(3, factory.routeMapSnapshot(event, new ArrayList<>(subscriptions)).size());
+
+		event.setTargetNode("node3");
+		Collection<Subscription> routed = factory.routeMapSnapshot(event, new ArrayList<>(subscriptions));
+		Assert.assertEquals(2, routed.size());
+		Assert.assertTrue(routed.contains(subscriptions.get(1)));
+		Assert.assertTrue(routed.contains(local));
+	}
+
+	private static ClusterMapFactory createFactory(String nodeId) {
+		final ClusterMapFactory factory = new ClusterMapFactory();
+		final EventBusImplementation eventBus = new EventBusImplementation();
+		eventBus.setExecutor(Runnable::run);
+		factory.setEventBus(eventBus);
+		factory.setNodeId(nodeId);
+		factory.setBatchDelay(0);
+		factory.setBatchSize(3);
+		return factory;
+	}
+}
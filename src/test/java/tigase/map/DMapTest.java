@@ -31,26 +31,15 @@ public class DMapTest {
 	public void testBasicOperations() {
 		final Set<String> removedItems = new HashSet<>();
 		final Map<String, String> addedItems = new HashMap<>();
-		final boolean[] cleared = new boolean[]{false};
 
 		final DMap.DMapListener listener = new DMap.DMapListener() {
 			@Override
-			public void onClear(DMap map) {
-				cleared[0] = true;
-			}
-
-			@Override
-			public void onPut(DMap map, Object key, Object value) {
+			public void onPut(DMap map, Object key, Object value, DMap.Version version) {
 				Assert.assertNull(addedItems.put((String) key, (String) value));
 			}
 
 			@Override
-			public void onPutAll(DMap map, Map m) {
-				addedItems.putAll(m);
-			}
-
-			@Override
-			public void onRemove(DMap map, Object key) {
+			public void onRemove(DMap map, Object key, DMap.Version version) {
 				Assert.assertTrue(removedItems.add((String) key));
 			}
 		};
@@ -61,7 +50,7 @@ public class DMapTest {
 		tmp.put("9", "nine");
 		tmp.put("A", "ten");
 
-		Map<String, String> map = new DMap<>("test", listener, String.class, String.class);
+		Map<String, String> map = new DMap<>("test", "node1", listener, String.class, String.class);
 		map.put("1", "one");
 		map.put("2", "two");
 		map.put("3", "three");
@@ -119,11 +108,82 @@ public class DMapTest {
 		Assert.assertEquals(8, map.size());
 		Assert.assertEquals(2, removedItems.size());
 
-		Assert.assertFalse(cleared[0]);
+		Assert.assertTrue(map.containsKey("3"));
+		Assert.assertFalse(map.containsKey("three"));
+
 		map.clear();
-		Assert.assertTrue(cleared[0]);
+		Assert.assertEquals(10, removedItems.size());
 		Assert.assertEquals(0, map.size());
 
 	}
 
+	@Test
+	public void testLocalChangesIncreaseVersion() {
+		DMap<String, String> map = new DMap<>("test", "node1", new NoopListener(), String.class, String.class);
+
+		map.put("a", "1");
+		DMap.Version v1 = map.getVersion("a");
+		map.put("a", "2");
+		DMap.Version v2 = map.getVersion("a");
+		Assert.assertTrue(v2.compareTo(v1) > 0);
+
+		// local clock follows versions received from other nodes
+		Assert.assertTrue(map.merge("b", "x", new DMap.Version(100, "node2")));
+		map.put("a", "3");
+		Assert.assertEquals(101, map.getVersion("a").clock);
+	}
+
+	@Test
+	public void testMergeIsDeterministic() {
+		DMap.Version older = new DMap.Version(5, "node2");
+		DMap.Version newer = new DMap.Version(6, "node1");
+		DMap.Version concurrent = new DMap.Version(6, "node3");
+
+		DMap<String, String> map1 = new DMap<>("test", "node1", new NoopListener(), String.class, String.class);
+		DMap<String, String> map2 = new DMap<>("test", "node2", new NoopListener(), String.class, String.class);
+
+		map1.merge("k", "older", older);
+		map1.merge("k", "newer", newer);
+		map1.merge("k", "concurrent", concurrent);
+
+		map2.merge("k", "concurrent", concurrent);
+		map2.merge("k", "newer", newer);
+		Assert.assertFalse(map2.merge("k", "older", older));
+
+		Assert.assertEquals("concurrent", map1.get("k"));
+		Assert.assertEquals(map1.get("k"), map2.get("k"));
+		Assert.assertEquals(map1.getVersion("k"), map2.getVersion("k"));
+	}
+
+	@Test
+	public void testTombstones() {
+		DMap<String, String> map = new DMap<>("test", "node1", new NoopListener(), String.class, String.class);
+
+		Assert.assertTrue(map.merge("k", "v", new DMap.Version(1, "node2")));
+		Assert.assertTrue(map.merge("k", null, new DMap.Version(2, "node2")));
+		Assert.assertNull(map.get("k"));
+		Assert.assertEquals(1, map.getTombstonesCount());
+
+		// delayed older change must not resurrect removed key
+		Assert.assertFalse(map.merge("k", "v", new DMap.Version(1, "node2")));
+		Assert.assertFalse(map.containsKey("k"));
+
+		Assert.assertEquals(0, map.purgeTombstones(0));
+		Assert.assertEquals(1, map.purgeTombstones(Long.MAX_VALUE));
+		Assert.assertEquals(0, map.getTombstonesCount());
+		Assert.assertNull(map.getVersion("k"));
+	}
+
+	private static class NoopListener
+			implements DMap.DMapListener {
+
+		@Override
+		public void onPut(DMap map, Object key, Object value, DMap.Version version) {
+		}
+
+		@Override
+		public void onRemove(DMap map, Object key, DMap.Version version) {
+		}
+	}
+
 }
\ No newline at end of file
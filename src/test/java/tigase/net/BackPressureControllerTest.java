@@ -0,0 +1,122 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.net;
+
+import org.junit.Assert;
+import org.junit.Test;
+import tigase.server.Priority;
+import tigase.xmpp.XMPPIOService;
+
+public class BackPressureControllerTest {
+
+	private BackPressureController createController() {
+		return new BackPressureController(80, 50, 100, 5000);
+	}
+
+	@Test
+	public void testNotThrottledBelowHighWatermark() {
+		BackPressureController controller = createController();
+		XMPPIOService<Object> service = new XMPPIOService<>();
+
+		controller.update(70, 10, 1000);
+		Assert.assertFalse(controller.isCongested());
+		controller.consume(service, 1000);
+		Assert.assertFalse(service.isReadPaused());
+		Assert.assertTrue(service.waitingToRead());
+	}
+
+	@Test
+	public void testNoisiestConnectionPaused() {
+		BackPressureController controller = createController();
+		XMPPIOService<Object> noisy = new XMPPIOService<>();
+		XMPPIOService<Object> quiet = new XMPPIOService<>();
+
+		// 200 free slots, 100 credits shared by connections reading in the interval
+		controller.update(85, 200, 1000);
+		Assert.assertTrue(controller.isCongested());
+		controller.consume(quiet, 1);
+		controller.consume(noisy, 10);
+		controller.update(85, 200, 1100);
+
+		// two connections were reading, each of them may use 50 credits
+		for (int i = 0; i < 50; i++) {
+			controller.consume(noisy, 1);
+		}
+		Assert.assertFalse(noisy.isReadPaused());
+		controller.consume(noisy, 1);
+		controller.consume(quiet, 1);
+		Assert.assertTrue(noisy.isReadPaused());
+		Assert.assertFalse(noisy.waitingToRead());
+		Assert.assertFalse(quiet.isReadPaused());
+		Assert.assertEquals(1, controller.getPausedCount());
+	}
+
+	@Test
+	public void testPausedWhenCreditsExhausted() {
+		BackPressureController controller = createController();
+		XMPPIOService<Object> service = new XMPPIOService<>();
+
+		controller.update(95, 0, 1000);
+		controller.consume(service, 1);
+		Assert.assertTrue(service.isReadPaused());
+	}
+
+	@Test
+	public void testResumed() {
+		BackPressureController controller = createController();
+		XMPPIOService<Object> first = new XMPPIOService<>();
+		XMPPIOService<Object> second = new XMPPIOService<>();
+
+		controller.update(95, 0, 1000);
+		controller.consume(first, 1);
+		controller.consume(second, 1);
+		Assert.assertEquals(2, controller.getPausedCount());
+
+		// still congested and no credits, connections stay paused until the maximal pause time
+		controller.update(90, 0, 2000);
+		Assert.assertEquals(2, controller.getPausedCount());
+
+		// queues are draining, there are credits for one connection
+		controller.update(85, 2, 3000);
+		Assert.assertFalse(first.isReadPaused());
+		Assert.assertTrue(second.isReadPaused());
+
+		controller.update(85, 0, 6001);
+		Assert.assertFalse(second.isReadPaused());
+		Assert.assertEquals(0, controller.getPausedCount());
+
+		controller.update(95, 0, 7000);
+		controller.consume(first, 1);
+		Assert.assertTrue(first.isReadPaused());
+		controller.update(40, 0, 7100);
+		Assert.assertFalse(controller.isCongested());
+		Assert.assertFalse(first.isReadPaused());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidWatermarksRejected() {
+		new BackPressureController(50, 80, 100, 5000).initialize();
+	}
+
+	@Test
+	public void testCostDependsOnPriority() {
+		Assert.assertEquals(0, BackPressureController.getCost(Priority.HIGH));
+		Assert.assertEquals(1, BackPressureController.getCost(Priority.NORMAL));
+		Assert.assertEquals(2, BackPressureController.getCost(Priority.PRESENCE));
+	}
+}
@@ -180,6 +180,31 @@ public abstract class AbstractMsgRepositoryTest<DS extends DataSource, T>
 		}
 	}
 	
+	@Test
+	public void testStorageOfOfflineMessageWithExpiration2()
+			throws UserNotFoundException, NotAuthorizedException, TigaseStringprepException {
+		Date expire = new Date(System.currentTimeMillis() - 60 * 1000);
+
+		for (int i = 0; i < 5; i++) {
+			Packet message = Message.getMessage(sender, recipient, StanzaType.chat, generateRandomBody(), null, null,
+												UUID.randomUUID().toString());
+			assertTrue(repo.storeMessage(sender, recipient, expire, message.getElement(), null));
+		}
+
+		repo.expiredQueue.clear();
+		repo.earliestOffline = Long.MAX_VALUE;
+
+		List<Element> expired = repo.getMessagesExpired(3, true);
+		assertEquals(3, expired.size());
+		Map<Enum, Long> count = repo.getMessagesCount(recipient);
+		assertEquals(2, count.get(MsgRepository.MSG_TYPES.message).longValue());
+
+		expired = repo.getMessagesExpired(10, true);
+		assertEquals(2, expired.size());
+		count = repo.getMessagesCount(recipient);
+		assertEquals(0, count.size());
+	}
+
 	protected abstract <T> T getMsgId(String msgIdStr);
 
 	@Override
@@ -0,0 +1,138 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.ext.lb;
+
+import org.junit.Assert;
+import org.junit.Test;
+import tigase.server.Packet;
+import tigase.server.ext.ComponentConnection;
+import tigase.server.ext.ComponentIOService;
+import tigase.xml.Element;
+import tigase.xmpp.jid.JID;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class LeastLoadedLBTest {
+
+	private final LeastLoadedLB lb = new LeastLoadedLB();
+
+	@Test
+	public void testLeastLoadedSelected() throws Exception {
+		TestIOService serv1 = new TestIOService();
+		TestIOService serv2 = new TestIOService();
+		List<ComponentConnection> conns = createConnections(serv1, serv2);
+
+		for (int i = 0; i < 5; i++) {
+			serv1.requestSent(createIq("user" + i + "@example.com/res", "get", "req" + i));
+		}
+		Assert.assertEquals(5, serv1.getOutstandingRequests());
+
+		for (int i = 0; i < 10; i++) {
+			Assert.assertSame(serv2, lb.selectConnection(createIq("other" + i + "@example.com/res", "get", "1"), conns));
+		}
+
+		// unsent data counts as load too
+		serv2.waitingBytes = 100 * 1024;
+		Assert.assertSame(serv1, lb.selectConnection(createIq("other@example.com/res", "get", "1"), conns));
+	}
+
+	@Test
+	public void testAffinityWhileRequestInFlight() throws Exception {
+		TestIOService serv1 = new TestIOService();
+		TestIOService serv2 = new TestIOService();
+		List<ComponentConnection> conns = createConnections(serv1, serv2);
+
+		serv1.requestSent(createIq("user@example.com/res", "set", "req1"));
+		serv1.requestSent(createIq("user2@example.com/res", "set", "req1"));
+
+		Assert.assertSame(serv1, lb.selectConnection(createIq("user@example.com/res", "set", "req2"), conns));
+		Assert.assertSame(serv2, lb.selectConnection(createIq("user3@example.com/res", "set", "req1"), conns));
+
+		Packet response = Packet.packetInstance(new Element("iq", new String[]{"from", "to", "id", "type"},
+															new String[]{"muc.example.com", "user@example.com/res",
+																		 "req1", "result"}));
+		serv1.responseReceived(response);
+		Assert.assertFalse(serv1.hasInFlightStanzas(response.getStanzaTo()));
+		Assert.assertEquals(1, serv1.getOutstandingRequests());
+		Assert.assertTrue(serv1.getAverageResponseTime() >= 0);
+
+		Assert.assertEquals(1, serv1.expireRequests(0));
+		Assert.assertEquals(0, serv1.getOutstandingRequests());
+	}
+
+	@Test
+	public void testResultsAreNotTracked() throws Exception {
+		TestIOService serv = new TestIOService();
+
+		serv.requestSent(createIq("user@example.com/res", "result", "req1"));
+		serv.requestSent(createMessage("user@example.com/res", "msg1"));
+		Assert.assertEquals(0, serv.getOutstandingRequests());
+	}
+
+	@Test
+	public void testAffinityAfterMessage() throws Exception {
+		TestIOService serv1 = new TestIOService();
+		TestIOService serv2 = new TestIOService();
+		List<ComponentConnection> conns = createConnections(serv1, serv2);
+
+		// serv1 is more loaded, but the message sent over it still may be processed
+		serv1.requestSent(createIq("user2@example.com/res", "get", "req1"));
+		serv1.requestSent(createMessage("user@example.com/res", "msg1"));
+		Assert.assertTrue(serv1.hasInFlightStanzas(JID.jidInstance("user@example.com/res")));
+		Assert.assertSame(serv1, lb.selectConnection(createMessage("user@example.com/res", "msg2"), conns));
+		Assert.assertSame(serv2, lb.selectConnection(createMessage("user3@example.com/res", "msg1"), conns));
+
+		serv1.expireRequests(0);
+		Assert.assertSame(serv2, lb.selectConnection(createMessage("user3@example.com/res", "msg1"), conns));
+	}
+
+	private static Packet createMessage(String from, String id) throws Exception {
+		return Packet.packetInstance(new Element("message", new String[]{"from", "to", "id"},
+												 new String[]{from, "muc.example.com", id}));
+	}
+
+	private static Packet createIq(String from, String type, String id) throws Exception {
+		return Packet.packetInstance(new Element("iq", new String[]{"from", "to", "id", "type"},
+												 new String[]{from, "muc.example.com", id, type}));
+	}
+
+	private static List<ComponentConnection> createConnections(ComponentIOService... servs) {
+		ComponentConnection[] conns = new ComponentConnection[servs.length];
+		for (int i = 0; i < servs.length; i++) {
+			conns[i] = new ComponentConnection("muc.example.com", servs[i]);
+		}
+		return Arrays.asList(conns);
+	}
+
+	private static class TestIOService
+			extends ComponentIOService {
+
+		private int waitingBytes = 0;
+
+		@Override
+		public boolean isConnected() {
+			return true;
+		}
+
+		@Override
+		public int waitingToSendSize() {
+			return waitingBytes;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.filters;
+
+import org.junit.Assert;
+import org.junit.Test;
+import tigase.server.Packet;
+import tigase.server.QueueType;
+import tigase.stats.StatisticsList;
+import tigase.xml.Element;
+import tigase.xmpp.jid.JID;
+
+import java.util.logging.Level;
+
+public class PacketCounterTest {
+
+	private static Packet[] createPackets() {
+		JID from = JID.jidInstanceNS("user1@example.com/res");
+		JID to = JID.jidInstanceNS("user2@example.com/res");
+		Element ping = new Element("iq", new Element[]{new Element("ping", new String[]{"xmlns"},
+																	 new String[]{"urn:xmpp:ping"})},
+								   new String[]{"type", "id"}, new String[]{"get", "1"});
+		Element roster = new Element("iq", new Element[]{new Element("query", new String[]{"xmlns"},
+																	   new String[]{"jabber:iq:roster"})},
+									 new String[]{"type", "id"}, new String[]{"get", "2"});
+		Element sm = new Element("r", new String[]{"xmlns"}, new String[]{"urn:xmpp:sm:3"});
+		return new Packet[]{Packet.packetInstance(new Element("message"), from, to),
+							Packet.packetInstance(new Element("presence"), from, to),
+							Packet.packetInstance(ping, from, to), Packet.packetInstance(roster, from, to),
+							Packet.packetInstance(sm, from, to)};
+	}
+
+	@Test
+	public void testConcurrentCounting() throws InterruptedException {
+		PacketCounter counter = new PacketCounter(true);
+		counter.init("sess-man", QueueType.IN_QUEUE);
+		Packet[] packets = createPackets();
+		int iterations = 10000;
+
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(() -> {
+				for (int j = 0; j < iterations; j++) {
+					for (Packet packet : packets) {
+						counter.filter(packet);
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		long expected = (long) threads.length * iterations;
+		StatisticsList list = new StatisticsList(Level.FINEST);
+		counter.getStatistics(list);
+
+		Assert.assertEquals(expected * packets.length, list.getValue("sess-man", "IN_QUEUE processed", -1L));
+		Assert.assertEquals(expected, list.getValue("sess-man", "IN_QUEUE processed messages", -1L));
+		Assert.assertEquals(expected, list.getValue("sess-man", "IN_QUEUE processed presences", -1L));
+		Assert.assertEquals(expected, list.getValue("sess-man", "IN_QUEUE processed other", -1L));
+		Assert.assertEquals(2 * expected, list.getValue("sess-man", "IN_QUEUE processed IQ", -1L));
+		Assert.assertEquals(expected, list.getValue("sess-man", "IN_QUEUE processed IQ urn:xmpp:ping", -1L));
+		Assert.assertEquals(expected, list.getValue("sess-man", "IN_QUEUE processed IQ jabber:iq:roster", -1L));
+		Assert.assertEquals(expected, list.getValue("sess-man", "IN_QUEUE processed other urn:xmpp:sm:3 r", -1L));
+	}
+}
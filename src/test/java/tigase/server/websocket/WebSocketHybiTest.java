@@ -24,11 +24,14 @@ import tigase.util.Base64;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
@@ -70,7 +73,187 @@ public class WebSocketHybiTest
 		ByteBuffer tmp1 = maskFrame(tmp);
 		ByteBuffer decoded = impl.decodeFrame(io, tmp1);
 		Assert.assertArrayEquals("Data before encoding do not match data after decoding", input.getBytes(),
-								 decoded.array());
+								 toArray(decoded));
+	}
+
+	@Test
+	public void testFrameEncodingWithReservedHeader() throws IOException {
+		String input = "<test-data><subdata/></test-data>";
+		final List<ByteBuffer> written = new ArrayList<>();
+		WebSocketXMPPIOService<Object> io = new WebSocketXMPPIOService<Object>(
+				new WebSocketProtocolIfc[]{new WebSocketHybi()}) {
+
+			@Override
+			protected void writeBytes(ByteBuffer data) {
+				written.add(data);
+			}
+
+		};
+		ByteBuffer buf = ByteBuffer.allocate(impl.getFrameHeaderReserve() + input.length());
+		buf.position(impl.getFrameHeaderReserve());
+		buf.put(input.getBytes());
+		buf.flip();
+		buf.position(impl.getFrameHeaderReserve());
+		impl.encodeFrameAndWrite(io, buf);
+
+		assertEquals("Frame header and payload should be written as a single buffer", 1, written.size());
+		ByteBuffer frame = written.get(0);
+		assertEquals((byte) 0x81, frame.get());
+		assertEquals((byte) input.length(), frame.get());
+		Assert.assertArrayEquals(input.getBytes(), toArray(frame));
+	}
+
+	@Test
+	public void testFramesOfTypicalSizes() throws IOException {
+		final List<ByteBuffer> written = new ArrayList<>();
+		WebSocketXMPPIOService<Object> io = new WebSocketXMPPIOService<Object>(
+				new WebSocketProtocolIfc[]{new WebSocketHybi()}) {
+
+			@Override
+			protected void writeBytes(ByteBuffer data) {
+				written.add(data);
+			}
+
+		};
+		io.maskingKey = new byte[4];
+
+		for (int size : new int[]{128, 512, 2048, 70000}) {
+			ByteBuffer frame = createMaskedFrame(size);
+			ByteBuffer decoded = impl.decodeFrame(io, frame);
+			assertEquals(size, decoded.remaining());
+			assertFalse(frame.hasRemaining());
+			assertSame("Payload should be a view of the received frame", frame.array(), decoded.array());
+			for (int i = 0; i < size; i++) {
+				assertEquals((byte) 'a', decoded.get(decoded.position() + i));
+			}
+
+			written.clear();
+			ByteBuffer payload = ByteBuffer.allocate(impl.getFrameHeaderReserve() + size);
+			payload.position(impl.getFrameHeaderReserve());
+			payload.put(toArray(decoded));
+			payload.flip();
+			payload.position(impl.getFrameHeaderReserve());
+			impl.encodeFrameAndWrite(io, payload);
+
+			assertEquals(1, written.size());
+			ByteBuffer encoded = written.get(0);
+			assertEquals((byte) 0x81, encoded.get());
+			byte length = encoded.get();
+			if (size <= 0xFFFF) {
+				assertEquals(126, length);
+				assertEquals(size, encoded.getShort() & 0xFFFF);
+			} else {
+				assertEquals(127, length);
+				assertEquals(size, encoded.getLong());
+			}
+			Assert.assertArrayEquals(toArray(decoded), toArray(encoded));
+		}
+	}
+
+	@Test
+	public void testUnmask() {
+		byte[] maskingKey = {0x12, 0x34, 0x56, 0x78};
+		byte[] data = new byte[37];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+			ByteBuffer buf = ByteBuffer.allocate(data.length + 3).order(order);
+			buf.position(3);
+			buf.put(data);
+			WebSocketHybi.unmask(buf, 3, data.length, maskingKey);
+			for (int i = 0; i < data.length; i++) {
+				assertEquals((byte) (data[i] ^ maskingKey[i % 4]), buf.get(3 + i));
+			}
+			WebSocketHybi.unmask(buf, 3, data.length, maskingKey);
+			buf.flip();
+			buf.position(3);
+			Assert.assertArrayEquals(data, toArray(buf));
+		}
+	}
+
+	@Test
+	public void testCompressedFrameEncodingDecoding() throws IOException {
+		PerMessageDeflate perMessageDeflate = new PerMessageDeflate();
+		final ByteBuffer tmp = ByteBuffer.allocate(1024);
+		WebSocketXMPPIOService<Object> io = new WebSocketXMPPIOService<Object>(
+				new WebSocketProtocolIfc[]{new WebSocketHybi()}) {
+
+			@Override
+			protected void writeBytes(ByteBuffer data) {
+				tmp.put(data);
+			}
+
+		};
+		io.maskingKey = new byte[4];
+		io.deflateContext = perMessageDeflate.negotiate("permessage-deflate; client_max_window_bits");
+
+		for (int i = 0; i < 2; i++) {
+			String input = "<message to='user@example.com'><body>Test message " + i +
+					" - test message - test message - test message</body></message>";
+			tmp.clear();
+			impl.encodeFrameAndWrite(io, ByteBuffer.wrap(input.getBytes()));
+			tmp.flip();
+			assertEquals("RSV1 bit not set for compressed frame", (byte) 0xC1, tmp.get(0));
+			assertTrue("Frame was not compressed", tmp.remaining() < input.length());
+			ByteBuffer decoded = impl.decodeFrame(io, maskFrame(tmp));
+			byte[] data = new byte[decoded.remaining()];
+			decoded.get(data);
+			Assert.assertArrayEquals("Data before compression do not match data after decompression",
+									 input.getBytes(), data);
+		}
+	}
+
+	@Test
+	public void testCompressedContinuationFrameRejected() throws IOException {
+		WebSocketXMPPIOService<Object> io = new WebSocketXMPPIOService<Object>(
+				new WebSocketProtocolIfc[]{new WebSocketHybi()}) {
+
+			@Override
+			protected void writeBytes(ByteBuffer data) {
+			}
+
+		};
+		io.maskingKey = new byte[4];
+		io.deflateContext = new PerMessageDeflate().negotiate("permessage-deflate");
+
+		// first frame of a fragmented compressed message
+		ByteBuffer frame = ByteBuffer.allocate(3);
+		frame.put((byte) 0x41);
+		frame.put((byte) 0x01);
+		frame.put((byte) 0x00);
+		frame.flip();
+		assertNotNull(impl.decodeFrame(io, maskFrame(frame)));
+		assertNull(io.getSessionData().get("close-code"));
+
+		// continuation frame with RSV1 bit set
+		frame = ByteBuffer.allocate(3);
+		frame.put((byte) 0xC0);
+		frame.put((byte) 0x01);
+		frame.put((byte) 0x00);
+		frame.flip();
+		assertNull(impl.decodeFrame(io, maskFrame(frame)));
+		assertEquals(1003, io.getSessionData().get("close-code"));
+	}
+
+	@Test
+	public void testPerMessageDeflateNegotiation() {
+		PerMessageDeflate perMessageDeflate = new PerMessageDeflate();
+		assertNull(perMessageDeflate.negotiate(null));
+		assertNull(perMessageDeflate.negotiate("x-webkit-deflate-frame"));
+		assertEquals("permessage-deflate", perMessageDeflate.negotiate("permessage-deflate").getResponse());
+		// window size of Deflater cannot be limited, so only second offer is acceptable
+		assertEquals("permessage-deflate; server_no_context_takeover", perMessageDeflate.negotiate(
+				"permessage-deflate; server_max_window_bits=10, permessage-deflate; server_no_context_takeover")
+				.getResponse());
+		assertNull(perMessageDeflate.negotiate("permessage-deflate; unknown_param"));
+
+		perMessageDeflate.setClientMaxWindowBits(10);
+		perMessageDeflate.setClientNoContextTakeover(true);
+		assertEquals("permessage-deflate; client_no_context_takeover; client_max_window_bits=10",
+					 perMessageDeflate.negotiate("permessage-deflate; client_max_window_bits").getResponse());
+		assertEquals("permessage-deflate; client_no_context_takeover; client_max_window_bits=9",
+					 perMessageDeflate.negotiate("permessage-deflate; client_max_window_bits=\"9\"").getResponse());
 	}
 
 	@Test
@@ -164,10 +347,10 @@ public class WebSocketHybiTest
 		io.maskingKey = new byte[4];
 		ByteBuffer decoded = impl.decodeFrame(io, tmp);
 		Assert.assertArrayEquals("Data of first frame before encoding do not match data after decoding",
-								 input1.getBytes(), decoded.array());
+								 input1.getBytes(), toArray(decoded));
 		decoded = impl.decodeFrame(io, tmp);
 		Assert.assertArrayEquals("Data of second frame before encoding do not match data after decoding",
-								 input2.getBytes(), decoded.array());
+								 input2.getBytes(), toArray(decoded));
 	}
 
 	@Test
@@ -198,14 +381,14 @@ public class WebSocketHybiTest
 		ByteBuffer decoded = impl.decodeFrame(io, tmp);
 		Assert.assertNotNull(decoded);
 		Assert.assertArrayEquals("Data of first frame before encoding do not match data after decoding", new byte[0],
-								 decoded.array());
+								 toArray(decoded));
 		tmp2.flip();
 		Assert.assertNotEquals("PONG frame not sent!", 0, tmp2.remaining());
 		assertEquals("PONG frame not sent!", (byte) 0x8A, tmp2.get(0));
 
 		decoded = impl.decodeFrame(io, tmp);
 		Assert.assertArrayEquals("Data of second frame before encoding do not match data after decoding",
-								 input2.getBytes(), decoded.array());
+								 input2.getBytes(), toArray(decoded));
 
 	}
 
@@ -219,6 +402,31 @@ public class WebSocketHybiTest
 		impl = null;
 	}
 
+	private static byte[] toArray(ByteBuffer buf) {
+		byte[] data = new byte[buf.remaining()];
+		buf.duplicate().get(data);
+		return data;
+	}
+
+	private static ByteBuffer createMaskedFrame(int size) {
+		byte[] maskingKey = {0x12, 0x34, 0x56, 0x78};
+		ByteBuffer frame = ByteBuffer.allocate(size + 14);
+		frame.put((byte) 0x81);
+		if (size <= 0xFFFF) {
+			frame.put((byte) 0xFE);
+			frame.putShort((short) size);
+		} else {
+			frame.put((byte) 0xFF);
+			frame.putLong(size);
+		}
+		frame.put(maskingKey);
+		for (int i = 0; i < size; i++) {
+			frame.put((byte) ('a' ^ maskingKey[i % 4]));
+		}
+		frame.flip();
+		return frame;
+	}
+
 	private ByteBuffer maskFrame(ByteBuffer data) {
 		ByteBuffer tmp = ByteBuffer.allocate(1024);
 		byte[] header = new byte[2];
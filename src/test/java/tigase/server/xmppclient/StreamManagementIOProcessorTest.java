@@ -26,6 +26,8 @@ import tigase.server.xmppclient.StreamManagementIOProcessor.OutQueue;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -114,6 +116,73 @@ public class StreamManagementIOProcessorTest
 						e.getPacketWithStamp().isXMLNSStaticStr(DELAY_PATH, DELAY_XMLNS)));
 	}
 
+	@Test
+	public void testOutQueueRingBuffer() throws TigaseStringprepException {
+		OutQueue queue = new OutQueue();
+		for (int i = 0; i < 100; i++) {
+			queue.append(createMessage(String.valueOf(i), "body"));
+		}
+		assertEquals(100, queue.waitingForAck());
+		long bytes = queue.getQueuedBytes();
+		assertTrue(bytes > 0);
+
+		queue.ack(95);
+		assertEquals(5, queue.waitingForAck());
+		assertTrue(queue.getQueuedBytes() > 0 && queue.getQueuedBytes() < bytes);
+
+		OutQueue.EntryQueue entries = queue.getQueue();
+		assertEquals(95, entries.firstSequence());
+		assertNull(entries.get(94));
+		assertNull(entries.get(100));
+		assertEquals("95", entries.get(95).getPacketWithStamp().getElement().getAttributeStaticStr("id"));
+
+		int count = 0;
+		for (OutQueue.Entry e : entries) {
+			assertEquals(String.valueOf(95 + count), e.getPacketWithStamp().getElement().getAttributeStaticStr("id"));
+			count++;
+		}
+		assertEquals(5, count);
+
+		entries.clear();
+		assertEquals(0, queue.waitingForAck());
+		assertEquals(0, queue.getQueuedBytes());
+	}
+
+	@Test
+	public void testAckRequestPolicy() throws TigaseStringprepException {
+		StreamManagementIOProcessor processor = new StreamManagementIOProcessor();
+		OutQueue queue = new OutQueue();
+		assertFalse(processor.shouldRequestAck(null, queue));
+
+		for (int i = 0; i < 9; i++) {
+			queue.append(createMessage(String.valueOf(i), "body"));
+			assertFalse(processor.shouldRequestAck(null, queue));
+		}
+		queue.append(createMessage("9", "body"));
+		assertTrue(processor.shouldRequestAck(null, queue));
+
+		queue.ackRequested(System.currentTimeMillis());
+		assertFalse(processor.shouldRequestAck(null, queue));
+
+		char[] body = new char[20 * 1024];
+		Arrays.fill(body, 'a');
+		queue.append(createMessage("10", new String(body)));
+		assertTrue(processor.shouldRequestAck(null, queue));
+
+		queue.ackRequested(System.currentTimeMillis() - 60 * 1000);
+		assertFalse(processor.shouldRequestAck(null, queue));
+		queue.append(createMessage("11", "body"));
+		assertTrue(processor.shouldRequestAck(null, queue));
+	}
+
+	@Test
+	public void testEntrySizeInUtf8Bytes() throws TigaseStringprepException {
+		Packet packet = createMessage("1", "za\u017c\u00f3\u0142\u0107 \ud83d\ude00");
+		OutQueue.Entry entry = new OutQueue.Entry(packet);
+		assertEquals(packet.getElement().toString().getBytes(StandardCharsets.UTF_8).length, entry.getSize());
+		assertTrue(entry.getSize() > packet.getElement().toString().length());
+	}
+
 	@Test
 	public void testNoDelayForIq() {
 		OutQueue queue = new OutQueue();
@@ -197,4 +266,10 @@ public class StreamManagementIOProcessorTest
 				.forEach((OutQueue.Entry e) -> assertFalse(
 						e.getPacketWithStamp().isXMLNSStaticStr(new String[]{"iq", "delay"}, DELAY_XMLNS)));
 	}
+
+	private static Packet createMessage(String id, String body) throws TigaseStringprepException {
+		return Packet.packetInstance(new Element("message", new Element[]{new Element("body", body)},
+												 new String[]{"id", "from", "to"},
+												 new String[]{id, "from@example.com", "to@example.com"}));
+	}
 }
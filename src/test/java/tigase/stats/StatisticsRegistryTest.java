@@ -0,0 +1,120 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.stats;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+public class StatisticsRegistryTest {
+
+	@Test
+	public void testSnapshot() {
+		StatisticsRegistry registry = new StatisticsRegistry();
+		LongCounter counter = registry.counter("Processed", Level.FINE);
+		AtomicLong queue = new AtomicLong(5);
+		registry.gauge("Queue size", Level.INFO, queue::get);
+		registry.gauge("Load", Level.FINER, () -> 0.5);
+
+		Assert.assertSame(counter, registry.counter("Processed", Level.FINE));
+
+		counter.inc();
+		counter.add(2);
+
+		StatisticsList list = new StatisticsList(Level.FINE);
+		registry.getStatistics("comp", list);
+		Assert.assertEquals(3L, list.getValue("comp", "Processed", -1L));
+		Assert.assertEquals(5L, list.getValue("comp", "Queue size", -1L));
+		Assert.assertEquals(-1f, list.getValue("comp", "Load", -1f), 0.0f);
+
+		queue.set(7);
+		list = new StatisticsList(Level.FINEST);
+		registry.getStatistics("comp", list);
+		Assert.assertEquals(7L, list.getValue("comp", "Queue size", -1L));
+		Assert.assertEquals(0.5f, list.getValue("comp", "Load", -1f), 0.0f);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDifferentTypeWithSameName() {
+		StatisticsRegistry registry = new StatisticsRegistry();
+		registry.counter("Processed", Level.FINE);
+		registry.gauge("Processed", Level.FINE, () -> 1L);
+	}
+
+	@Test
+	public void testConcurrentUpdates() throws InterruptedException {
+		StatisticsRegistry registry = new StatisticsRegistry();
+		LongCounter counter = registry.counter("Processed", Level.FINE);
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(() -> {
+				for (int j = 0; j < 100000; j++) {
+					counter.inc();
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(800000L, counter.get());
+	}
+
+	@Test
+	public void testLatencyHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(TimeUnit.MICROSECONDS.toNanos(i * 100));
+		}
+		histogram.record(TimeUnit.SECONDS.toNanos(20));
+
+		Assert.assertEquals(1001, histogram.getCount());
+		assertWithinError(TimeUnit.MILLISECONDS.toNanos(50), histogram.getPercentile(50));
+		assertWithinError(TimeUnit.MILLISECONDS.toNanos(90), histogram.getPercentile(90));
+		assertWithinError(TimeUnit.MILLISECONDS.toNanos(99), histogram.getPercentile(99));
+		Assert.assertEquals(TimeUnit.SECONDS.toNanos(20), histogram.getPercentile(100));
+
+		StatisticsList list = new StatisticsList(Level.FINER);
+		histogram.getStatistics("comp", "Latency", list);
+		Assert.assertEquals(1001L, list.getValue("comp", "Latency/Count", -1L));
+		Assert.assertEquals(20000f, list.getValue("comp", "Latency/Max [ms]", -1f), 0.0f);
+		Assert.assertEquals(50f, list.getValue("comp", "Latency/p50 [ms]", -1f), 50f * 0.125f);
+	}
+
+	@Test
+	public void testLatencyHistogramBuckets() {
+		int prev = -1;
+		for (long micros = 0; micros < 1_000_000; micros++) {
+			int idx = LatencyHistogram.bucketIndex(micros);
+			Assert.assertTrue(idx == prev || idx == prev + 1);
+			Assert.assertTrue(micros <= LatencyHistogram.bucketUpperBound(idx));
+			prev = idx;
+		}
+		Assert.assertEquals(LatencyHistogram.bucketIndex(Long.MAX_VALUE),
+							LatencyHistogram.bucketIndex(TimeUnit.DAYS.toMicros(7)));
+	}
+
+	private static void assertWithinError(long expected, long actual) {
+		Assert.assertTrue("expected " + expected + " but was " + actual,
+						  Math.abs(expected - actual) <= expected * 0.125);
+	}
+}
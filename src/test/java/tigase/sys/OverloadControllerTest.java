@@ -0,0 +1,137 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.sys;
+
+import org.junit.Assert;
+import org.junit.Test;
+import tigase.server.Packet;
+import tigase.server.Priority;
+import tigase.sys.OverloadController.OverloadLevel;
+import tigase.xml.Element;
+import tigase.xmpp.jid.BareJID;
+
+public class OverloadControllerTest {
+
+	private OverloadController createController() {
+		return new OverloadController(new float[]{50, 75, 90}, new float[]{85, 92, 97}, new float[]{100, 200, 400},
+									  2);
+	}
+
+	@Test
+	public void testLevelRaisedImmediatelyAndLoweredGradually() {
+		OverloadController controller = createController();
+
+		controller.update(10, "sess-man", 10, 0, 1000);
+		Assert.assertEquals(OverloadLevel.NONE, controller.getLevel());
+
+		controller.update(95, "sess-man", 10, 0, 2000);
+		Assert.assertEquals(OverloadLevel.CRITICAL, controller.getLevel());
+		Assert.assertEquals("queue of sess-man 95%", controller.getActionTrigger(OverloadLevel.CRITICAL));
+		Assert.assertEquals("queue of sess-man 95%", controller.getActionTrigger(OverloadLevel.ELEVATED));
+
+		for (int i = 0; i < 4; i++) {
+			controller.update(10, "sess-man", 10, 0, 3000 + i * 1000);
+			Assert.assertEquals(OverloadLevel.CRITICAL, controller.getLevel());
+		}
+		controller.update(10, "sess-man", 10, 0, 7000);
+		Assert.assertEquals(OverloadLevel.HIGH, controller.getLevel());
+		Assert.assertNull(controller.getActionTrigger(OverloadLevel.CRITICAL));
+		Assert.assertNotNull(controller.getActionTrigger(OverloadLevel.HIGH));
+	}
+
+	@Test
+	public void testHighestInputWins() {
+		OverloadController controller = createController();
+
+		controller.update(60, "c2s", 93, 450, 1000);
+		Assert.assertEquals(OverloadLevel.CRITICAL, controller.getLevel());
+		Assert.assertEquals("GC time 450ms/s", controller.getActionTrigger(OverloadLevel.CRITICAL));
+	}
+
+	@Test
+	public void testPresenceAndPepDeprioritized() throws Exception {
+		OverloadController controller = createController();
+		Packet presence = Packet.packetInstance(
+				new Element("presence", new String[]{"from", "to"}, new String[]{"a@example.com", "b@example.com"}));
+		Element event = new Element("message", new String[]{"from", "to"},
+									new String[]{"a@example.com", "b@example.com"});
+		event.addChild(new Element("event", new String[]{"xmlns"},
+								   new String[]{"http://jabber.org/protocol/pubsub#event"}));
+		Packet pep = Packet.packetInstance(event);
+		Packet message = Packet.packetInstance(
+				new Element("message", new String[]{"from", "to"}, new String[]{"a@example.com", "b@example.com"}));
+
+		Assert.assertEquals(Priority.PRESENCE, controller.getQueuePriority(presence));
+		Assert.assertEquals(Priority.NORMAL, controller.getQueuePriority(pep));
+
+		controller.update(60, "sess-man", 10, 0, 1000);
+		Assert.assertEquals(Priority.LOWEST, controller.getQueuePriority(presence));
+		Assert.assertEquals(Priority.LOWEST, controller.getQueuePriority(pep));
+		Assert.assertEquals(Priority.NORMAL, controller.getQueuePriority(message));
+	}
+
+	@Test
+	public void testLoginsThrottled() {
+		OverloadController controller = createController();
+
+		Assert.assertTrue(controller.tryLogin());
+		controller.update(80, "c2s", 10, 0, 1000);
+		int accepted = 0;
+		for (int i = 0; i < 10; i++) {
+			if (controller.tryLogin()) {
+				accepted++;
+			}
+		}
+		// limit is per second, so at most two windows may be hit by this loop
+		Assert.assertTrue(accepted >= 2 && accepted <= 4);
+	}
+
+	@Test
+	public void testOfflineStorageRejectedWhenOverloaded() {
+		OverloadController controller = createController();
+
+		Assert.assertTrue(controller.isOfflineStorageAllowed());
+		controller.update(60, "sess-man", 10, 0, 1000);
+		Assert.assertTrue(controller.isOfflineStorageAllowed());
+		controller.update(80, "sess-man", 10, 0, 2000);
+		Assert.assertFalse(controller.isOfflineStorageAllowed());
+
+		for (int i = 0; i < 5; i++) {
+			controller.update(10, "sess-man", 10, 0, 3000 + i);
+		}
+		Assert.assertEquals(OverloadLevel.ELEVATED, controller.getLevel());
+		Assert.assertTrue(controller.isOfflineStorageAllowed());
+	}
+
+	@Test
+	public void testRedirectToNotOverloadedNode() {
+		OverloadController controller = createController();
+		BareJID user = BareJID.bareJIDInstanceNS("user@example.com");
+		long now = System.currentTimeMillis();
+
+		controller.setNodeState("node2.example.com", OverloadLevel.HIGH, now);
+		controller.setNodeState("node3.example.com", OverloadLevel.NONE, now);
+		Assert.assertNull(controller.findRedirectHost(user));
+
+		controller.update(95, "c2s", 10, 0, now);
+		Assert.assertEquals(BareJID.bareJIDInstanceNS("node3.example.com"), controller.findRedirectHost(user));
+
+		controller.setNodeState("node3.example.com", OverloadLevel.NONE, now - 5 * 60 * 1000);
+		Assert.assertNull(controller.findRedirectHost(user));
+	}
+}
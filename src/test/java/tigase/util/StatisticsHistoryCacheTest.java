@@ -0,0 +1,81 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util;
+
+import org.junit.Test;
+import tigase.stats.StatisticsList;
+import tigase.util.historyCache.StatisticsHistoryCache;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class StatisticsHistoryCacheTest {
+
+	private boolean highMemory = false;
+
+	@Test
+	public void testHistory() {
+		StatisticsHistoryCache cache = new StatisticsHistoryCache(3, 95) {
+			@Override
+			protected boolean isHighMemoryUsage() {
+				return highMemory;
+			}
+		};
+
+		for (int i = 1; i <= 5; i++) {
+			StatisticsList stats = new StatisticsList(Level.FINEST);
+			stats.add("sess-man", "Open user sessions", (long) i, Level.INFO);
+			stats.add("sess-man", "Load", i / 2f, Level.INFO);
+			stats.add("sess-man", "Name", "sess-man-" + i, Level.INFO);
+			if (i % 2 == 0) {
+				stats.add("c2s", "Open connections", i * 10, Level.INFO);
+			}
+			cache.addItem(i * 1000L, stats);
+		}
+
+		assertEquals(3, cache.size());
+		assertEquals(3, cache.getMetricsCount());
+		assertEquals(Arrays.asList(3L, 4L, 5L), cache.getHistory("sess-man/Open user sessions[L]"));
+		assertEquals(Arrays.asList(1.5f, 2f, 2.5f), cache.getHistory("sess-man/Load"));
+		assertEquals(Arrays.asList(0L, 40L, 0L), cache.getHistory("c2s/Open connections[I]"));
+		assertEquals(Arrays.asList(0L, 0L, 0L), cache.getHistory("sess-man/Name"));
+
+		StatisticsHistoryCache.Series series = cache.getRange("c2s/Open connections", 0, 10000);
+		assertEquals(1, series.size());
+		assertEquals(4000L, series.getTimestamp(0));
+		assertEquals(40L, series.getValue(0));
+
+		series = cache.getRange("sess-man/Open user sessions", 4000, 5000);
+		assertEquals(2, series.size());
+		assertEquals(4L, series.getValue(0));
+		assertEquals(5L, series.getValue(1));
+
+		assertNull(cache.getRange("sess-man/Name", 0, 10000));
+
+		highMemory = true;
+		StatisticsList stats = new StatisticsList(Level.FINEST);
+		stats.add("sess-man", "Open user sessions", 6L, Level.INFO);
+		stats.add("s2s", "Open connections", 1, Level.INFO);
+		cache.addItem(6000L, stats);
+		assertEquals(3, cache.getMetricsCount());
+		assertEquals(Arrays.asList(4L, 5L, 6L), cache.getHistory("sess-man/Open user sessions"));
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.repository;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import tigase.db.AuthRepository;
+import tigase.db.TigaseDBException;
+import tigase.db.UserExistsException;
+import tigase.db.UserNotFoundException;
+import tigase.db.UserRepository;
+import tigase.db.xml.XMLRepository;
+import tigase.xmpp.jid.BareJID;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class RepositoryMigrationTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private UserRepository src;
+
+	@Before
+	public void setUp() throws Exception {
+		src = createRepository("memory://migration-src");
+	}
+
+	@Test
+	public void testCopyAllUsers() throws Exception {
+		addUsers(0, 25);
+		UserRepository dst = createRepository("memory://migration-dst");
+
+		RepositoryMigration migration = new RepositoryMigration(src, dst);
+		migration.setThreads(4);
+		migration.setBatchSize(3);
+		migration.setProgressInterval(10, TimeUnit.MILLISECONDS);
+		RepositoryMigration.Progress result = migration.run();
+
+		Assert.assertEquals(25, result.getTotal());
+		Assert.assertEquals(25, result.getProcessed());
+		Assert.assertEquals(0, result.getFailed());
+		Assert.assertEquals(0, result.getExisting());
+		Assert.assertEquals(25, dst.getUsers().size());
+		for (int i = 0; i < 25; i++) {
+			assertUserCopied(dst, user(i));
+		}
+	}
+
+	@Test
+	public void testResumeFromCheckpoint() throws Exception {
+		Path checkpoint = folder.getRoot().toPath().resolve("migration.checkpoint");
+		addUsers(0, 10);
+		UserRepository dst = createRepository("memory://migration-dst-resume");
+
+		RepositoryMigration migration = new RepositoryMigration(src, dst);
+		migration.setThreads(2);
+		migration.setBatchSize(4);
+		migration.setCheckpointFile(checkpoint);
+		Assert.assertEquals(10, migration.run().getProcessed());
+
+		// users copied before are not copied again, so this change is not overwritten
+		dst.removeData(user(0), "roster/buddy0", "name");
+		addUsers(10, 20);
+
+		migration = new RepositoryMigration(src, dst);
+		migration.setThreads(2);
+		migration.setBatchSize(4);
+		migration.setCheckpointFile(checkpoint);
+		RepositoryMigration.Progress result = migration.run();
+
+		Assert.assertEquals(20, result.getTotal());
+		Assert.assertEquals(20, result.getProcessed());
+		Assert.assertNull(dst.getData(user(0), "roster/buddy0", "name"));
+		for (int i = 10; i < 20; i++) {
+			assertUserCopied(dst, user(i));
+		}
+	}
+
+	@Test
+	public void testExistingUsersSkipped() throws Exception {
+		addUsers(0, 4);
+		UserRepository dst = createRepository("memory://migration-dst-existing");
+		dst.addUser(user(1));
+		dst.setData(user(1), "password", "changed");
+
+		RepositoryMigration migration = new RepositoryMigration(src, dst);
+		migration.setThreads(2);
+		migration.setBatchSize(2);
+		RepositoryMigration.Progress result = migration.run();
+
+		Assert.assertEquals(4, result.getProcessed());
+		Assert.assertEquals(1, result.getExisting());
+		Assert.assertEquals("changed", dst.getData(user(1), "password"));
+		Assert.assertNull(dst.getData(user(1), "roster/buddy1", "name"));
+
+		migration = new RepositoryMigration(src, dst);
+		migration.setOverwrite(true);
+		result = migration.run();
+
+		Assert.assertEquals(4, result.getExisting());
+		assertUserCopied(dst, user(1));
+	}
+
+	@Test
+	public void testFailedUsersRetriedOnResume() throws Exception {
+		Path checkpoint = folder.getRoot().toPath().resolve("migration-failed.checkpoint");
+		addUsers(0, 10);
+		Set<BareJID> failing = new HashSet<>(Arrays.asList(user(1), user(5)));
+		XMLRepository dst = new XMLRepository() {
+			@Override
+			public synchronized void addUser(BareJID user) throws UserExistsException {
+				if (failing.contains(user)) {
+					throw new IllegalStateException("Failure of " + user);
+				}
+				super.addUser(user);
+			}
+		};
+		dst.initRepository("memory://migration-dst-failed", null);
+
+		RepositoryMigration migration = new RepositoryMigration(src, dst);
+		migration.setThreads(2);
+		migration.setBatchSize(3);
+		migration.setCheckpointFile(checkpoint);
+		RepositoryMigration.Progress result = migration.run();
+
+		Assert.assertEquals(2, result.getFailed());
+		Assert.assertEquals(new HashSet<>(failing), new HashSet<>(migration.getFailedUsers()));
+		Assert.assertFalse(dst.userExists(user(1)));
+
+		failing.clear();
+		migration = new RepositoryMigration(src, dst);
+		migration.setThreads(2);
+		migration.setBatchSize(3);
+		migration.setCheckpointFile(checkpoint);
+		result = migration.run();
+
+		// only failed users are copied again
+		Assert.assertEquals(10, result.getTotal());
+		Assert.assertEquals(10, result.getProcessed());
+		Assert.assertEquals(0, result.getFailed());
+		Assert.assertEquals(0, result.getExisting());
+		assertUserCopied(dst, user(1));
+		assertUserCopied(dst, user(5));
+	}
+
+	@Test
+	public void testInterruptedUserCopiedAgainOnResume() throws Exception {
+		Path checkpoint = folder.getRoot().toPath().resolve("migration-interrupted.checkpoint");
+		addUsers(0, 10);
+		AtomicBoolean interrupt = new AtomicBoolean(true);
+		XMLRepository dst = new XMLRepository() {
+			@Override
+			public synchronized void setDataList(BareJID user, String subnode, String key, String[] list)
+					throws UserNotFoundException, TigaseDBException {
+				if (interrupt.get() && user.equals(user(5)) && "roster/buddy5".equals(subnode)) {
+					// simulates migration killed in the middle of writing of the user
+					throw new Error("Migration interrupted");
+				}
+				super.setDataList(user, subnode, key, list);
+			}
+		};
+		dst.initRepository("memory://migration-dst-interrupted", null);
+
+		RepositoryMigration migration = new RepositoryMigration(src, dst);
+		migration.setThreads(1);
+		migration.setBatchSize(3);
+		migration.setCheckpointFile(checkpoint);
+		migration.run();
+
+		Assert.assertTrue(dst.userExists(user(5)));
+		Assert.assertNull(dst.getData(user(5), "roster/buddy5", "name"));
+
+		interrupt.set(false);
+		migration = new RepositoryMigration(src, dst);
+		migration.setThreads(1);
+		migration.setBatchSize(3);
+		migration.setCheckpointFile(checkpoint);
+		RepositoryMigration.Progress result = migration.run();
+
+		// users of the interrupted batch are overwritten, users of later batches are reported as existing
+		Assert.assertEquals(10, result.getProcessed());
+		Assert.assertEquals(4, result.getExisting());
+		for (int i = 0; i < 10; i++) {
+			assertUserCopied(dst, user(i));
+		}
+	}
+
+	@Test
+	public void testCopyToAuthRepository() throws Exception {
+		addUsers(0, 5);
+		AuthRepository dst = (AuthRepository) createRepository("memory://migration-dst-auth");
+
+		RepositoryMigration migration = new RepositoryMigration(src, dst);
+		migration.setThreads(2);
+		migration.setBatchSize(2);
+		Assert.assertEquals(5, migration.run().getProcessed());
+
+		for (int i = 0; i < 5; i++) {
+			Assert.assertEquals("secret" + i, dst.getPassword(user(i)));
+		}
+	}
+
+	private void addUsers(int from, int to) throws Exception {
+		for (int i = from; i < to; i++) {
+			BareJID user = user(i);
+			src.addUser(user);
+			src.setData(user, "password", "secret" + i);
+			src.setData(user, "roster/buddy" + i, "name", "Buddy " + i);
+			src.setDataList(user, "roster/buddy" + i, "groups", new String[]{"friends", "group" + i});
+			src.setData(user, "privacy/list/item", "type", "jid");
+		}
+	}
+
+	private void assertUserCopied(UserRepository dst, BareJID user) throws Exception {
+		Assert.assertTrue(dst.userExists(user));
+		Assert.assertEquals(src.getData(user, "password"), dst.getData(user, "password"));
+		Assert.assertEquals(src.getData(user, "roster/buddy" + user.getLocalpart().substring(4), "name"),
+							dst.getData(user, "roster/buddy" + user.getLocalpart().substring(4), "name"));
+		Assert.assertArrayEquals(
+				src.getDataList(user, "roster/buddy" + user.getLocalpart().substring(4), "groups"),
+				dst.getDataList(user, "roster/buddy" + user.getLocalpart().substring(4), "groups"));
+		Assert.assertEquals("jid", dst.getData(user, "privacy/list/item", "type"));
+	}
+
+	private static UserRepository createRepository(String uri) throws Exception {
+		XMLRepository repository = new XMLRepository();
+		repository.initRepository(uri, null);
+		return repository;
+	}
+
+	private static BareJID user(int i) {
+		return BareJID.bareJIDInstanceNS("user" + i, "example.com");
+	}
+}
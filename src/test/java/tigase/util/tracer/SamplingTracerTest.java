@@ -0,0 +1,97 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.tracer;
+
+import org.junit.Assert;
+import org.junit.Test;
+import tigase.server.Packet;
+import tigase.xml.Element;
+import tigase.xmpp.jid.JID;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+public class SamplingTracerTest {
+
+	@Test
+	public void testDisabled() {
+		SamplingTracer tracer = new SamplingTracer(0, 16);
+		Packet packet = createPacket();
+
+		tracer.sample(packet, "socket-read");
+		tracer.trace(packet, "c2s/out-queue put");
+
+		Assert.assertEquals(0, packet.getTraceId());
+		Assert.assertTrue(tracer.getRecentTraceIds(10).isEmpty());
+	}
+
+	@Test
+	public void testTraceFollowsCopies() {
+		SamplingTracer tracer = new SamplingTracer(1, 16);
+		Packet packet = createPacket();
+
+		tracer.sample(packet, "socket-read");
+		Assert.assertNotEquals(0, packet.getTraceId());
+
+		tracer.trace(packet, "sess-man/in-queue put");
+		Packet copy = packet.copyElementOnly();
+		Assert.assertEquals(packet.getTraceId(), copy.getTraceId());
+		tracer.trace(copy, "c2s/socket-write");
+
+		List<SamplingTracer.Event> trace = tracer.getTrace(packet.getTraceId());
+		Assert.assertEquals(3, trace.size());
+		Assert.assertEquals("socket-read", trace.get(0).getPoint());
+		Assert.assertEquals("c2s/socket-write", trace.get(2).getPoint());
+		Assert.assertEquals(3, SamplingTracer.format(trace).size());
+	}
+
+	@Test
+	public void testBufferOverwritesOldestEvents() throws Exception {
+		SamplingTracer tracer = new SamplingTracer(1, 4);
+		Packet first = createPacket();
+		Packet second = createPacket();
+		Packet third = createPacket();
+
+		tracer.sample(first, "socket-read");
+		tracer.trace(first, "sess-man/in-queue put");
+		tracer.sample(second, "socket-read");
+		tracer.sample(third, "socket-read");
+		tracer.trace(third, "sess-man/in-queue put");
+
+		Assert.assertEquals(1, tracer.getTrace(first.getTraceId()).size());
+		Assert.assertEquals(Arrays.asList(third.getTraceId(), second.getTraceId(), first.getTraceId()),
+							tracer.getRecentTraceIds(10));
+
+		File file = File.createTempFile("packet-trace", ".log");
+		try {
+			Assert.assertEquals(3, tracer.dump(file));
+			Assert.assertEquals(7, Files.readAllLines(file.toPath()).size());
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static Packet createPacket() {
+		Element message = new Element("message", new String[]{"type", "from", "to"},
+									  new String[]{"chat", "user1@example.com/res", "user2@example.com"});
+		return Packet.packetInstance(message, JID.jidInstanceNS("user1@example.com/res"),
+									 JID.jidInstanceNS("user2@example.com"));
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class SessionDataTest {
+
+	private static final SessionDataSlot<Long> LONG_SLOT = SessionDataSlot.register("session-data-test-long",
+																					 Long.class);
+	private static final SessionDataSlot<Set<String>> SET_SLOT = SessionDataSlot.register("session-data-test-set",
+																						   Set.class);
+
+	@Test
+	public void testRegister() {
+		Assert.assertSame(LONG_SLOT, SessionDataSlot.register("session-data-test-long", Long.class));
+		Assert.assertSame(LONG_SLOT, SessionDataSlot.forKey("session-data-test-long"));
+		Assert.assertNull(SessionDataSlot.forKey("session-data-test-unknown"));
+		Assert.assertNotEquals(LONG_SLOT.getIndex(), SET_SLOT.getIndex());
+		try {
+			SessionDataSlot.register("session-data-test-long", String.class);
+			Assert.fail("Slot registered with different type");
+		} catch (IllegalArgumentException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testTypedAndStringKeyAccess() {
+		SessionData data = new SessionData();
+
+		Assert.assertNull(data.get(LONG_SLOT));
+		Assert.assertNull(data.put(LONG_SLOT, 1L));
+		Assert.assertEquals(Long.valueOf(1), data.get("session-data-test-long"));
+		Assert.assertEquals(Long.valueOf(1), data.put("session-data-test-long", 2L));
+		Assert.assertEquals(Long.valueOf(2), data.get(LONG_SLOT));
+
+		try {
+			data.put("session-data-test-long", "text");
+			Assert.fail("Value of wrong type stored in slot");
+		} catch (ClassCastException ex) {
+			// expected
+		}
+
+		Assert.assertNull(data.put("session-data-test-other", "value"));
+		Assert.assertEquals("value", data.get("session-data-test-other"));
+		Assert.assertEquals(2, data.size());
+
+		Assert.assertEquals(Long.valueOf(2), data.remove("session-data-test-long"));
+		Assert.assertNull(data.get(LONG_SLOT));
+		Assert.assertEquals("value", data.remove("session-data-test-other"));
+		Assert.assertEquals(0, data.size());
+	}
+
+	@Test
+	public void testPutIfAbsentAndCompute() {
+		SessionData data = new SessionData();
+
+		Set<String> set = data.computeIfAbsent(SET_SLOT, HashSet::new);
+		Assert.assertSame(set, data.computeIfAbsent(SET_SLOT, HashSet::new));
+		Assert.assertSame(set, data.putIfAbsent(SET_SLOT, new HashSet<>()));
+		Assert.assertSame(set, data.computeIfAbsent("session-data-test-set", key -> new HashSet<>()));
+
+		Assert.assertNull(data.putIfAbsent("session-data-test-other", "1"));
+		Assert.assertEquals("1", data.putIfAbsent("session-data-test-other", "2"));
+		Assert.assertEquals("1", data.computeIfAbsent("session-data-test-other", key -> "3"));
+	}
+
+	@Test
+	public void testSlotRegisteredAfterCreation() {
+		SessionData data = new SessionData();
+		data.put(LONG_SLOT, 1L);
+
+		SessionDataSlot<String> late = SessionDataSlot.register("session-data-test-late", String.class);
+		Assert.assertNull(data.get(late));
+		data.put(late, "late");
+		Assert.assertEquals("late", data.get(late));
+		Assert.assertEquals(Long.valueOf(1), data.get(LONG_SLOT));
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testNullValue() {
+		new SessionData().put("session-data-test-other", null);
+	}
+}
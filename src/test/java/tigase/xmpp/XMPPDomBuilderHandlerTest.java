@@ -19,7 +19,10 @@ package tigase.xmpp;
 
 import org.junit.Test;
 import tigase.xml.Element;
+import tigase.xml.SingletonFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 import static org.junit.Assert.*;
@@ -83,4 +86,93 @@ public class XMPPDomBuilderHandlerTest {
 
 	}
 
+	@Test
+	public void testLazyPayloads() {
+		String stanza = "<message xmlns='jabber:client' to='room@muc.example.com' type='groupchat' id='1'>" +
+				"<body>Hello &amp; welcome</body>" +
+				"<event xmlns='http://jabber.org/protocol/pubsub#event'><items node='news'>" +
+				"<item id='a1'><entry xmlns='http://www.w3.org/2005/Atom'><title>Title</title><empty/></entry></item>" +
+				"</items></event></message>";
+
+		Element eager = parse(stanza, false);
+		Element lazy = parse(stanza, true);
+		assertNotNull(eager);
+		assertNotNull(lazy);
+
+		Element event = lazy.getChildren()
+				.stream()
+				.filter(child -> child.getName() == "event")
+				.findFirst()
+				.get();
+		assertTrue(event instanceof LazyElement);
+		assertEquals("http://jabber.org/protocol/pubsub#event", event.getXMLNS());
+		assertFalse(((LazyElement) event).isParsed());
+
+		// serialized payload is the same document
+		assertEquals(eager.toString(), parse(lazy.toString(), false).toString());
+		assertFalse(((LazyElement) event).isParsed());
+
+		assertEquals("Hello &amp; welcome", lazy.getChildCData(new String[]{"message", "body"}));
+		Element entry = lazy.findChild(new String[]{"message", "event", "items", "item", "entry"});
+		assertNotNull(entry);
+		assertEquals("http://www.w3.org/2005/Atom", entry.getXMLNS());
+		assertEquals("http://jabber.org/protocol/pubsub#event", event.getChild("items").getXMLNS());
+		assertTrue(((LazyElement) event).isParsed());
+		assertEquals(eager.toString(), lazy.toString());
+	}
+
+	@Test
+	public void testLazyPayloadsWrittenAsSharedBytes() throws Exception {
+		String stanza = "<message xmlns='jabber:client' to='room@muc.example.com' type='groupchat' id='1'>" +
+				"<body>Za\u017c\u00f3\u0142\u0107 &amp; welcome</body><x xmlns='test'><item a='1'/></x></message>";
+
+		Element lazy = parse(stanza, true);
+		Element copy = lazy.clone();
+		copy.setAttribute("to", "user@example.com/res");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		LazyElement.writeUTF8(lazy, out);
+		assertEquals(lazy.toString(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+		// copy has its own envelope, but content encoded for the original element
+		out.reset();
+		LazyElement.writeUTF8(copy, out);
+		assertEquals(copy.toString(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+		assertFalse(((LazyElement) copy.getChild("x", "test")).isParsed());
+
+		// content modified after copying is not taken from the shared bytes
+		copy.getChild("x", "test").addChild(new Element("item", new String[]{"a"}, new String[]{"2"}));
+		out.reset();
+		LazyElement.writeUTF8(copy, out);
+		assertEquals(copy.toString(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+		out.reset();
+		LazyElement.writeUTF8(lazy, out);
+		assertEquals(lazy.toString(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testLazyPayloadsElementsLimit() {
+		StringBuilder stanza = new StringBuilder("<iq type='set' id='1'><query xmlns='test'>");
+		for (int i = 0; i < 20; i++) {
+			stanza.append("<item/>");
+		}
+		stanza.append("</query></iq>");
+		try {
+			parse(stanza.toString(), true);
+			fail("Elements limit should be exceeded");
+		} catch (XMPPParserException ex) {
+			// expected
+		}
+	}
+
+	private static Element parse(String data, boolean lazyPayloads) {
+		XMPPDomBuilderHandler<Element> handler = new XMPPDomBuilderHandler<>(new XMPPIOService<>());
+		handler.setElementsLimit(10);
+		handler.setLazyPayloads(lazyPayloads);
+		char[] chars = data.toCharArray();
+		SingletonFactory.getParserInstance().parse(handler, chars, 0, chars.length);
+		assertFalse(handler.parseError());
+		return handler.getParsedElements().poll();
+	}
+
 }
@@ -0,0 +1,104 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import tigase.server.Packet;
+import tigase.xml.Element;
+import tigase.xmpp.jid.JID;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class XMPPIOServiceWriteCoalescingTest {
+
+	private WriteCoalescingStatistics statistics;
+	private XMPPIOService<Object> service;
+	private List<String> writes;
+
+	@Before
+	public void setUp() {
+		statistics = new WriteCoalescingStatistics();
+		writes = new ArrayList<>();
+		service = new XMPPIOService<Object>() {
+			@Override
+			protected void writeBytes(ByteBuffer data) {
+				writes.add(StandardCharsets.UTF_8.decode(data).toString());
+			}
+		};
+	}
+
+	@Test
+	public void testWaitingPacketsWrittenAtOnce() throws Exception {
+		service.setWriteCoalescing(1000, statistics);
+		for (int i = 0; i < 3; i++) {
+			service.addPacketToSend(createPacket("message", "chat"));
+		}
+		service.processWaitingPackets();
+
+		Assert.assertEquals(1, writes.size());
+		Assert.assertEquals(3, writes.get(0).split("<message").length - 1);
+		Assert.assertTrue(service.getWaitingPackets().isEmpty());
+		Assert.assertEquals(3f, statistics.getAveragePacketsPerWrite(), 0.0f);
+	}
+
+	@Test
+	public void testDelayOnlyOnBusyConnection() throws Exception {
+		service.setWriteCoalescing(1000_000, statistics);
+
+		// nothing was written yet, so the first packet is sent immediately
+		Assert.assertFalse(service.delayWrite(createPacket("message", "chat")));
+
+		service.addPacketToSend(createPacket("message", "chat"));
+		service.processWaitingPackets();
+
+		Assert.assertTrue(service.delayWrite(createPacket("message", "chat")));
+		Assert.assertTrue(service.delayWrite(createPacket("presence", null)));
+		Assert.assertFalse(service.delayWrite(createPacket("iq", "result")));
+
+		Assert.assertTrue(service.scheduleFlush());
+		Assert.assertFalse(service.scheduleFlush());
+		service.flushStarted();
+		Assert.assertTrue(service.scheduleFlush());
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			service.addPacketToSend(createPacket("message", "chat"));
+		}
+		service.processWaitingPackets();
+
+		Assert.assertEquals(3, writes.size());
+		Assert.assertFalse(service.delayWrite(createPacket("message", "chat")));
+	}
+
+	private static Packet createPacket(String name, String type) {
+		Element elem = new Element(name, new String[]{"from", "to"},
+								   new String[]{"user1@example.com/res", "user2@example.com/res"});
+		if (type != null) {
+			elem.setAttribute("type", type);
+		}
+		return Packet.packetInstance(elem, JID.jidInstanceNS("user1@example.com/res"),
+									 JID.jidInstanceNS("user2@example.com/res"));
+	}
+}
@@ -17,11 +17,21 @@
  */
 package tigase.xmpp.impl;
 
+import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
 import tigase.xml.Element;
+import tigase.xmpp.impl.roster.RosterAbstract;
+import tigase.xmpp.impl.roster.RosterElement;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 public class PrivacyListTest {
 
@@ -64,4 +74,124 @@ public class PrivacyListTest {
 
 //		System.out.println(privacyList.toString());
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testIndexedEvaluationOrder() {
+		Map<BareJID, RosterElement> roster = new HashMap<>();
+		RosterElement friend = new RosterElement(JID.jidInstanceNS("friend@example.com"), null,
+												 new String[]{"friends"});
+		friend.setSubscription(RosterAbstract.SubscriptionType.both);
+		roster.put(friend.getJid().getBareJID(), friend);
+
+		Element list = new Element("list");
+		list.setAttribute("name", "special");
+		list.addChild(createItem("jid", "friend@example.com/phone", "deny", 1, "message"));
+		list.addChild(createItem("group", "friends", "allow", 2));
+		list.addChild(createItem("jid", "example.com", "deny", 3));
+		list.addChild(createItem("jid", "spammer@example.org", "deny", 4));
+		list.addChild(createItem("subscription", "none", "deny", 5, "presence-in"));
+		final PrivacyList privacyList = PrivacyList.create(roster, list);
+
+		Assert.assertFalse(privacyList.isAllowed(JID.jidInstanceNS("friend@example.com/phone"),
+												 PrivacyList.Item.Type.message));
+		Assert.assertTrue(privacyList.isAllowed(JID.jidInstanceNS("friend@example.com/phone"),
+												PrivacyList.Item.Type.iq));
+		Assert.assertTrue(privacyList.isAllowed(JID.jidInstanceNS("friend@example.com/pc"),
+												PrivacyList.Item.Type.message));
+		Assert.assertFalse(privacyList.isAllowed(JID.jidInstanceNS("other@example.com"), PrivacyList.Item.Type.iq));
+		Assert.assertFalse(privacyList.isAllowed(JID.jidInstanceNS("spammer@example.org/res"),
+												 PrivacyList.Item.Type.message));
+		Assert.assertFalse(privacyList.isAllowed(JID.jidInstanceNS("other@example.org"),
+												 PrivacyList.Item.Type.presenceIn));
+		Assert.assertTrue(privacyList.isAllowed(JID.jidInstanceNS("other@example.org"),
+												PrivacyList.Item.Type.presenceOut));
+	}
+
+	@Test
+	public void testIndexedEvaluationMatchesSequential() {
+		Random random = new Random(12345);
+		Map<BareJID, RosterElement> roster = new HashMap<>();
+		List<JID> jids = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			JID jid = JID.jidInstanceNS("user" + i, "domain" + (i % 5) + ".com", i % 3 == 0 ? "res" + i : null);
+			jids.add(jid);
+			if (i % 2 == 0) {
+				RosterElement item = new RosterElement(jid.copyWithoutResource(), null,
+													   new String[]{"group" + (i % 4)});
+				item.setSubscription(RosterAbstract.SubscriptionType.values()[i %
+						RosterAbstract.SubscriptionType.values().length]);
+				roster.put(jid.getBareJID(), item);
+			}
+		}
+		String[] types = {"message", "iq", "presence-in", "presence-out"};
+
+		for (int round = 0; round < 20; round++) {
+			Element list = new Element("list");
+			list.setAttribute("name", "random-" + round);
+			for (int order = 1; order <= 30; order++) {
+				String action = random.nextBoolean() ? "allow" : "deny";
+				String stanza = random.nextInt(3) == 0 ? types[random.nextInt(types.length)] : null;
+				JID jid = jids.get(random.nextInt(jids.size()));
+				switch (random.nextInt(6)) {
+					case 0:
+						list.addChild(createItem("jid", jid.toString(), action, order, stanza));
+						break;
+					case 1:
+						list.addChild(createItem("jid", jid.getBareJID().toString(), action, order, stanza));
+						break;
+					case 2:
+						list.addChild(createItem("jid", jid.getDomain(), action, order, stanza));
+						break;
+					case 3:
+						list.addChild(createItem("group", "group" + random.nextInt(4), action, order, stanza));
+						break;
+					case 4:
+						list.addChild(createItem("subscription", random.nextBoolean() ? "to" : "none", action, order,
+												 stanza));
+						break;
+					default:
+						break;
+				}
+			}
+			PrivacyList privacyList = new PrivacyList(jid -> roster.get(jid.getBareJID()), list);
+			for (JID jid : jids) {
+				for (PrivacyList.Item.Type type : PrivacyList.Item.Type.values()) {
+					Assert.assertEquals("list: " + list + ", jid: " + jid + ", type: " + type,
+										privacyList.isAllowedSequentially(jid, type), privacyList.isAllowed(jid, type));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testLargeBlockingList() {
+		Element list = new Element("list");
+		list.setAttribute("name", "urn:xmpp:blocking");
+		for (int i = 0; i < 10000; i++) {
+			list.addChild(createItem("jid", "blocked" + i + "@example.com", "deny", i + 1));
+		}
+		PrivacyList privacyList = PrivacyList.create(Collections.emptyMap(), list);
+
+		for (int i = 0; i < 10000; i += 150) {
+			JID blocked = JID.jidInstanceNS("blocked" + i, "example.com", "res");
+			Assert.assertFalse(privacyList.isAllowed(blocked, PrivacyList.Item.Type.message));
+			Assert.assertFalse(privacyList.isAllowedSequentially(blocked, PrivacyList.Item.Type.message));
+		}
+		JID allowed = JID.jidInstanceNS("allowed", "example.com", "res");
+		Assert.assertTrue(privacyList.isAllowed(allowed, PrivacyList.Item.Type.message));
+		Assert.assertTrue(privacyList.isAllowedSequentially(allowed, PrivacyList.Item.Type.message));
+		Assert.assertTrue(privacyList.isAllowed(JID.jidInstanceNS("blocked10000@example.com"),
+												PrivacyList.Item.Type.message));
+	}
+
+	private static Element createItem(String type, String value, String action, int order, String... stanzas) {
+		Element item = new Element("item", new String[]{"type", "value", "action", "order"},
+								   new String[]{type, value, action, String.valueOf(order)});
+		for (String stanza : stanzas) {
+			if (stanza != null) {
+				item.addChild(new Element(stanza));
+			}
+		}
+		return item;
+	}
+}
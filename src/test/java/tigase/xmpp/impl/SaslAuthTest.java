@@ -39,12 +39,16 @@ import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import static tigase.xmpp.impl.SaslAuth.ALLOWED_SASL_MECHANISMS_KEY;
 
 public class SaslAuthTest
 		extends ProcessorTestCase {
 
+	private static final BlockingQueue<Packet> asyncResults = new LinkedBlockingQueue<>();
 	private SaslAuth saslAuth;
 
 	@Before
@@ -128,11 +132,41 @@ public class SaslAuthTest
 		Assert.assertEquals("success", result.getElemName());
 	}
 
+	@Test
+	public void testAsyncAuthenticationResultsInOrder() throws Exception {
+		asyncResults.clear();
+		saslAuth.setAuthThreads(4);
+		saslAuth.initialize();
+		try {
+			Queue<Packet> results = new ArrayDeque<>();
+			final XMPPResourceConnection session = authenticateSession(AuthRepository.AccountStatus.active, results);
+			// second attempt is queued before the first one is completed and has to be rejected
+			saslAuth.process(getPlainSaslPacket(), session, null, results, null);
+			Assert.assertTrue(results.isEmpty());
+
+			List<String> names = new ArrayList<>();
+			Packet result;
+			while (!names.contains("failure") && (result = asyncResults.poll(10, TimeUnit.SECONDS)) != null) {
+				names.add(result.getElemName());
+			}
+			Assert.assertTrue(names.contains("success"));
+			Assert.assertTrue(names.contains("failure"));
+			Assert.assertTrue(names.indexOf("success") < names.indexOf("failure"));
+		} finally {
+			saslAuth.beforeUnregister();
+			saslAuth.setAuthThreads(0);
+		}
+	}
+
 	@Override
 	protected void registerBeans(Kernel kernel) {
 		super.registerBeans(kernel);
 		kernel.registerBean("eventbus").asInstance(EventBusFactory.getInstance()).exportable().exec();
-		kernel.registerBean("sess-man").asInstance(new SessionManager()).setActive(true).exportable().exec();
+		kernel.registerBean("sess-man")
+				.asInstance(new AsyncResultsSessionManager())
+				.setActive(true)
+				.exportable()
+				.exec();
 		kernel.registerBean(BruteForceLockerBean.class).setActive(true).exportable().exec();
 		kernel.registerBean(TigaseSaslProvider.class).setActive(true).exportable().exec();
 		kernel.registerBean(SaslAuth.class).setActive(true).exportable().exec();
@@ -164,4 +198,13 @@ public class SaslAuthTest
 		packet = Packet.packetInstance(packetEl);
 		return packet;
 	}
+
+	public static class AsyncResultsSessionManager
+			extends SessionManager {
+
+		@Override
+		public void processAsyncResults(Packet packet, XMPPResourceConnection conn, Queue<Packet> results) {
+			asyncResults.addAll(results);
+		}
+	}
 }
\ No newline at end of file